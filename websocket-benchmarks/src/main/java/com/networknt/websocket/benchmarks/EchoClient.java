@@ -0,0 +1,118 @@
+package com.networknt.websocket.benchmarks;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.WebSocket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JDK WebSocket client that sends one message at a time and waits for the reply. The reply is
+ * complete when its last part arrives, the content is not kept.
+ */
+public class EchoClient implements WebSocket.Listener {
+    public static final long TIMEOUT_SECONDS = 30;
+
+    private final WebSocket webSocket;
+    private volatile CompletableFuture<Integer> reply;
+    private int received;
+
+    private EchoClient(HttpClient httpClient, URI uri, String[] headers) {
+        WebSocket.Builder builder = httpClient.newWebSocketBuilder();
+        for(int i = 0; i + 1 < headers.length; i += 2) {
+            builder.header(headers[i], headers[i + 1]);
+        }
+        this.webSocket = builder.buildAsync(uri, this).join();
+    }
+
+    /**
+     * @param headers request header names and values, in pairs
+     */
+    public static EchoClient connect(HttpClient httpClient, URI uri, String... headers) {
+        return new EchoClient(httpClient, uri, headers);
+    }
+
+    /**
+     * @return the number of characters of the reply
+     */
+    public int roundTripText(CharSequence message) throws Exception {
+        return sendText(message).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @return the number of bytes of the reply
+     */
+    public int roundTripBinary(ByteBuffer message) throws Exception {
+        return sendBinary(message).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Send a text message without waiting for the reply.
+     *
+     * @return completes with the number of characters of the reply
+     */
+    public CompletableFuture<Integer> sendText(CharSequence message) {
+        CompletableFuture<Integer> future = new CompletableFuture<>();
+        reply = future;
+        webSocket.sendText(message, true).whenComplete((ws, throwable) -> failed(future, throwable));
+        return future;
+    }
+
+    /**
+     * Send a binary message without waiting for the reply.
+     *
+     * @return completes with the number of bytes of the reply
+     */
+    public CompletableFuture<Integer> sendBinary(ByteBuffer message) {
+        CompletableFuture<Integer> future = new CompletableFuture<>();
+        reply = future;
+        webSocket.sendBinary(message, true).whenComplete((ws, throwable) -> failed(future, throwable));
+        return future;
+    }
+
+    public void close() {
+        webSocket.sendClose(WebSocket.NORMAL_CLOSURE, "").whenComplete((ws, throwable) -> webSocket.abort());
+    }
+
+    @Override
+    public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+        received += data.length();
+        onPart(webSocket, last);
+        return null;
+    }
+
+    @Override
+    public CompletionStage<?> onBinary(WebSocket webSocket, ByteBuffer data, boolean last) {
+        received += data.remaining();
+        onPart(webSocket, last);
+        return null;
+    }
+
+    @Override
+    public void onError(WebSocket webSocket, Throwable error) {
+        CompletableFuture<Integer> future = reply;
+        if(future != null) {
+            future.completeExceptionally(error);
+        }
+    }
+
+    private static void failed(CompletableFuture<Integer> future, Throwable throwable) {
+        if(throwable != null) {
+            future.completeExceptionally(throwable);
+        }
+    }
+
+    private void onPart(WebSocket webSocket, boolean last) {
+        if(last) {
+            int length = received;
+            received = 0;
+            CompletableFuture<Integer> future = reply;
+            if(future != null) {
+                future.complete(length);
+            }
+        }
+        webSocket.request(1);
+    }
+}
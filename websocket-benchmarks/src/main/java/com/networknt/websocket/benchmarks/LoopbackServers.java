@@ -0,0 +1,101 @@
+package com.networknt.websocket.benchmarks;
+
+import com.networknt.cluster.Cluster;
+import com.networknt.service.SingletonServiceFactory;
+import com.networknt.websocket.router.WebSocketRouterHandler;
+import io.undertow.Handlers;
+import io.undertow.Undertow;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.handlers.ResponseCodeHandler;
+import io.undertow.websockets.core.AbstractReceiveListener;
+import io.undertow.websockets.core.BufferedBinaryMessage;
+import io.undertow.websockets.core.BufferedTextMessage;
+import io.undertow.websockets.core.WebSocketCallback;
+import io.undertow.websockets.core.WebSocketChannel;
+import io.undertow.websockets.core.WebSockets;
+import org.xnio.Pooled;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * In-process Undertow servers on the loopback interface used by the benchmarks.
+ */
+public final class LoopbackServers {
+    public static final String HOST = "127.0.0.1";
+    // service id the clients of the router send in the Service-Id header
+    public static final String SERVICE_ID = "com.networknt.echo-1.0.0";
+
+    private LoopbackServers() {
+        throw new IllegalStateException("LoopbackServers is a utility class.");
+    }
+
+    public static Undertow start(HttpHandler handler) {
+        Undertow server = Undertow.builder()
+                .addHttpListener(0, HOST)
+                .setHandler(handler)
+                .build();
+        server.start();
+        return server;
+    }
+
+    public static int port(Undertow server) {
+        return ((InetSocketAddress) server.getListenerInfo().get(0).getAddress()).getPort();
+    }
+
+    public static String baseURL(String scheme, Undertow server) {
+        return scheme + "://" + HOST + ":" + port(server);
+    }
+
+    /**
+     * A backend that sends every text and binary message back to the sender.
+     */
+    public static Undertow startEchoServer() {
+        return start(Handlers.websocket((exchange, channel) -> {
+            channel.getReceiveSetter().set(new EchoReceiveListener());
+            channel.resumeReceives();
+        }));
+    }
+
+    /**
+     * A WebSocketRouterHandler that resolves every service to the backend. The clients have to
+     * send the {@link #SERVICE_ID} in the Service-Id header.
+     *
+     * @param configName name of the router config on the classpath
+     */
+    public static Undertow startRouter(String configName, Undertow backend) {
+        SingletonServiceFactory.setBean(Cluster.class.getName(), new LoopbackCluster(baseURL("http", backend)));
+        WebSocketRouterHandler handler = new WebSocketRouterHandler(configName);
+        handler.setNext(ResponseCodeHandler.HANDLE_404);
+        return start(handler);
+    }
+
+    public static void stop(Undertow server) {
+        if(server != null) {
+            server.stop();
+        }
+    }
+
+    private static final class EchoReceiveListener extends AbstractReceiveListener {
+        @Override
+        protected void onFullTextMessage(WebSocketChannel channel, BufferedTextMessage message) {
+            WebSockets.sendText(message.getData(), channel, null);
+        }
+
+        @Override
+        protected void onFullBinaryMessage(WebSocketChannel channel, BufferedBinaryMessage message) {
+            Pooled<ByteBuffer[]> data = message.getData();
+            WebSockets.sendBinary(data.getResource(), channel, new WebSocketCallback<>() {
+                @Override
+                public void complete(WebSocketChannel channel, Void context) {
+                    data.free();
+                }
+
+                @Override
+                public void onError(WebSocketChannel channel, Void context, Throwable throwable) {
+                    data.free();
+                }
+            });
+        }
+    }
+}
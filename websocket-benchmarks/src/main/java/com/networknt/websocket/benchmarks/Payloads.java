@@ -0,0 +1,30 @@
+package com.networknt.websocket.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Message payloads of a given size.
+ */
+public final class Payloads {
+    private Payloads() {
+        throw new IllegalStateException("Payloads is a utility class.");
+    }
+
+    public static String text(int size) {
+        char[] chars = new char[size];
+        Arrays.fill(chars, 'a');
+        return new String(chars);
+    }
+
+    /**
+     * Read-only buffer, send a {@link ByteBuffer#duplicate()} so that it can be reused.
+     */
+    public static ByteBuffer binary(int size) {
+        byte[] bytes = new byte[size];
+        for(int i = 0; i < size; i++) {
+            bytes[i] = (byte) i;
+        }
+        return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+    }
+}
@@ -0,0 +1,97 @@
+package com.networknt.websocket.benchmarks;
+
+import com.networknt.websocket.router.WebSocketRouterConfig;
+import io.undertow.Undertow;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round trip of a message from a client through WebSocketRouterHandler to an echo backend and
+ * back. The relay is UpstreamReceiveListener towards the backend and DownstreamReceiveListener
+ * back, with everything else the router config turns on. Each benchmark thread has its own pair.
+ *
+ * The buffered relay runs with the default websocket-router.yaml and the streaming relay with
+ * config/websocket-router-streaming.yml of this module.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class RouterRelayBenchmark {
+
+    // router config with streamingRelay turned on
+    private static final String STREAMING_CONFIG_NAME = "websocket-router-streaming";
+
+    @State(Scope.Benchmark)
+    public static class Servers {
+        @Param({"false", "true"})
+        boolean streamingRelay;
+
+        HttpClient httpClient;
+        Undertow backend;
+        Undertow router;
+        URI routerURI;
+
+        @Setup
+        public void setup() {
+            httpClient = HttpClient.newHttpClient();
+            backend = LoopbackServers.startEchoServer();
+            router = LoopbackServers.startRouter(streamingRelay ? STREAMING_CONFIG_NAME : WebSocketRouterConfig.CONFIG_NAME, backend);
+            routerURI = URI.create(LoopbackServers.baseURL("ws", router) + "/echo");
+        }
+
+        @TearDown
+        public void tearDown() {
+            LoopbackServers.stop(router);
+            LoopbackServers.stop(backend);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Client {
+        @Param({"64", "4096", "65536"})
+        int messageSize;
+
+        EchoClient client;
+        String text;
+        ByteBuffer binary;
+
+        @Setup
+        public void setup(Servers servers) {
+            client = EchoClient.connect(servers.httpClient, servers.routerURI, "Service-Id", LoopbackServers.SERVICE_ID);
+            text = Payloads.text(messageSize);
+            binary = Payloads.binary(messageSize);
+        }
+
+        @TearDown
+        public void tearDown() {
+            client.close();
+        }
+    }
+
+    @Benchmark
+    public int text(Client client) throws Exception {
+        return client.client.roundTripText(client.text);
+    }
+
+    @Benchmark
+    public int binary(Client client) throws Exception {
+        return client.client.roundTripBinary(client.binary.duplicate());
+    }
+}
@@ -0,0 +1,61 @@
+package com.networknt.websocket.benchmarks;
+
+import com.networknt.websocket.router.WebSocketRouterConfig;
+import io.undertow.Undertow;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time from a client upgrade on WebSocketRouterHandler to the first echoed message. This covers
+ * the handshake, the service id lookup, the discovery, the downstream connection and the pair
+ * setup. The router runs with the default websocket-router.yaml.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RouterUpgradeBenchmark {
+    HttpClient httpClient;
+    Undertow backend;
+    Undertow router;
+    URI routerURI;
+
+    @Setup
+    public void setup() {
+        httpClient = HttpClient.newHttpClient();
+        backend = LoopbackServers.startEchoServer();
+        router = LoopbackServers.startRouter(WebSocketRouterConfig.CONFIG_NAME, backend);
+        routerURI = URI.create(LoopbackServers.baseURL("ws", router) + "/echo?app=bench");
+    }
+
+    @TearDown
+    public void tearDown() {
+        LoopbackServers.stop(router);
+        LoopbackServers.stop(backend);
+    }
+
+    @Benchmark
+    public int upgradeAndFirstMessage() throws Exception {
+        EchoClient client = EchoClient.connect(httpClient, routerURI, "Service-Id", LoopbackServers.SERVICE_ID);
+        try {
+            return client.roundTripText("ping");
+        } finally {
+            client.close();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.networknt.websocket.rendezvous;
+
+import com.networknt.websocket.benchmarks.EchoClient;
+import com.networknt.websocket.benchmarks.LoopbackServers;
+import com.networknt.websocket.benchmarks.Payloads;
+import com.networknt.websocket.client.WsProxyClientPair;
+import io.undertow.Undertow;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.WebSocket;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Predicate;
+
+/**
+ * Fan-out of WebSocketRendezvousHandler over many channels. Every operation sends one text message
+ * on each channel at once and waits until all of them came back from the backends, so one
+ * operation is channels round trips through WebSocketRendezvousReceiveListener that share the IO
+ * threads of the server.
+ *
+ * The channels are set up through the handler: the backend of a channel connects once the server
+ * registered its client, and the channel is used once the server paired both. It lives in the
+ * rendezvous package to reach the package-private pair lookup.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RendezvousFanOutBenchmark {
+    // default backendPath of websocket-rendezvous.yaml
+    private static final String BACKEND_PATH = "/connect";
+
+    @Param({"1", "16", "256"})
+    int channels;
+
+    @Param({"64", "4096"})
+    int messageSize;
+
+    HttpClient httpClient;
+    Undertow rendezvous;
+    EchoClient[] clients;
+    WebSocket[] backends;
+    String text;
+
+    @Setup
+    public void setup() {
+        httpClient = HttpClient.newHttpClient();
+        rendezvous = LoopbackServers.start(new WebSocketRendezvousHandler());
+        String baseURL = LoopbackServers.baseURL("ws", rendezvous);
+        clients = new EchoClient[channels];
+        backends = new WebSocket[channels];
+        for(int i = 0; i < channels; i++) {
+            String channelId = UUID.randomUUID().toString();
+            clients[i] = EchoClient.connect(httpClient, URI.create(baseURL + "/chat?channelId=" + channelId));
+            // a backend that arrives before its client is dropped
+            await(channelId, pair -> true);
+            backends[i] = httpClient.newWebSocketBuilder()
+                    .buildAsync(URI.create(baseURL + BACKEND_PATH + "?channelId=" + channelId), new EchoBackend())
+                    .join();
+            await(channelId, WsProxyClientPair::isPaired);
+        }
+        text = Payloads.text(messageSize);
+    }
+
+    @TearDown
+    public void tearDown() {
+        for(int i = 0; i < channels; i++) {
+            clients[i].close();
+            backends[i].abort();
+        }
+        LoopbackServers.stop(rendezvous);
+    }
+
+    @Benchmark
+    public void fanOut() throws Exception {
+        CompletableFuture<?>[] replies = new CompletableFuture<?>[channels];
+        for(int i = 0; i < channels; i++) {
+            replies[i] = clients[i].sendText(text);
+        }
+        CompletableFuture.allOf(replies).get(EchoClient.TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Wait until the handler holds a pair for the channel id that is ready.
+     */
+    private static void await(String channelId, Predicate<WsProxyClientPair> ready) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(EchoClient.TIMEOUT_SECONDS);
+        WsProxyClientPair pair;
+        while((pair = WebSocketRendezvousHandler.pair(channelId)) == null || !ready.test(pair)) {
+            if(System.nanoTime() - deadline > 0) {
+                throw new IllegalStateException("Rendezvous channel " + channelId + " is not ready");
+            }
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(50));
+        }
+    }
+
+    /**
+     * Backend side of a channel that sends every message back.
+     */
+    private static final class EchoBackend implements WebSocket.Listener {
+        private final StringBuilder message = new StringBuilder();
+
+        @Override
+        public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+            message.append(data);
+            if(!last) {
+                webSocket.request(1);
+                return null;
+            }
+            String reply = message.toString();
+            message.setLength(0);
+            return webSocket.sendText(reply, true).thenRun(() -> webSocket.request(1));
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.networknt.websocket.rendezvous;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Contention of the rendezvous pairing. Every operation registers a client, attaches its backend
+ * and removes the channel again, the way a short lived rendezvous does. The benchmark threads play
+ * the IO threads, run it with -t 1, 2, 4, ... to see how the pairing scales.
+ *
+ * {@link #join} is {@link RendezvousChannels#join} and {@link #synchronizedJoin} is the
+ * previous pairing that held a lock on the whole map. It lives in the rendezvous package to reach
+ * the package-private method.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RendezvousJoinBenchmark {
+    private static final AtomicInteger THREAD_IDS = new AtomicInteger();
+
+    @State(Scope.Benchmark)
+    public static class Channels {
+        // channels already waiting for their backend
+        @Param({"0", "10000"})
+        int registered;
+
+        final Map<String, Pair> channels = new ConcurrentHashMap<>();
+
+        @Setup
+        public void setup() {
+            for(int i = 0; i < registered; i++) {
+                channels.put("waiting-" + i, new Pair());
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Ids {
+        String prefix;
+        long next;
+
+        @Setup
+        public void setup() {
+            prefix = "thread-" + THREAD_IDS.incrementAndGet() + "-";
+        }
+
+        String next() {
+            return prefix + next++;
+        }
+    }
+
+    @Benchmark
+    public Pair join(Channels state, Ids ids) {
+        String channelId = ids.next();
+        RendezvousChannels.join(state.channels, channelId, false, Pair::new, Pair::attach);
+        RendezvousChannels.join(state.channels, channelId, true, Pair::new, Pair::attach);
+        return state.channels.remove(channelId);
+    }
+
+    @Benchmark
+    public Pair synchronizedJoin(Channels state, Ids ids) {
+        String channelId = ids.next();
+        Map<String, Pair> channels = state.channels;
+        synchronized (channels) {
+            if(channels.get(channelId) == null) {
+                channels.put(channelId, new Pair());
+            }
+        }
+        synchronized (channels) {
+            Pair pair = channels.get(channelId);
+            if(pair != null) {
+                pair.attach();
+            }
+        }
+        return channels.remove(channelId);
+    }
+
+    /**
+     * Stands in for WsProxyClientPair, which needs real channels.
+     */
+    public static final class Pair {
+        boolean backend;
+
+        void attach() {
+            backend = true;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.networknt.websocket.router;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of {@link WebSocketRouterHandler#resolveWebSocketURL(String, String, String)}. It lives in
+ * the router package to reach the package-private method.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WebSocketUrlBenchmark {
+    private static final String DOWNSTREAM_HOST = "https://10.0.0.1:8443";
+    private static final String PATH = "/chat/room";
+
+    @Param({"", "room=1&user=alice", "service_id=com.networknt.chat-1.0.0&protocol=https&env_tag=dev&room=1"})
+    String queryString;
+
+    String requestURI;
+
+    @Setup
+    public void setup() {
+        requestURI = queryString.isEmpty() ? PATH : PATH + "?" + queryString;
+    }
+
+    @Benchmark
+    public String resolveWebSocketURL() {
+        return WebSocketRouterHandler.resolveWebSocketURL(DOWNSTREAM_HOST, requestURI, queryString);
+    }
+}
@@ -78,6 +78,12 @@ public enum WebSocketCloseCodes {
      */
     INTERNAL_ERROR(1011),
 
+    /**
+     * Indicates that the server is terminating the connection due to a temporary condition, e.g. it is overloaded and is casting off some of its clients.
+     * Registered in the IANA WebSocket Close Code Number Registry.
+     */
+    TRY_AGAIN_LATER(1013),
+
     /**
      * Reserved value and MUST NOT be set as a status code in a close control frame by an endpoint.
      * It is designated for use in applications expecting a status code to indicate that the connection was closed due to a failure to perform a TLS handshake
@@ -94,4 +100,16 @@ public enum WebSocketCloseCodes {
     public int getCloseCode() {
         return closeCode;
     }
+
+    /**
+     * @return the enum constant of the close code, or null if the code is not defined by RFC-6455
+     */
+    public static WebSocketCloseCodes fromCode(int closeCode) {
+        for(WebSocketCloseCodes code : values()) {
+            if(code.closeCode == closeCode) {
+                return code;
+            }
+        }
+        return null;
+    }
 }
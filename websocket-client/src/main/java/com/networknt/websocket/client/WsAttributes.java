@@ -5,6 +5,9 @@ public final class WsAttributes {
     public static final String CHANNEL_GROUP_ID = "x-group-id";
     public static final String CHANNEL_USER_ID = "x-user-id";
     public static final String CHANNEL_DIRECTION = "x-socket-vector";
+    public static final String OUTBOUND_QUEUE = "x-outbound-queue";
+    public static final String FLUSH_COALESCER = "x-flush-coalescer";
+    public static final String HEARTBEAT = "x-heartbeat";
     public static final String WEBSOCKET_PROTOCOL = "ws";
     public static final String WEBSOCKET_SECURE_PROTOCOL = "wss";
 
@@ -0,0 +1,187 @@
+package com.networknt.websocket.client;
+
+import io.undertow.connector.ByteBufferPool;
+import io.undertow.connector.PooledByteBuffer;
+import io.undertow.websockets.core.WebSocketChannel;
+import io.undertow.websockets.core.WebSockets;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends one message to many channels. The message is encoded once into a buffer of the pool and every
+ * recipient writes a read-only duplicate of it, so a broadcast to n channels costs one encode and one
+ * buffer instead of n. The buffer goes back to the pool when the last recipient is done with it.
+ *
+ * A message that does not fit into a buffer of the pool is shared from the heap instead. The
+ * recipients have to be channels accepted by the server, client channels mask the payload in place.
+ */
+public final class WsBroadcast {
+    private static final Logger LOG = LoggerFactory.getLogger(WsBroadcast.class);
+    // the most bytes UTF-8 needs for a char of a String
+    private static final int MAX_UTF8_BYTES_PER_CHAR = 3;
+
+    /**
+     * Completion of a broadcast, called once after every recipient has written the message or failed.
+     */
+    public interface Callback {
+        /**
+         * @param sent     the number of recipients the message was written to
+         * @param failures the recipients that failed with their error, empty if there were none
+         */
+        void complete(int sent, Map<WebSocketChannel, Throwable> failures);
+    }
+
+    private WsBroadcast() {
+    }
+
+    public static void sendText(String text, Collection<WebSocketChannel> recipients, ByteBufferPool pool, Callback callback) {
+        sendText(text, null, recipients, pool, callback);
+    }
+
+    /**
+     * @param key key of the message, a recipient with a {@link WsOutboundQueue.Policy#COALESCE_LATEST}
+     *            queue only writes the latest queued message of a key
+     */
+    public static void sendText(String text, String key, Collection<WebSocketChannel> recipients, ByteBufferPool pool, Callback callback) {
+        send(encode(text, pool), true, key, recipients, callback, null);
+    }
+
+    /**
+     * Broadcast text that is UTF-8 encoded already, like a message that came from another node. It
+     * is copied like a binary payload.
+     */
+    public static void sendText(ByteBuffer utf8, Collection<WebSocketChannel> recipients, ByteBufferPool pool, Callback callback) {
+        send(copy(utf8, pool), true, null, recipients, callback, null);
+    }
+
+    /**
+     * The payload is copied once into a buffer of the pool. A payload too large for the pool is
+     * shared as it is and must not be changed until the callback is called.
+     */
+    public static void sendBinary(ByteBuffer data, Collection<WebSocketChannel> recipients, ByteBufferPool pool, Callback callback) {
+        send(copy(data, pool), false, null, recipients, callback, null);
+    }
+
+    /**
+     * Broadcast with a callback per recipient instead of one for the whole broadcast.
+     */
+    static void sendTextToEach(String text, Collection<WebSocketChannel> recipients, ByteBufferPool pool, WebSocketCallback peerCallback) {
+        send(encode(text, pool), true, null, recipients, null, peerCallback);
+    }
+
+    private static void send(SharedFrame frame, boolean text, String key, Collection<WebSocketChannel> recipients, Callback callback, WebSocketCallback peerCallback) {
+        frame.callback = callback;
+        frame.peerCallback = peerCallback;
+        for (final var recipient : recipients) {
+            if (!recipient.isOpen()) {
+                continue;
+            }
+            frame.retain();
+            ByteBuffer payload = frame.buffer.asReadOnlyBuffer();
+            // a slow recipient holds the frame in its queue until it is written or dropped
+            WsOutboundQueue queue = WsOutboundQueue.get(recipient);
+            if (queue != null) {
+                if (text) {
+                    queue.sendText(payload, key, frame);
+                } else {
+                    queue.sendBinary(new ByteBuffer[]{payload}, key, frame);
+                }
+            } else if (text) {
+                WebSockets.sendText(payload, recipient, frame);
+            } else {
+                WebSockets.sendBinary(payload, recipient, frame);
+            }
+        }
+        // the hold of the broadcast itself, the frame is done here if every send completed already
+        frame.release();
+    }
+
+    private static SharedFrame encode(String text, ByteBufferPool pool) {
+        if (text.length() <= pool.getBufferSize() / MAX_UTF8_BYTES_PER_CHAR) {
+            PooledByteBuffer pooled = pool.allocate();
+            ByteBuffer buffer = pooled.getBuffer();
+            CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+            // cannot overflow, the buffer has room for the longest encoding of the text
+            encoder.encode(CharBuffer.wrap(text), buffer, true);
+            encoder.flush(buffer);
+            buffer.flip();
+            return new SharedFrame(pooled, buffer);
+        }
+        return copy(ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)), pool);
+    }
+
+    private static SharedFrame copy(ByteBuffer data, ByteBufferPool pool) {
+        if (data.remaining() > pool.getBufferSize()) {
+            return new SharedFrame(null, data.duplicate());
+        }
+        PooledByteBuffer pooled = pool.allocate();
+        ByteBuffer buffer = pooled.getBuffer();
+        buffer.put(data.duplicate());
+        buffer.flip();
+        return new SharedFrame(pooled, buffer);
+    }
+
+    /**
+     * The encoded message shared by the recipients of a broadcast, released when the count of the
+     * sends holding it drops to zero.
+     */
+    private static final class SharedFrame implements io.undertow.websockets.core.WebSocketCallback<Void> {
+        private final PooledByteBuffer pooled;
+        private final ByteBuffer buffer;
+        private final AtomicInteger refs = new AtomicInteger(1);
+        private final AtomicInteger sent = new AtomicInteger();
+        private final Map<WebSocketChannel, Throwable> failures = new ConcurrentHashMap<>();
+        private Callback callback;
+        private WebSocketCallback peerCallback;
+
+        private SharedFrame(PooledByteBuffer pooled, ByteBuffer buffer) {
+            this.pooled = pooled;
+            this.buffer = buffer;
+        }
+
+        private void retain() {
+            refs.incrementAndGet();
+        }
+
+        private void release() {
+            if (refs.decrementAndGet() != 0) {
+                return;
+            }
+            if (pooled != null) {
+                pooled.close();
+            }
+            if (callback != null) {
+                callback.complete(sent.get(), failures.isEmpty() ? Collections.emptyMap() : failures);
+            }
+        }
+
+        @Override
+        public void complete(WebSocketChannel channel, Void context) {
+            sent.incrementAndGet();
+            if (peerCallback != null) {
+                peerCallback.complete(null);
+            }
+            release();
+        }
+
+        @Override
+        public void onError(WebSocketChannel channel, Void context, Throwable throwable) {
+            LOG.debug("Failed to broadcast to {}", channel.getSourceAddress(), throwable);
+            failures.put(channel, throwable);
+            if (peerCallback != null) {
+                peerCallback.complete(throwable);
+            }
+            release();
+        }
+    }
+}
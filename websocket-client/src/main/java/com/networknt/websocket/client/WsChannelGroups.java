@@ -0,0 +1,49 @@
+package com.networknt.websocket.client;
+
+import io.undertow.websockets.core.WebSocketChannel;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Index of open channels by group id, so that a message for a group only visits the members of
+ * the group instead of every connection of the endpoint. Channels leave their group when they close.
+ */
+public class WsChannelGroups {
+    private final Map<String, Set<WebSocketChannel>> groups = new ConcurrentHashMap<>();
+
+    public void join(String groupId, WebSocketChannel channel) {
+        groups.compute(groupId, (id, members) -> {
+            if (members == null) {
+                members = ConcurrentHashMap.newKeySet();
+            }
+            members.add(channel);
+            return members;
+        });
+        channel.addCloseTask(c -> leave(groupId, c));
+        // close tasks added after the channel closed never run
+        if (!channel.isOpen()) {
+            leave(groupId, channel);
+        }
+    }
+
+    public void leave(String groupId, WebSocketChannel channel) {
+        groups.computeIfPresent(groupId, (id, members) -> {
+            members.remove(channel);
+            return members.isEmpty() ? null : members;
+        });
+    }
+
+    /**
+     * @return a live view of the members of the group, empty if the group has none
+     */
+    public Set<WebSocketChannel> members(String groupId) {
+        Set<WebSocketChannel> members = groups.get(groupId);
+        return members != null ? members : Set.of();
+    }
+
+    public int groupCount() {
+        return groups.size();
+    }
+}
@@ -0,0 +1,244 @@
+package com.networknt.websocket.client;
+
+import io.undertow.websockets.core.AbstractReceiveListener;
+import io.undertow.websockets.core.BufferedBinaryMessage;
+import io.undertow.websockets.core.BufferedTextMessage;
+import io.undertow.websockets.core.CloseMessage;
+import io.undertow.websockets.core.StreamSourceFrameChannel;
+import io.undertow.websockets.core.WebSocketCallback;
+import io.undertow.websockets.core.WebSocketChannel;
+import io.undertow.websockets.core.WebSocketFrameType;
+import io.undertow.websockets.core.WebSockets;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xnio.IoUtils;
+import org.xnio.Pooled;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Relays the messages of one Undertow channel to another, one listener per direction of a pair, see
+ * {@link #relay}. Binary messages are handed to the peer in the pooled buffers they were read into
+ * and text messages are sent as they are, nothing is copied into JDK buffers.
+ *
+ * The number of messages and bytes sent to the peer and not yet written is tracked. Once either
+ * limit is reached, receives on the source channel are suspended until the peer has caught up.
+ * With streaming relay, messages are streamed chunk by chunk with {@link WsMessageStreamer}, which
+ * holds at most one chunk per message.
+ *
+ * Whole messages to a peer with a {@link WsFlushCoalescer} are flushed with the other frames of
+ * the same IO loop iteration or window.
+ */
+public class WsChannelRelayListener extends AbstractReceiveListener {
+    private static final Logger LOG = LoggerFactory.getLogger(WsChannelRelayListener.class);
+
+    private final String pairId;
+    private final WebSocketChannel source;
+    private final WebSocketChannel peer;
+    private final WsRelayMetrics.Direction direction;
+    private final WsRelayMetrics metrics;
+    private final int maxInFlightMessages;
+    private final long maxInFlightBytes;
+    private final boolean streamingRelay;
+    private final WsFlushCoalescer coalescer;
+
+    private int inFlightMessages;
+    private long inFlightBytes;
+    private boolean suspended;
+
+    /**
+     * @param pairId id of the pair for logging
+     * @param source the channel this listener receives from
+     * @param peer the channel messages are relayed to
+     * @param direction direction of the relayed messages for the meters
+     * @param metrics meters of the service
+     * @param maxInFlightMessages max number of messages sent and not written before receives are suspended
+     * @param maxInFlightBytes max number of bytes sent and not written before receives are suspended
+     * @param streamingRelay stream messages chunk by chunk instead of buffering them
+     */
+    public WsChannelRelayListener(String pairId, WebSocketChannel source, WebSocketChannel peer, WsRelayMetrics.Direction direction,
+                                WsRelayMetrics metrics, int maxInFlightMessages, long maxInFlightBytes, boolean streamingRelay) {
+        this.pairId = pairId;
+        this.source = source;
+        this.peer = peer;
+        this.direction = direction;
+        this.metrics = metrics;
+        this.maxInFlightMessages = maxInFlightMessages;
+        this.maxInFlightBytes = maxInFlightBytes;
+        this.streamingRelay = streamingRelay;
+        this.coalescer = WsFlushCoalescer.get(peer);
+    }
+
+    /**
+     * Relay both directions between two open channels and resume their receives. A side that goes
+     * away without a close frame takes the other side with it.
+     *
+     * @param pairId id of the pair for logging
+     * @param upstream the channel of the client
+     * @param downstream the channel towards the backend
+     * @param metrics meters of the relay
+     * @param maxInFlightMessages max number of messages sent per direction and not written before receives are suspended
+     * @param maxInFlightBytes max number of bytes sent per direction and not written before receives are suspended
+     * @param streamingRelay stream messages chunk by chunk instead of buffering them
+     */
+    public static void relay(String pairId, WebSocketChannel upstream, WebSocketChannel downstream, WsRelayMetrics metrics,
+                             int maxInFlightMessages, long maxInFlightBytes, boolean streamingRelay) {
+        upstream.addCloseTask(channel -> closeSide(downstream, "Upstream closed"));
+        downstream.addCloseTask(channel -> closeSide(upstream, "Downstream closed"));
+
+        downstream.getReceiveSetter().set(new WsChannelRelayListener(pairId, downstream, upstream, WsRelayMetrics.Direction.DOWNSTREAM,
+                metrics, maxInFlightMessages, maxInFlightBytes, streamingRelay));
+        upstream.getReceiveSetter().set(new WsChannelRelayListener(pairId, upstream, downstream, WsRelayMetrics.Direction.UPSTREAM,
+                metrics, maxInFlightMessages, maxInFlightBytes, streamingRelay));
+        downstream.resumeReceives();
+        upstream.resumeReceives();
+    }
+
+    private static void closeSide(WebSocketChannel channel, String reason) {
+        if(channel.isOpen() && !channel.isCloseFrameSent()) {
+            WebSockets.sendClose(CloseMessage.GOING_AWAY, reason, channel, null);
+        }
+    }
+
+    @Override
+    protected void onText(final WebSocketChannel webSocketChannel, final StreamSourceFrameChannel messageChannel) throws IOException {
+        if(!streamingRelay || !peer.isOpen()) {
+            super.onText(webSocketChannel, messageChannel);
+            return;
+        }
+        new WsMessageStreamer(webSocketChannel, peer, WebSocketFrameType.TEXT, metrics, direction,
+                e -> onError(webSocketChannel, e)).handleEvent(messageChannel);
+    }
+
+    @Override
+    protected void onBinary(final WebSocketChannel webSocketChannel, final StreamSourceFrameChannel messageChannel) throws IOException {
+        if(!streamingRelay || !peer.isOpen()) {
+            super.onBinary(webSocketChannel, messageChannel);
+            return;
+        }
+        new WsMessageStreamer(webSocketChannel, peer, WebSocketFrameType.BINARY, metrics, direction,
+                e -> onError(webSocketChannel, e)).handleEvent(messageChannel);
+    }
+
+    @Override
+    protected void onFullTextMessage(final WebSocketChannel channel, final BufferedTextMessage message) {
+        if(!peer.isOpen()) {
+            LOG.warn("{} peer is closed. Cannot forward text message for {}", direction, pairId);
+            return;
+        }
+        String data = message.getData();
+        LOG.trace("Forwarding {} text for {}", direction, pairId);
+        if(coalescer != null) {
+            coalescer.sendText(data, sent(data.length(), null));
+        } else {
+            WebSockets.sendText(data, peer, sent(data.length(), null));
+        }
+    }
+
+    @Override
+    protected void onFullBinaryMessage(final WebSocketChannel channel, final BufferedBinaryMessage message) {
+        final Pooled<ByteBuffer[]> data = message.getData();
+        if(!peer.isOpen()) {
+            LOG.warn("{} peer is closed. Cannot forward binary message for {}", direction, pairId);
+            data.free();
+            return;
+        }
+        long size = 0;
+        for(ByteBuffer buffer : data.getResource()) {
+            size += buffer.remaining();
+        }
+        LOG.trace("Forwarding {} binary for {}", direction, pairId);
+        // the pooled buffers are written as they are and freed once the peer is done with them
+        if(coalescer != null) {
+            coalescer.sendBinary(data.getResource(), sent(size, data));
+        } else {
+            WebSockets.sendBinary(data.getResource(), peer, sent(size, data));
+        }
+    }
+
+    @Override
+    protected void onFullPongMessage(final WebSocketChannel channel, final BufferedBinaryMessage message) throws IOException {
+        WsHeartbeat.pong(channel, message.getData().getResource());
+        super.onFullPongMessage(channel, message);
+    }
+
+    @Override
+    protected void onCloseMessage(CloseMessage cm, WebSocketChannel channel) {
+        LOG.trace("{} side closed {}. Code: {}. Reason: {}", direction, pairId, cm.getCode(), cm.getReason());
+        if(peer.isOpen() && !peer.isCloseFrameSent()) {
+            WebSockets.sendClose(cm.getCode(), cm.getReason(), peer, null);
+        }
+    }
+
+    @Override
+    protected void onError(final WebSocketChannel channel, final Throwable error) {
+        LOG.error("{} error for {}", direction, pairId, error);
+        IoUtils.safeClose(channel);
+        if(peer.isOpen() && !peer.isCloseFrameSent()) {
+            WebSockets.sendClose(CloseMessage.UNEXPECTED_ERROR, "Peer encountered error", peer, null);
+        }
+    }
+
+    private WebSocketCallback<Void> sent(long bytes, Pooled<ByteBuffer[]> data) {
+        metrics.relayed(direction, bytes, true);
+        metrics.queued(bytes);
+        acquire(bytes);
+        return new WebSocketCallback<>() {
+            @Override
+            public void complete(WebSocketChannel channel, Void context) {
+                done();
+            }
+
+            @Override
+            public void onError(WebSocketChannel channel, Void context, Throwable throwable) {
+                LOG.error("Failed to forward {} message for {}", direction, pairId, throwable);
+                metrics.sendFailed(direction);
+                done();
+            }
+
+            private void done() {
+                if(data != null) {
+                    data.free();
+                }
+                metrics.dequeued(bytes);
+                release(bytes);
+            }
+        };
+    }
+
+    private synchronized void acquire(long bytes) {
+        inFlightMessages++;
+        inFlightBytes += bytes;
+        if(!suspended && isOverLimit()) {
+            suspended = true;
+            LOG.trace("Suspending {} receives for {}. In flight messages: {}, bytes: {}", direction, pairId, inFlightMessages, inFlightBytes);
+            WsHeartbeat.suspendReceives(source);
+        }
+    }
+
+    private void release(long bytes) {
+        synchronized (this) {
+            inFlightMessages--;
+            inFlightBytes -= bytes;
+            if(!suspended || isOverLimit()) {
+                return;
+            }
+            suspended = false;
+        }
+        // the limit may have been reached again by the time the IO thread runs this
+        source.getIoThread().execute(() -> {
+            synchronized (this) {
+                if(suspended) {
+                    return;
+                }
+            }
+            LOG.trace("Resuming {} receives for {}", direction, pairId);
+            WsHeartbeat.resumeReceives(source);
+        });
+    }
+
+    private boolean isOverLimit() {
+        return inFlightMessages >= maxInFlightMessages || inFlightBytes >= maxInFlightBytes;
+    }
+}
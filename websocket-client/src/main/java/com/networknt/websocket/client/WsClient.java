@@ -31,25 +31,22 @@ public class WsClient {
         return this.channel.getPeerConnections();
     }
 
+    /**
+     * Send the text to every peer of the channel. The text is encoded once and shared by the peers,
+     * see {@link WsBroadcast}. The callback is called once per peer.
+     */
     public void sendTextToAllPeers(String text, WebSocketCallback callback) {
         if (channel.isOpen()) {
-            for (final var peer : this.channel.getPeerConnections()) {
-                WebSockets.sendText(text, peer, new io.undertow.websockets.core.WebSocketCallback<Void>() {
-                    @Override
-                    public void complete(WebSocketChannel channel, Void ignore) {
-                        if (callback != null) {
-                            callback.complete(null);
-                        }
-                    }
+            WsBroadcast.sendTextToEach(text, this.channel.getPeerConnections(), this.channel.getBufferPool(), callback);
+        }
+    }
 
-                    @Override
-                    public void onError(WebSocketChannel channel, Void ignore, Throwable throwable) {
-                        if (callback != null) {
-                            callback.complete(throwable);
-                        }
-                    }
-                });
-            }
+    /**
+     * Send the text to every peer of the channel with one callback for the whole broadcast.
+     */
+    public void broadcastText(String text, WsBroadcast.Callback callback) {
+        if (channel.isOpen()) {
+            WsBroadcast.sendText(text, this.channel.getPeerConnections(), this.channel.getBufferPool(), callback);
         }
     }
 
@@ -83,9 +80,12 @@ public class WsClient {
         return channel;
     }
 
+    /**
+     * Send the text to the channel, through its {@link WsOutboundQueue} if it has one.
+     */
     public boolean send(String text, WebSocketCallback callback) {
         if (this.channel.isOpen()) {
-            WebSockets.sendText(text, this.channel, new io.undertow.websockets.core.WebSocketCallback<Void>() {
+            final var sent = new io.undertow.websockets.core.WebSocketCallback<Void>() {
                 @Override
                 public void complete(WebSocketChannel channel, Void ignore) {
                     if (callback != null) {
@@ -99,7 +99,13 @@ public class WsClient {
                         callback.complete(throwable);
                     }
                 }
-            });
+            };
+            final var queue = WsOutboundQueue.get(this.channel);
+            if (queue != null) {
+                queue.sendText(text, null, sent);
+            } else {
+                WebSockets.sendText(text, this.channel, sent);
+            }
             return true;
         } else {
             return false;
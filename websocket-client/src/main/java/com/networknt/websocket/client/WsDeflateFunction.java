@@ -0,0 +1,159 @@
+package com.networknt.websocket.client;
+
+import io.undertow.connector.PooledByteBuffer;
+import io.undertow.util.ImmediatePooledByteBuffer;
+import io.undertow.websockets.core.StreamSourceFrameChannel;
+import io.undertow.websockets.core.WebSocketChannel;
+import io.undertow.websockets.extensions.ExtensionFunction;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * permessage-deflate (RFC 7692) of one connection, created by {@link WsDeflateHandshake}.
+ *
+ * Messages smaller than the min size are written as stored deflate blocks. That costs a copy
+ * instead of a compression, and the frame still carries RSV1 as the extension is negotiated for
+ * every message. Incoming messages are always inflated with context takeover, which also reads
+ * messages of a peer that resets its context.
+ */
+public class WsDeflateFunction implements ExtensionFunction {
+    // the empty stored block that ends a sync flush, left out of the last frame of a message
+    private static final byte[] TAIL = {0, 0, (byte) 0xff, (byte) 0xff};
+    private static final int MIN_OUTPUT = 64;
+
+    private final Deflater deflater;
+    private final Inflater inflater = new Inflater(true);
+    private final int level;
+    private final int minSize;
+    private final boolean compressContextTakeover;
+    private int currentLevel;
+    private boolean inMessage;
+
+    public WsDeflateFunction(int level, int minSize, boolean compressContextTakeover) {
+        this.deflater = new Deflater(level, true);
+        this.level = level;
+        this.currentLevel = level;
+        this.minSize = minSize;
+        this.compressContextTakeover = compressContextTakeover;
+    }
+
+    @Override
+    public boolean hasExtensionOpCode() {
+        return false;
+    }
+
+    @Override
+    public int writeRsv(int rsv) {
+        return rsv | RSV1;
+    }
+
+    @Override
+    public PooledByteBuffer transformForWrite(PooledByteBuffer pooledBuffer, WebSocketChannel channel, boolean lastFrame) throws IOException {
+        ByteBuffer in = pooledBuffer.getBuffer();
+        Output out = new Output(in.remaining() + MIN_OUTPUT);
+        try {
+            if (!inMessage) {
+                // decided once per message, the first frame of a fragmented message is large enough
+                int messageLevel = in.remaining() < minSize ? Deflater.NO_COMPRESSION : level;
+                if (messageLevel != currentLevel) {
+                    // a new level applies from the next deflate call on, make that one without input
+                    deflater.setLevel(messageLevel);
+                    out.length += deflater.deflate(out.bytes, 0, out.bytes.length, Deflater.NO_FLUSH);
+                    currentLevel = messageLevel;
+                }
+            }
+            deflater.setInput(in);
+            // a sync flush is complete once it leaves room in the output
+            do {
+                out.ensureRoom();
+                out.length += deflater.deflate(out.bytes, out.length, out.bytes.length - out.length, Deflater.SYNC_FLUSH);
+            } while (out.length == out.bytes.length);
+        } finally {
+            pooledBuffer.close();
+        }
+        if (lastFrame) {
+            if (out.length == 0) {
+                // the receiver appends the tail, which needs the header of the empty block before it
+                out.bytes[out.length++] = 0;
+            } else if (out.length >= TAIL.length && Arrays.equals(out.bytes, out.length - TAIL.length, out.length, TAIL, 0, TAIL.length)) {
+                out.length -= TAIL.length;
+            }
+            if (!compressContextTakeover) {
+                deflater.reset();
+            }
+        }
+        inMessage = !lastFrame;
+        return out.toPooled();
+    }
+
+    @Override
+    public PooledByteBuffer transformForRead(PooledByteBuffer pooledBuffer, StreamSourceFrameChannel channel, boolean lastFragementOfFrame) throws IOException {
+        if ((channel.getRsv() & RSV1) == 0) {
+            return pooledBuffer;
+        }
+        return inflate(pooledBuffer, lastFragementOfFrame);
+    }
+
+    /**
+     * Inflate a fragment of a compressed message.
+     *
+     * @param last true for the last fragment of the message, the tail the sender left out is added
+     */
+    PooledByteBuffer inflate(PooledByteBuffer pooledBuffer, boolean last) throws IOException {
+        ByteBuffer in = pooledBuffer.getBuffer();
+        Output out = new Output(in.remaining() * 2);
+        try {
+            inflater.setInput(in);
+            inflate(out);
+            if (last) {
+                inflater.setInput(TAIL);
+                inflate(out);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Invalid permessage-deflate payload", e);
+        } finally {
+            pooledBuffer.close();
+        }
+        return out.toPooled();
+    }
+
+    @Override
+    public void dispose() {
+        deflater.end();
+        inflater.end();
+    }
+
+    private void inflate(Output out) throws DataFormatException {
+        while (!inflater.needsInput() && !inflater.finished()) {
+            out.ensureRoom();
+            out.length += inflater.inflate(out.bytes, out.length, out.bytes.length - out.length);
+        }
+    }
+
+    /**
+     * Heap output of a transform that grows as needed.
+     */
+    private static final class Output {
+        private byte[] bytes;
+        private int length;
+
+        private Output(int size) {
+            bytes = new byte[Math.max(MIN_OUTPUT, size)];
+        }
+
+        private void ensureRoom() {
+            if (length == bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+        }
+
+        private PooledByteBuffer toPooled() {
+            return new ImmediatePooledByteBuffer(ByteBuffer.wrap(bytes, 0, length));
+        }
+    }
+}
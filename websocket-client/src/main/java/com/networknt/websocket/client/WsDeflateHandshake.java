@@ -0,0 +1,111 @@
+package com.networknt.websocket.client;
+
+import io.undertow.websockets.WebSocketExtension;
+import io.undertow.websockets.extensions.ExtensionFunction;
+import io.undertow.websockets.extensions.ExtensionHandshake;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Server side negotiation of permessage-deflate (RFC 7692) for Undertow handshakes.
+ *
+ * Undertow negotiates once per handshake but creates the {@link ExtensionFunction} without the
+ * outcome, so every accepted offer has to end up with the configured parameters. An offer that
+ * asks for something else is declined and the client can fall back to its next offer or to no
+ * compression:
+ * <ul>
+ *     <li>server_no_context_takeover is declined when context takeover is configured.</li>
+ *     <li>server_max_window_bits below 15 is declined, the JDK Deflater always uses a 32K window.</li>
+ * </ul>
+ * The window bits of the client are limited with client_max_window_bits when the client offers it.
+ * Without context takeover the client is asked not to keep its context either.
+ */
+public class WsDeflateHandshake implements ExtensionHandshake {
+    public static final String PERMESSAGE_DEFLATE = "permessage-deflate";
+    private static final String SERVER_NO_CONTEXT_TAKEOVER = "server_no_context_takeover";
+    private static final String CLIENT_NO_CONTEXT_TAKEOVER = "client_no_context_takeover";
+    private static final String SERVER_MAX_WINDOW_BITS = "server_max_window_bits";
+    private static final String CLIENT_MAX_WINDOW_BITS = "client_max_window_bits";
+    private static final int MAX_WINDOW_BITS = 15;
+
+    private final int level;
+    private final boolean contextTakeover;
+    private final int clientMaxWindowBits;
+    private final int minSize;
+
+    /**
+     * @param level deflate level from 0 to 9
+     * @param contextTakeover keep the compression context between messages
+     * @param clientMaxWindowBits window bits from 8 to 15 the client may use for its messages
+     * @param minSize messages smaller than this are not compressed
+     */
+    public WsDeflateHandshake(int level, boolean contextTakeover, int clientMaxWindowBits, int minSize) {
+        this.level = level;
+        this.contextTakeover = contextTakeover;
+        this.clientMaxWindowBits = clientMaxWindowBits;
+        this.minSize = minSize;
+    }
+
+    @Override
+    public String getName() {
+        return PERMESSAGE_DEFLATE;
+    }
+
+    @Override
+    public WebSocketExtension accept(WebSocketExtension extension) {
+        if (!PERMESSAGE_DEFLATE.equals(extension.getName())) {
+            return null;
+        }
+        boolean clientWindowBitsOffered = false;
+        for (WebSocketExtension.Parameter parameter : extension.getParameters()) {
+            switch (parameter.getName()) {
+                case SERVER_NO_CONTEXT_TAKEOVER -> {
+                    if (contextTakeover) return null;
+                }
+                case SERVER_MAX_WINDOW_BITS -> {
+                    if (parseWindowBits(parameter.getValue()) != MAX_WINDOW_BITS) return null;
+                }
+                case CLIENT_MAX_WINDOW_BITS -> clientWindowBitsOffered = true;
+                case CLIENT_NO_CONTEXT_TAKEOVER -> {
+                    // a hint that the client resets its context, the inflater reads either way
+                }
+                default -> {
+                    return null;
+                }
+            }
+        }
+        List<WebSocketExtension.Parameter> parameters = new ArrayList<>();
+        if (!contextTakeover) {
+            parameters.add(new WebSocketExtension.Parameter(SERVER_NO_CONTEXT_TAKEOVER, null));
+            parameters.add(new WebSocketExtension.Parameter(CLIENT_NO_CONTEXT_TAKEOVER, null));
+        }
+        if (clientWindowBitsOffered && clientMaxWindowBits < MAX_WINDOW_BITS) {
+            parameters.add(new WebSocketExtension.Parameter(CLIENT_MAX_WINDOW_BITS, Integer.toString(clientMaxWindowBits)));
+        }
+        return new WebSocketExtension(PERMESSAGE_DEFLATE, parameters);
+    }
+
+    @Override
+    public boolean isIncompatible(List<ExtensionHandshake> extensions) {
+        for (ExtensionHandshake extension : extensions) {
+            if (PERMESSAGE_DEFLATE.equals(extension.getName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public ExtensionFunction create() {
+        return new WsDeflateFunction(level, minSize, contextTakeover);
+    }
+
+    private static int parseWindowBits(String value) {
+        try {
+            return value == null ? -1 : Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
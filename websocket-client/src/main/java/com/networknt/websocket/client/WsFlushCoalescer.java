@@ -0,0 +1,202 @@
+package com.networknt.websocket.client;
+
+import io.undertow.connector.PooledByteBuffer;
+import io.undertow.util.ImmediatePooledByteBuffer;
+import io.undertow.websockets.core.StreamSinkFrameChannel;
+import io.undertow.websockets.core.WebSocketCallback;
+import io.undertow.websockets.core.WebSocketChannel;
+import io.undertow.websockets.core.WebSocketFrameType;
+import org.xnio.ChannelExceptionHandler;
+import org.xnio.ChannelListener;
+import org.xnio.ChannelListeners;
+import org.xnio.IoUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gathers the frames sent to a channel and flushes them together, so that many small messages
+ * cost one gathering write, and one TLS record, instead of one each. Frames are gathered until the
+ * end of the current iteration of the IO thread of the channel, or for a window. The timers of the
+ * XNIO IO thread count in milliseconds, so the window is rounded up to whole milliseconds.
+ *
+ * The coalescer is attached to the channel with {@link #attach}, which makes the channel queue
+ * frames until they are flushed explicitly. Frames sent with
+ * {@link io.undertow.websockets.core.WebSockets} are still flushed right away and take the gathered
+ * frames with them, in order.
+ */
+public final class WsFlushCoalescer {
+    private final WebSocketChannel channel;
+    private final long windowMillis;
+    private final WsRelayMetrics metrics;
+
+    private List<Pending> pending = new ArrayList<>();
+    private long firstQueued;
+    private boolean scheduled;
+
+    private WsFlushCoalescer(WebSocketChannel channel, long windowMicros, WsRelayMetrics metrics) {
+        this.channel = channel;
+        this.windowMillis = windowMillis(windowMicros);
+        this.metrics = metrics;
+    }
+
+    /**
+     * Create a coalescer for the channel and attach it.
+     *
+     * @param windowMicros how long frames are gathered, 0 until the end of the current IO loop
+     *                     iteration. Rounded up to whole milliseconds, 1 to 1000 gather for 1 ms.
+     */
+    public static WsFlushCoalescer attach(WebSocketChannel channel, long windowMicros, WsRelayMetrics metrics) {
+        WsFlushCoalescer coalescer = new WsFlushCoalescer(channel, windowMicros, metrics);
+        channel.setRequireExplicitFlush(true);
+        channel.setAttribute(WsAttributes.FLUSH_COALESCER, coalescer);
+        return coalescer;
+    }
+
+    /**
+     * @return the window in the milliseconds of the XNIO timer, at least 1 for a window above 0
+     */
+    static long windowMillis(long windowMicros) {
+        return windowMicros <= 0 ? 0 : (windowMicros + 999) / 1000;
+    }
+
+    /**
+     * @return the coalescer attached to the channel or null
+     */
+    public static WsFlushCoalescer get(WebSocketChannel channel) {
+        return channel.getAttribute(WsAttributes.FLUSH_COALESCER) instanceof WsFlushCoalescer coalescer ? coalescer : null;
+    }
+
+    public void sendText(String text, WebSocketCallback<Void> callback) {
+        send(WebSocketFrameType.TEXT, new ImmediatePooledByteBuffer(ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8))), callback);
+    }
+
+    /**
+     * The payload is copied into one buffer, the data can be freed once the callback is called.
+     */
+    public void sendBinary(ByteBuffer[] data, WebSocketCallback<Void> callback) {
+        send(WebSocketFrameType.BINARY, merge(data), callback);
+    }
+
+    /**
+     * Shut down the writes of a frame that has its payload and flush it with the next batch.
+     *
+     * @param sink the frame
+     * @param callback called once the frame is flushed, may be null
+     */
+    public void flushLater(StreamSinkFrameChannel sink, WebSocketCallback<Void> callback) throws IOException {
+        sink.shutdownWrites();
+        boolean schedule;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                firstQueued = System.nanoTime();
+            }
+            pending.add(new Pending(sink, callback));
+            schedule = !scheduled;
+            scheduled = true;
+        }
+        if (schedule) {
+            if (windowMillis > 0) {
+                channel.getIoThread().executeAfter(this::flush, windowMillis, TimeUnit.MILLISECONDS);
+            } else {
+                channel.getIoThread().execute(this::flush);
+            }
+        }
+    }
+
+    private void send(WebSocketFrameType type, PooledByteBuffer payload, WebSocketCallback<Void> callback) {
+        StreamSinkFrameChannel sink;
+        try {
+            sink = channel.send(type);
+        } catch (IOException e) {
+            payload.close();
+            failed(callback, e);
+            return;
+        }
+        try {
+            if (!sink.send(payload)) {
+                payload.close();
+                throw new IOException("Unable to send on a newly created frame channel");
+            }
+            flushLater(sink, callback);
+        } catch (IOException e) {
+            IoUtils.safeClose(sink);
+            failed(callback, e);
+        }
+    }
+
+    private PooledByteBuffer merge(ByteBuffer[] data) {
+        long size = 0;
+        for (ByteBuffer buffer : data) {
+            size += buffer.remaining();
+        }
+        PooledByteBuffer merged = size <= channel.getBufferPool().getBufferSize() ?
+                channel.getBufferPool().allocate() : new ImmediatePooledByteBuffer(ByteBuffer.allocate((int) size));
+        ByteBuffer buffer = merged.getBuffer();
+        for (ByteBuffer b : data) {
+            buffer.put(b.duplicate());
+        }
+        buffer.flip();
+        return merged;
+    }
+
+    /**
+     * Flush the gathered frames on the IO thread. The first flush writes all frames queued on the
+     * channel so far, the ones after it usually find their frame written already.
+     */
+    private void flush() {
+        List<Pending> frames;
+        long delay;
+        synchronized (this) {
+            frames = pending;
+            pending = new ArrayList<>();
+            scheduled = false;
+            delay = System.nanoTime() - firstQueued;
+        }
+        if (frames.isEmpty()) {
+            return;
+        }
+        metrics.coalesced(frames.size(), delay);
+        for (Pending frame : frames) {
+            flush(frame.sink(), frame.callback());
+        }
+    }
+
+    private void flush(StreamSinkFrameChannel sink, WebSocketCallback<Void> callback) {
+        try {
+            if (sink.flush()) {
+                if (callback != null) {
+                    callback.complete(channel, null);
+                }
+                return;
+            }
+            sink.getWriteSetter().set(ChannelListeners.flushingChannelListener(
+                    (ChannelListener<StreamSinkFrameChannel>) flushed -> {
+                        if (callback != null) {
+                            callback.complete(channel, null);
+                        }
+                    },
+                    (ChannelExceptionHandler<StreamSinkFrameChannel>) (failed, exception) -> {
+                        IoUtils.safeClose(failed, channel);
+                        failed(callback, exception);
+                    }));
+            sink.resumeWrites();
+        } catch (IOException e) {
+            IoUtils.safeClose(sink, channel);
+            failed(callback, e);
+        }
+    }
+
+    private void failed(WebSocketCallback<Void> callback, IOException e) {
+        if (callback != null) {
+            callback.onError(channel, null, e);
+        }
+    }
+
+    private record Pending(StreamSinkFrameChannel sink, WebSocketCallback<Void> callback) {
+    }
+}
@@ -0,0 +1,249 @@
+package com.networknt.websocket.client;
+
+import io.undertow.websockets.core.WebSocketChannel;
+import io.undertow.websockets.core.WebSockets;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xnio.IoUtils;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pings the connections of a service on a {@link WsTimerWheel} and closes the ones that do not
+ * answer in time, like a half-open connection whose peer went away without a close. Every watched
+ * connection is a {@link Leg} with one timeout on the wheel at a time.
+ *
+ * A leg sends a ping with the time it was sent as payload and waits up to the timeout for the pong,
+ * the round trip time is recorded from the pong. After the pong, the next ping goes out once the
+ * interval since the last one has passed. A leg without a pong in time is closed as dead.
+ *
+ * A connection whose receives are suspended on purpose, for backpressure, does not read its pongs
+ * either. Its leg is suspended with it: a ping that went out since is not held against it and no
+ * ping goes out until the receives resume. Suspend the receives of a watched channel with
+ * {@link #suspendReceives(WebSocketChannel)} for that.
+ */
+public final class WsHeartbeat {
+    private static final Logger LOG = LoggerFactory.getLogger(WsHeartbeat.class);
+
+    private final WsTimerWheel wheel;
+    private final long intervalNanos;
+    private final long timeoutNanos;
+    private final WsMetrics metrics;
+    private final String module;
+    // meters by leg name
+    private final Map<String, WsMetrics.Timer> rtts = new ConcurrentHashMap<>();
+    private final Map<String, WsMetrics.Counter> deaths = new ConcurrentHashMap<>();
+
+    /**
+     * A connection that can be pinged and closed.
+     */
+    public interface Peer {
+        /**
+         * Send a ping with the payload. Called on the thread of the wheel, must not block.
+         */
+        void ping(ByteBuffer payload);
+
+        /**
+         * Close the connection without waiting for the peer.
+         */
+        void dead();
+    }
+
+    /**
+     * @param wheel the wheel that drives the pings
+     * @param intervalMs time between two pings of a connection
+     * @param timeoutMs time to wait for the pong of a ping, at most the interval
+     * @param metrics registry of the round trip times and dead connections
+     * @param module module label of the meters
+     */
+    public WsHeartbeat(WsTimerWheel wheel, long intervalMs, long timeoutMs, WsMetrics metrics, String module) {
+        this.wheel = wheel;
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMs);
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(Math.min(timeoutMs, intervalMs));
+        this.metrics = metrics;
+        this.module = module;
+    }
+
+    /**
+     * Watch a connection.
+     *
+     * @param name name of the leg for the meters, like upstream or downstream
+     * @param peer pings and closes the connection
+     * @return the leg, to pass it the pongs of the connection and cancel it once the connection closes
+     */
+    public Leg watch(String name, Peer peer) {
+        Leg leg = new Leg(name, peer);
+        leg.schedule(intervalNanos);
+        return leg;
+    }
+
+    /**
+     * Watch an Undertow channel until it closes. The pongs of the channel have to be passed to
+     * {@link #pong(WebSocketChannel, ByteBuffer[])} by its receive listener.
+     */
+    public Leg watch(String name, WebSocketChannel channel) {
+        Leg leg = watch(name, new Peer() {
+            @Override
+            public void ping(ByteBuffer payload) {
+                channel.getIoThread().execute(() -> WebSockets.sendPing(payload, channel, null));
+            }
+
+            @Override
+            public void dead() {
+                IoUtils.safeClose(channel);
+            }
+        });
+        channel.setAttribute(WsAttributes.HEARTBEAT, leg);
+        channel.addCloseTask(c -> leg.cancel());
+        // close tasks added after the channel closed never run
+        if (!channel.isOpen()) leg.cancel();
+        return leg;
+    }
+
+    /**
+     * Suspend the receives of a channel and the leg of the channel, if it is watched.
+     */
+    public static void suspendReceives(WebSocketChannel channel) {
+        if (channel.getAttribute(WsAttributes.HEARTBEAT) instanceof Leg leg) {
+            leg.suspend();
+        }
+        channel.suspendReceives();
+    }
+
+    /**
+     * Resume the receives of a channel and the leg of the channel, if it is watched.
+     */
+    public static void resumeReceives(WebSocketChannel channel) {
+        channel.resumeReceives();
+        if (channel.getAttribute(WsAttributes.HEARTBEAT) instanceof Leg leg) {
+            leg.resume();
+        }
+    }
+
+    /**
+     * Pass a pong received on a channel to its leg, if it is watched.
+     */
+    public static void pong(WebSocketChannel channel, ByteBuffer[] payload) {
+        if (channel.getAttribute(WsAttributes.HEARTBEAT) instanceof Leg leg) {
+            long sent = 0;
+            int read = 0;
+            for (ByteBuffer buffer : payload) {
+                for (int i = buffer.position(); i < buffer.limit() && read < Long.BYTES; i++, read++) {
+                    sent = sent << 8 | (buffer.get(i) & 0xff);
+                }
+            }
+            if (read == Long.BYTES) {
+                leg.pong(sent);
+            }
+        }
+    }
+
+    /**
+     * One watched connection.
+     */
+    public final class Leg {
+        private final String name;
+        private final Peer peer;
+        private final WsMetrics.Timer rtt;
+        // send time of the outstanding ping, 0 if there is none
+        private volatile long pingSent;
+        private volatile boolean ponged;
+        private volatile boolean suspended;
+        // the leg was suspended since the outstanding ping was sent, its pong may not have been read
+        private volatile boolean suspendedSincePing;
+        private volatile WsTimerWheel.Timeout timeout;
+        private volatile boolean cancelled;
+
+        private Leg(String name, Peer peer) {
+            this.name = name;
+            this.peer = peer;
+            this.rtt = rtts.computeIfAbsent(name, n -> metrics.timer("websocket_heartbeat_rtt_seconds", "Round trip time of the heartbeat pings.", "module", module, "leg", n));
+        }
+
+        /**
+         * Record the pong of a ping.
+         *
+         * @param sent the send time in the payload of the pong
+         */
+        public void pong(long sent) {
+            if (sent == pingSent && !ponged) {
+                ponged = true;
+                rtt.record(System.nanoTime() - sent);
+            }
+        }
+
+        /**
+         * Record the pong of a ping from its payload.
+         */
+        public void pong(ByteBuffer payload) {
+            if (payload.remaining() >= Long.BYTES) {
+                pong(payload.getLong(payload.position()));
+            }
+        }
+
+        /**
+         * Stop holding missing pongs against the connection, its pongs are not read until
+         * {@link #resume()}.
+         */
+        public void suspend() {
+            suspended = true;
+            suspendedSincePing = true;
+        }
+
+        /**
+         * The pongs of the connection are read again, the pings start again with the next timeout.
+         */
+        public void resume() {
+            suspended = false;
+        }
+
+        public void cancel() {
+            cancelled = true;
+            WsTimerWheel.Timeout t = timeout;
+            if (t != null) t.cancel();
+        }
+
+        private void schedule(long delayNanos) {
+            if (!cancelled) {
+                timeout = wheel.schedule(this::fire, delayNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        private void fire() {
+            if (cancelled) {
+                return;
+            }
+            if (pingSent != 0) {
+                if (!ponged && !suspendedSincePing) {
+                    LOG.debug("No pong on the {} leg within {} ms. Closing the connection", name, TimeUnit.NANOSECONDS.toMillis(timeoutNanos));
+                    cancelled = true;
+                    deaths.computeIfAbsent(name, n -> metrics.counter("websocket_heartbeat_dead_total", "Connections closed because they did not answer a heartbeat ping in time.", "module", module, "leg", n)).increment();
+                    peer.dead();
+                    return;
+                }
+                boolean answered = ponged;
+                pingSent = 0;
+                if (answered && intervalNanos > timeoutNanos) {
+                    schedule(intervalNanos - timeoutNanos);
+                    return;
+                }
+            }
+            // cleared before the check, a suspend from now on marks the next ping
+            suspendedSincePing = false;
+            if (suspended) {
+                // the pong would not be read, look again after an interval
+                schedule(intervalNanos);
+                return;
+            }
+            long now = System.nanoTime();
+            // 0 marks no outstanding ping
+            pingSent = now != 0 ? now : 1;
+            ponged = false;
+            peer.ping(ByteBuffer.allocate(Long.BYTES).putLong(0, pingSent));
+            schedule(timeoutNanos);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.networknt.websocket.client;
+
+import io.undertow.connector.PooledByteBuffer;
+import io.undertow.websockets.core.StreamSinkFrameChannel;
+import io.undertow.websockets.core.StreamSourceFrameChannel;
+import io.undertow.websockets.core.WebSocketChannel;
+import io.undertow.websockets.core.WebSocketFrameType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xnio.ChannelExceptionHandler;
+import org.xnio.ChannelListener;
+import org.xnio.ChannelListeners;
+import org.xnio.IoUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+
+/**
+ * Streams one message from an Undertow channel to another chunk by chunk, each chunk is sent as a
+ * fragment as soon as it is read. The pooled buffer a chunk was read into is handed to the frame
+ * sink of the peer, which frees it once written. Reads are suspended until the fragment is
+ * flushed, so at most one chunk per message is held in memory. The bytes of text messages are
+ * passed through as they are, the peer sees the same UTF-8.
+ *
+ * Start it with {@link #handleEvent} from onText or onBinary of the receive listener.
+ */
+public final class WsMessageStreamer implements ChannelListener<StreamSourceFrameChannel> {
+    private static final Logger LOG = LoggerFactory.getLogger(WsMessageStreamer.class);
+
+    private final WebSocketChannel channel;
+    private final WebSocketChannel peer;
+    private final WebSocketFrameType messageType;
+    private final WsRelayMetrics metrics;
+    private final WsRelayMetrics.Direction direction;
+    private final Consumer<IOException> onFailure;
+    private boolean first = true;
+
+    /**
+     * @param channel the channel the message is read from
+     * @param peer the channel the message is streamed to
+     * @param messageType TEXT or BINARY
+     * @param metrics meters of the relay
+     * @param direction direction of the message for the meters
+     * @param onFailure called after the message channel was closed when a chunk could not be read or sent
+     */
+    public WsMessageStreamer(WebSocketChannel channel, WebSocketChannel peer, WebSocketFrameType messageType,
+                             WsRelayMetrics metrics, WsRelayMetrics.Direction direction, Consumer<IOException> onFailure) {
+        this.channel = channel;
+        this.peer = peer;
+        this.messageType = messageType;
+        this.metrics = metrics;
+        this.direction = direction;
+        this.onFailure = onFailure;
+    }
+
+    @Override
+    public void handleEvent(StreamSourceFrameChannel messageChannel) {
+        PooledByteBuffer pooled = channel.getBufferPool().allocate();
+        ByteBuffer buffer = pooled.getBuffer();
+        boolean handedOff = false;
+        try {
+            int res = 0;
+            while (buffer.hasRemaining()) {
+                res = messageChannel.read(buffer);
+                if (res <= 0) {
+                    break;
+                }
+            }
+            boolean last = res == -1;
+            buffer.flip();
+            if (!last && !buffer.hasRemaining()) {
+                // nothing available yet, wait for the next read notification
+                pooled.close();
+                messageChannel.getReadSetter().set(this);
+                messageChannel.resumeReads();
+                return;
+            }
+            messageChannel.suspendReads();
+            metrics.relayed(direction, buffer.remaining(), last);
+
+            StreamSinkFrameChannel sink = peer.send(first ? messageType : WebSocketFrameType.CONTINUATION);
+            first = false;
+            sink.setFinalFragment(last);
+            if (!sink.send(pooled)) {
+                throw new IOException("Unable to send fragment on a newly created frame channel");
+            }
+            handedOff = true;
+            LOG.trace("Streaming {} chunk from {} to {}. Last: {}", messageType, channel.getSourceAddress(), peer.getDestinationAddress(), last);
+            flush(sink, messageChannel, last);
+        } catch (IOException e) {
+            if (!handedOff) {
+                pooled.close();
+            }
+            failed(messageChannel, e);
+        }
+    }
+
+    private void flush(StreamSinkFrameChannel sink, StreamSourceFrameChannel messageChannel, boolean last) throws IOException {
+        sink.shutdownWrites();
+        if (!sink.flush()) {
+            sink.getWriteSetter().set(ChannelListeners.flushingChannelListener(
+                    (ChannelListener<StreamSinkFrameChannel>) flushed -> readNext(messageChannel, last),
+                    (ChannelExceptionHandler<StreamSinkFrameChannel>) (failedSink, exception) -> failed(messageChannel, exception)));
+            sink.resumeWrites();
+            return;
+        }
+        readNext(messageChannel, last);
+    }
+
+    private void readNext(StreamSourceFrameChannel messageChannel, boolean last) {
+        if (!last) {
+            // reads of the message channel belong to the IO thread of its channel
+            channel.getIoThread().execute(() -> handleEvent(messageChannel));
+        }
+    }
+
+    private void failed(StreamSourceFrameChannel messageChannel, IOException e) {
+        LOG.error("Failed to stream message from {} to {}", channel.getSourceAddress(), peer.getDestinationAddress(), e);
+        metrics.sendFailed(direction);
+        IoUtils.safeClose(messageChannel);
+        onFailure.accept(e);
+    }
+}
@@ -0,0 +1,316 @@
+package com.networknt.websocket.client;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Dependency free metrics registry shared by the websocket modules and rendered in the Prometheus
+ * text format by {@link WsMetricsHandler}.
+ *
+ * Meters are looked up once, when a connection is set up, and updated on the hot path with a
+ * {@link LongAdder}. The {@link #NOOP} registry hands out meters that do nothing, so a module with
+ * metrics disabled only pays for an empty method call.
+ *
+ * The metrics and prometheus modules of light-4j record an HTTP exchange once it completes. A
+ * WebSocket exchange completes with the upgrade, so they never see the messages, queues and close
+ * codes of the connection that follows. This registry counts those on the IO threads without
+ * pulling a metrics library into the websocket modules.
+ *
+ * Labels are given as name and value pairs. Series are never removed, so keep the values bounded,
+ * for example a service id found by discovery, and never use a connection or channel id or a
+ * value taken from the request as is.
+ */
+public final class WsMetrics {
+    public static final WsMetrics NOOP = new WsMetrics(false);
+    private static final WsMetrics INSTANCE = new WsMetrics(true);
+
+    // histogram buckets in seconds
+    private static final double[] TIMER_BUCKETS = {0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+
+    private static final Counter NOOP_COUNTER = new Counter() {
+        @Override
+        public void increment(long amount) {
+        }
+
+        @Override
+        public long count() {
+            return 0;
+        }
+    };
+
+    private static final Gauge NOOP_GAUGE = new Gauge() {
+        @Override
+        public void add(long amount) {
+        }
+
+        @Override
+        public long value() {
+            return 0;
+        }
+    };
+
+    private static final Timer NOOP_TIMER = nanos -> {
+    };
+
+    private final boolean enabled;
+    private final Map<String, Family> families = new ConcurrentHashMap<>();
+    private final Map<String, WsRelayMetrics> relays = new ConcurrentHashMap<>();
+
+    private WsMetrics(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @return the registry that is rendered by {@link WsMetricsHandler}
+     */
+    public static WsMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return the shared registry if enabled, otherwise {@link #NOOP}
+     */
+    public static WsMetrics of(boolean enabled) {
+        return enabled ? INSTANCE : NOOP;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Relay meters of one module and service, created on first use and shared afterwards.
+     */
+    public WsRelayMetrics relay(String module, String service) {
+        if(!enabled) {
+            return WsRelayMetrics.NOOP;
+        }
+        return relays.computeIfAbsent(module + '\n' + service, k -> new WsRelayMetrics(this, module, service));
+    }
+
+    /**
+     * A monotonic counter. The name should end with _total.
+     */
+    public Counter counter(String name, String help, String... labels) {
+        if(!enabled) {
+            return NOOP_COUNTER;
+        }
+        return (Counter) family(name, help, Type.COUNTER).series.computeIfAbsent(labels(labels), k -> new AdderCounter());
+    }
+
+    /**
+     * A value that goes up and down, like the number of open connections.
+     *
+     * @throws IllegalArgumentException if the series is already read from a supplier
+     */
+    public Gauge gauge(String name, String help, String... labels) {
+        if(!enabled) {
+            return NOOP_GAUGE;
+        }
+        String key = labels(labels);
+        Object meter = family(name, help, Type.GAUGE).series.computeIfAbsent(key, k -> new AdderGauge());
+        if(!(meter instanceof Gauge gauge)) {
+            throw new IllegalArgumentException("Gauge " + name + key + " is already read from a supplier");
+        }
+        return gauge;
+    }
+
+    /**
+     * A gauge read from the supplier on every scrape. A supplier registered earlier with the same
+     * name and labels is replaced.
+     *
+     * @throws IllegalArgumentException if the series is already a gauge updated by its holder
+     */
+    public void gauge(String name, String help, LongSupplier supplier, String... labels) {
+        if(!enabled) {
+            return;
+        }
+        String key = labels(labels);
+        family(name, help, Type.GAUGE).series.compute(key, (k, meter) -> {
+            if(meter instanceof Gauge) {
+                throw new IllegalArgumentException("Gauge " + name + key + " is already updated by its holder");
+            }
+            return supplier;
+        });
+    }
+
+    /**
+     * A latency histogram with buckets from 0.5 ms to 10 s. The name should end with _seconds.
+     */
+    public Timer timer(String name, String help, String... labels) {
+        if(!enabled) {
+            return NOOP_TIMER;
+        }
+        return (Timer) family(name, help, Type.HISTOGRAM).series.computeIfAbsent(labels(labels), k -> new BucketTimer());
+    }
+
+    /**
+     * Render all meters in the Prometheus text exposition format, version 0.0.4.
+     */
+    public String scrape() {
+        StringBuilder sb = new StringBuilder(4096);
+        for(Family family : new TreeMap<>(families).values()) {
+            sb.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+            sb.append("# TYPE ").append(family.name).append(' ').append(family.type.name().toLowerCase()).append('\n');
+            for(Map.Entry<String, Object> series : new TreeMap<>(family.series).entrySet()) {
+                Object meter = series.getValue();
+                if(meter instanceof BucketTimer timer) {
+                    timer.write(sb, family.name, series.getKey());
+                } else {
+                    long value = meter instanceof LongSupplier supplier ? supplier.getAsLong()
+                            : meter instanceof Counter counter ? counter.count() : ((Gauge) meter).value();
+                    sb.append(family.name).append(series.getKey()).append(' ').append(value).append('\n');
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    private Family family(String name, String help, Type type) {
+        Family family = families.computeIfAbsent(name, n -> new Family(n, help, type));
+        if(family.type != type) {
+            throw new IllegalArgumentException("Metric " + name + " is already registered as a " + family.type.name().toLowerCase());
+        }
+        return family;
+    }
+
+    private static String labels(String... labels) {
+        if(labels.length == 0) {
+            return "";
+        }
+        if(labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be name and value pairs");
+        }
+        StringBuilder sb = new StringBuilder("{");
+        for(int i = 0; i < labels.length; i += 2) {
+            if(i > 0) {
+                sb.append(',');
+            }
+            sb.append(labels[i]).append("=\"");
+            String value = labels[i + 1] == null ? "" : labels[i + 1];
+            for(int j = 0; j < value.length(); j++) {
+                char c = value.charAt(j);
+                switch (c) {
+                    case '\\' -> sb.append("\\\\");
+                    case '"' -> sb.append("\\\"");
+                    case '\n' -> sb.append("\\n");
+                    default -> sb.append(c);
+                }
+            }
+            sb.append('"');
+        }
+        return sb.append('}').toString();
+    }
+
+    public interface Counter {
+        default void increment() {
+            increment(1);
+        }
+
+        void increment(long amount);
+
+        long count();
+    }
+
+    public interface Gauge {
+        default void increment() {
+            add(1);
+        }
+
+        default void decrement() {
+            add(-1);
+        }
+
+        void add(long amount);
+
+        long value();
+    }
+
+    public interface Timer {
+        void record(long nanos);
+    }
+
+    private enum Type {
+        COUNTER, GAUGE, HISTOGRAM
+    }
+
+    private record Family(String name, String help, Type type, Map<String, Object> series) {
+        private Family(String name, String help, Type type) {
+            this(name, help, type, new ConcurrentHashMap<>());
+        }
+    }
+
+    private static final class AdderCounter implements Counter {
+        private final LongAdder adder = new LongAdder();
+
+        @Override
+        public void increment(long amount) {
+            adder.add(amount);
+        }
+
+        @Override
+        public long count() {
+            return adder.sum();
+        }
+    }
+
+    private static final class AdderGauge implements Gauge {
+        private final LongAdder adder = new LongAdder();
+
+        @Override
+        public void add(long amount) {
+            adder.add(amount);
+        }
+
+        @Override
+        public long value() {
+            return adder.sum();
+        }
+    }
+
+    private static final class BucketTimer implements Timer {
+        private static final long[] BOUNDS = new long[TIMER_BUCKETS.length];
+
+        static {
+            for(int i = 0; i < TIMER_BUCKETS.length; i++) {
+                BOUNDS[i] = (long) (TIMER_BUCKETS[i] * TimeUnit.SECONDS.toNanos(1));
+            }
+        }
+
+        // the last bucket counts the values above the largest bound
+        private final LongAdder[] buckets = new LongAdder[BOUNDS.length + 1];
+        private final LongAdder sum = new LongAdder();
+
+        private BucketTimer() {
+            for(int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        @Override
+        public void record(long nanos) {
+            int i = 0;
+            while(i < BOUNDS.length && nanos > BOUNDS[i]) {
+                i++;
+            }
+            buckets[i].increment();
+            sum.add(nanos);
+        }
+
+        private void write(StringBuilder sb, String name, String labels) {
+            String prefix = labels.isEmpty() ? "{" : labels.substring(0, labels.length() - 1) + ",";
+            long cumulative = 0;
+            for(int i = 0; i < buckets.length; i++) {
+                cumulative += buckets[i].sum();
+                String bound = i < BOUNDS.length ? Double.toString(TIMER_BUCKETS[i]) : "+Inf";
+                sb.append(name).append("_bucket").append(prefix).append("le=\"").append(bound).append("\"} ").append(cumulative).append('\n');
+            }
+            sb.append(name).append("_sum").append(labels).append(' ').append(sum.sum() / 1e9).append('\n');
+            sb.append(name).append("_count").append(labels).append(' ').append(cumulative).append('\n');
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.networknt.websocket.client;
+
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
+
+/**
+ * Endpoint that renders {@link WsMetrics#getInstance()} for a Prometheus scrape. Register it in
+ * handler.yml on a path like /ws-metrics.
+ */
+public class WsMetricsHandler implements HttpHandler {
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    @Override
+    public void handleRequest(HttpServerExchange exchange) throws Exception {
+        exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, CONTENT_TYPE);
+        exchange.getResponseSender().send(WsMetrics.getInstance().scrape());
+    }
+}
@@ -0,0 +1,320 @@
+package com.networknt.websocket.client;
+
+import io.undertow.websockets.core.WebSocketCallback;
+import io.undertow.websockets.core.WebSocketChannel;
+import io.undertow.websockets.core.WebSockets;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Outbound queue of a channel that keeps a slow consumer from piling up write buffers. One message
+ * is written to the channel at a time and the rest wait here. Once the queued messages or bytes
+ * reach their limit, the {@link Policy} decides what gives.
+ *
+ * The queue is attached to the channel with {@link #attach}. {@link WsClient#send} and
+ * {@link WsBroadcast} go through the queue of a channel when it has one. A message that is dropped
+ * fails its callback with a {@link DroppedException}.
+ */
+public class WsOutboundQueue {
+    private static final Logger LOG = LoggerFactory.getLogger(WsOutboundQueue.class);
+
+    public enum Policy {
+        /**
+         * Drop the oldest queued message to make room for the new one. The message in flight cannot
+         * be dropped, if it alone fills a limit the new message is dropped instead.
+         */
+        DROP_OLDEST,
+
+        /**
+         * Drop the new message and keep the queued ones.
+         */
+        DROP_NEWEST,
+
+        /**
+         * A message with a key replaces the queued message with the same key in its place, only the
+         * latest value of a key is written. Beyond that the oldest message is dropped.
+         */
+        COALESCE_LATEST,
+
+        /**
+         * Drop everything queued and close the channel with the close code of the queue.
+         */
+        DISCONNECT
+    }
+
+    public static class DroppedException extends IOException {
+        public DroppedException(String message) {
+            super(message);
+        }
+    }
+
+    private final WebSocketChannel channel;
+    private final Policy policy;
+    private final int maxQueuedMessages;
+    private final long maxQueuedBytes;
+    private final int closeCode;
+    private final WsRelayMetrics metrics;
+
+    private final ArrayDeque<Entry> queue = new ArrayDeque<>();
+    private final Map<String, Entry> byKey = new HashMap<>();
+    private long queuedBytes;
+    private boolean writing;
+    private boolean evicted;
+
+    /**
+     * @param channel the channel to write to
+     * @param policy what to do once a limit is reached
+     * @param maxQueuedMessages max number of messages queued and in flight
+     * @param maxQueuedBytes max number of bytes queued and in flight, characters for text messages
+     * @param closeCode close code for {@link Policy#DISCONNECT}, usually 1008 or 1013
+     * @param metrics meters for dropped messages and evicted consumers
+     */
+    public WsOutboundQueue(WebSocketChannel channel, Policy policy, int maxQueuedMessages, long maxQueuedBytes, int closeCode, WsRelayMetrics metrics) {
+        this.channel = channel;
+        this.policy = policy;
+        this.maxQueuedMessages = maxQueuedMessages;
+        this.maxQueuedBytes = maxQueuedBytes;
+        this.closeCode = closeCode;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Create a queue for the channel and attach it, so that sends through {@link WsClient} and
+     * {@link WsBroadcast} use it.
+     */
+    public static WsOutboundQueue attach(WebSocketChannel channel, Policy policy, int maxQueuedMessages, long maxQueuedBytes, int closeCode, WsRelayMetrics metrics) {
+        WsOutboundQueue queue = new WsOutboundQueue(channel, policy, maxQueuedMessages, maxQueuedBytes, closeCode, metrics);
+        channel.setAttribute(WsAttributes.OUTBOUND_QUEUE, queue);
+        return queue;
+    }
+
+    /**
+     * @return the queue attached to the channel or null
+     */
+    public static WsOutboundQueue get(WebSocketChannel channel) {
+        return channel.getAttribute(WsAttributes.OUTBOUND_QUEUE) instanceof WsOutboundQueue queue ? queue : null;
+    }
+
+    public void sendText(String text, String key, WebSocketCallback<Void> callback) {
+        offer(new Entry(text, null, false, key, text.length(), callback));
+    }
+
+    /**
+     * Queue an encoded text message. The buffer must not be modified until the callback is called.
+     */
+    public void sendText(ByteBuffer data, String key, WebSocketCallback<Void> callback) {
+        offer(new Entry(null, new ByteBuffer[]{data}, false, key, data.remaining(), callback));
+    }
+
+    /**
+     * Queue a binary message. The buffers must not be modified until the callback is called.
+     */
+    public void sendBinary(ByteBuffer[] data, String key, WebSocketCallback<Void> callback) {
+        long size = 0;
+        for (ByteBuffer buffer : data) {
+            size += buffer.remaining();
+        }
+        offer(new Entry(null, data, true, key, size, callback));
+    }
+
+    public synchronized int getQueuedMessages() {
+        return queue.size() + (writing ? 1 : 0);
+    }
+
+    public synchronized long getQueuedBytes() {
+        return queuedBytes;
+    }
+
+    private void offer(Entry entry) {
+        List<Entry> dropped = new ArrayList<>(1);
+        boolean evict = false;
+        Entry next = null;
+        synchronized (this) {
+            if (evicted) {
+                dropped.add(entry);
+            } else if (policy == Policy.COALESCE_LATEST && entry.key != null && byKey.containsKey(entry.key)) {
+                Entry queued = byKey.get(entry.key);
+                queuedBytes -= queued.size;
+                dropped.add(queued.replaceWith(entry));
+                queuedBytes += entry.size;
+            } else if (isFull(entry)) {
+                switch (policy) {
+                    case DROP_NEWEST -> dropped.add(entry);
+                    case DISCONNECT -> {
+                        evicted = true;
+                        evict = true;
+                        dropped.add(entry);
+                        drainTo(dropped);
+                    }
+                    default -> {
+                        // drop the oldest messages until the new one fits, the one in flight cannot be dropped
+                        while (!queue.isEmpty() && isFull(entry)) {
+                            dropped.add(remove(queue.poll()));
+                        }
+                        if (isFull(entry)) {
+                            dropped.add(entry);
+                        } else {
+                            add(entry);
+                        }
+                    }
+                }
+            } else {
+                add(entry);
+            }
+            if (!writing && !evicted) {
+                next = poll();
+            }
+        }
+        for (Entry e : dropped) {
+            fail(e, evict ? "Slow consumer evicted" : "Dropped by " + policy);
+        }
+        if (evict) {
+            metrics.evicted();
+            evict();
+        }
+        if (next != null) {
+            write(next);
+        }
+    }
+
+    private boolean isFull(Entry entry) {
+        // the message in flight counts against both limits. A message larger than the byte limit
+        // still goes through an empty queue
+        return getQueuedMessages() >= maxQueuedMessages || (queuedBytes + entry.size > maxQueuedBytes && getQueuedMessages() > 0);
+    }
+
+    private void add(Entry entry) {
+        queue.add(entry);
+        queuedBytes += entry.size;
+        if (policy == Policy.COALESCE_LATEST && entry.key != null) {
+            byKey.put(entry.key, entry);
+        }
+    }
+
+    private Entry remove(Entry entry) {
+        queuedBytes -= entry.size;
+        if (entry.key != null) {
+            byKey.remove(entry.key, entry);
+        }
+        return entry;
+    }
+
+    private Entry poll() {
+        Entry entry = queue.poll();
+        if (entry != null) {
+            if (entry.key != null) {
+                byKey.remove(entry.key, entry);
+            }
+            writing = true;
+        }
+        return entry;
+    }
+
+    private void drainTo(List<Entry> dropped) {
+        for (Entry entry; (entry = queue.poll()) != null; ) {
+            dropped.add(remove(entry));
+        }
+    }
+
+    private void write(Entry entry) {
+        WebSocketCallback<Void> written = new WebSocketCallback<>() {
+            @Override
+            public void complete(WebSocketChannel channel, Void context) {
+                done(entry);
+                if (entry.callback != null) entry.callback.complete(channel, null);
+            }
+
+            @Override
+            public void onError(WebSocketChannel channel, Void context, Throwable throwable) {
+                done(entry);
+                if (entry.callback != null) entry.callback.onError(channel, null, throwable);
+            }
+        };
+        send(entry.text, entry.data, entry.binary, written);
+    }
+
+    /**
+     * Write one message to the channel.
+     *
+     * @param text the text message, or null if the message is in data
+     * @param data the encoded text or the binary message
+     */
+    void send(String text, ByteBuffer[] data, boolean binary, WebSocketCallback<Void> callback) {
+        if (text != null) {
+            WebSockets.sendText(text, channel, callback);
+        } else if (binary) {
+            WebSockets.sendBinary(data, channel, callback);
+        } else {
+            WebSockets.sendText(data[0], channel, callback);
+        }
+    }
+
+    /**
+     * Close the channel of an evicted slow consumer.
+     */
+    void evict() {
+        LOG.debug("Evicting slow consumer {}. Queued messages: {}, bytes: {}", channel.getSourceAddress(), getQueuedMessages(), getQueuedBytes());
+        WebSockets.sendClose(closeCode, "Slow consumer", channel, null);
+    }
+
+    private void done(Entry entry) {
+        Entry next;
+        synchronized (this) {
+            queuedBytes -= entry.size;
+            writing = false;
+            next = evicted ? null : poll();
+        }
+        if (next != null) {
+            write(next);
+        }
+    }
+
+    private void fail(Entry entry, String reason) {
+        metrics.dropped(policy);
+        if (entry.callback != null) {
+            entry.callback.onError(channel, null, new DroppedException(reason));
+        }
+    }
+
+    /**
+     * A queued message. Coalescing swaps the content of the entry so that it keeps its place.
+     */
+    private static final class Entry {
+        private String text;
+        private ByteBuffer[] data;
+        private boolean binary;
+        private final String key;
+        private long size;
+        private WebSocketCallback<Void> callback;
+
+        private Entry(String text, ByteBuffer[] data, boolean binary, String key, long size, WebSocketCallback<Void> callback) {
+            this.text = text;
+            this.data = data;
+            this.binary = binary;
+            this.key = key;
+            this.size = size;
+            this.callback = callback;
+        }
+
+        /**
+         * @return the replaced content as an entry of its own to fail
+         */
+        private Entry replaceWith(Entry latest) {
+            Entry stale = new Entry(text, data, binary, key, size, callback);
+            text = latest.text;
+            data = latest.data;
+            binary = latest.binary;
+            size = latest.size;
+            callback = latest.callback;
+            return stale;
+        }
+    }
+}
@@ -7,8 +7,9 @@ public class WsProxyClientPair {
         CLIENT_TO_PROXY,
         PROXY_TO_DOWNSTREAM
     }
-    private WsClient clientToProxyClient;
-    private WsClient proxyToDestinationClient;
+    // set from the IO thread of one side and read from the other
+    private volatile WsClient clientToProxyClient;
+    private volatile WsClient proxyToDestinationClient;
 
     public WsProxyClientPair(final WsClient clientToProxyClient, final WsClient proxyToDestinationClient) {
         this.clientToProxyClient = clientToProxyClient;
@@ -33,6 +34,21 @@ public class WsProxyClientPair {
         this.clientToProxyClient = new WsClient(clientToProxyChannel);
     }
 
+    public WsClient getClientToProxyClient() {
+        return clientToProxyClient;
+    }
+
+    public WsClient getProxyToDestinationClient() {
+        return proxyToDestinationClient;
+    }
+
+    /**
+     * @return true once both the client and the destination are set
+     */
+    public boolean isPaired() {
+        return clientToProxyClient != null && proxyToDestinationClient != null;
+    }
+
     public WsClient getClientForChannel(final WebSocketChannel channel) {
         if (channel == null)
             return null;
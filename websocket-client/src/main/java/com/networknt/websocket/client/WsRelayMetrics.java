@@ -0,0 +1,150 @@
+package com.networknt.websocket.client;
+
+import io.undertow.websockets.core.WebSocketChannel;
+
+/**
+ * Meters of a relay between clients and backends, labelled by module and service. Upstream is the
+ * direction from the client to the backend and downstream the direction back to the client.
+ *
+ * Payload sizes of text messages are counted in characters, which is what the relays see without
+ * encoding the message again.
+ */
+public class WsRelayMetrics {
+    public static final WsRelayMetrics NOOP = new WsRelayMetrics(WsMetrics.NOOP, "", "");
+    // code label of the close codes without a name in WebSocketCloseCodes
+    static final String OTHER_CLOSE_CODE = "OTHER";
+
+    public enum Direction {
+        UPSTREAM, DOWNSTREAM
+    }
+
+    private final WsMetrics metrics;
+    private final String module;
+    private final String service;
+    private final WsMetrics.Counter upgrades;
+    private final WsMetrics.Gauge connections;
+    private final WsMetrics.Timer connectTime;
+    private final WsMetrics.Counter connectFailures;
+    private final WsMetrics.Gauge queuedMessages;
+    private final WsMetrics.Gauge queuedBytes;
+    private final WsMetrics.Counter evictions;
+    private final WsMetrics.Counter flushes;
+    private final WsMetrics.Counter flushedFrames;
+    private final WsMetrics.Timer flushDelay;
+    private final WsMetrics.Counter[] dropped = new WsMetrics.Counter[WsOutboundQueue.Policy.values().length];
+    private final WsMetrics.Counter[] messages = new WsMetrics.Counter[Direction.values().length];
+    private final WsMetrics.Counter[] bytes = new WsMetrics.Counter[Direction.values().length];
+    private final WsMetrics.Counter[] sendFailures = new WsMetrics.Counter[Direction.values().length];
+
+    WsRelayMetrics(WsMetrics metrics, String module, String service) {
+        this.metrics = metrics;
+        this.module = module;
+        this.service = service;
+        upgrades = metrics.counter("websocket_upgrades_total", "WebSocket upgrades accepted.", "module", module, "service", service);
+        connections = metrics.gauge("websocket_connections", "Open WebSocket connections accepted from clients and, in the rendezvous, from backends.", "module", module, "service", service);
+        connectTime = metrics.timer("websocket_downstream_connect_seconds", "Time to open a backend WebSocket connection.", "module", module, "service", service);
+        connectFailures = metrics.counter("websocket_downstream_connect_failures_total", "Backend WebSocket connections that could not be opened.", "module", module, "service", service);
+        queuedMessages = metrics.gauge("websocket_queued_messages", "Messages and parts queued for the backend.", "module", module, "service", service);
+        queuedBytes = metrics.gauge("websocket_queued_bytes", "Payload size queued for the backend.", "module", module, "service", service);
+        evictions = metrics.counter("websocket_evicted_consumers_total", "Slow consumers closed because their outbound queue was full.", "module", module, "service", service);
+        flushes = metrics.counter("websocket_coalesced_flushes_total", "Flushes of frames gathered by a WsFlushCoalescer.", "module", module, "service", service);
+        flushedFrames = metrics.counter("websocket_coalesced_frames_total", "Frames written by the flushes of a WsFlushCoalescer. Divided by websocket_coalesced_flushes_total it gives the frames per flush.", "module", module, "service", service);
+        flushDelay = metrics.timer("websocket_coalesce_delay_seconds", "Time the first frame of a coalesced flush waited for the flush.", "module", module, "service", service);
+        for(WsOutboundQueue.Policy policy : WsOutboundQueue.Policy.values()) {
+            dropped[policy.ordinal()] = metrics.counter("websocket_dropped_messages_total", "Messages dropped from the outbound queue of a slow consumer, by policy.", "module", module, "service", service, "policy", policy.name().toLowerCase());
+        }
+        for(Direction direction : Direction.values()) {
+            String d = direction.name().toLowerCase();
+            messages[direction.ordinal()] = metrics.counter("websocket_messages_total", "Messages relayed.", "module", module, "service", service, "direction", d);
+            bytes[direction.ordinal()] = metrics.counter("websocket_bytes_total", "Payload size relayed, characters for text messages.", "module", module, "service", service, "direction", d);
+            sendFailures[direction.ordinal()] = metrics.counter("websocket_send_failures_total", "Messages or parts that could not be relayed.", "module", module, "service", service, "direction", d);
+        }
+    }
+
+    public boolean isEnabled() {
+        return metrics.isEnabled();
+    }
+
+    /**
+     * Count the upgrade of an accepted channel and track it as open until it is closed. The close code
+     * of the channel is counted when it closes, a channel closed without a close frame counts as
+     * {@link WebSocketCloseCodes#ABNORMAL_CLOSURE}.
+     */
+    public void connectionOpened(WebSocketChannel channel) {
+        if(!metrics.isEnabled()) {
+            return;
+        }
+        upgrades.increment();
+        connections.increment();
+        channel.addCloseTask(c -> {
+            connections.decrement();
+            closed(c.getCloseCode());
+        });
+    }
+
+    /**
+     * Count a close by the name of its close code. The peer picks the code, so the application codes
+     * 3000 to 4999 and any other code without a name share the OTHER label instead of adding a series
+     * per value.
+     */
+    public void closed(int closeCode) {
+        if(!metrics.isEnabled()) {
+            return;
+        }
+        WebSocketCloseCodes code = WebSocketCloseCodes.fromCode(closeCode > 0 ? closeCode : WebSocketCloseCodes.ABNORMAL_CLOSURE.getCloseCode());
+        metrics.counter("websocket_closes_total", "Accepted connections closed, by close code.",
+                "module", module, "service", service, "code", code != null ? code.name() : OTHER_CLOSE_CODE).increment();
+    }
+
+    public void downstreamConnected(long startNanos) {
+        connectTime.record(System.nanoTime() - startNanos);
+    }
+
+    public void downstreamConnectFailed() {
+        connectFailures.increment();
+    }
+
+    /**
+     * Count a message or a part of it. The message count only goes up with the last part.
+     */
+    public void relayed(Direction direction, long size, boolean last) {
+        if(last) {
+            messages[direction.ordinal()].increment();
+        }
+        bytes[direction.ordinal()].increment(size);
+    }
+
+    public void sendFailed(Direction direction) {
+        sendFailures[direction.ordinal()].increment();
+    }
+
+    public void queued(long size) {
+        queuedMessages.increment();
+        queuedBytes.add(size);
+    }
+
+    public void dequeued(long size) {
+        queuedMessages.decrement();
+        queuedBytes.add(-size);
+    }
+
+    public void dropped(WsOutboundQueue.Policy policy) {
+        dropped[policy.ordinal()].increment();
+    }
+
+    public void evicted() {
+        evictions.increment();
+    }
+
+    /**
+     * Count a coalesced flush.
+     *
+     * @param frames number of frames written by the flush
+     * @param delayNanos time since the first of them was queued
+     */
+    public void coalesced(int frames, long delayNanos) {
+        flushes.increment();
+        flushedFrames.increment(frames);
+        flushDelay.record(delayNanos);
+    }
+}
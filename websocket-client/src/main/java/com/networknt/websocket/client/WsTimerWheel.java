@@ -0,0 +1,148 @@
+package com.networknt.websocket.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A hashed timer wheel for a large number of coarse timeouts, like the heartbeats of every open
+ * connection. One thread advances the wheel by one bucket per tick and runs the timeouts of that
+ * bucket, so scheduling and cancelling cost O(1) and no thread or timer is held per timeout.
+ *
+ * A timeout fires within one tick after its delay. Tasks run on the thread of the wheel and must not
+ * block, a task that has to touch a channel should hand the work to its IO thread.
+ */
+public final class WsTimerWheel implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(WsTimerWheel.class);
+    public static final long DEFAULT_TICK_MS = 100;
+    public static final int DEFAULT_WHEEL_SIZE = 512;
+
+    private final long tickNanos;
+    private final Queue<Timeout>[] buckets;
+    private final int mask;
+    // scheduled from other threads, moved into the buckets by the wheel thread
+    private final Queue<Timeout> added = new ConcurrentLinkedQueue<>();
+    private final Thread worker;
+    private volatile boolean closed;
+    private long tick;
+
+    public WsTimerWheel(String name) {
+        this(name, DEFAULT_TICK_MS, DEFAULT_WHEEL_SIZE);
+    }
+
+    /**
+     * @param name name of the thread of the wheel
+     * @param tickMs length of a tick, the resolution of the timeouts
+     * @param wheelSize number of buckets, rounded up to a power of two
+     */
+    @SuppressWarnings("unchecked")
+    public WsTimerWheel(String name, long tickMs, int wheelSize) {
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickMs));
+        int size = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+        this.buckets = new Queue[size];
+        for (int i = 0; i < size; i++) {
+            buckets[i] = new ArrayDeque<>();
+        }
+        this.mask = size - 1;
+        this.worker = Thread.ofPlatform().daemon().name(name).start(this::run);
+    }
+
+    /**
+     * Run the task once after the delay.
+     *
+     * @return the timeout, to cancel it
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        Timeout timeout = new Timeout(task, System.nanoTime() + unit.toNanos(delay));
+        if (!closed) {
+            added.add(timeout);
+        }
+        return timeout;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        worker.interrupt();
+    }
+
+    private void run() {
+        long start = System.nanoTime();
+        while (!closed) {
+            long deadline = start + (tick + 1) * tickNanos;
+            long sleep = deadline - System.nanoTime();
+            if (sleep > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleep);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            transferAdded(start);
+            expire(buckets[(int) (tick & mask)]);
+            tick++;
+        }
+    }
+
+    /**
+     * Put the new timeouts into the bucket of the tick they are due, with the number of full turns
+     * of the wheel before that.
+     */
+    private void transferAdded(long start) {
+        Timeout timeout;
+        while ((timeout = added.poll()) != null) {
+            if (timeout.cancelled) {
+                continue;
+            }
+            long due = Math.max(tick, (timeout.deadline - start) / tickNanos);
+            timeout.rounds = (due - tick) / buckets.length;
+            buckets[(int) (due & mask)].add(timeout);
+        }
+    }
+
+    private void expire(Queue<Timeout> bucket) {
+        for (Iterator<Timeout> it = bucket.iterator(); it.hasNext(); ) {
+            Timeout timeout = it.next();
+            if (timeout.cancelled) {
+                it.remove();
+            } else if (timeout.rounds > 0) {
+                timeout.rounds--;
+            } else {
+                it.remove();
+                try {
+                    timeout.task.run();
+                } catch (RuntimeException e) {
+                    LOG.error("Timer task failed", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * A scheduled task. A cancelled timeout is dropped when the wheel gets to its bucket.
+     */
+    public static final class Timeout {
+        private final Runnable task;
+        private final long deadline;
+        private long rounds;
+        private volatile boolean cancelled;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+}
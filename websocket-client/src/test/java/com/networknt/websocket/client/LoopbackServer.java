@@ -0,0 +1,127 @@
+package com.networknt.websocket.client;
+
+import io.undertow.Handlers;
+import io.undertow.Undertow;
+import io.undertow.websockets.core.AbstractReceiveListener;
+import io.undertow.websockets.core.BufferedBinaryMessage;
+import io.undertow.websockets.core.WebSocketChannel;
+
+import java.io.ByteArrayOutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.WebSocket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Undertow WebSocket server on the loopback interface for the tests that need real channels. Each
+ * connected client is handed out with the channel the server accepted for it.
+ */
+final class LoopbackServer implements AutoCloseable {
+    static final long TIMEOUT_SECONDS = 10;
+
+    private final BlockingQueue<WebSocketChannel> accepted = new LinkedBlockingQueue<>();
+    private final HttpClient httpClient = HttpClient.newHttpClient();
+    private final Undertow server;
+
+    LoopbackServer() {
+        server = Undertow.builder()
+                .addHttpListener(0, "127.0.0.1")
+                .setHandler(Handlers.websocket((exchange, channel) -> {
+                    channel.getReceiveSetter().set(new AbstractReceiveListener() {
+                        @Override
+                        protected void onFullPongMessage(WebSocketChannel channel, BufferedBinaryMessage message) {
+                            WsHeartbeat.pong(channel, message.getData().getResource());
+                            message.getData().free();
+                        }
+                    });
+                    channel.resumeReceives();
+                    accepted.add(channel);
+                }))
+                .build();
+        server.start();
+    }
+
+    /**
+     * Connect a client and wait for the server side of its connection.
+     */
+    Client connect() throws Exception {
+        int port = ((InetSocketAddress) server.getListenerInfo().get(0).getAddress()).getPort();
+        Client client = new Client();
+        client.webSocket = httpClient.newWebSocketBuilder()
+                .buildAsync(URI.create("ws://127.0.0.1:" + port + "/"), client)
+                .get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        client.channel = accepted.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        if (client.channel == null) {
+            throw new IllegalStateException("The server did not accept the connection");
+        }
+        return client;
+    }
+
+    @Override
+    public void close() {
+        server.stop();
+    }
+
+    /**
+     * A JDK WebSocket client that keeps the messages it receives.
+     */
+    static final class Client implements WebSocket.Listener {
+        private final BlockingQueue<String> texts = new LinkedBlockingQueue<>();
+        private final BlockingQueue<byte[]> binaries = new LinkedBlockingQueue<>();
+        private final StringBuilder text = new StringBuilder();
+        private final ByteArrayOutputStream binary = new ByteArrayOutputStream();
+        private WebSocket webSocket;
+        private WebSocketChannel channel;
+
+        /**
+         * @return the server side of the connection
+         */
+        WebSocketChannel channel() {
+            return channel;
+        }
+
+        String nextText() throws InterruptedException {
+            return texts.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+
+        byte[] nextBinary() throws InterruptedException {
+            return binaries.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+
+        /**
+         * @return the next text message if one arrives within the time
+         */
+        String pollText(long millis) throws InterruptedException {
+            return texts.poll(millis, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+            text.append(data);
+            if (last) {
+                texts.add(text.toString());
+                text.setLength(0);
+            }
+            webSocket.request(1);
+            return null;
+        }
+
+        @Override
+        public CompletionStage<?> onBinary(WebSocket webSocket, ByteBuffer data, boolean last) {
+            byte[] bytes = new byte[data.remaining()];
+            data.get(bytes);
+            binary.writeBytes(bytes);
+            if (last) {
+                binaries.add(binary.toByteArray());
+                binary.reset();
+            }
+            webSocket.request(1);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.networknt.websocket.client;
+
+import io.undertow.connector.ByteBufferPool;
+import io.undertow.connector.PooledByteBuffer;
+import io.undertow.websockets.core.WebSocketChannel;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.xnio.IoUtils;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+class WsBroadcastTest {
+    private static final int BUFFER_SIZE = 256;
+
+    private LoopbackServer server;
+    private final CountingPool pool = new CountingPool();
+
+    @BeforeEach
+    public void setUp() {
+        server = new LoopbackServer();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void testTextReachesEveryRecipient() throws Exception {
+        List<LoopbackServer.Client> clients = connect(3);
+        Assertions.assertEquals(3, await(callback -> WsBroadcast.sendText("hello", channels(clients), pool, callback)));
+        for (LoopbackServer.Client client : clients) {
+            Assertions.assertEquals("hello", client.nextText());
+        }
+        // encoded once into one buffer that is back in the pool
+        Assertions.assertEquals(1, pool.allocated.get());
+        Assertions.assertEquals(1, pool.released.get());
+    }
+
+    @Test
+    public void testClosedRecipientIsSkipped() throws Exception {
+        List<LoopbackServer.Client> clients = connect(3);
+        IoUtils.safeClose(clients.get(0).channel());
+        Assertions.assertEquals(2, await(callback -> WsBroadcast.sendText("hello", channels(clients), pool, callback)));
+        Assertions.assertEquals("hello", clients.get(1).nextText());
+        Assertions.assertEquals("hello", clients.get(2).nextText());
+        Assertions.assertEquals(1, pool.released.get());
+    }
+
+    @Test
+    public void testNoRecipients() throws Exception {
+        Assertions.assertEquals(0, await(callback -> WsBroadcast.sendText("hello", List.of(), pool, callback)));
+        Assertions.assertEquals(1, pool.allocated.get());
+        Assertions.assertEquals(1, pool.released.get());
+    }
+
+    @Test
+    public void testTextLargerThanBufferIsSharedFromHeap() throws Exception {
+        List<LoopbackServer.Client> clients = connect(2);
+        String text = "€".repeat(BUFFER_SIZE);
+        Assertions.assertEquals(2, await(callback -> WsBroadcast.sendText(text, channels(clients), pool, callback)));
+        for (LoopbackServer.Client client : clients) {
+            Assertions.assertEquals(text, client.nextText());
+        }
+        Assertions.assertEquals(0, pool.allocated.get());
+    }
+
+    @Test
+    public void testBinaryIsCopiedOnce() throws Exception {
+        List<LoopbackServer.Client> clients = connect(2);
+        ByteBuffer data = ByteBuffer.wrap(new byte[]{1, 2, 3, 4});
+        Assertions.assertEquals(2, await(callback -> WsBroadcast.sendBinary(data, channels(clients), pool, callback)));
+        for (LoopbackServer.Client client : clients) {
+            Assertions.assertArrayEquals(new byte[]{1, 2, 3, 4}, client.nextBinary());
+        }
+        // the payload of the caller is left as it was
+        Assertions.assertEquals(4, data.remaining());
+        Assertions.assertEquals(1, pool.allocated.get());
+        Assertions.assertEquals(1, pool.released.get());
+    }
+
+    private List<LoopbackServer.Client> connect(int count) throws Exception {
+        List<LoopbackServer.Client> clients = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            clients.add(server.connect());
+        }
+        return clients;
+    }
+
+    private static List<WebSocketChannel> channels(List<LoopbackServer.Client> clients) {
+        return clients.stream().map(LoopbackServer.Client::channel).toList();
+    }
+
+    /**
+     * Run a broadcast and wait for its callback.
+     *
+     * @return the number of recipients the message was written to
+     */
+    private static int await(Consumer<WsBroadcast.Callback> broadcast) throws Exception {
+        CompletableFuture<Integer> sent = new CompletableFuture<>();
+        broadcast.accept((count, failures) -> {
+            if (failures.isEmpty()) {
+                sent.complete(count);
+            } else {
+                sent.completeExceptionally(failures.values().iterator().next());
+            }
+        });
+        return sent.get(LoopbackServer.TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Heap buffer pool that counts the buffers taken and given back.
+     */
+    private static final class CountingPool implements ByteBufferPool {
+        private final AtomicInteger allocated = new AtomicInteger();
+        private final AtomicInteger released = new AtomicInteger();
+
+        @Override
+        public PooledByteBuffer allocate() {
+            allocated.incrementAndGet();
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            return new PooledByteBuffer() {
+                private boolean open = true;
+
+                @Override
+                public ByteBuffer getBuffer() {
+                    return buffer;
+                }
+
+                @Override
+                public void close() {
+                    if (open) {
+                        open = false;
+                        released.incrementAndGet();
+                    }
+                }
+
+                @Override
+                public boolean isOpen() {
+                    return open;
+                }
+            };
+        }
+
+        @Override
+        public ByteBufferPool getArrayBackedPool() {
+            return this;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public int getBufferSize() {
+            return BUFFER_SIZE;
+        }
+
+        @Override
+        public boolean isDirect() {
+            return false;
+        }
+    }
+}
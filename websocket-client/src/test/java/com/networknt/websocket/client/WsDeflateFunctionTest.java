@@ -0,0 +1,133 @@
+package com.networknt.websocket.client;
+
+import io.undertow.connector.PooledByteBuffer;
+import io.undertow.util.ImmediatePooledByteBuffer;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+class WsDeflateFunctionTest {
+    private static final byte[] TEXT = "{\"symbol\":\"ABC\",\"price\":101.25,\"volume\":1200}".repeat(50).getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        WsDeflateFunction sender = new WsDeflateFunction(Deflater.DEFAULT_COMPRESSION, 0, true);
+        WsDeflateFunction receiver = new WsDeflateFunction(Deflater.DEFAULT_COMPRESSION, 0, true);
+        List<byte[]> frames = deflate(sender, TEXT, TEXT.length);
+        Assertions.assertEquals(1, frames.size());
+        Assertions.assertTrue(frames.get(0).length < TEXT.length / 4);
+        Assertions.assertArrayEquals(TEXT, inflate(receiver, frames));
+    }
+
+    @Test
+    public void testRoundTripAcrossFragments() throws IOException {
+        byte[] message = new byte[20000];
+        Random random = new Random(42);
+        for (int i = 0; i < message.length; i++) {
+            // compressible, but not a single repeated pattern
+            message[i] = (byte) ('a' + random.nextInt(8));
+        }
+        WsDeflateFunction sender = new WsDeflateFunction(Deflater.DEFAULT_COMPRESSION, 0, true);
+        WsDeflateFunction receiver = new WsDeflateFunction(Deflater.DEFAULT_COMPRESSION, 0, true);
+        for (int fragmentSize : new int[]{1, 7, 1000, 4096}) {
+            byte[] fragmented = fragmentSize == 1 ? TEXT : message;
+            List<byte[]> frames = deflate(sender, fragmented, fragmentSize);
+            Assertions.assertEquals((fragmented.length + fragmentSize - 1) / fragmentSize, frames.size());
+            Assertions.assertArrayEquals(fragmented, inflate(receiver, frames), "fragment size " + fragmentSize);
+        }
+    }
+
+    @Test
+    public void testContextTakeover() throws IOException {
+        WsDeflateFunction sender = new WsDeflateFunction(Deflater.DEFAULT_COMPRESSION, 0, true);
+        WsDeflateFunction receiver = new WsDeflateFunction(Deflater.DEFAULT_COMPRESSION, 0, true);
+        List<byte[]> first = deflate(sender, TEXT, TEXT.length);
+        List<byte[]> second = deflate(sender, TEXT, TEXT.length);
+        // the second message refers back to the first one
+        Assertions.assertTrue(second.get(0).length < first.get(0).length);
+        Assertions.assertArrayEquals(TEXT, inflate(receiver, first));
+        Assertions.assertArrayEquals(TEXT, inflate(receiver, second));
+    }
+
+    @Test
+    public void testNoContextTakeover() throws IOException {
+        WsDeflateFunction sender = new WsDeflateFunction(Deflater.DEFAULT_COMPRESSION, 0, false);
+        WsDeflateFunction receiver = new WsDeflateFunction(Deflater.DEFAULT_COMPRESSION, 0, true);
+        List<byte[]> first = deflate(sender, TEXT, TEXT.length);
+        List<byte[]> second = deflate(sender, TEXT, TEXT.length);
+        Assertions.assertArrayEquals(first.get(0), second.get(0));
+        Assertions.assertArrayEquals(TEXT, inflate(receiver, first));
+        Assertions.assertArrayEquals(TEXT, inflate(receiver, second));
+    }
+
+    @Test
+    public void testSmallMessageIsStored() throws IOException {
+        WsDeflateFunction sender = new WsDeflateFunction(Deflater.DEFAULT_COMPRESSION, 100, true);
+        WsDeflateFunction receiver = new WsDeflateFunction(Deflater.DEFAULT_COMPRESSION, 100, true);
+        byte[] small = "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa".getBytes(StandardCharsets.UTF_8);
+        List<byte[]> stored = deflate(sender, small, small.length);
+        Assertions.assertTrue(stored.get(0).length >= small.length);
+        Assertions.assertArrayEquals(small, inflate(receiver, stored));
+
+        // the next large message is compressed again
+        List<byte[]> compressed = deflate(sender, TEXT, TEXT.length);
+        Assertions.assertTrue(compressed.get(0).length < TEXT.length / 4);
+        Assertions.assertArrayEquals(TEXT, inflate(receiver, compressed));
+    }
+
+    @Test
+    public void testEmptyMessage() throws IOException {
+        WsDeflateFunction sender = new WsDeflateFunction(Deflater.DEFAULT_COMPRESSION, 0, true);
+        WsDeflateFunction receiver = new WsDeflateFunction(Deflater.DEFAULT_COMPRESSION, 0, true);
+        List<byte[]> frames = deflate(sender, new byte[0], 1);
+        Assertions.assertEquals(1, frames.get(0).length);
+        Assertions.assertArrayEquals(new byte[0], inflate(receiver, frames));
+        Assertions.assertArrayEquals(TEXT, inflate(receiver, deflate(sender, TEXT, TEXT.length)));
+    }
+
+    @Test
+    public void testInvalidPayload() {
+        WsDeflateFunction receiver = new WsDeflateFunction(Deflater.DEFAULT_COMPRESSION, 0, true);
+        Assertions.assertThrows(IOException.class, () -> inflate(receiver, List.of(new byte[]{(byte) 0xff, (byte) 0xff, (byte) 0xff})));
+    }
+
+    /**
+     * Compress a message the way it is written in frames of the fragment size.
+     */
+    private static List<byte[]> deflate(WsDeflateFunction function, byte[] message, int fragmentSize) throws IOException {
+        List<byte[]> frames = new ArrayList<>();
+        int offset = 0;
+        do {
+            int length = Math.min(fragmentSize, message.length - offset);
+            boolean last = offset + length == message.length;
+            PooledByteBuffer frame = function.transformForWrite(new ImmediatePooledByteBuffer(ByteBuffer.wrap(message, offset, length)), null, last);
+            frames.add(bytes(frame));
+            offset += length;
+        } while (offset < message.length);
+        return frames;
+    }
+
+    private static byte[] inflate(WsDeflateFunction function, List<byte[]> frames) throws IOException {
+        ByteArrayOutputStream message = new ByteArrayOutputStream();
+        for (int i = 0; i < frames.size(); i++) {
+            message.writeBytes(bytes(function.inflate(new ImmediatePooledByteBuffer(ByteBuffer.wrap(frames.get(i))), i == frames.size() - 1)));
+        }
+        return message.toByteArray();
+    }
+
+    private static byte[] bytes(PooledByteBuffer pooled) {
+        ByteBuffer buffer = pooled.getBuffer();
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        pooled.close();
+        return bytes;
+    }
+}
@@ -0,0 +1,93 @@
+package com.networknt.websocket.client;
+
+import io.undertow.websockets.WebSocketExtension;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+class WsDeflateHandshakeTest {
+    private final WsDeflateHandshake contextTakeover = new WsDeflateHandshake(Deflater.DEFAULT_COMPRESSION, true, 15, 0);
+    private final WsDeflateHandshake noContextTakeover = new WsDeflateHandshake(Deflater.DEFAULT_COMPRESSION, false, 10, 0);
+
+    @Test
+    public void testPlainOffer() {
+        Assertions.assertEquals(Map.of(), accept(contextTakeover, offer()));
+        Map<String, String> accepted = accept(noContextTakeover, offer());
+        Assertions.assertEquals(2, accepted.size());
+        Assertions.assertTrue(accepted.containsKey("server_no_context_takeover"));
+        Assertions.assertTrue(accepted.containsKey("client_no_context_takeover"));
+    }
+
+    @Test
+    public void testOtherExtension() {
+        Assertions.assertNull(contextTakeover.accept(new WebSocketExtension("x-webkit-deflate-frame", new ArrayList<>())));
+    }
+
+    @Test
+    public void testServerNoContextTakeover() {
+        // the function would keep its context, so the offer is declined
+        Assertions.assertNull(accept(contextTakeover, offer("server_no_context_takeover", null)));
+        Assertions.assertNotNull(accept(noContextTakeover, offer("server_no_context_takeover", null)));
+    }
+
+    @Test
+    public void testServerMaxWindowBits() {
+        Assertions.assertNull(accept(contextTakeover, offer("server_max_window_bits", "10")));
+        Assertions.assertNull(accept(contextTakeover, offer("server_max_window_bits", "invalid")));
+        Assertions.assertEquals(Map.of(), accept(contextTakeover, offer("server_max_window_bits", "15")));
+    }
+
+    @Test
+    public void testClientMaxWindowBits() {
+        // only limited if the client offers it
+        Assertions.assertFalse(accept(noContextTakeover, offer()).containsKey("client_max_window_bits"));
+        Assertions.assertEquals("10", accept(noContextTakeover, offer("client_max_window_bits", null)).get("client_max_window_bits"));
+        // 15 is the default and is not sent
+        Assertions.assertEquals(Map.of(), accept(contextTakeover, offer("client_max_window_bits", null)));
+    }
+
+    @Test
+    public void testClientNoContextTakeover() {
+        Assertions.assertEquals(Map.of(), accept(contextTakeover, offer("client_no_context_takeover", null)));
+    }
+
+    @Test
+    public void testUnknownParameter() {
+        Assertions.assertNull(accept(contextTakeover, offer("unknown_parameter", "1")));
+    }
+
+    @Test
+    public void testIncompatible() {
+        Assertions.assertTrue(contextTakeover.isIncompatible(List.of(noContextTakeover)));
+        Assertions.assertFalse(contextTakeover.isIncompatible(List.of()));
+    }
+
+    private static WebSocketExtension offer(String... parameters) {
+        List<WebSocketExtension.Parameter> offered = new ArrayList<>();
+        for (int i = 0; i + 1 < parameters.length; i += 2) {
+            offered.add(new WebSocketExtension.Parameter(parameters[i], parameters[i + 1]));
+        }
+        return new WebSocketExtension(WsDeflateHandshake.PERMESSAGE_DEFLATE, offered);
+    }
+
+    /**
+     * @return the parameters of the accepted extension by name, null if the offer was declined
+     */
+    private static Map<String, String> accept(WsDeflateHandshake handshake, WebSocketExtension offer) {
+        WebSocketExtension accepted = handshake.accept(offer);
+        if (accepted == null) {
+            return null;
+        }
+        Assertions.assertEquals(WsDeflateHandshake.PERMESSAGE_DEFLATE, accepted.getName());
+        Map<String, String> parameters = new LinkedHashMap<>();
+        for (WebSocketExtension.Parameter parameter : accepted.getParameters()) {
+            parameters.put(parameter.getName(), parameter.getValue());
+        }
+        return parameters;
+    }
+}
@@ -0,0 +1,156 @@
+package com.networknt.websocket.client;
+
+import io.undertow.websockets.core.CloseMessage;
+import io.undertow.websockets.core.WebSocketCallback;
+import io.undertow.websockets.core.WebSocketChannel;
+import io.undertow.websockets.core.WebSockets;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+class WsFlushCoalescerTest {
+    private static final WsMetrics METRICS = WsMetrics.getInstance();
+
+    private LoopbackServer server;
+
+    @BeforeEach
+    public void setUp() {
+        server = new LoopbackServer();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void testWindowIsRoundedUpToMilliseconds() {
+        Assertions.assertEquals(0, WsFlushCoalescer.windowMillis(0));
+        Assertions.assertEquals(0, WsFlushCoalescer.windowMillis(-1));
+        Assertions.assertEquals(1, WsFlushCoalescer.windowMillis(1));
+        Assertions.assertEquals(1, WsFlushCoalescer.windowMillis(1000));
+        Assertions.assertEquals(2, WsFlushCoalescer.windowMillis(1001));
+    }
+
+    @Test
+    public void testFramesKeepTheirOrderWithDirectSends() throws Exception {
+        LoopbackServer.Client client = server.connect();
+        WebSocketChannel channel = client.channel();
+        WsFlushCoalescer coalescer = WsFlushCoalescer.attach(channel, 0, WsRelayMetrics.NOOP);
+        Assertions.assertSame(coalescer, WsFlushCoalescer.get(channel));
+
+        Outcome first = new Outcome();
+        Outcome second = new Outcome();
+        Outcome third = new Outcome();
+        Outcome fourth = new Outcome();
+        Outcome fifth = new Outcome();
+        coalescer.sendText("1", first);
+        // a direct send flushes the gathered frames ahead of its own
+        WebSockets.sendText("2", channel, second);
+        coalescer.sendText("3", third);
+        coalescer.sendBinary(new ByteBuffer[]{ByteBuffer.wrap(new byte[]{4}), ByteBuffer.wrap(new byte[]{5})}, fourth);
+        WebSockets.sendText("6", channel, fifth);
+
+        Assertions.assertEquals("1", client.nextText());
+        Assertions.assertEquals("2", client.nextText());
+        Assertions.assertEquals("3", client.nextText());
+        Assertions.assertArrayEquals(new byte[]{4, 5}, client.nextBinary());
+        Assertions.assertEquals("6", client.nextText());
+        for (Outcome outcome : new Outcome[]{first, second, third, fourth, fifth}) {
+            Assertions.assertNull(outcome.error());
+        }
+    }
+
+    @Test
+    public void testFramesOfAWindowShareAFlush() throws Exception {
+        LoopbackServer.Client client = server.connect();
+        WsRelayMetrics metrics = METRICS.relay("test", "coalesce-window");
+        WsFlushCoalescer coalescer = WsFlushCoalescer.attach(client.channel(), 50000, metrics);
+        Outcome last = new Outcome();
+        coalescer.sendText("a", null);
+        coalescer.sendText("b", null);
+        coalescer.sendText("c", last);
+        Assertions.assertNull(last.error());
+        Assertions.assertEquals("a", client.nextText());
+        Assertions.assertEquals("b", client.nextText());
+        Assertions.assertEquals("c", client.nextText());
+        // well within the 50 ms window, all three go with the first flush
+        Assertions.assertEquals(1, count("websocket_coalesced_flushes_total", "coalesce-window"));
+        Assertions.assertEquals(3, count("websocket_coalesced_frames_total", "coalesce-window"));
+    }
+
+    @Test
+    public void testCallbackWaitsForAPartialFlush() throws Exception {
+        LoopbackServer.Client client = server.connect();
+        WsFlushCoalescer coalescer = WsFlushCoalescer.attach(client.channel(), 0, WsRelayMetrics.NOOP);
+        // far more than the socket takes in one write, the rest is written by the write listener
+        byte[] payload = new byte[16 * 1024 * 1024];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte) i;
+        }
+        Outcome written = new Outcome();
+        coalescer.sendBinary(new ByteBuffer[]{ByteBuffer.wrap(payload)}, written);
+        coalescer.sendText("after", null);
+        Assertions.assertNull(written.error());
+        Assertions.assertArrayEquals(payload, client.nextBinary());
+        Assertions.assertEquals("after", client.nextText());
+    }
+
+    @Test
+    public void testSendAfterCloseFails() throws Exception {
+        LoopbackServer.Client client = server.connect();
+        WebSocketChannel channel = client.channel();
+        WsFlushCoalescer coalescer = WsFlushCoalescer.attach(channel, 0, WsRelayMetrics.NOOP);
+        Outcome closed = new Outcome();
+        WebSockets.sendClose(CloseMessage.NORMAL_CLOSURE, "", channel, closed);
+        Assertions.assertNull(closed.error());
+
+        Outcome text = new Outcome();
+        Outcome binary = new Outcome();
+        coalescer.sendText("late", text);
+        coalescer.sendBinary(new ByteBuffer[]{ByteBuffer.allocate(4)}, binary);
+        Assertions.assertTrue(text.error() instanceof IOException);
+        Assertions.assertTrue(binary.error() instanceof IOException);
+    }
+
+    private static long count(String name, String service) {
+        // the family already exists, the help text is ignored
+        return METRICS.counter(name, "", "module", "test", "service", service).count();
+    }
+
+    /**
+     * The callback of a send that the test waits for.
+     */
+    private static final class Outcome implements WebSocketCallback<Void> {
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        @Override
+        public void complete(WebSocketChannel channel, Void context) {
+            done.complete(null);
+        }
+
+        @Override
+        public void onError(WebSocketChannel channel, Void context, Throwable throwable) {
+            done.completeExceptionally(throwable);
+        }
+
+        /**
+         * @return the error of the send once it is done, null if it was written
+         */
+        private Throwable error() throws Exception {
+            try {
+                done.get(LoopbackServer.TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                return null;
+            } catch (ExecutionException e) {
+                return e.getCause();
+            }
+        }
+    }
+}
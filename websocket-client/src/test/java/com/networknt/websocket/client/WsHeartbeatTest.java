@@ -0,0 +1,187 @@
+package com.networknt.websocket.client;
+
+import io.undertow.websockets.core.WebSocketChannel;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+class WsHeartbeatTest {
+    private static final long INTERVAL_MS = 100;
+    private static final long PONG_TIMEOUT_MS = 50;
+    private static final long TIMEOUT_MS = 5000;
+
+    private final WsTimerWheel wheel = new WsTimerWheel("test-heartbeat", 5, 64);
+
+    @AfterEach
+    public void close() {
+        wheel.close();
+    }
+
+    /**
+     * Records the pings with the time they were sent and whether it was closed as dead.
+     */
+    private static final class FakePeer implements WsHeartbeat.Peer {
+        private final BlockingQueue<ByteBuffer> pings = new LinkedBlockingQueue<>();
+        private final BlockingQueue<Long> pingTimes = new LinkedBlockingQueue<>();
+        private final CountDownLatch dead = new CountDownLatch(1);
+
+        @Override
+        public void ping(ByteBuffer payload) {
+            pingTimes.add(System.nanoTime());
+            pings.add(payload);
+        }
+
+        @Override
+        public void dead() {
+            dead.countDown();
+        }
+
+        private ByteBuffer nextPing() throws InterruptedException {
+            ByteBuffer ping = pings.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            Assertions.assertNotNull(ping, "No ping");
+            return ping;
+        }
+
+        private boolean isDead() {
+            return dead.getCount() == 0;
+        }
+    }
+
+    private WsHeartbeat heartbeat(WsMetrics metrics, String module) {
+        return new WsHeartbeat(wheel, INTERVAL_MS, PONG_TIMEOUT_MS, metrics, module);
+    }
+
+    @Test
+    public void testPongKeepsTheLegAlive() throws InterruptedException {
+        FakePeer peer = new FakePeer();
+        long start = System.nanoTime();
+        WsHeartbeat.Leg leg = heartbeat(WsMetrics.NOOP, "test").watch("upstream", peer);
+        for (int i = 0; i < 3; i++) {
+            ByteBuffer ping = peer.nextPing();
+            Assertions.assertEquals(Long.BYTES, ping.remaining());
+            leg.pong(ping);
+        }
+        // the first ping goes out after one interval and the others one interval apart
+        long previous = start;
+        for (int i = 0; i < 3; i++) {
+            long sent = peer.pingTimes.take();
+            Assertions.assertTrue(sent - previous >= TimeUnit.MILLISECONDS.toNanos(INTERVAL_MS), "Ping " + i + " too early");
+            previous = sent;
+        }
+        Assertions.assertFalse(peer.isDead());
+        leg.cancel();
+    }
+
+    @Test
+    public void testNoPongIsDead() throws InterruptedException {
+        FakePeer peer = new FakePeer();
+        WsMetrics metrics = WsMetrics.getInstance();
+        heartbeat(metrics, "test-no-pong").watch("downstream", peer);
+        peer.nextPing();
+        Assertions.assertTrue(peer.dead.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        Assertions.assertEquals(1, metrics.counter("websocket_heartbeat_dead_total", "", "module", "test-no-pong", "leg", "downstream").count());
+        // a dead leg stops pinging
+        Assertions.assertNull(peer.pings.poll(3 * INTERVAL_MS, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testPongOfAnotherPingIsIgnored() throws InterruptedException {
+        FakePeer peer = new FakePeer();
+        WsHeartbeat.Leg leg = heartbeat(WsMetrics.NOOP, "test").watch("upstream", peer);
+        long sent = peer.nextPing().getLong(0);
+        leg.pong(sent - 1);
+        leg.pong(ByteBuffer.allocate(Long.BYTES - 1));
+        Assertions.assertTrue(peer.dead.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testCancelStopsThePings() throws InterruptedException {
+        FakePeer peer = new FakePeer();
+        WsHeartbeat.Leg leg = heartbeat(WsMetrics.NOOP, "test").watch("upstream", peer);
+        peer.nextPing();
+        // cancelled with the ping outstanding, the leg must not be closed as dead
+        leg.cancel();
+        Assertions.assertNull(peer.pings.poll(3 * INTERVAL_MS, TimeUnit.MILLISECONDS));
+        Assertions.assertFalse(peer.isDead());
+    }
+
+    @Test
+    public void testTimeoutIsAtMostTheInterval() throws InterruptedException {
+        FakePeer peer = new FakePeer();
+        long start = System.nanoTime();
+        new WsHeartbeat(wheel, PONG_TIMEOUT_MS, 10 * INTERVAL_MS, WsMetrics.NOOP, "test").watch("upstream", peer);
+        peer.nextPing();
+        Assertions.assertTrue(peer.dead.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        // one interval to the ping and one to give up on it
+        Assertions.assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(5 * INTERVAL_MS));
+    }
+
+    @Test
+    public void testSuspendedLegIsNotDead() throws InterruptedException {
+        FakePeer peer = new FakePeer();
+        WsHeartbeat.Leg leg = heartbeat(WsMetrics.NOOP, "test").watch("upstream", peer);
+        peer.nextPing();
+        // suspended with the ping outstanding, no pong is read and no ping goes out
+        leg.suspend();
+        Assertions.assertNull(peer.pings.poll(5 * INTERVAL_MS, TimeUnit.MILLISECONDS));
+        Assertions.assertFalse(peer.isDead());
+
+        leg.resume();
+        leg.pong(peer.nextPing());
+        // the pings are held against the leg again
+        peer.nextPing();
+        Assertions.assertTrue(peer.dead.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testLegSuspendedSinceThePingIsPingedAgain() throws InterruptedException {
+        FakePeer peer = new FakePeer();
+        WsHeartbeat.Leg leg = heartbeat(WsMetrics.NOOP, "test").watch("upstream", peer);
+        peer.nextPing();
+        // resumed before the timeout, the pong may still wait behind the receives
+        leg.suspend();
+        leg.resume();
+        leg.pong(peer.nextPing());
+        Assertions.assertFalse(peer.isDead());
+        leg.cancel();
+    }
+
+    @Test
+    public void testSuspendedReceivesKeepTheChannelOpen() throws Exception {
+        WsMetrics metrics = WsMetrics.getInstance();
+        try (LoopbackServer server = new LoopbackServer()) {
+            WebSocketChannel channel = server.connect().channel();
+            heartbeat(metrics, "test-suspended").watch("upstream", channel);
+            onIoThread(channel, () -> WsHeartbeat.suspendReceives(channel));
+            Thread.sleep(5 * INTERVAL_MS);
+            Assertions.assertTrue(channel.isOpen());
+
+            // the client answers the pings once its pongs are read again
+            onIoThread(channel, () -> WsHeartbeat.resumeReceives(channel));
+            Thread.sleep(5 * INTERVAL_MS);
+            Assertions.assertTrue(channel.isOpen());
+            Assertions.assertEquals(0, metrics.counter("websocket_heartbeat_dead_total", "", "module", "test-suspended", "leg", "upstream").count());
+
+            // suspended behind the back of the leg, the unread pongs close the channel
+            onIoThread(channel, channel::suspendReceives);
+            Thread.sleep(5 * INTERVAL_MS);
+            Assertions.assertFalse(channel.isOpen());
+        }
+    }
+
+    private static void onIoThread(WebSocketChannel channel, Runnable task) throws Exception {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        channel.getIoThread().execute(() -> {
+            task.run();
+            done.complete(null);
+        });
+        done.get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    }
+}
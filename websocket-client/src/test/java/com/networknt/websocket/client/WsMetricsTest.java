@@ -0,0 +1,120 @@
+package com.networknt.websocket.client;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+class WsMetricsTest {
+    // the shared registry, every test uses its own metric names
+    private final WsMetrics metrics = WsMetrics.getInstance();
+
+    private List<String> scrape(String name) {
+        return metrics.scrape().lines().filter(line -> line.startsWith(name) || line.contains(" " + name + " ")).toList();
+    }
+
+    @Test
+    public void testCounterAndGauge() {
+        metrics.counter("test_counter_total", "A counter.", "service", "a").increment(3);
+        WsMetrics.Gauge gauge = metrics.gauge("test_gauge", "A gauge.", "service", "a");
+        gauge.increment();
+        gauge.increment();
+        gauge.decrement();
+        Assertions.assertEquals(List.of(
+                "# HELP test_counter_total A counter.",
+                "# TYPE test_counter_total counter",
+                "test_counter_total{service=\"a\"} 3"), scrape("test_counter_total"));
+        Assertions.assertEquals(List.of(
+                "# HELP test_gauge A gauge.",
+                "# TYPE test_gauge gauge",
+                "test_gauge{service=\"a\"} 1"), scrape("test_gauge"));
+    }
+
+    @Test
+    public void testLabelValuesAreEscaped() {
+        metrics.counter("test_escaped_total", "Escaped labels.", "path", "a\\b\"c\nd", "empty", null).increment();
+        Assertions.assertTrue(scrape("test_escaped_total").contains("test_escaped_total{path=\"a\\\\b\\\"c\\nd\",empty=\"\"} 1"));
+    }
+
+    @Test
+    public void testHistogramBucketsAreCumulative() {
+        WsMetrics.Timer timer = metrics.timer("test_latency_seconds", "A timer.", "service", "a");
+        timer.record(TimeUnit.MICROSECONDS.toNanos(100));
+        timer.record(TimeUnit.MILLISECONDS.toNanos(3));
+        timer.record(TimeUnit.SECONDS.toNanos(20));
+        List<String> lines = scrape("test_latency_seconds");
+        Assertions.assertEquals("# TYPE test_latency_seconds histogram", lines.get(1));
+        Assertions.assertTrue(lines.contains("test_latency_seconds_bucket{service=\"a\",le=\"5.0E-4\"} 1"));
+        Assertions.assertTrue(lines.contains("test_latency_seconds_bucket{service=\"a\",le=\"0.0025\"} 1"));
+        Assertions.assertTrue(lines.contains("test_latency_seconds_bucket{service=\"a\",le=\"0.005\"} 2"));
+        Assertions.assertTrue(lines.contains("test_latency_seconds_bucket{service=\"a\",le=\"10.0\"} 2"));
+        Assertions.assertTrue(lines.contains("test_latency_seconds_bucket{service=\"a\",le=\"+Inf\"} 3"));
+        Assertions.assertTrue(lines.contains("test_latency_seconds_sum{service=\"a\"} 20.0031"));
+        Assertions.assertTrue(lines.contains("test_latency_seconds_count{service=\"a\"} 3"));
+    }
+
+    @Test
+    public void testHistogramWithoutLabels() {
+        metrics.timer("test_plain_seconds", "A timer.").record(TimeUnit.MILLISECONDS.toNanos(1));
+        List<String> lines = scrape("test_plain_seconds");
+        Assertions.assertTrue(lines.contains("test_plain_seconds_bucket{le=\"0.001\"} 1"));
+        Assertions.assertTrue(lines.contains("test_plain_seconds_sum 0.001"));
+        Assertions.assertTrue(lines.contains("test_plain_seconds_count 1"));
+    }
+
+    @Test
+    public void testSupplierGaugeIsReadOnScrape() {
+        long[] value = {5};
+        metrics.gauge("test_supplied", "A supplied gauge.", () -> value[0], "service", "a");
+        Assertions.assertTrue(scrape("test_supplied").contains("test_supplied{service=\"a\"} 5"));
+        value[0] = 7;
+        Assertions.assertTrue(scrape("test_supplied").contains("test_supplied{service=\"a\"} 7"));
+    }
+
+    @Test
+    public void testTypeMismatchIsRejected() {
+        metrics.counter("test_typed_total", "A counter.");
+        Assertions.assertThrows(IllegalArgumentException.class, () -> metrics.gauge("test_typed_total", "A gauge."));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> metrics.timer("test_typed_total", "A timer."));
+    }
+
+    @Test
+    public void testGaugeKindMismatchIsRejected() {
+        metrics.gauge("test_held", "A gauge.", "service", "a");
+        Assertions.assertThrows(IllegalArgumentException.class, () -> metrics.gauge("test_held", "A gauge.", () -> 1, "service", "a"));
+        metrics.gauge("test_read", "A gauge.", () -> 1, "service", "a");
+        Assertions.assertThrows(IllegalArgumentException.class, () -> metrics.gauge("test_read", "A gauge.", "service", "a"));
+        // other labels of the same family may be of the other kind
+        metrics.gauge("test_held", "A gauge.", () -> 2, "service", "b");
+        Assertions.assertTrue(scrape("test_held").contains("test_held{service=\"b\"} 2"));
+    }
+
+    @Test
+    public void testOddLabelsAreRejected() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> metrics.counter("test_odd_total", "A counter.", "service"));
+    }
+
+    @Test
+    public void testNoopRegistry() {
+        WsMetrics.Counter counter = WsMetrics.NOOP.counter("test_noop_total", "A counter.");
+        counter.increment();
+        Assertions.assertEquals(0, counter.count());
+        Assertions.assertSame(WsRelayMetrics.NOOP, WsMetrics.NOOP.relay("test", "noop"));
+        Assertions.assertEquals("", WsMetrics.NOOP.scrape());
+    }
+
+    @Test
+    public void testUnknownCloseCodesShareOneLabel() {
+        WsRelayMetrics relay = metrics.relay("test", "closes");
+        relay.closed(1000);
+        relay.closed(4000);
+        relay.closed(4999);
+        relay.closed(0);
+        List<String> lines = scrape("websocket_closes_total").stream().filter(line -> line.contains("service=\"closes\"")).toList();
+        Assertions.assertEquals(List.of(
+                "websocket_closes_total{module=\"test\",service=\"closes\",code=\"ABNORMAL_CLOSURE\"} 1",
+                "websocket_closes_total{module=\"test\",service=\"closes\",code=\"CLOSE_NORMAL\"} 1",
+                "websocket_closes_total{module=\"test\",service=\"closes\",code=\"OTHER\"} 2"), lines);
+    }
+}
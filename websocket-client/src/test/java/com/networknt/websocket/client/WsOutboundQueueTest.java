@@ -0,0 +1,234 @@
+package com.networknt.websocket.client;
+
+import io.undertow.websockets.core.WebSocketCallback;
+import io.undertow.websockets.core.WebSocketChannel;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+class WsOutboundQueueTest {
+    private static final int CLOSE_CODE = 1013;
+
+    @Test
+    public void testOneMessageInFlight() {
+        RecordingQueue queue = new RecordingQueue(WsOutboundQueue.Policy.DROP_NEWEST, 10, 1000);
+        Outcome a = queue.text("a", null);
+        Outcome b = queue.text("bb", null);
+        Assertions.assertEquals(List.of("a"), queue.written);
+        Assertions.assertEquals(2, queue.getQueuedMessages());
+        Assertions.assertEquals(3, queue.getQueuedBytes());
+
+        queue.complete();
+        Assertions.assertTrue(a.completed);
+        Assertions.assertEquals(List.of("a", "bb"), queue.written);
+        queue.complete();
+        Assertions.assertTrue(b.completed);
+        Assertions.assertEquals(0, queue.getQueuedMessages());
+        Assertions.assertEquals(0, queue.getQueuedBytes());
+    }
+
+    @Test
+    public void testDropNewest() {
+        RecordingQueue queue = new RecordingQueue(WsOutboundQueue.Policy.DROP_NEWEST, 2, 1000);
+        queue.text("a", null);
+        Outcome b = queue.text("b", null);
+        Outcome c = queue.text("c", null);
+        Assertions.assertTrue(c.dropped());
+        Assertions.assertFalse(b.dropped());
+
+        queue.complete();
+        queue.complete();
+        Assertions.assertEquals(List.of("a", "b"), queue.written);
+        Assertions.assertTrue(b.completed);
+    }
+
+    @Test
+    public void testDropOldest() {
+        RecordingQueue queue = new RecordingQueue(WsOutboundQueue.Policy.DROP_OLDEST, 2, 1000);
+        Outcome a = queue.text("a", null);
+        Outcome b = queue.text("b", null);
+        Outcome c = queue.text("c", null);
+        // the message in flight cannot be dropped
+        Assertions.assertFalse(a.dropped());
+        Assertions.assertTrue(b.dropped());
+        Assertions.assertFalse(c.dropped());
+
+        queue.complete();
+        queue.complete();
+        Assertions.assertEquals(List.of("a", "c"), queue.written);
+        Assertions.assertTrue(c.completed);
+    }
+
+    @Test
+    public void testDropOldestByBytes() {
+        RecordingQueue queue = new RecordingQueue(WsOutboundQueue.Policy.DROP_OLDEST, 10, 10);
+        queue.text("aaaa", null);
+        Outcome b = queue.text("bbbb", null);
+        Outcome c = queue.text("cccc", null);
+        Assertions.assertTrue(b.dropped());
+        Assertions.assertFalse(c.dropped());
+        Assertions.assertEquals(8, queue.getQueuedBytes());
+    }
+
+    @Test
+    public void testInFlightCountsAgainstTheMessageLimit() {
+        RecordingQueue queue = new RecordingQueue(WsOutboundQueue.Policy.DROP_OLDEST, 1, 1000);
+        Outcome a = queue.text("a", null);
+        Outcome b = queue.text("b", null);
+        // nothing queued can make room for b
+        Assertions.assertTrue(b.dropped());
+        Assertions.assertEquals(1, queue.getQueuedMessages());
+
+        queue.complete();
+        Assertions.assertTrue(a.completed);
+        Assertions.assertFalse(queue.text("c", null).dropped());
+        Assertions.assertEquals(List.of("a", "c"), queue.written);
+    }
+
+    @Test
+    public void testInFlightCountsAgainstTheByteLimit() {
+        RecordingQueue queue = new RecordingQueue(WsOutboundQueue.Policy.COALESCE_LATEST, 10, 10);
+        queue.text("aaaaaaaa", null);
+        Outcome b = queue.text("bb", "b");
+        Assertions.assertEquals(10, queue.getQueuedBytes());
+        Outcome c = queue.text("ccc", "c");
+        // b is dropped to make room, but c still does not fit next to the message in flight
+        Assertions.assertTrue(b.dropped());
+        Assertions.assertTrue(c.dropped());
+        Assertions.assertEquals(8, queue.getQueuedBytes());
+    }
+
+    @Test
+    public void testLargeMessageThroughEmptyQueue() {
+        RecordingQueue queue = new RecordingQueue(WsOutboundQueue.Policy.DROP_NEWEST, 10, 10);
+        Outcome large = queue.text("x".repeat(20), null);
+        Assertions.assertFalse(large.dropped());
+        Assertions.assertEquals(1, queue.written.size());
+        // but not into a queue that holds a message
+        Assertions.assertTrue(queue.text("y".repeat(20), null).dropped());
+    }
+
+    @Test
+    public void testCoalesceLatest() {
+        RecordingQueue queue = new RecordingQueue(WsOutboundQueue.Policy.COALESCE_LATEST, 10, 1000);
+        queue.text("a", null);
+        Outcome first = queue.text("price=1", "price");
+        Outcome other = queue.text("volume=5", "volume");
+        Outcome latest = queue.text("price=2", "price");
+        Assertions.assertTrue(first.dropped());
+        Assertions.assertFalse(latest.dropped());
+        Assertions.assertEquals(3, queue.getQueuedMessages());
+
+        queue.complete();
+        queue.complete();
+        queue.complete();
+        // the latest price keeps the place of the first one
+        Assertions.assertEquals(List.of("a", "price=2", "volume=5"), queue.written);
+        Assertions.assertTrue(latest.completed);
+        Assertions.assertTrue(other.completed);
+    }
+
+    @Test
+    public void testCoalesceLatestDropsOldestWhenFull() {
+        RecordingQueue queue = new RecordingQueue(WsOutboundQueue.Policy.COALESCE_LATEST, 2, 1000);
+        queue.text("a", null);
+        Outcome b = queue.text("b", "b");
+        Outcome c = queue.text("c", "c");
+        Assertions.assertTrue(b.dropped());
+        // the dropped key is gone, a new message with it queues again
+        Outcome b2 = queue.text("b2", "b");
+        Assertions.assertTrue(c.dropped());
+        Assertions.assertFalse(b2.dropped());
+    }
+
+    @Test
+    public void testDisconnect() {
+        RecordingQueue queue = new RecordingQueue(WsOutboundQueue.Policy.DISCONNECT, 2, 1000);
+        Outcome a = queue.text("a", null);
+        Outcome b = queue.text("b", null);
+        Assertions.assertEquals(0, queue.evictions);
+        Outcome c = queue.text("c", null);
+        Assertions.assertEquals(1, queue.evictions);
+        Assertions.assertTrue(b.dropped());
+        Assertions.assertTrue(c.dropped());
+
+        // the message in flight completes, nothing is written after it
+        queue.complete();
+        Assertions.assertTrue(a.completed);
+        Assertions.assertEquals(List.of("a"), queue.written);
+        Assertions.assertTrue(queue.text("d", null).dropped());
+        Assertions.assertEquals(1, queue.evictions);
+        Assertions.assertEquals(0, queue.getQueuedMessages());
+    }
+
+    @Test
+    public void testBinary() {
+        RecordingQueue queue = new RecordingQueue(WsOutboundQueue.Policy.DROP_NEWEST, 10, 1000);
+        queue.sendBinary(new ByteBuffer[]{ByteBuffer.allocate(3), ByteBuffer.allocate(4)}, null, new Outcome());
+        Assertions.assertEquals(7, queue.getQueuedBytes());
+        Assertions.assertEquals(List.of("binary:7"), queue.written);
+    }
+
+    /**
+     * A queue whose writes stay in flight until the test completes them.
+     */
+    private static final class RecordingQueue extends WsOutboundQueue {
+        private final List<String> written = new ArrayList<>();
+        private final List<WebSocketCallback<Void>> inFlight = new ArrayList<>();
+        private int evictions;
+
+        private RecordingQueue(Policy policy, int maxQueuedMessages, long maxQueuedBytes) {
+            super(null, policy, maxQueuedMessages, maxQueuedBytes, CLOSE_CODE, WsRelayMetrics.NOOP);
+        }
+
+        private Outcome text(String text, String key) {
+            Outcome outcome = new Outcome();
+            sendText(text, key, outcome);
+            return outcome;
+        }
+
+        /**
+         * Complete the write in flight.
+         */
+        private void complete() {
+            inFlight.remove(0).complete(null, null);
+        }
+
+        @Override
+        void send(String text, ByteBuffer[] data, boolean binary, WebSocketCallback<Void> callback) {
+            long size = 0;
+            for (int i = 0; text == null && i < data.length; i++) {
+                size += data[i].remaining();
+            }
+            written.add(text != null ? text : (binary ? "binary:" : "text:") + size);
+            inFlight.add(callback);
+        }
+
+        @Override
+        void evict() {
+            evictions++;
+        }
+    }
+
+    private static final class Outcome implements WebSocketCallback<Void> {
+        private boolean completed;
+        private Throwable error;
+
+        @Override
+        public void complete(WebSocketChannel channel, Void context) {
+            completed = true;
+        }
+
+        @Override
+        public void onError(WebSocketChannel channel, Void context, Throwable throwable) {
+            error = throwable;
+        }
+
+        private boolean dropped() {
+            return error instanceof WsOutboundQueue.DroppedException;
+        }
+    }
+}
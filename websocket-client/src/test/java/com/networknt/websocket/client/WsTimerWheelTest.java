@@ -0,0 +1,108 @@
+package com.networknt.websocket.client;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+class WsTimerWheelTest {
+    private static final long TICK_MS = 5;
+    // one turn of the wheel is 20 ms
+    private static final int WHEEL_SIZE = 4;
+    private static final long TIMEOUT_MS = 5000;
+
+    private final WsTimerWheel wheel = new WsTimerWheel("test-wheel", TICK_MS, WHEEL_SIZE);
+
+    @AfterEach
+    public void close() {
+        wheel.close();
+    }
+
+    @Test
+    public void testFiresAfterTheDelay() throws InterruptedException {
+        CountDownLatch fired = new CountDownLatch(1);
+        long start = System.nanoTime();
+        wheel.schedule(fired::countDown, 50, TimeUnit.MILLISECONDS);
+        Assertions.assertTrue(fired.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        Assertions.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
+    @Test
+    public void testDelaysOverSeveralTurns() throws InterruptedException {
+        List<Long> order = new CopyOnWriteArrayList<>();
+        CountDownLatch fired = new CountDownLatch(4);
+        long start = System.nanoTime();
+        // all four land in the same bucket, on different turns of the wheel
+        for (long delay : new long[]{110, 10, 70, 30}) {
+            wheel.schedule(() -> {
+                Assertions.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(delay), "Fired early " + delay);
+                order.add(delay);
+                fired.countDown();
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+        Assertions.assertTrue(fired.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        Assertions.assertEquals(List.of(10L, 30L, 70L, 110L), order);
+    }
+
+    @Test
+    public void testZeroDelay() throws InterruptedException {
+        CountDownLatch fired = new CountDownLatch(1);
+        wheel.schedule(fired::countDown, 0, TimeUnit.MILLISECONDS);
+        Assertions.assertTrue(fired.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testCancelBeforeTheWheelSeesIt() throws InterruptedException {
+        AtomicBoolean ran = new AtomicBoolean();
+        WsTimerWheel.Timeout timeout = wheel.schedule(() -> ran.set(true), 20, TimeUnit.MILLISECONDS);
+        timeout.cancel();
+        Assertions.assertTrue(timeout.isCancelled());
+        awaitLater(60);
+        Assertions.assertFalse(ran.get());
+    }
+
+    @Test
+    public void testCancelWhileWaitingForItsRound() throws InterruptedException {
+        AtomicBoolean ran = new AtomicBoolean();
+        WsTimerWheel.Timeout timeout = wheel.schedule(() -> ran.set(true), 100, TimeUnit.MILLISECONDS);
+        // in its bucket with turns to go
+        Thread.sleep(40);
+        timeout.cancel();
+        awaitLater(100);
+        Assertions.assertFalse(ran.get());
+    }
+
+    @Test
+    public void testFailedTaskDoesNotStopTheWheel() throws InterruptedException {
+        CountDownLatch fired = new CountDownLatch(1);
+        wheel.schedule(() -> {
+            throw new IllegalStateException("expected");
+        }, 10, TimeUnit.MILLISECONDS);
+        wheel.schedule(fired::countDown, 30, TimeUnit.MILLISECONDS);
+        Assertions.assertTrue(fired.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testClosedWheelRunsNothing() throws InterruptedException {
+        AtomicBoolean ran = new AtomicBoolean();
+        wheel.close();
+        wheel.schedule(() -> ran.set(true), 0, TimeUnit.MILLISECONDS);
+        Thread.sleep(50);
+        Assertions.assertFalse(ran.get());
+    }
+
+    /**
+     * Wait until a timeout scheduled now with the delay has fired, so the wheel got past the
+     * buckets of the earlier ones.
+     */
+    private void awaitLater(long delayMs) throws InterruptedException {
+        CountDownLatch fired = new CountDownLatch(1);
+        wheel.schedule(fired::countDown, delayMs, TimeUnit.MILLISECONDS);
+        Assertions.assertTrue(fired.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    }
+}
@@ -0,0 +1,83 @@
+package com.networknt.websocket.loadtest;
+
+import java.net.http.WebSocket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * One client connection of the load test. It runs closed loop: the next message is sent as soon
+ * as the echo of the previous one has arrived, so the aggregate rate is the max the proxy sustains.
+ */
+public class LoadClient implements WebSocket.Listener {
+    private final String message;
+    private final LatencyHistogram histogram;
+    private final LongAdder messages;
+    private volatile WebSocket webSocket;
+    private volatile boolean running;
+    private volatile boolean recording;
+    private long sentAt;
+
+    public LoadClient(String message, LatencyHistogram histogram, LongAdder messages) {
+        this.message = message;
+        this.histogram = histogram;
+        this.messages = messages;
+    }
+
+    public void start() {
+        running = true;
+        sendNext();
+    }
+
+    public void setRecording(boolean recording) {
+        this.recording = recording;
+    }
+
+    public void stop() {
+        running = false;
+    }
+
+    public void close() {
+        WebSocket ws = webSocket;
+        if(ws != null) {
+            ws.sendClose(WebSocket.NORMAL_CLOSURE, "").whenComplete((w, throwable) -> ws.abort());
+        }
+    }
+
+    @Override
+    public void onOpen(WebSocket webSocket) {
+        this.webSocket = webSocket;
+        webSocket.request(1);
+    }
+
+    @Override
+    public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+        if(last) {
+            if(recording) {
+                histogram.record((System.nanoTime() - sentAt) / 1000);
+                messages.increment();
+            }
+            if(running) {
+                sendNext();
+            }
+        }
+        webSocket.request(1);
+        return null;
+    }
+
+    @Override
+    public CompletionStage<?> onBinary(WebSocket webSocket, ByteBuffer data, boolean last) {
+        webSocket.request(1);
+        return null;
+    }
+
+    @Override
+    public void onError(WebSocket webSocket, Throwable error) {
+        running = false;
+    }
+
+    private void sendNext() {
+        sentAt = System.nanoTime();
+        webSocket.sendText(message, true);
+    }
+}
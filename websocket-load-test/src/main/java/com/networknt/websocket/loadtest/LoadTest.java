@@ -0,0 +1,222 @@
+package com.networknt.websocket.loadtest;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Loopback load test of the websocket router.
+ *
+ * <pre>
+ *   --mode all|server|backend|client
+ *                              all runs backend, router and clients in this JVM, server the router,
+ *                              backend the echo backend of the router (default all)
+ *   --connections N            number of client connections (default 1000)
+ *   --connect-concurrency N    max connection attempts in flight (default 100)
+ *   --message-size N           text message size in characters (default 64)
+ *   --warmup S                 seconds of load before measuring (default 10)
+ *   --duration S               seconds of measured load (default 30)
+ *   --port N                   router port in server mode (default 8080)
+ *   --backend URL              backend of the router in server mode (default http://127.0.0.1:8081)
+ *   --backend-port N           backend port in backend mode (default 8081)
+ *   --target URL               router URL in client mode (default ws://127.0.0.1:8080/echo)
+ *   --service-id ID            Service-Id header sent by the clients (default com.networknt.echo-1.0.0)
+ * </pre>
+ *
+ * In all mode the memory per connection includes the clients and the backend. Run the backend, the
+ * router and the clients in separate JVMs to get the memory of the router alone; the server prints
+ * its heap and RSS per pair periodically, with the number of pairs taken from the backend.
+ */
+public class LoadTest {
+    private static final long REPORT_INTERVAL_SECONDS = 10;
+
+    private final Map<String, String> options;
+
+    private LoadTest(Map<String, String> options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for(int i = 0; i + 1 < args.length; i += 2) {
+            if(!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument " + args[i] + " in " + Arrays.toString(args));
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        LoadTest loadTest = new LoadTest(options);
+        switch (loadTest.option("mode", "all")) {
+            case "all" -> loadTest.runAll();
+            case "server" -> loadTest.runServer();
+            case "backend" -> loadTest.runBackend();
+            case "client" -> loadTest.runClients(URI.create(loadTest.option("target", "ws://127.0.0.1:8080/echo")), null, 0, 0);
+            default -> throw new IllegalArgumentException("Unknown mode " + loadTest.option("mode", "all"));
+        }
+    }
+
+    private void runAll() throws Exception {
+        LoadTestServers servers = new LoadTestServers(0, null);
+        long baselineHeap = heapUsed();
+        long baselineRss = rssBytes();
+        try {
+            runClients(URI.create(servers.getRouterURL()), servers, baselineHeap, baselineRss);
+        } finally {
+            servers.stop();
+        }
+    }
+
+    /**
+     * Run the router alone, the backend runs in another JVM.
+     */
+    private void runServer() throws Exception {
+        LoadTestServers servers = new LoadTestServers(intOption("port", 8080), option("backend", "http://127.0.0.1:8081"));
+        long baselineHeap = heapUsed();
+        long baselineRss = rssBytes();
+        System.out.printf("router listening on %s, backend %s%n", servers.getRouterURL(), servers.getBackendURL());
+        while(true) {
+            TimeUnit.SECONDS.sleep(REPORT_INTERVAL_SECONDS);
+            int connections = servers.getOpenConnections();
+            if(connections < 0) {
+                System.out.printf("backend %s is not reachable%n", servers.getBackendURL());
+                continue;
+            }
+            printMemory("router", connections, baselineHeap, baselineRss);
+        }
+    }
+
+    private void runBackend() throws Exception {
+        LoadTestBackend backend = new LoadTestBackend(intOption("backend-port", 8081));
+        long baselineHeap = heapUsed();
+        long baselineRss = rssBytes();
+        System.out.printf("echo backend listening on %s%n", backend.getURL());
+        while(true) {
+            TimeUnit.SECONDS.sleep(REPORT_INTERVAL_SECONDS);
+            printMemory("backend", backend.getOpenConnections(), baselineHeap, baselineRss);
+        }
+    }
+
+    /**
+     * @param servers the in-process servers, or null when the router runs in another JVM
+     */
+    private void runClients(URI target, LoadTestServers servers, long baselineHeap, long baselineRss) throws Exception {
+        int connections = intOption("connections", 1000);
+        int concurrency = intOption("connect-concurrency", 100);
+        int messageSize = intOption("message-size", 64);
+        int warmup = intOption("warmup", 10);
+        int duration = intOption("duration", 30);
+        String serviceId = option("service-id", "com.networknt.echo-1.0.0");
+
+        String message = "a".repeat(messageSize);
+        LatencyHistogram histogram = new LatencyHistogram();
+        LongAdder messages = new LongAdder();
+        HttpClient httpClient = HttpClient.newHttpClient();
+        List<LoadClient> clients = new ArrayList<>(connections);
+
+        // connect
+        Semaphore permits = new Semaphore(concurrency);
+        CountDownLatch done = new CountDownLatch(connections);
+        AtomicInteger failed = new AtomicInteger();
+        long connectStart = System.nanoTime();
+        for(int i = 0; i < connections; i++) {
+            permits.acquire();
+            LoadClient client = new LoadClient(message, histogram, messages);
+            httpClient.newWebSocketBuilder()
+                    .header("Service-Id", serviceId)
+                    .buildAsync(target, client)
+                    .whenComplete((webSocket, throwable) -> {
+                        if(throwable != null) {
+                            failed.incrementAndGet();
+                        } else {
+                            synchronized (clients) {
+                                clients.add(client);
+                            }
+                        }
+                        permits.release();
+                        done.countDown();
+                    });
+        }
+        done.await();
+        double connectSeconds = (System.nanoTime() - connectStart) / 1e9;
+        int established = clients.size();
+        System.out.printf("connections: %d established, %d failed in %.2f s (%.0f conn/s)%n",
+                established, failed.get(), connectSeconds, established / connectSeconds);
+        if(servers != null) {
+            // wait until the router has paired every client with the backend
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+            while(servers.getOpenConnections() < established && System.nanoTime() < deadline) {
+                TimeUnit.MILLISECONDS.sleep(100);
+            }
+            printMemory("clients, router and backend", established, baselineHeap, baselineRss);
+        }
+
+        // load
+        clients.forEach(LoadClient::start);
+        TimeUnit.SECONDS.sleep(warmup);
+        clients.forEach(client -> client.setRecording(true));
+        long loadStart = System.nanoTime();
+        TimeUnit.SECONDS.sleep(duration);
+        clients.forEach(client -> client.setRecording(false));
+        double loadSeconds = (System.nanoTime() - loadStart) / 1e9;
+        clients.forEach(LoadClient::stop);
+
+        long count = messages.sum();
+        System.out.printf("messages: %d round trips of %d chars in %.2f s (%.0f msg/s)%n", count, messageSize, loadSeconds, count / loadSeconds);
+        System.out.printf("round trip latency (us): p50 %d, p99 %d, p999 %d, max %d%n",
+                histogram.percentile(50), histogram.percentile(99), histogram.percentile(99.9), histogram.max());
+
+        clients.forEach(LoadClient::close);
+    }
+
+    private void printMemory(String scope, int connections, long baselineHeap, long baselineRss) {
+        long heap = heapUsed();
+        long rss = rssBytes();
+        long heapPerConnection = connections > 0 ? (heap - baselineHeap) / connections : 0;
+        String rssPerConnection = rss >= 0 && connections > 0 ? Long.toString((rss - baselineRss) / connections) : "n/a";
+        System.out.printf("memory of %s: %d connections, heap %d MB (%d bytes/conn), rss %s MB (%s bytes/conn)%n",
+                scope, connections, heap >> 20, heapPerConnection, rss >= 0 ? Long.toString(rss >> 20) : "n/a", rssPerConnection);
+    }
+
+    private String option(String name, String defaultValue) {
+        return options.getOrDefault(name, defaultValue);
+    }
+
+    private int intOption(String name, int defaultValue) {
+        String value = options.get(name);
+        return value != null ? Integer.parseInt(value) : defaultValue;
+    }
+
+    private static long heapUsed() {
+        System.gc();
+        System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * @return the resident set size of this process, or -1 if it is not available on this platform
+     */
+    private static long rssBytes() {
+        try {
+            for(String line : Files.readAllLines(Path.of("/proc/self/status"))) {
+                if(line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("\\D", "")) * 1024;
+                }
+            }
+        } catch(IOException | NumberFormatException e) {
+            // not Linux
+        }
+        return -1;
+    }
+}
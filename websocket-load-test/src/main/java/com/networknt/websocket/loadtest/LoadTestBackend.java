@@ -0,0 +1,51 @@
+package com.networknt.websocket.loadtest;
+
+import com.networknt.websocket.echo.WebSocketTransmissionEchoHandler;
+import io.undertow.Handlers;
+import io.undertow.Undertow;
+import io.undertow.util.Headers;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The echo backend of the load test on the loopback interface. Every path is a WebSocket echo
+ * with WebSocketTransmissionEchoHandler, except GET /connections that answers the number of open
+ * WebSocket connections. That is the number of pairs held by the router, also when the router
+ * runs in another JVM.
+ */
+public class LoadTestBackend {
+    public static final String CONNECTIONS_PATH = "/connections";
+
+    private final AtomicInteger openConnections = new AtomicInteger();
+    private final Undertow server;
+
+    public LoadTestBackend(int port) {
+        WebSocketTransmissionEchoHandler echoHandler = new WebSocketTransmissionEchoHandler();
+        server = Undertow.builder()
+                .addHttpListener(port, LoadTestServers.HOST)
+                .setHandler(Handlers.path(Handlers.websocket((exchange, channel) -> {
+                            openConnections.incrementAndGet();
+                            channel.addCloseTask(c -> openConnections.decrementAndGet());
+                            echoHandler.onConnect(exchange, channel);
+                        }))
+                        .addExactPath(CONNECTIONS_PATH, exchange -> {
+                            exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "text/plain");
+                            exchange.getResponseSender().send(Integer.toString(openConnections.get()));
+                        }))
+                .build();
+        server.start();
+    }
+
+    public String getURL() {
+        return "http://" + LoadTestServers.HOST + ":" + ((InetSocketAddress) server.getListenerInfo().get(0).getAddress()).getPort();
+    }
+
+    public int getOpenConnections() {
+        return openConnections.get();
+    }
+
+    public void stop() {
+        server.stop();
+    }
+}
@@ -0,0 +1,83 @@
+package com.networknt.websocket.loadtest;
+
+import com.networknt.cluster.Cluster;
+import com.networknt.service.SingletonServiceFactory;
+import com.networknt.websocket.router.WebSocketRouterHandler;
+import io.undertow.Undertow;
+import io.undertow.server.handlers.ResponseCodeHandler;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+/**
+ * The router of the load test on the loopback interface and the echo backend it routes to. The
+ * router runs WebSocketRouterHandler with the websocket-router config found on the classpath or in
+ * the externalized config folder, and every service resolves to the echo backend.
+ *
+ * The backend runs in this JVM or, to measure the memory of the router alone, as a
+ * {@link LoadTestBackend} in another JVM.
+ */
+public class LoadTestServers {
+    public static final String HOST = "127.0.0.1";
+
+    private final LoadTestBackend backend;
+    private final String backendURL;
+    private final HttpClient httpClient;
+    private final Undertow router;
+
+    /**
+     * @param routerPort port of the router, 0 for any free port
+     * @param backendURL base URL of a backend in another JVM, null to start the backend in this one
+     */
+    public LoadTestServers(int routerPort, String backendURL) {
+        this.backend = backendURL == null ? new LoadTestBackend(0) : null;
+        this.backendURL = backend != null ? backend.getURL() : backendURL;
+        this.httpClient = backend != null ? null : HttpClient.newHttpClient();
+
+        SingletonServiceFactory.setBean(Cluster.class.getName(), new LoopbackCluster(this.backendURL));
+        WebSocketRouterHandler routerHandler = new WebSocketRouterHandler();
+        routerHandler.setNext(ResponseCodeHandler.HANDLE_404);
+        router = Undertow.builder()
+                .addHttpListener(routerPort, HOST)
+                .setHandler(routerHandler)
+                .build();
+        router.start();
+    }
+
+    public String getRouterURL() {
+        return "ws://" + HOST + ":" + ((InetSocketAddress) router.getListenerInfo().get(0).getAddress()).getPort() + "/echo";
+    }
+
+    public String getBackendURL() {
+        return backendURL;
+    }
+
+    /**
+     * Number of open backend connections, which is the number of pairs held by the router.
+     *
+     * @return the number of connections, or -1 if the backend in another JVM did not answer
+     */
+    public int getOpenConnections() throws InterruptedException {
+        if(backend != null) {
+            return backend.getOpenConnections();
+        }
+        try {
+            HttpResponse<String> response = httpClient.send(HttpRequest.newBuilder(URI.create(backendURL + LoadTestBackend.CONNECTIONS_PATH)).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            return response.statusCode() == 200 ? Integer.parseInt(response.body().trim()) : -1;
+        } catch(IOException | NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    public void stop() {
+        router.stop();
+        if(backend != null) {
+            backend.stop();
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.networknt.websocket.loadtest;
+
+import com.networknt.cluster.Cluster;
+
+import java.net.URI;
+import java.util.List;
+
+/**
+ * Cluster that resolves every service to one loopback backend, the echo backend of the load test.
+ */
+public class LoopbackCluster implements Cluster {
+    private final String url;
+
+    public LoopbackCluster(String url) {
+        this.url = url;
+    }
+
+    @Override
+    public String serviceToUrl(String protocol, String serviceId, String tag, String requestKey) {
+        return url;
+    }
+
+    @Override
+    public List<URI> services(String protocol, String serviceId, String tag) {
+        return List.of(URI.create(url));
+    }
+}
@@ -0,0 +1,157 @@
+package com.networknt.websocket.rendezvous;
+
+import io.undertow.websockets.core.WebSocketChannel;
+
+import java.util.Comparator;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Idle backend connections registered ahead of their clients. A backend opens connections to the
+ * backend path with a pool parameter, the channel id prefix it serves or an empty value for any
+ * channel id. A client without a waiting backend is paired with an idle connection right away.
+ *
+ * The connections of one backend instance share a backend id. A client gets a connection of the
+ * longest matching prefix, from the backend with the fewest active pairs. A claimed connection is
+ * used for one pair only, the backend opens a new one to keep its capacity.
+ *
+ * The pool takes no lock of its own. A claim looks up the prefixes of the channel id from the
+ * longest registered prefix length down, and picks the least loaded backend within one prefix, so
+ * claims for different prefixes do not touch the same state.
+ */
+class BackendPool {
+    private final int maxIdle;
+    private final AtomicInteger idle = new AtomicInteger();
+    // prefixes with backends that have idle connections or active pairs
+    private final Map<String, Prefix> prefixes = new ConcurrentHashMap<>();
+    // lengths of the registered prefixes, longest first. Lengths are not removed, there are only a few
+    private final NavigableSet<Integer> prefixLengths = new ConcurrentSkipListSet<>(Comparator.reverseOrder());
+
+    BackendPool(int maxIdle) {
+        this.maxIdle = maxIdle;
+    }
+
+    /**
+     * @return false if the pool is full
+     */
+    boolean register(String prefix, String backendId, WebSocketChannel channel) {
+        if (idle.incrementAndGet() > maxIdle) {
+            idle.decrementAndGet();
+            return false;
+        }
+        prefixLengths.add(prefix.length());
+        // in compute, so that the prefix is not removed before the connection is in it
+        prefixes.compute(prefix, (p, existing) -> {
+            Prefix entry = existing != null ? existing : new Prefix();
+            entry.register(backendId, channel);
+            return entry;
+        });
+        return true;
+    }
+
+    /**
+     * Claim an idle connection for a client.
+     *
+     * @return the connection or null if no backend serves the channel id
+     */
+    WebSocketChannel claim(String channelId) {
+        for (int length : prefixLengths) {
+            if (length > channelId.length()) {
+                continue;
+            }
+            Prefix prefix = prefixes.get(channelId.substring(0, length));
+            WebSocketChannel channel = prefix != null ? prefix.claim() : null;
+            if (channel != null) {
+                idle.decrementAndGet();
+                return channel;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Called when a registered connection closes, idle or claimed.
+     */
+    void closed(String prefix, String backendId, WebSocketChannel channel) {
+        Prefix entry = prefixes.get(prefix);
+        if (entry == null) {
+            return;
+        }
+        if (entry.closed(backendId, channel)) {
+            idle.decrementAndGet();
+        }
+        prefixes.computeIfPresent(prefix, (p, existing) -> existing.backends.isEmpty() ? null : existing);
+    }
+
+    int getIdleCount() {
+        return idle.get();
+    }
+
+    /**
+     * The backends of one prefix.
+     */
+    private static final class Prefix {
+        private final Map<String, Backend> backends = new ConcurrentHashMap<>();
+
+        private void register(String backendId, WebSocketChannel channel) {
+            backends.compute(backendId, (id, existing) -> {
+                Backend backend = existing != null ? existing : new Backend();
+                backend.idle.addLast(channel);
+                return backend;
+            });
+        }
+
+        /**
+         * @return an idle connection of the backend with the fewest active pairs, null if there is none
+         */
+        private WebSocketChannel claim() {
+            while (true) {
+                Backend least = null;
+                int leastActive = Integer.MAX_VALUE;
+                for (Backend backend : backends.values()) {
+                    int active = backend.active.get();
+                    if (!backend.idle.isEmpty() && active < leastActive) {
+                        least = backend;
+                        leastActive = active;
+                    }
+                }
+                if (least == null) {
+                    return null;
+                }
+                // active first, so that the backend is not removed while its last connection is taken
+                least.active.incrementAndGet();
+                WebSocketChannel channel = least.idle.pollFirst();
+                if (channel != null) {
+                    return channel;
+                }
+                // another claim took it, look again
+                least.active.decrementAndGet();
+            }
+        }
+
+        /**
+         * @return true if the connection was idle
+         */
+        private boolean closed(String backendId, WebSocketChannel channel) {
+            boolean[] wasIdle = new boolean[1];
+            backends.computeIfPresent(backendId, (id, backend) -> {
+                if (backend.idle.remove(channel)) {
+                    wasIdle[0] = true;
+                } else {
+                    backend.active.decrementAndGet();
+                }
+                return backend.idle.isEmpty() && backend.active.get() == 0 ? null : backend;
+            });
+            return wasIdle[0];
+        }
+    }
+
+    private static final class Backend {
+        private final ConcurrentLinkedDeque<WebSocketChannel> idle = new ConcurrentLinkedDeque<>();
+        private final AtomicInteger active = new AtomicInteger();
+    }
+}
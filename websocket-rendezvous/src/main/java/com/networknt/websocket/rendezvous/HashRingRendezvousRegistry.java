@@ -0,0 +1,55 @@
+package com.networknt.websocket.rendezvous;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Channel ids are owned by the nodes of a static member list through a consistent hash ring. Every
+ * node has a number of virtual nodes on the ring, so a member that is added or removed only moves
+ * its share of the channel ids. All nodes must be configured with the same member list.
+ */
+public class HashRingRendezvousRegistry implements RendezvousRegistry {
+    private final String localNode;
+    private final TreeMap<Long, String> ring = new TreeMap<>();
+
+    /**
+     * @param localNode base URL of this node as it appears in the member list
+     * @param nodes base URLs of all nodes, like ws://10.0.0.1:8080
+     * @param virtualNodes number of points of each node on the ring
+     */
+    public HashRingRendezvousRegistry(String localNode, List<String> nodes, int virtualNodes) {
+        if (!nodes.contains(localNode)) {
+            throw new IllegalArgumentException("Local node " + localNode + " is not one of the cluster nodes " + nodes);
+        }
+        this.localNode = localNode;
+        for (String node : nodes) {
+            for (int i = 0; i < virtualNodes; i++) {
+                ring.put(hash(node + '#' + i), node);
+            }
+        }
+    }
+
+    @Override
+    public String ownerOf(String channelId) {
+        Map.Entry<Long, String> entry = ring.ceilingEntry(hash(channelId));
+        String owner = entry != null ? entry.getValue() : ring.firstEntry().getValue();
+        return owner.equals(localNode) ? null : owner;
+    }
+
+    /**
+     * 64 bit FNV-1a with a final mix, the same on every node and JVM.
+     */
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+}
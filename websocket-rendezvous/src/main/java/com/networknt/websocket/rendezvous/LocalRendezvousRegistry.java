@@ -0,0 +1,12 @@
+package com.networknt.websocket.rendezvous;
+
+/**
+ * Every channel id is paired on this node, the client and the backend of a channel have to connect
+ * to the same node.
+ */
+public class LocalRendezvousRegistry implements RendezvousRegistry {
+    @Override
+    public String ownerOf(String channelId) {
+        return null;
+    }
+}
@@ -0,0 +1,235 @@
+package com.networknt.websocket.rendezvous;
+
+import com.networknt.client.Http2Client;
+import com.networknt.websocket.client.WebSocketCloseCodes;
+import com.networknt.websocket.client.WsAttributes;
+import com.networknt.websocket.client.WsChannelRelayListener;
+import com.networknt.websocket.client.WsMetrics;
+import com.networknt.websocket.client.WsRelayMetrics;
+import io.undertow.protocols.ssl.UndertowXnioSsl;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.HeaderMap;
+import io.undertow.websockets.client.WebSocketClient;
+import io.undertow.websockets.client.WebSocketClientNegotiation;
+import io.undertow.websockets.core.WebSocketChannel;
+import io.undertow.websockets.core.WebSockets;
+import io.undertow.websockets.spi.WebSocketHttpExchange;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xnio.IoFuture;
+import org.xnio.IoUtils;
+import org.xnio.OptionMap;
+import org.xnio.Xnio;
+import org.xnio.ssl.XnioSsl;
+
+import javax.net.ssl.SSLContext;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Forwards a rendezvous connection that landed on a node that does not own its channel id to the
+ * owner. The owner sees the forwarded connection like any client or backend on the same path, pairs
+ * it and relays as usual. This node relays between the two connections on the IO thread of the
+ * original channel with {@link WsChannelRelayListener}.
+ *
+ * A forwarded connection carries the {@link #FORWARDED_HEADER}, the owner pairs it locally even if
+ * its member list disagrees, so a connection is forwarded at most once. The header is only trusted
+ * on a connection from another cluster node: it must carry the cluster secret in the
+ * {@link #SECRET_HEADER} if one is configured, otherwise it must come from the address of a cluster
+ * node. {@link #authenticate(HttpServerExchange)} removes both headers from any other request, so
+ * that a client cannot skip the owner lookup.
+ */
+class NodeRelay {
+    private static final Logger LOG = LoggerFactory.getLogger(NodeRelay.class);
+    static final String FORWARDED_HEADER = "x-rendezvous-forwarded";
+    static final String SECRET_HEADER = "x-rendezvous-secret";
+    // flow control between the two connections, the owner applies its own slow consumer policy
+    private static final int MAX_IN_FLIGHT_MESSAGES = 64;
+    private static final long MAX_IN_FLIGHT_BYTES = 1048576;
+
+    private final String localNode;
+    private final List<String> clusterNodes;
+    // null if the nodes are authenticated by their address
+    private final byte[] clusterSecret;
+    // addresses of the cluster nodes, resolved once
+    private final Set<InetAddress> clusterAddresses;
+    private final boolean streamingRelay;
+    private final WsRelayMetrics metrics;
+    private final WsMetrics.Counter forwarded;
+    private final XnioSsl ssl;
+
+    /**
+     * @param localNode base URL of this node, sent to the owner in the forwarded header
+     * @param clusterNodes base URLs of all nodes, a forwarded connection must name one of them
+     * @param clusterSecret shared secret of the nodes, null or empty to authenticate by address
+     * @param streamingRelay relay the messages frame by frame instead of buffering them
+     * @param registry registry of the forwarded counter
+     * @param metrics relay meters of the forwarded connections
+     */
+    NodeRelay(String localNode, List<String> clusterNodes, String clusterSecret, boolean streamingRelay, WsMetrics registry, WsRelayMetrics metrics) {
+        this.localNode = localNode;
+        this.clusterNodes = List.copyOf(clusterNodes);
+        this.clusterSecret = clusterSecret == null || clusterSecret.isEmpty() ? null : clusterSecret.getBytes(StandardCharsets.UTF_8);
+        this.clusterAddresses = this.clusterSecret == null ? resolve(this.clusterNodes) : Set.of();
+        if (this.clusterSecret == null && clusterAddresses.isEmpty()) {
+            LOG.warn("Neither a cluster secret nor the addresses of the cluster nodes are known. Forwarded connections are not accepted");
+        }
+        this.streamingRelay = streamingRelay;
+        this.metrics = metrics;
+        this.forwarded = registry.counter("websocket_rendezvous_forwarded_total", "Rendezvous connections forwarded to the node that owns their channel id.");
+        XnioSsl xnioSsl = null;
+        try {
+            SSLContext sslContext = Http2Client.createSSLContext();
+            if (sslContext != null) {
+                xnioSsl = new UndertowXnioSsl(Xnio.getInstance(), OptionMap.EMPTY, sslContext);
+            }
+        } catch (Exception e) {
+            LOG.warn("Failed to create SSLContext. Forwarding to wss nodes is not available", e);
+        }
+        this.ssl = xnioSsl;
+    }
+
+    /**
+     * Remove the forwarded and secret headers of a request before the upgrade, unless it is a
+     * connection forwarded by another cluster node. The secret never reaches the next handlers.
+     */
+    void authenticate(HttpServerExchange exchange) {
+        HeaderMap headers = exchange.getRequestHeaders();
+        String node = headers.getFirst(FORWARDED_HEADER);
+        String secret = headers.getFirst(SECRET_HEADER);
+        headers.remove(SECRET_HEADER);
+        if (node != null && !isClusterNode(node, secret, exchange.getSourceAddress())) {
+            LOG.warn("Ignoring {} header of a request from {} that is not a cluster node", FORWARDED_HEADER, exchange.getSourceAddress());
+            headers.remove(FORWARDED_HEADER);
+        }
+    }
+
+    /**
+     * Remove the forwarded and secret headers of a request on a node that does not forward.
+     */
+    static void strip(HttpServerExchange exchange) {
+        exchange.getRequestHeaders().remove(FORWARDED_HEADER);
+        exchange.getRequestHeaders().remove(SECRET_HEADER);
+    }
+
+    /**
+     * @return true if the request passed {@link #authenticate(HttpServerExchange)} as a forwarded connection
+     */
+    static boolean isForwarded(WebSocketHttpExchange exchange) {
+        return exchange.getRequestHeader(FORWARDED_HEADER) != null;
+    }
+
+    boolean isClusterNode(String node, String secret, InetSocketAddress source) {
+        if (node.equals(localNode) || !clusterNodes.isEmpty() && !clusterNodes.contains(node)) {
+            return false;
+        }
+        if (clusterSecret != null) {
+            return secret != null && MessageDigest.isEqual(clusterSecret, secret.getBytes(StandardCharsets.UTF_8));
+        }
+        return source != null && clusterAddresses.contains(source.getAddress());
+    }
+
+    /**
+     * Connect to the owner with the path, query and credentials of the original request and relay
+     * between the two connections once connected. The channel is closed if the owner cannot be reached.
+     */
+    void forward(WebSocketHttpExchange exchange, WebSocketChannel channel, String channelId, String owner) {
+        String url = owner + exchange.getRequestURI();
+        try {
+            URI uri = new URI(url);
+            WebSocketClient.ConnectionBuilder builder = WebSocketClient.connectionBuilder(channel.getIoThread(), channel.getBufferPool(), uri)
+                    .setClientNegotiation(new Negotiation(forwardedHeaders(exchange)));
+            if (WsAttributes.WEBSOCKET_SECURE_PROTOCOL.equals(uri.getScheme())) {
+                if (ssl == null) {
+                    throw new IOException("SSL context is null. Cannot forward to " + owner);
+                }
+                builder.setSsl(ssl);
+            }
+            long start = System.nanoTime();
+            builder.connect().addNotifier(new IoFuture.HandlingNotifier<WebSocketChannel, Object>() {
+                @Override
+                public void handleDone(WebSocketChannel ownerChannel, Object attachment) {
+                    metrics.downstreamConnected(start);
+                    if (!channel.isOpen()) {
+                        IoUtils.safeClose(ownerChannel);
+                        return;
+                    }
+                    forwarded.increment(1);
+                    if (LOG.isTraceEnabled()) LOG.trace("Forwarding channelId = {} to {}", channelId, owner);
+                    WsChannelRelayListener.relay(channelId, channel, ownerChannel, metrics, MAX_IN_FLIGHT_MESSAGES, MAX_IN_FLIGHT_BYTES, streamingRelay);
+                }
+
+                @Override
+                public void handleFailed(IOException exception, Object attachment) {
+                    failed(channel, channelId, owner, exception);
+                }
+            }, null);
+        } catch (Exception e) {
+            failed(channel, channelId, owner, e);
+        }
+    }
+
+    private void failed(WebSocketChannel channel, String channelId, String owner, Exception e) {
+        metrics.downstreamConnectFailed();
+        LOG.error("Failed to forward channelId = {} to {}", channelId, owner, e);
+        WebSockets.sendClose(WebSocketCloseCodes.TRY_AGAIN_LATER.getCloseCode(), "Rendezvous node not available", channel, null);
+    }
+
+    private Map<String, List<String>> forwardedHeaders(WebSocketHttpExchange exchange) {
+        Map<String, List<String>> headers = new LinkedHashMap<>();
+        for (String name : new String[]{WsAttributes.CHANNEL_GROUP_ID, "Authorization"}) {
+            String value = exchange.getRequestHeader(name);
+            if (value != null) {
+                headers.put(name, List.of(value));
+            }
+        }
+        headers.put(FORWARDED_HEADER, List.of(localNode));
+        if (clusterSecret != null) {
+            headers.put(SECRET_HEADER, List.of(new String(clusterSecret, StandardCharsets.UTF_8)));
+        }
+        return headers;
+    }
+
+    private static Set<InetAddress> resolve(List<String> nodes) {
+        Set<InetAddress> addresses = new HashSet<>();
+        for (String node : nodes) {
+            try {
+                String host = URI.create(node).getHost();
+                if (host != null) {
+                    addresses.addAll(List.of(InetAddress.getAllByName(host)));
+                }
+            } catch (IllegalArgumentException | UnknownHostException e) {
+                LOG.warn("Failed to resolve cluster node {}. Connections forwarded by it are not accepted", node, e);
+            }
+        }
+        return addresses;
+    }
+
+    /**
+     * Passes the headers the owner needs on to the forwarded connection.
+     */
+    private static final class Negotiation extends WebSocketClientNegotiation {
+        private final Map<String, List<String>> forwardedHeaders;
+
+        private Negotiation(Map<String, List<String>> forwardedHeaders) {
+            super(new ArrayList<>(), List.of());
+            this.forwardedHeaders = forwardedHeaders;
+        }
+
+        @Override
+        public void beforeRequest(Map<String, List<String>> headers) {
+            headers.putAll(forwardedHeaders);
+        }
+    }
+}
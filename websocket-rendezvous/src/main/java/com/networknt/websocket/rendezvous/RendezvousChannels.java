@@ -0,0 +1,150 @@
+package com.networknt.websocket.rendezvous;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Pairs registered by channel id and the number of clients among them that still wait for their
+ * backend. A client takes one of the pending slots before it registers and gives it back when its
+ * backend joins or its pair is removed, so the number of waiting clients never exceeds the limit,
+ * not even for a moment when many clients upgrade at once.
+ *
+ * @param <T> the pair of a client and its backend
+ */
+final class RendezvousChannels<T> {
+    private final Map<String, T> channels = new ConcurrentHashMap<>();
+    // clients in channels that are still waiting for their backend
+    private final AtomicInteger pending = new AtomicInteger();
+    private final int maxPending;
+    private final Predicate<T> paired;
+
+    /**
+     * @param maxPending the most clients that wait for their backend at once
+     * @param paired tells if the backend of a pair has joined
+     */
+    RendezvousChannels(int maxPending, Predicate<T> paired) {
+        this.maxPending = maxPending;
+        this.paired = paired;
+    }
+
+    /**
+     * @return the registered pairs by channel id, read by the receive listeners
+     */
+    Map<String, T> channels() {
+        return channels;
+    }
+
+    T get(String channelId) {
+        return channels.get(channelId);
+    }
+
+    int size() {
+        return channels.size();
+    }
+
+    int pending() {
+        return pending.get();
+    }
+
+    /**
+     * Register a client that waits for its backend. The pending slot is taken before the join and
+     * given back unless the client was registered.
+     *
+     * @param channelId channel id of the client
+     * @param newPair creates the pair of the client
+     * @return the outcome of the join, {@link Join#PENDING_LIMIT} without a pair if too many
+     * clients wait already
+     */
+    Joined<T> joinClient(String channelId, Supplier<T> newPair) {
+        if (pending.incrementAndGet() > maxPending) {
+            pending.decrementAndGet();
+            return new Joined<>(Join.PENDING_LIMIT, null);
+        }
+        Joined<T> joined = join(channels, channelId, false, newPair, null);
+        if (joined.join() != Join.CLIENT_REGISTERED) {
+            pending.decrementAndGet();
+        }
+        return joined;
+    }
+
+    /**
+     * Attach a backend to the pair of its client. A backend that replaces an earlier one does not
+     * give back a pending slot, the client stopped waiting with the first.
+     *
+     * @param channelId channel id of the backend
+     * @param attachBackend attaches the backend to the pair of its client
+     * @return the outcome of the join and the pair, null if the backend came first
+     */
+    Joined<T> joinBackend(String channelId, Consumer<T> attachBackend) {
+        return join(channels, channelId, true, () -> null, pair -> {
+            if (!paired.test(pair)) pending.decrementAndGet();
+            attachBackend.accept(pair);
+        });
+    }
+
+    /**
+     * Remove the pair of the channel id if it is still registered.
+     *
+     * @param channelId channel id of the pair
+     * @param pair the pair to remove, a later pair of the same channel id is kept
+     * @param pendingOnly only remove the pair while it waits for its backend
+     * @return true if the pair was removed
+     */
+    boolean remove(String channelId, T pair, boolean pendingOnly) {
+        boolean[] removed = new boolean[1];
+        channels.computeIfPresent(channelId, (id, existing) -> {
+            if (existing != pair || (pendingOnly && paired.test(existing))) {
+                return existing;
+            }
+            if (!paired.test(existing)) pending.decrementAndGet();
+            removed[0] = true;
+            return null;
+        });
+        return removed[0];
+    }
+
+    /**
+     * Register a client or attach a backend to its client in one atomic step. compute only locks
+     * the bin of the channel id, so joins of different channels do not wait for each other. The
+     * functions run under that lock and must not block.
+     *
+     * @param channels registered channels by channel id
+     * @param channelId channel id of the joining peer
+     * @param backend true if the peer is the backend
+     * @param newPair creates the pair of a client that arrives first
+     * @param attachBackend attaches the backend to the pair of its client
+     * @return the outcome of the join and the pair, null if the backend came first
+     */
+    static <T> Joined<T> join(Map<String, T> channels, String channelId, boolean backend, Supplier<T> newPair, Consumer<T> attachBackend) {
+        Join[] join = new Join[1];
+        T joined = channels.compute(channelId, (id, pair) -> {
+            if (pair == null) {
+                join[0] = backend ? Join.BACKEND_FIRST : Join.CLIENT_REGISTERED;
+                return backend ? null : newPair.get();
+            }
+            if (backend) {
+                attachBackend.accept(pair);
+                join[0] = Join.BACKEND_PAIRED;
+            } else {
+                join[0] = Join.DUPLICATE_CLIENT;
+            }
+            return pair;
+        });
+        return new Joined<>(join[0], joined);
+    }
+
+    enum Join {
+        CLIENT_REGISTERED,
+        BACKEND_PAIRED,
+        BACKEND_FIRST,
+        DUPLICATE_CLIENT,
+        PENDING_LIMIT
+    }
+
+    record Joined<T>(Join join, T pair) {
+    }
+}
@@ -0,0 +1,17 @@
+package com.networknt.websocket.rendezvous;
+
+/**
+ * Decides which rendezvous node pairs the client and the backend of a channel id. Both sides have
+ * to end up on the owner of their channel id, a side that lands on another node is forwarded to the
+ * owner by that node, see {@link NodeRelay}.
+ *
+ * An implementation can be set in service.yml, otherwise the registry of
+ * {@link WebSocketRendezvousConfig} picks one of the built-in implementations.
+ */
+public interface RendezvousRegistry {
+    /**
+     * @param channelId channel id of a new connection
+     * @return the base URL of the node that owns the channel id, null if it is this node
+     */
+    String ownerOf(String channelId);
+}
@@ -3,12 +3,15 @@ package com.networknt.websocket.rendezvous;
 import com.networknt.config.Config;
 import com.networknt.config.schema.ConfigSchema;
 import com.networknt.config.schema.BooleanField;
+import com.networknt.config.schema.IntegerField;
 import com.networknt.config.schema.StringField;
 import com.networknt.config.schema.OutputFormat;
 import com.networknt.server.ModuleRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -25,6 +28,30 @@ public class WebSocketRendezvousConfig {
     private static final Logger logger = LoggerFactory.getLogger(WebSocketRendezvousConfig.class);
     public static final String CONFIG_NAME = "websocket-rendezvous";
     private static final String BACKEND_PATH = "backendPath";
+    private static final String MAX_PENDING_PAIRS = "maxPendingPairs";
+    private static final String PENDING_PAIR_TIMEOUT_MS = "pendingPairTimeoutMs";
+    private static final String STREAMING_RELAY = "streamingRelay";
+    private static final String MAX_QUEUED_MESSAGES = "maxQueuedMessages";
+    private static final String MAX_QUEUED_BYTES = "maxQueuedBytes";
+    private static final String SLOW_CONSUMER_POLICY = "slowConsumerPolicy";
+    private static final String SLOW_CONSUMER_CLOSE_CODE = "slowConsumerCloseCode";
+    private static final String BACKEND_POOL_ENABLED = "backendPoolEnabled";
+    private static final String MAX_IDLE_BACKENDS = "maxIdleBackends";
+    private static final String REGISTRY = "registry";
+    private static final String CLUSTER_NODES = "clusterNodes";
+    private static final String LOCAL_NODE = "localNode";
+    private static final String CLUSTER_SECRET = "clusterSecret";
+    private static final String CLUSTER_VIRTUAL_NODES = "clusterVirtualNodes";
+    private static final String METRICS_ENABLED = "metricsEnabled";
+    public static final int DEFAULT_MAX_PENDING_PAIRS = 10000;
+    public static final int DEFAULT_PENDING_PAIR_TIMEOUT_MS = 60000;
+    public static final int DEFAULT_MAX_QUEUED_BYTES = 4194304;
+    public static final String DEFAULT_SLOW_CONSUMER_POLICY = "DISCONNECT";
+    public static final int DEFAULT_SLOW_CONSUMER_CLOSE_CODE = 1013;
+    public static final int DEFAULT_MAX_IDLE_BACKENDS = 10000;
+    public static final String REGISTRY_LOCAL = "local";
+    public static final String REGISTRY_HASH_RING = "hash-ring";
+    public static final int DEFAULT_CLUSTER_VIRTUAL_NODES = 160;
 
     @BooleanField(
             configFieldName = "enabled",
@@ -42,6 +69,133 @@ public class WebSocketRendezvousConfig {
     )
     String backendPath;
 
+    @IntegerField(
+            configFieldName = MAX_PENDING_PAIRS,
+            externalizedKeyName = MAX_PENDING_PAIRS,
+            description = "Max number of clients waiting for their backend. New clients are closed with 1013 (try again later) above it.",
+            defaultValue = "10000",
+            min = 1
+    )
+    int maxPendingPairs = DEFAULT_MAX_PENDING_PAIRS;
+
+    @IntegerField(
+            configFieldName = PENDING_PAIR_TIMEOUT_MS,
+            externalizedKeyName = PENDING_PAIR_TIMEOUT_MS,
+            description = "Close a client whose backend has not connected within this time in milliseconds. 0 waits forever.",
+            defaultValue = "60000",
+            min = 0
+    )
+    int pendingPairTimeoutMs = DEFAULT_PENDING_PAIR_TIMEOUT_MS;
+
+    @BooleanField(
+            configFieldName = STREAMING_RELAY,
+            externalizedKeyName = STREAMING_RELAY,
+            description = "Forward each frame fragment to the other side as soon as it is read instead of buffering the full message.",
+            defaultValue = "false"
+    )
+    boolean streamingRelay;
+
+    @IntegerField(
+            configFieldName = MAX_QUEUED_MESSAGES,
+            externalizedKeyName = MAX_QUEUED_MESSAGES,
+            description = "Max number of messages queued for a side that reads slower than the other side writes. 0 hands every message to the channel right away without a queue.",
+            defaultValue = "0",
+            min = 0
+    )
+    int maxQueuedMessages;
+
+    @IntegerField(
+            configFieldName = MAX_QUEUED_BYTES,
+            externalizedKeyName = MAX_QUEUED_BYTES,
+            description = "Max number of bytes, characters for text, queued for a slow side when maxQueuedMessages is set.",
+            defaultValue = "4194304",
+            min = 1
+    )
+    int maxQueuedBytes = DEFAULT_MAX_QUEUED_BYTES;
+
+    @StringField(
+            configFieldName = SLOW_CONSUMER_POLICY,
+            externalizedKeyName = SLOW_CONSUMER_POLICY,
+            description = "What to do once the queue of a slow side is full. DROP_OLDEST, DROP_NEWEST, COALESCE_LATEST or DISCONNECT.",
+            defaultValue = "DISCONNECT",
+            pattern = "^(DROP_OLDEST|DROP_NEWEST|COALESCE_LATEST|DISCONNECT)$"
+    )
+    String slowConsumerPolicy = DEFAULT_SLOW_CONSUMER_POLICY;
+
+    @IntegerField(
+            configFieldName = SLOW_CONSUMER_CLOSE_CODE,
+            externalizedKeyName = SLOW_CONSUMER_CLOSE_CODE,
+            description = "Close code sent to a slow side with the DISCONNECT policy, 1008 (policy violation) or 1013 (try again later).",
+            defaultValue = "1013",
+            min = 1000,
+            max = 4999
+    )
+    int slowConsumerCloseCode = DEFAULT_SLOW_CONSUMER_CLOSE_CODE;
+
+    @BooleanField(
+            configFieldName = BACKEND_POOL_ENABLED,
+            externalizedKeyName = BACKEND_POOL_ENABLED,
+            description = "Let backends register idle connections on the backend path with a pool query parameter, the channel id prefix they serve. A client without a waiting backend is paired with one of them right away.",
+            defaultValue = "false"
+    )
+    boolean backendPoolEnabled;
+
+    @IntegerField(
+            configFieldName = MAX_IDLE_BACKENDS,
+            externalizedKeyName = MAX_IDLE_BACKENDS,
+            description = "Max number of idle backend connections in the pool. Beyond that a backend connection is closed with try again later.",
+            defaultValue = "10000",
+            min = 1
+    )
+    int maxIdleBackends = DEFAULT_MAX_IDLE_BACKENDS;
+
+    @StringField(
+            configFieldName = REGISTRY,
+            externalizedKeyName = REGISTRY,
+            description = "Which node pairs a channel id. local pairs every channel id on this node, hash-ring spreads the channel ids over the clusterNodes and forwards a connection to the node that owns its channel id. A RendezvousRegistry in service.yml takes precedence.",
+            defaultValue = "local",
+            pattern = "^(local|hash-ring)$"
+    )
+    String registry = REGISTRY_LOCAL;
+
+    @StringField(
+            configFieldName = CLUSTER_NODES,
+            externalizedKeyName = CLUSTER_NODES,
+            description = "Comma separated base URLs of all rendezvous nodes for the hash-ring registry, like ws://10.0.0.1:8080,ws://10.0.0.2:8080. Must be the same on every node."
+    )
+    String clusterNodes;
+
+    @StringField(
+            configFieldName = LOCAL_NODE,
+            externalizedKeyName = LOCAL_NODE,
+            description = "Base URL of this node as it appears in clusterNodes."
+    )
+    String localNode;
+
+    @StringField(
+            configFieldName = CLUSTER_SECRET,
+            externalizedKeyName = CLUSTER_SECRET,
+            description = "Shared secret the nodes send with a forwarded connection. Must be the same on every node. Without it a forwarded connection is only accepted from the address of one of the clusterNodes."
+    )
+    String clusterSecret;
+
+    @IntegerField(
+            configFieldName = CLUSTER_VIRTUAL_NODES,
+            externalizedKeyName = CLUSTER_VIRTUAL_NODES,
+            description = "Number of points of each node on the hash ring. More points spread the channel ids more evenly.",
+            defaultValue = "160",
+            min = 1
+    )
+    int clusterVirtualNodes = DEFAULT_CLUSTER_VIRTUAL_NODES;
+
+    @BooleanField(
+            configFieldName = METRICS_ENABLED,
+            externalizedKeyName = METRICS_ENABLED,
+            description = "Record connection and message metrics and the number of open channels. They are exposed by the WsMetricsHandler of websocket-client.",
+            defaultValue = "false"
+    )
+    boolean metricsEnabled;
+
     private final Map<String, Object> mappedConfig;
     private static volatile WebSocketRendezvousConfig instance;
 
@@ -86,6 +240,72 @@ public class WebSocketRendezvousConfig {
         return backendPath;
     }
 
+    public boolean isStreamingRelay() {
+        return streamingRelay;
+    }
+
+    public int getMaxQueuedMessages() {
+        return maxQueuedMessages;
+    }
+
+    public int getMaxQueuedBytes() {
+        return maxQueuedBytes;
+    }
+
+    public String getSlowConsumerPolicy() {
+        return slowConsumerPolicy;
+    }
+
+    public int getSlowConsumerCloseCode() {
+        return slowConsumerCloseCode;
+    }
+
+    public boolean isMetricsEnabled() {
+        return metricsEnabled;
+    }
+
+    public boolean isBackendPoolEnabled() {
+        return backendPoolEnabled;
+    }
+
+    public int getMaxIdleBackends() {
+        return maxIdleBackends;
+    }
+
+    public String getRegistry() {
+        return registry;
+    }
+
+    public List<String> getClusterNodes() {
+        List<String> nodes = new ArrayList<>();
+        if (clusterNodes != null) {
+            for (String node : clusterNodes.split(",")) {
+                if (!node.isBlank()) nodes.add(node.trim());
+            }
+        }
+        return nodes;
+    }
+
+    public String getLocalNode() {
+        return localNode;
+    }
+
+    public String getClusterSecret() {
+        return clusterSecret;
+    }
+
+    public int getClusterVirtualNodes() {
+        return clusterVirtualNodes;
+    }
+
+    public int getMaxPendingPairs() {
+        return maxPendingPairs;
+    }
+
+    public int getPendingPairTimeoutMs() {
+        return pendingPairTimeoutMs;
+    }
+
     private void setConfigData() {
         if (mappedConfig != null) {
             Object object = mappedConfig.get("enabled");
@@ -93,6 +313,55 @@ public class WebSocketRendezvousConfig {
             
             Object backendPathObj = mappedConfig.get(BACKEND_PATH);
             if (backendPathObj != null) backendPath = (String) backendPathObj;
+
+            Object streamingRelayObj = mappedConfig.get(STREAMING_RELAY);
+            if (streamingRelayObj != null) streamingRelay = Config.loadBooleanValue(STREAMING_RELAY, streamingRelayObj);
+
+            Object maxQueuedMessagesObj = mappedConfig.get(MAX_QUEUED_MESSAGES);
+            if (maxQueuedMessagesObj != null) maxQueuedMessages = Config.loadIntegerValue(MAX_QUEUED_MESSAGES, maxQueuedMessagesObj);
+
+            Object maxQueuedBytesObj = mappedConfig.get(MAX_QUEUED_BYTES);
+            if (maxQueuedBytesObj != null) maxQueuedBytes = Config.loadIntegerValue(MAX_QUEUED_BYTES, maxQueuedBytesObj);
+
+            Object slowConsumerPolicyObj = mappedConfig.get(SLOW_CONSUMER_POLICY);
+            if (slowConsumerPolicyObj != null && !((String) slowConsumerPolicyObj).isBlank()) slowConsumerPolicy = ((String) slowConsumerPolicyObj).trim();
+
+            Object slowConsumerCloseCodeObj = mappedConfig.get(SLOW_CONSUMER_CLOSE_CODE);
+            if (slowConsumerCloseCodeObj != null) slowConsumerCloseCode = Config.loadIntegerValue(SLOW_CONSUMER_CLOSE_CODE, slowConsumerCloseCodeObj);
+
+            Object backendPoolEnabledObj = mappedConfig.get(BACKEND_POOL_ENABLED);
+            if (backendPoolEnabledObj != null) backendPoolEnabled = Config.loadBooleanValue(BACKEND_POOL_ENABLED, backendPoolEnabledObj);
+
+            Object maxIdleBackendsObj = mappedConfig.get(MAX_IDLE_BACKENDS);
+            if (maxIdleBackendsObj != null) maxIdleBackends = Config.loadIntegerValue(MAX_IDLE_BACKENDS, maxIdleBackendsObj);
+
+            Object registryObj = mappedConfig.get(REGISTRY);
+            if (registryObj != null && !((String) registryObj).isBlank()) registry = ((String) registryObj).trim();
+
+            Object clusterNodesObj = mappedConfig.get(CLUSTER_NODES);
+            if (clusterNodesObj instanceof List<?> list) {
+                clusterNodes = String.join(",", list.stream().map(String::valueOf).toList());
+            } else if (clusterNodesObj != null) {
+                clusterNodes = (String) clusterNodesObj;
+            }
+
+            Object localNodeObj = mappedConfig.get(LOCAL_NODE);
+            if (localNodeObj != null && !((String) localNodeObj).isBlank()) localNode = ((String) localNodeObj).trim();
+
+            Object clusterSecretObj = mappedConfig.get(CLUSTER_SECRET);
+            if (clusterSecretObj != null && !((String) clusterSecretObj).isBlank()) clusterSecret = ((String) clusterSecretObj).trim();
+
+            Object clusterVirtualNodesObj = mappedConfig.get(CLUSTER_VIRTUAL_NODES);
+            if (clusterVirtualNodesObj != null) clusterVirtualNodes = Config.loadIntegerValue(CLUSTER_VIRTUAL_NODES, clusterVirtualNodesObj);
+
+            Object metricsEnabledObj = mappedConfig.get(METRICS_ENABLED);
+            if (metricsEnabledObj != null) metricsEnabled = Config.loadBooleanValue(METRICS_ENABLED, metricsEnabledObj);
+
+            Object maxPendingPairsObj = mappedConfig.get(MAX_PENDING_PAIRS);
+            if (maxPendingPairsObj != null) maxPendingPairs = Config.loadIntegerValue(MAX_PENDING_PAIRS, maxPendingPairsObj);
+
+            Object pendingPairTimeoutMsObj = mappedConfig.get(PENDING_PAIR_TIMEOUT_MS);
+            if (pendingPairTimeoutMsObj != null) pendingPairTimeoutMs = Config.loadIntegerValue(PENDING_PAIR_TIMEOUT_MS, pendingPairTimeoutMsObj);
         }
     }
 }
@@ -1,38 +1,70 @@
 package com.networknt.websocket.rendezvous;
 
+import com.networknt.config.Config;
 import com.networknt.handler.Handler;
 import com.networknt.handler.MiddlewareHandler;
+import com.networknt.service.SingletonServiceFactory;
+import com.networknt.websocket.client.WebSocketCloseCodes;
 import com.networknt.websocket.client.WsAttributes;
+import com.networknt.websocket.client.WsClient;
+import com.networknt.websocket.client.WsMetrics;
+import com.networknt.websocket.client.WsOutboundQueue;
 import com.networknt.websocket.client.WsProxyClientPair;
+import com.networknt.websocket.client.WsRelayMetrics;
+import com.networknt.websocket.rendezvous.RendezvousChannels.Join;
+import com.networknt.websocket.rendezvous.RendezvousChannels.Joined;
 import io.undertow.Handlers;
 import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpServerExchange;
 import io.undertow.websockets.WebSocketConnectionCallback;
 import io.undertow.websockets.WebSocketProtocolHandshakeHandler;
+import io.undertow.websockets.core.CloseMessage;
 import io.undertow.websockets.core.WebSocketChannel;
+import io.undertow.websockets.core.WebSockets;
 import io.undertow.websockets.spi.WebSocketHttpExchange;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 public class WebSocketRendezvousHandler implements MiddlewareHandler, WebSocketConnectionCallback {
     private static final Logger LOG = LoggerFactory.getLogger(WebSocketRendezvousHandler.class);
     private static final WebSocketRendezvousConfig config = WebSocketRendezvousConfig.load();
     // Shared map for rendezvous channels. Since this is a singleton handler, this map works.
     // If we had multiple instances, we might need a shared registry or singleton bean.
-    private static final Map<String, WsProxyClientPair> CHANNELS = new ConcurrentHashMap<>();
+    // Pairs are removed by the close tasks of their channels or when no backend joins in time.
+    private static final RendezvousChannels<WsProxyClientPair> CHANNELS = new RendezvousChannels<>(config.getMaxPendingPairs(), WsProxyClientPair::isPaired);
+    private static final WsMetrics METRICS = WsMetrics.of(config.isMetricsEnabled());
+    // channel ids are unbounded, so all rendezvous channels share one set of meters
+    private static final WsRelayMetrics RELAY_METRICS = METRICS.relay("rendezvous", "");
+    private static final WsOutboundQueue.Policy SLOW_CONSUMER_POLICY = WsOutboundQueue.Policy.valueOf(config.getSlowConsumerPolicy());
+    // idle backends registered ahead of their clients, null if the pool is disabled
+    private static final BackendPool BACKEND_POOL = config.isBackendPoolEnabled() ? new BackendPool(config.getMaxIdleBackends()) : null;
+    private static final String POOL_PARAM = "pool";
+    private static final String BACKEND_ID_PARAM = "backendId";
+    // owner of each channel id, connections for channel ids of other nodes are forwarded
+    private static final RendezvousRegistry REGISTRY = createRegistry();
+    private static final NodeRelay NODE_RELAY = REGISTRY instanceof LocalRendezvousRegistry ? null :
+            new NodeRelay(config.getLocalNode(), config.getClusterNodes(), config.getClusterSecret(), config.isStreamingRelay(), METRICS, RELAY_METRICS);
 
     private volatile HttpHandler next;
 
     public WebSocketRendezvousHandler() {
+        METRICS.gauge("websocket_rendezvous_channels", "Rendezvous channels registered.", CHANNELS::size);
+        METRICS.gauge("websocket_rendezvous_pending_channels", "Rendezvous clients waiting for their backend.", CHANNELS::pending);
+        if (BACKEND_POOL != null) {
+            METRICS.gauge("websocket_rendezvous_idle_backends", "Backend connections registered in the pool and waiting for a client.", BACKEND_POOL::getIdleCount);
+        }
     }
 
     @Override
     public void handleRequest(HttpServerExchange exchange) throws Exception {
         if (config.isEnabled()) {
+            // only a cluster node may skip the owner lookup
+            if (NODE_RELAY != null) NODE_RELAY.authenticate(exchange); else NodeRelay.strip(exchange);
             new WebSocketProtocolHandshakeHandler(this).handleRequest(exchange);
         } else {
             // If disabled, skip to next handler?
@@ -46,7 +78,172 @@ public class WebSocketRendezvousHandler implements MiddlewareHandler, WebSocketC
 
     @Override
     public void onConnect(WebSocketHttpExchange exchange, WebSocketChannel channel) {
+        RELAY_METRICS.connectionOpened(channel);
+        // Determine role based on path
+        boolean isBackend = false;
+        String backendPath = config.getBackendPath();
+        if (backendPath != null && exchange.getRequestURI().contains(backendPath)) {
+            isBackend = true;
+        }
+
+        if (isBackend && BACKEND_POOL != null && exchange.getRequestParameters().containsKey(POOL_PARAM)) {
+            registerIdleBackend(exchange, channel);
+            return;
+        }
+
         // Logic extracted from WebSocketRouterHandler's rendezvous section
+        String channelId = getChannelId(exchange);
+        if (channelId == null) {
+            LOG.error("ChannelId missing for Rendezvous connection.");
+            try { channel.sendClose(); } catch (IOException e) { e.printStackTrace(); }
+            return;
+        }
+
+        if(LOG.isTraceEnabled()) LOG.trace("Rendezvous channelId = {}", channelId);
+
+        // a forwarded connection is paired here, the forwarding node already chose this node. The
+        // header of a connection that is not from a cluster node was removed before the upgrade.
+        String owner = NODE_RELAY == null || NodeRelay.isForwarded(exchange) ? null : REGISTRY.ownerOf(channelId);
+        if (owner != null) {
+            NODE_RELAY.forward(exchange, channel, channelId, owner);
+            return;
+        }
+
+        channel.setAttribute(WsAttributes.CHANNEL_GROUP_ID, channelId);
+        prepare(channel, isBackend);
+
+        Joined<WsProxyClientPair> joined = isBackend ?
+                CHANNELS.joinBackend(channelId, pair -> pair.setProxyToDestinationClient(channel)) :
+                CHANNELS.joinClient(channelId, () -> new WsProxyClientPair(channel));
+        WsProxyClientPair pair = joined.pair();
+        switch (joined.join()) {
+            case CLIENT_REGISTERED -> {
+                channel.addCloseTask(c -> leave(channelId, pair));
+                // close tasks added after the channel closed never run
+                if (!channel.isOpen()) leave(channelId, pair);
+                if (config.getPendingPairTimeoutMs() > 0) {
+                    channel.getIoThread().executeAfter(() -> expire(channelId, pair), config.getPendingPairTimeoutMs(), TimeUnit.MILLISECONDS);
+                }
+                // the backend sees the channel id before any message of the client
+                if (BACKEND_POOL != null) pairIdleBackend(channelId);
+                channel.getReceiveSetter().set(new WebSocketRendezvousReceiveListener(CHANNELS.channels(), RELAY_METRICS, config.isStreamingRelay()));
+                channel.resumeReceives();
+            }
+            case BACKEND_PAIRED -> {
+                watchBackend(channelId, pair, channel);
+                channel.getReceiveSetter().set(new WebSocketRendezvousReceiveListener(CHANNELS.channels(), RELAY_METRICS, config.isStreamingRelay()));
+                channel.resumeReceives();
+            }
+            case BACKEND_FIRST -> {
+                LOG.warn("Backend connected before Client for channelId: {}. Dropping.", channelId);
+                try { channel.sendClose(); } catch (IOException e) {}
+            }
+            case DUPLICATE_CLIENT -> {
+                LOG.error("Duplicate client connection for channelId: {}", channelId);
+                try { channel.sendClose(); } catch (IOException e) {}
+            }
+            case PENDING_LIMIT -> {
+                LOG.warn("Too many clients waiting for a backend. Dropping client for channelId: {}", channelId);
+                WebSockets.sendClose(WebSocketCloseCodes.TRY_AGAIN_LATER.getCloseCode(), "Too many clients waiting for a backend", channel, null);
+            }
+        }
+    }
+
+    /**
+     * Set the direction of a new channel and attach its outbound queue. Both must be visible to the
+     * listeners before the peer can see this channel.
+     */
+    private static void prepare(WebSocketChannel channel, boolean isBackend) {
+        channel.setAttribute(WsAttributes.CHANNEL_DIRECTION, isBackend ?
+                WsProxyClientPair.SocketFlow.PROXY_TO_DOWNSTREAM : WsProxyClientPair.SocketFlow.CLIENT_TO_PROXY);
+        if (config.getMaxQueuedMessages() > 0) {
+            WsOutboundQueue.attach(channel, SLOW_CONSUMER_POLICY, config.getMaxQueuedMessages(), config.getMaxQueuedBytes(),
+                    config.getSlowConsumerCloseCode(), RELAY_METRICS);
+        }
+    }
+
+    /**
+     * Leave the pair when the backend closes. A backend that was replaced by a later one leaves the
+     * pair alone.
+     */
+    private static void watchBackend(String channelId, WsProxyClientPair pair, WebSocketChannel channel) {
+        channel.addCloseTask(c -> {
+            WsClient destination = pair.getProxyToDestinationClient();
+            if (destination != null && destination.getChannel() == c) leave(channelId, pair);
+        });
+        if (!channel.isOpen()) leave(channelId, pair);
+    }
+
+    /**
+     * Register a backend connection that waits in the pool for a client. It reads from the start so
+     * that a close while idle is seen, messages sent while idle have no peer and are dropped.
+     */
+    private static void registerIdleBackend(WebSocketHttpExchange exchange, WebSocketChannel channel) {
+        String prefix = firstParameter(exchange, POOL_PARAM, "");
+        String backendId = firstParameter(exchange, BACKEND_ID_PARAM, channel.getSourceAddress().getAddress().getHostAddress());
+        prepare(channel, true);
+        if (!BACKEND_POOL.register(prefix, backendId, channel)) {
+            LOG.warn("Backend pool is full. Dropping idle backend {} for prefix '{}'", backendId, prefix);
+            WebSockets.sendClose(WebSocketCloseCodes.TRY_AGAIN_LATER.getCloseCode(), "Backend pool is full", channel, null);
+            return;
+        }
+        channel.addCloseTask(c -> BACKEND_POOL.closed(prefix, backendId, c));
+        if (!channel.isOpen()) BACKEND_POOL.closed(prefix, backendId, channel);
+        if (LOG.isTraceEnabled()) LOG.trace("Registered idle backend {} for prefix '{}'", backendId, prefix);
+        channel.getReceiveSetter().set(new WebSocketRendezvousReceiveListener(CHANNELS.channels(), RELAY_METRICS, config.isStreamingRelay()));
+        channel.resumeReceives();
+    }
+
+    /**
+     * Pair a client that just registered with an idle backend of the pool, if there is one. The
+     * backend is told the channel id with a text message {"channelId":"..."} ahead of the messages
+     * of the client.
+     */
+    private static void pairIdleBackend(String channelId) {
+        WebSocketChannel backend = BACKEND_POOL.claim(channelId);
+        if (backend == null) {
+            return;
+        }
+        WebSockets.sendText(assignment(channelId), backend, null);
+        backend.setAttribute(WsAttributes.CHANNEL_GROUP_ID, channelId);
+        Joined<WsProxyClientPair> joined = CHANNELS.joinBackend(channelId, pair -> pair.setProxyToDestinationClient(backend));
+        if (joined.join() == Join.BACKEND_PAIRED) {
+            if (LOG.isTraceEnabled()) LOG.trace("Paired channelId = {} with an idle backend", channelId);
+            watchBackend(channelId, joined.pair(), backend);
+        } else {
+            // the client is already gone
+            WebSockets.sendClose(CloseMessage.GOING_AWAY, "Peer closed", backend, null);
+        }
+    }
+
+    private static RendezvousRegistry createRegistry() {
+        RendezvousRegistry registry = SingletonServiceFactory.getBean(RendezvousRegistry.class);
+        if (registry != null) {
+            return registry;
+        }
+        if (WebSocketRendezvousConfig.REGISTRY_HASH_RING.equals(config.getRegistry())) {
+            return new HashRingRendezvousRegistry(config.getLocalNode(), config.getClusterNodes(), config.getClusterVirtualNodes());
+        }
+        return new LocalRendezvousRegistry();
+    }
+
+    private static String assignment(String channelId) {
+        try {
+            return Config.getInstance().getMapper().writeValueAsString(Map.of("channelId", channelId));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String firstParameter(WebSocketHttpExchange exchange, String name, String defaultValue) {
+        List<String> values = exchange.getRequestParameters().get(name);
+        return values != null && !values.isEmpty() && values.get(0) != null ? values.get(0) : defaultValue;
+    }
+
+    /**
+     * The channel id from the x-group-id header or the channelId query parameter.
+     */
+    private static String getChannelId(WebSocketHttpExchange exchange) {
         String channelId = exchange.getRequestHeader(WsAttributes.CHANNEL_GROUP_ID);
         if (channelId == null) {
              // Manual parse from request URI
@@ -64,60 +261,47 @@ public class WebSocketRendezvousHandler implements MiddlewareHandler, WebSocketC
                  }
              }
         }
-        
-        if (channelId == null) {
-            LOG.error("ChannelId missing for Rendezvous connection.");
-            try { channel.sendClose(); } catch (IOException e) { e.printStackTrace(); }
-            return;
-        }
+        return channelId;
+    }
 
-        if(LOG.isTraceEnabled()) LOG.trace("Rendezvous channelId = {}", channelId);
+    /**
+     * Remove the pair when one of its channels closes and close the other side. A close frame the
+     * other side got from the listener already carries the code of the closed side, a side without
+     * one gets going away instead of a dropped connection.
+     */
+    private static void leave(String channelId, WsProxyClientPair pair) {
+        if (CHANNELS.remove(channelId, pair, false)) {
+            if (LOG.isTraceEnabled()) LOG.trace("Removed rendezvous channelId = {}", channelId);
+            closeSide(pair.getClientToProxyClient());
+            closeSide(pair.getProxyToDestinationClient());
+        }
+    }
 
-        channel.setAttribute(WsAttributes.CHANNEL_GROUP_ID, channelId);
-        
-        // Determine role based on path
-        boolean isBackend = false;
-        String backendPath = config.getBackendPath();
-        if (backendPath != null && exchange.getRequestURI().contains(backendPath)) {
-            isBackend = true;
+    private static void closeSide(WsClient client) {
+        if (client == null) return;
+        WebSocketChannel channel = client.getChannel();
+        if (channel.isOpen() && !channel.isCloseFrameSent()) {
+            WebSockets.sendClose(CloseMessage.GOING_AWAY, "Peer closed", channel, null);
         }
+    }
 
-        synchronized (CHANNELS) {
-            WsProxyClientPair pair = CHANNELS.get(channelId);
-            if (pair == null) {
-                // First peer arriving
-                if (isBackend) {
-                    // Backend arrived first
-                    LOG.warn("Backend connected before Client for channelId: {}. Dropping.", channelId);
-                    try { channel.sendClose(); } catch (IOException e) {}
-                    return;
-                } else {
-                     // Client arrived first (Expected)
-                     pair = new WsProxyClientPair(channel);
-                     channel.setAttribute(WsAttributes.CHANNEL_DIRECTION, WsProxyClientPair.SocketFlow.CLIENT_TO_PROXY);
-                }
-                CHANNELS.put(channelId, pair);
-                
-                channel.getReceiveSetter().set(new WebSocketRendezvousReceiveListener(CHANNELS));
-                channel.resumeReceives();
-                
-            } else {
-                // Second peer arriving
-                if (isBackend) {
-                    // Backend arrived second. Set Destination.
-                    pair.setProxyToDestinationClient(channel);
-                    channel.setAttribute(WsAttributes.CHANNEL_DIRECTION, WsProxyClientPair.SocketFlow.PROXY_TO_DOWNSTREAM);
-                    // Use local Listener
-                    channel.getReceiveSetter().set(new WebSocketRendezvousReceiveListener(CHANNELS));
-                    channel.resumeReceives();
-                } else {
-                    LOG.error("Duplicate client connection for channelId: {}", channelId);
-                    try { channel.sendClose(); } catch (IOException e) {}
-                }
-            }
+    /**
+     * Remove a client whose backend has not joined within the pending timeout.
+     */
+    private static void expire(String channelId, WsProxyClientPair pair) {
+        if (CHANNELS.remove(channelId, pair, true)) {
+            LOG.debug("No backend connected for channelId: {} within {} ms. Closing client.", channelId, config.getPendingPairTimeoutMs());
+            WebSockets.sendClose(CloseMessage.GOING_AWAY, "No backend connected", pair.getClientToProxyClient().getChannel(), null);
         }
     }
 
+    /**
+     * The pair registered for a channel id, null if there is none.
+     */
+    static WsProxyClientPair pair(String channelId) {
+        return CHANNELS.get(channelId);
+    }
+
     @Override
     public HttpHandler getNext() {
         return next;
@@ -134,6 +318,4 @@ public class WebSocketRendezvousHandler implements MiddlewareHandler, WebSocketC
     public boolean isEnabled() {
         return config.isEnabled();
     }
-
-
 }
@@ -1,53 +1,143 @@
 package com.networknt.websocket.rendezvous;
 
 import com.networknt.websocket.client.WsAttributes;
+import com.networknt.websocket.client.WsClient;
+import com.networknt.websocket.client.WsMessageStreamer;
+import com.networknt.websocket.client.WsOutboundQueue;
 import com.networknt.websocket.client.WsProxyClientPair;
+import com.networknt.websocket.client.WsRelayMetrics;
 import io.undertow.websockets.core.AbstractReceiveListener;
+import io.undertow.websockets.core.BufferedBinaryMessage;
 import io.undertow.websockets.core.BufferedTextMessage;
+import io.undertow.websockets.core.CloseMessage;
+import io.undertow.websockets.core.StreamSourceFrameChannel;
+import io.undertow.websockets.core.WebSocketCallback;
 import io.undertow.websockets.core.WebSocketChannel;
+import io.undertow.websockets.core.WebSocketFrameType;
 import io.undertow.websockets.core.WebSockets;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xnio.IoUtils;
+import org.xnio.Pooled;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Map;
 
+/**
+ * Relays text and binary messages and the close frame between the two sides of a rendezvous pair.
+ *
+ * Binary messages are handed to the other side in the pooled buffers they were read into. With
+ * streaming relay, text and binary messages are not buffered at all, see {@link WsMessageStreamer}.
+ */
 public class WebSocketRendezvousReceiveListener extends AbstractReceiveListener {
     private static final Logger LOG = LoggerFactory.getLogger(WebSocketRendezvousReceiveListener.class);
 
     private final Map<String, WsProxyClientPair> proxyChannels;
+    private final WsRelayMetrics metrics;
+    private final boolean streamingRelay;
 
     public WebSocketRendezvousReceiveListener(Map<String, WsProxyClientPair> proxyChannels) {
+        this(proxyChannels, WsRelayMetrics.NOOP, false);
+    }
+
+    public WebSocketRendezvousReceiveListener(Map<String, WsProxyClientPair> proxyChannels, WsRelayMetrics metrics) {
+        this(proxyChannels, metrics, false);
+    }
+
+    public WebSocketRendezvousReceiveListener(Map<String, WsProxyClientPair> proxyChannels, WsRelayMetrics metrics, boolean streamingRelay) {
         this.proxyChannels = proxyChannels;
+        this.metrics = metrics;
+        this.streamingRelay = streamingRelay;
+    }
+
+    @Override
+    protected void onText(final WebSocketChannel channel, final StreamSourceFrameChannel messageChannel) throws IOException {
+        final var client = streamingRelay ? getOtherSide(channel) : null;
+        if (client == null) {
+            super.onText(channel, messageChannel);
+            return;
+        }
+        new WsMessageStreamer(channel, client.getChannel(), WebSocketFrameType.TEXT, metrics, getDirection(channel),
+                e -> onError(channel, e)).handleEvent(messageChannel);
+    }
+
+    @Override
+    protected void onBinary(final WebSocketChannel channel, final StreamSourceFrameChannel messageChannel) throws IOException {
+        final var client = streamingRelay ? getOtherSide(channel) : null;
+        if (client == null) {
+            super.onBinary(channel, messageChannel);
+            return;
+        }
+        new WsMessageStreamer(channel, client.getChannel(), WebSocketFrameType.BINARY, metrics, getDirection(channel),
+                e -> onError(channel, e)).handleEvent(messageChannel);
     }
 
     @Override
     protected void onFullTextMessage(final WebSocketChannel channel, final BufferedTextMessage message) throws IOException {
-        final var channelId = channel.getAttribute(WsAttributes.CHANNEL_GROUP_ID);
-        if (channelId instanceof String && proxyChannels.containsKey(channelId)) {
-            final var clientPair = proxyChannels.get(channelId);
+        final var client = getOtherSide(channel);
 
-            if (clientPair != null) {
-                final var client = clientPair.getClientForChannel(channel);
+        if (client != null) {
+            LOG.trace("Received text data from {} and forwarding to {}", channel.getSourceAddress(), client.getChannel().getDestinationAddress());
+            final var direction = getDirection(channel);
+            metrics.relayed(direction, message.getData().length(), true);
 
-                if (client != null) {
-                    LOG.trace("Received text data from {} and forwarding to {}", channel.getSourceAddress(), client.getChannel().getDestinationAddress());
+            client.send(message.getData(), metrics.isEnabled() ? error -> {
+                if (error != null && !(error instanceof WsOutboundQueue.DroppedException)) metrics.sendFailed(direction);
+            } : null);
+        }
+    }
 
-                    if (client.hasPeers()) {
-                        final var peers = client.getConnectedPeers();
+    @Override
+    protected void onFullBinaryMessage(final WebSocketChannel channel, final BufferedBinaryMessage message) throws IOException {
+        final Pooled<ByteBuffer[]> data = message.getData();
+        final var client = getOtherSide(channel);
 
-                        for (final var peer : peers) {
-                            final var peerChannelId = peer.getAttribute(WsAttributes.CHANNEL_GROUP_ID);
+        if (client == null) {
+            data.free();
+            return;
+        }
 
-                            if (peerChannelId.equals(channelId))
-                                WebSockets.sendText(message.getData(), peer, null);
+        LOG.trace("Received binary data from {} and forwarding to {}", channel.getSourceAddress(), client.getChannel().getDestinationAddress());
+        final var direction = getDirection(channel);
+        final var buffers = data.getResource();
+        long size = 0;
+        for (final var buffer : buffers) {
+            size += buffer.remaining();
+        }
+        metrics.relayed(direction, size, true);
 
-                        }
+        // the pooled buffers are written as they are and freed once the send is done
+        final WebSocketCallback<Void> sent = new WebSocketCallback<>() {
+            @Override
+            public void complete(WebSocketChannel peer, Void context) {
+                data.free();
+            }
 
-                    } else client.send(message.getData());
-                }
+            @Override
+            public void onError(WebSocketChannel peer, Void context, Throwable throwable) {
+                data.free();
+                // dropped messages of a slow side are counted by its queue
+                if (throwable instanceof WsOutboundQueue.DroppedException) return;
+                metrics.sendFailed(direction);
+                LOG.error("Failed to forward binary message to {}", peer.getDestinationAddress(), throwable);
             }
+        };
+        final var queue = WsOutboundQueue.get(client.getChannel());
+        if (queue != null) {
+            queue.sendBinary(buffers, null, sent);
+        } else {
+            WebSockets.sendBinary(buffers, client.getChannel(), sent);
+        }
+    }
+
+    @Override
+    protected void onCloseMessage(final CloseMessage cm, final WebSocketChannel channel) {
+        final var client = getOtherSide(channel);
+
+        if (client != null && client.getChannel().isOpen() && !client.getChannel().isCloseFrameSent()) {
+            LOG.trace("Forwarding close from {}. Code: {}. Reason: {}", channel.getSourceAddress(), cm.getCode(), cm.getReason());
+            WebSockets.sendClose(cm.getCode(), cm.getReason(), client.getChannel(), null);
         }
     }
 
@@ -66,4 +156,25 @@ public class WebSocketRendezvousReceiveListener extends AbstractReceiveListener
         IoUtils.safeClose(channel);
 
     }
+
+    /**
+     * @return the other side of the pair of the channel, or null if it has not joined or is gone
+     */
+    private WsClient getOtherSide(final WebSocketChannel channel) {
+        final var channelId = channel.getAttribute(WsAttributes.CHANNEL_GROUP_ID);
+        if (channelId instanceof String) {
+            final var clientPair = proxyChannels.get(channelId);
+
+            if (clientPair != null) {
+                // the pair holds the other side, no need to look through the peers of the endpoint
+                return clientPair.getClientForChannel(channel);
+            }
+        }
+        return null;
+    }
+
+    private static WsRelayMetrics.Direction getDirection(final WebSocketChannel channel) {
+        return channel.getAttribute(WsAttributes.CHANNEL_DIRECTION) == WsProxyClientPair.SocketFlow.CLIENT_TO_PROXY ?
+                WsRelayMetrics.Direction.UPSTREAM : WsRelayMetrics.Direction.DOWNSTREAM;
+    }
 }
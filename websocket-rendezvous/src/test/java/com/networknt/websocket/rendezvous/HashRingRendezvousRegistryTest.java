@@ -0,0 +1,93 @@
+package com.networknt.websocket.rendezvous;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+class HashRingRendezvousRegistryTest {
+    private static final String NODE_1 = "ws://10.0.0.1:8080";
+    private static final String NODE_2 = "ws://10.0.0.2:8080";
+    private static final String NODE_3 = "ws://10.0.0.3:8080";
+    private static final String NODE_4 = "ws://10.0.0.4:8080";
+    private static final int VIRTUAL_NODES = 160;
+    private static final int CHANNELS = 10000;
+
+    /**
+     * The owner of every channel id as seen by a node, the local node stands for itself.
+     */
+    private static Map<String, String> owners(String localNode, List<String> nodes) {
+        HashRingRendezvousRegistry registry = new HashRingRendezvousRegistry(localNode, nodes, VIRTUAL_NODES);
+        Map<String, String> owners = new HashMap<>();
+        for (int i = 0; i < CHANNELS; i++) {
+            String channelId = "channel-" + i;
+            String owner = registry.ownerOf(channelId);
+            owners.put(channelId, owner == null ? localNode : owner);
+        }
+        return owners;
+    }
+
+    @Test
+    public void testAllNodesAgreeOnTheOwner() {
+        List<String> nodes = List.of(NODE_1, NODE_2, NODE_3);
+        Map<String, String> owners = owners(NODE_1, nodes);
+        Assertions.assertEquals(owners, owners(NODE_2, nodes));
+        // the order of the member list does not matter
+        Assertions.assertEquals(owners, owners(NODE_3, List.of(NODE_3, NODE_1, NODE_2)));
+    }
+
+    @Test
+    public void testLocalChannelHasNoOwner() {
+        HashRingRendezvousRegistry registry = new HashRingRendezvousRegistry(NODE_1, List.of(NODE_1), VIRTUAL_NODES);
+        for (int i = 0; i < 100; i++) {
+            Assertions.assertNull(registry.ownerOf("channel-" + i));
+        }
+    }
+
+    @Test
+    public void testChannelsAreSpreadOverTheNodes() {
+        Map<String, Integer> counts = new HashMap<>();
+        owners(NODE_1, List.of(NODE_1, NODE_2, NODE_3)).values().forEach(owner -> counts.merge(owner, 1, Integer::sum));
+        Assertions.assertEquals(3, counts.size());
+        for (int count : counts.values()) {
+            Assertions.assertTrue(count > CHANNELS / 3 / 2 && count < CHANNELS / 3 * 2, "Unbalanced ring " + counts);
+        }
+    }
+
+    @Test
+    public void testAddedNodeOnlyTakesChannels() {
+        Map<String, String> before = owners(NODE_1, List.of(NODE_1, NODE_2, NODE_3));
+        Map<String, String> after = owners(NODE_1, List.of(NODE_1, NODE_2, NODE_3, NODE_4));
+        int moved = 0;
+        for (Map.Entry<String, String> entry : before.entrySet()) {
+            String owner = after.get(entry.getKey());
+            if (!owner.equals(entry.getValue())) {
+                Assertions.assertEquals(NODE_4, owner, "Channel " + entry.getKey() + " moved between remaining nodes");
+                moved++;
+            }
+        }
+        // about a quarter of the channels move to the new node
+        Assertions.assertTrue(moved > CHANNELS / 8 && moved < CHANNELS / 2, "Moved " + moved);
+    }
+
+    @Test
+    public void testRemovedNodeOnlyGivesUpItsChannels() {
+        Map<String, String> before = owners(NODE_1, List.of(NODE_1, NODE_2, NODE_3));
+        Map<String, String> after = owners(NODE_1, List.of(NODE_1, NODE_2));
+        for (Map.Entry<String, String> entry : before.entrySet()) {
+            if (!entry.getValue().equals(NODE_3)) {
+                Assertions.assertEquals(entry.getValue(), after.get(entry.getKey()), "Channel " + entry.getKey() + " of a remaining node moved");
+            } else {
+                Assertions.assertNotEquals(NODE_3, after.get(entry.getKey()));
+            }
+        }
+    }
+
+    @Test
+    public void testLocalNodeMustBeAMember() {
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> new HashRingRendezvousRegistry(NODE_4, List.of(NODE_1, NODE_2), VIRTUAL_NODES));
+    }
+}
@@ -0,0 +1,227 @@
+package com.networknt.websocket.rendezvous;
+
+import com.networknt.websocket.client.WebSocketCloseCodes;
+import com.networknt.websocket.client.WsAttributes;
+import com.networknt.websocket.client.WsChannelRelayListener;
+import com.networknt.websocket.client.WsMetrics;
+import com.networknt.websocket.client.WsRelayMetrics;
+import com.networknt.websocket.rendezvous.RendezvousChannels.Join;
+import com.networknt.websocket.rendezvous.RendezvousChannels.Joined;
+import io.undertow.Handlers;
+import io.undertow.Undertow;
+import io.undertow.websockets.WebSocketConnectionCallback;
+import io.undertow.websockets.WebSocketProtocolHandshakeHandler;
+import io.undertow.websockets.core.WebSocketChannel;
+import io.undertow.websockets.spi.WebSocketHttpExchange;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.xnio.IoUtils;
+
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.WebSocket;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Two rendezvous nodes on the loopback interface. Clients connect to the entry node, which forwards
+ * them with its {@link NodeRelay} to the owner node. The owner pairs them with backends that connect
+ * to it directly, the way the handler pairs a forwarded connection.
+ */
+class NodeRelayTest {
+    private static final long TIMEOUT_SECONDS = 10;
+    private static final String SECRET = "cluster-secret";
+
+    /**
+     * What the owner saw of a connection once the headers were authenticated.
+     */
+    private record Accepted(String channelId, boolean forwarded, String node, String secret) {
+    }
+
+    private static final class Pair {
+        private final WebSocketChannel client;
+        private volatile WebSocketChannel backend;
+
+        private Pair(WebSocketChannel client) {
+            this.client = client;
+        }
+
+        private boolean isPaired() {
+            return backend != null;
+        }
+    }
+
+    private final HttpClient httpClient = HttpClient.newHttpClient();
+    private final BlockingQueue<Accepted> accepted = new LinkedBlockingQueue<>();
+    private final RendezvousChannels<Pair> channels = new RendezvousChannels<>(100, Pair::isPaired);
+    private Undertow owner;
+    private Undertow entry;
+    private String ownerURL;
+    private String entryURL;
+    private volatile NodeRelay ownerRelay;
+    private volatile NodeRelay entryRelay;
+    // where the entry node forwards to, the owner unless a test takes it down
+    private volatile String forwardTo;
+
+    @BeforeEach
+    public void setUp() {
+        owner = start(() -> ownerRelay, this::onOwnerConnect);
+        entry = start(() -> entryRelay, (exchange, channel) ->
+                entryRelay.forward(exchange, channel, exchange.getRequestHeader(WsAttributes.CHANNEL_GROUP_ID), forwardTo));
+        ownerURL = url(owner);
+        entryURL = url(entry);
+        forwardTo = ownerURL;
+        List<String> nodes = List.of(entryURL, ownerURL);
+        ownerRelay = new NodeRelay(ownerURL, nodes, SECRET, false, WsMetrics.NOOP, WsRelayMetrics.NOOP);
+        entryRelay = new NodeRelay(entryURL, nodes, SECRET, false, WsMetrics.NOOP, WsRelayMetrics.NOOP);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        entry.stop();
+        owner.stop();
+    }
+
+    @Test
+    public void testForwardedClientPairsOnTheOwner() throws Exception {
+        Client client = connect(entryURL + "/client", "channel-1", Map.of());
+        Accepted forwarded = next();
+        Assertions.assertEquals("channel-1", forwarded.channelId());
+        Assertions.assertTrue(forwarded.forwarded());
+        Assertions.assertEquals(entryURL, forwarded.node());
+        // the secret is checked and removed before the upgrade
+        Assertions.assertNull(forwarded.secret());
+
+        Client backend = connect(ownerURL + "/backend", "channel-1", Map.of());
+        Assertions.assertFalse(next().forwarded());
+
+        backend.webSocket.sendText("from backend", true).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        Assertions.assertEquals("from backend", client.nextText());
+        client.webSocket.sendText("from client", true).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        Assertions.assertEquals("from client", backend.nextText());
+
+        // a close on one node reaches the peer on the other
+        client.webSocket.sendClose(WebSocket.NORMAL_CLOSURE, "").get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        Assertions.assertNotNull(backend.nextClose());
+    }
+
+    @Test
+    public void testForgedForwardedHeaderIsIgnored() throws Exception {
+        connect(ownerURL + "/client", "channel-2", Map.of(NodeRelay.FORWARDED_HEADER, entryURL));
+        Accepted withoutSecret = next();
+        Assertions.assertFalse(withoutSecret.forwarded());
+        Assertions.assertNull(withoutSecret.node());
+
+        connect(ownerURL + "/client", "channel-3", Map.of(NodeRelay.FORWARDED_HEADER, entryURL, NodeRelay.SECRET_HEADER, "guess"));
+        Accepted wrongSecret = next();
+        Assertions.assertFalse(wrongSecret.forwarded());
+        Assertions.assertNull(wrongSecret.node());
+        Assertions.assertNull(wrongSecret.secret());
+    }
+
+    @Test
+    public void testForwardedHeaderOfAnUnknownNodeIsIgnored() throws Exception {
+        connect(ownerURL + "/client", "channel-4", Map.of(NodeRelay.FORWARDED_HEADER, "ws://10.0.0.1:8080", NodeRelay.SECRET_HEADER, SECRET));
+        Assertions.assertFalse(next().forwarded());
+    }
+
+    @Test
+    public void testOwnerDownClosesWithTryAgainLater() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            forwardTo = "ws://127.0.0.1:" + socket.getLocalPort();
+        }
+        Client client = connect(entryURL + "/client", "channel-5", Map.of());
+        Assertions.assertEquals(Integer.valueOf(WebSocketCloseCodes.TRY_AGAIN_LATER.getCloseCode()), client.nextClose());
+    }
+
+    private void onOwnerConnect(WebSocketHttpExchange exchange, WebSocketChannel channel) {
+        String channelId = exchange.getRequestHeader(WsAttributes.CHANNEL_GROUP_ID);
+        accepted.add(new Accepted(channelId, NodeRelay.isForwarded(exchange),
+                exchange.getRequestHeader(NodeRelay.FORWARDED_HEADER), exchange.getRequestHeader(NodeRelay.SECRET_HEADER)));
+        if (!exchange.getRequestURI().startsWith("/backend")) {
+            channels.joinClient(channelId, () -> new Pair(channel));
+            return;
+        }
+        Joined<Pair> joined = channels.joinBackend(channelId, pair -> pair.backend = channel);
+        if (joined.join() == Join.BACKEND_PAIRED) {
+            WsChannelRelayListener.relay(channelId, joined.pair().client, channel, WsRelayMetrics.NOOP, 64, 1048576, false);
+        } else {
+            IoUtils.safeClose(channel);
+        }
+    }
+
+    private Accepted next() throws InterruptedException {
+        Accepted next = accepted.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        Assertions.assertNotNull(next, "The owner did not accept the connection");
+        return next;
+    }
+
+    private Client connect(String url, String channelId, Map<String, String> headers) throws Exception {
+        Client client = new Client();
+        WebSocket.Builder builder = httpClient.newWebSocketBuilder().header(WsAttributes.CHANNEL_GROUP_ID, channelId);
+        headers.forEach(builder::header);
+        client.webSocket = builder.buildAsync(URI.create(url), client).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        return client;
+    }
+
+    private static Undertow start(Supplier<NodeRelay> relay, WebSocketConnectionCallback callback) {
+        WebSocketProtocolHandshakeHandler handshake = Handlers.websocket(callback);
+        Undertow server = Undertow.builder()
+                .addHttpListener(0, "127.0.0.1")
+                .setHandler(exchange -> {
+                    relay.get().authenticate(exchange);
+                    handshake.handleRequest(exchange);
+                })
+                .build();
+        server.start();
+        return server;
+    }
+
+    private static String url(Undertow server) {
+        return "ws://127.0.0.1:" + ((InetSocketAddress) server.getListenerInfo().get(0).getAddress()).getPort();
+    }
+
+    /**
+     * A JDK WebSocket client that keeps the text messages and the close code it receives.
+     */
+    private static final class Client implements WebSocket.Listener {
+        private final BlockingQueue<String> texts = new LinkedBlockingQueue<>();
+        private final BlockingQueue<Integer> closes = new LinkedBlockingQueue<>();
+        private final StringBuilder text = new StringBuilder();
+        private WebSocket webSocket;
+
+        private String nextText() throws InterruptedException {
+            return texts.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+
+        private Integer nextClose() throws InterruptedException {
+            return closes.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+
+        @Override
+        public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+            text.append(data);
+            if (last) {
+                texts.add(text.toString());
+                text.setLength(0);
+            }
+            webSocket.request(1);
+            return null;
+        }
+
+        @Override
+        public CompletionStage<?> onClose(WebSocket webSocket, int statusCode, String reason) {
+            closes.add(statusCode);
+            return null;
+        }
+    }
+}
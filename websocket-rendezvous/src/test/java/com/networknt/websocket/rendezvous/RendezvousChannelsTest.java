@@ -0,0 +1,180 @@
+package com.networknt.websocket.rendezvous;
+
+import com.networknt.websocket.rendezvous.RendezvousChannels.Join;
+import com.networknt.websocket.rendezvous.RendezvousChannels.Joined;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class RendezvousChannelsTest {
+    private static final long TIMEOUT_MS = 5000;
+
+    /**
+     * Stands in for WsProxyClientPair, which needs real channels.
+     */
+    private static final class Pair {
+        private volatile int backends;
+
+        private void attach() {
+            backends++;
+        }
+
+        private boolean isPaired() {
+            return backends > 0;
+        }
+    }
+
+    private static RendezvousChannels<Pair> channels(int maxPending) {
+        return new RendezvousChannels<>(maxPending, Pair::isPaired);
+    }
+
+    @Test
+    public void testClientThenBackend() {
+        RendezvousChannels<Pair> channels = channels(10);
+        Joined<Pair> client = channels.joinClient("a", Pair::new);
+        Assertions.assertEquals(Join.CLIENT_REGISTERED, client.join());
+        Assertions.assertEquals(1, channels.pending());
+        Assertions.assertSame(client.pair(), channels.get("a"));
+
+        Joined<Pair> backend = channels.joinBackend("a", Pair::attach);
+        Assertions.assertEquals(Join.BACKEND_PAIRED, backend.join());
+        Assertions.assertSame(client.pair(), backend.pair());
+        Assertions.assertTrue(backend.pair().isPaired());
+        Assertions.assertEquals(0, channels.pending());
+        Assertions.assertEquals(1, channels.size());
+    }
+
+    @Test
+    public void testBackendFirstIsNotRegistered() {
+        RendezvousChannels<Pair> channels = channels(10);
+        Joined<Pair> backend = channels.joinBackend("a", Pair::attach);
+        Assertions.assertEquals(Join.BACKEND_FIRST, backend.join());
+        Assertions.assertNull(backend.pair());
+        Assertions.assertEquals(0, channels.size());
+    }
+
+    @Test
+    public void testDuplicateClientGivesBackItsSlot() {
+        RendezvousChannels<Pair> channels = channels(10);
+        Pair first = channels.joinClient("a", Pair::new).pair();
+        Joined<Pair> duplicate = channels.joinClient("a", Pair::new);
+        Assertions.assertEquals(Join.DUPLICATE_CLIENT, duplicate.join());
+        Assertions.assertSame(first, duplicate.pair());
+        Assertions.assertEquals(1, channels.pending());
+    }
+
+    @Test
+    public void testReplacedBackendKeepsThePendingCount() {
+        RendezvousChannels<Pair> channels = channels(10);
+        channels.joinClient("a", Pair::new);
+        channels.joinClient("b", Pair::new);
+        channels.joinBackend("a", Pair::attach);
+        channels.joinBackend("a", Pair::attach);
+        Assertions.assertEquals(1, channels.pending());
+        Assertions.assertEquals(2, channels.get("a").backends);
+    }
+
+    @Test
+    public void testLeaveRemovesWaitingAndPairedClients() {
+        RendezvousChannels<Pair> channels = channels(10);
+        Pair waiting = channels.joinClient("a", Pair::new).pair();
+        Pair paired = channels.joinClient("b", Pair::new).pair();
+        channels.joinBackend("b", Pair::attach);
+        Assertions.assertEquals(1, channels.pending());
+
+        Assertions.assertTrue(channels.remove("a", waiting, false));
+        Assertions.assertEquals(0, channels.pending());
+        Assertions.assertTrue(channels.remove("b", paired, false));
+        Assertions.assertEquals(0, channels.pending());
+        Assertions.assertEquals(0, channels.size());
+        // the close tasks of both sides leave, only the first removes the pair
+        Assertions.assertFalse(channels.remove("b", paired, false));
+    }
+
+    @Test
+    public void testLeaveKeepsALaterPairOfTheChannel() {
+        RendezvousChannels<Pair> channels = channels(10);
+        Pair first = channels.joinClient("a", Pair::new).pair();
+        channels.remove("a", first, false);
+        Pair second = channels.joinClient("a", Pair::new).pair();
+        Assertions.assertFalse(channels.remove("a", first, false));
+        Assertions.assertSame(second, channels.get("a"));
+        Assertions.assertEquals(1, channels.pending());
+    }
+
+    @Test
+    public void testExpireOnlyRemovesWaitingClients() {
+        RendezvousChannels<Pair> channels = channels(10);
+        Pair waiting = channels.joinClient("a", Pair::new).pair();
+        Pair paired = channels.joinClient("b", Pair::new).pair();
+        channels.joinBackend("b", Pair::attach);
+
+        Assertions.assertFalse(channels.remove("b", paired, true));
+        Assertions.assertSame(paired, channels.get("b"));
+        Assertions.assertTrue(channels.remove("a", waiting, true));
+        Assertions.assertNull(channels.get("a"));
+        Assertions.assertEquals(0, channels.pending());
+    }
+
+    @Test
+    public void testPendingLimit() {
+        RendezvousChannels<Pair> channels = channels(2);
+        channels.joinClient("a", Pair::new);
+        Pair b = channels.joinClient("b", Pair::new).pair();
+        Joined<Pair> rejected = channels.joinClient("c", Pair::new);
+        Assertions.assertEquals(Join.PENDING_LIMIT, rejected.join());
+        Assertions.assertNull(rejected.pair());
+        Assertions.assertNull(channels.get("c"));
+        Assertions.assertEquals(2, channels.pending());
+
+        // a paired client does not wait anymore and frees its slot
+        channels.joinBackend("b", Pair::attach);
+        Assertions.assertEquals(Join.CLIENT_REGISTERED, channels.joinClient("c", Pair::new).join());
+        Assertions.assertEquals(Join.PENDING_LIMIT, channels.joinClient("d", Pair::new).join());
+        Assertions.assertTrue(channels.remove("b", b, false));
+        Assertions.assertEquals(Join.PENDING_LIMIT, channels.joinClient("d", Pair::new).join());
+    }
+
+    @Test
+    public void testConcurrentClientsNeverExceedTheLimit() throws InterruptedException {
+        int limit = 16;
+        int threads = 8;
+        int perThread = 100;
+        RendezvousChannels<Pair> channels = channels(limit);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger registered = new AtomicInteger();
+        AtomicInteger maxWaiting = new AtomicInteger();
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            String prefix = "thread-" + t + "-";
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < perThread; i++) {
+                    if (channels.joinClient(prefix + i, Pair::new).join() == Join.CLIENT_REGISTERED) {
+                        registered.incrementAndGet();
+                    }
+                    maxWaiting.accumulateAndGet(channels.size(), Math::max);
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join(TIMEOUT_MS);
+        }
+        Assertions.assertEquals(limit, registered.get());
+        Assertions.assertEquals(limit, channels.pending());
+        Assertions.assertEquals(limit, channels.size());
+        Assertions.assertTrue(maxWaiting.get() <= limit, "Waiting " + maxWaiting.get());
+    }
+}
@@ -0,0 +1,180 @@
+package com.networknt.websocket.router;
+
+import com.networknt.websocket.client.WsMetrics;
+
+import java.net.http.HttpClient;
+import java.net.http.WebSocket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * A number of HttpClient instances the downstream connections are spread over. Every HttpClient
+ * does the IO of its connections on a single selector thread, so one client limits the router to
+ * one core for the downstream IO.
+ *
+ * A new pair is assigned to a shard by the hash of its id, or to the shard with the least open
+ * connections. Pooled and multiplexed connections are shared by many pairs and stay on the shard of
+ * their URL or connection id.
+ */
+public class DownstreamClientShards {
+    public static final String HASH = "hash";
+    public static final String LEAST_CONNECTIONS = "least-connections";
+
+    private final Shard[] shards;
+    private final boolean leastConnections;
+
+    /**
+     * @param count number of shards
+     * @param assignment {@link #HASH} or {@link #LEAST_CONNECTIONS}
+     * @param clientFactory builds the HttpClient of a shard
+     * @param metrics registry for the meters of each shard
+     */
+    public DownstreamClientShards(int count, String assignment, Supplier<HttpClient> clientFactory, WsMetrics metrics) {
+        this.shards = new Shard[Math.max(1, count)];
+        for(int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard(i, clientFactory.get(), metrics);
+        }
+        this.leastConnections = LEAST_CONNECTIONS.equals(assignment);
+    }
+
+    public int size() {
+        return shards.length;
+    }
+
+    /**
+     * @return the shard for the dedicated connection of a new pair
+     */
+    public Shard select(String pairId) {
+        if(!leastConnections || shards.length == 1) {
+            return forKey(pairId);
+        }
+        Shard least = shards[0];
+        for(int i = 1; i < shards.length; i++) {
+            if(shards[i].connections.get() < least.connections.get()) {
+                least = shards[i];
+            }
+        }
+        return least;
+    }
+
+    /**
+     * @return the same shard for the same key
+     */
+    public Shard forKey(String key) {
+        return shards[Math.floorMod(key.hashCode(), shards.length)];
+    }
+
+    /**
+     * One HttpClient with the number of open connections and the messages and bytes it received.
+     */
+    public static final class Shard {
+        private final HttpClient httpClient;
+        private final AtomicInteger connections = new AtomicInteger();
+        private final WsMetrics.Counter messages;
+        private final WsMetrics.Counter bytes;
+
+        private Shard(int index, HttpClient httpClient, WsMetrics metrics) {
+            this.httpClient = httpClient;
+            String shard = Integer.toString(index);
+            metrics.gauge("websocket_downstream_shard_connections", "Downstream connections open on an HttpClient shard.", connections::get, "module", "router", "shard", shard);
+            this.messages = metrics.counter("websocket_downstream_shard_messages_total", "Messages and parts received from the backends on an HttpClient shard.", "module", "router", "shard", shard);
+            this.bytes = metrics.counter("websocket_downstream_shard_bytes_total", "Payload size received from the backends on an HttpClient shard, characters for text messages.", "module", "router", "shard", shard);
+        }
+
+        public HttpClient getHttpClient() {
+            return httpClient;
+        }
+
+        public int getConnections() {
+            return connections.get();
+        }
+
+        /**
+         * Count a connection on the shard until it is closed or released.
+         *
+         * @param listener the listener of the connection
+         * @return the listener to open or attach the connection with
+         */
+        public TrackedListener track(WebSocket.Listener listener) {
+            connections.incrementAndGet();
+            return new TrackedListener(this, listener);
+        }
+    }
+
+    /**
+     * Delegates to the listener of a connection and counts its messages for the shard. The
+     * connection is counted until onClose or onError, {@link #release()} or {@link #abort}.
+     */
+    public static final class TrackedListener implements WebSocket.Listener {
+        private final Shard shard;
+        private final WebSocket.Listener delegate;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private TrackedListener(Shard shard, WebSocket.Listener delegate) {
+            this.shard = shard;
+            this.delegate = delegate;
+        }
+
+        /**
+         * Stop counting the connection, for a connection that failed to open.
+         */
+        public void release() {
+            if(released.compareAndSet(false, true)) {
+                shard.connections.decrementAndGet();
+            }
+        }
+
+        /**
+         * Abort the connection and stop counting it. abort does not call onClose or onError of the
+         * listener, so the connection would be counted until the router stops otherwise.
+         */
+        public void abort(WebSocket webSocket) {
+            webSocket.abort();
+            release();
+        }
+
+        @Override
+        public void onOpen(WebSocket webSocket) {
+            delegate.onOpen(webSocket);
+        }
+
+        @Override
+        public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+            shard.messages.increment(1);
+            shard.bytes.increment(data.length());
+            return delegate.onText(webSocket, data, last);
+        }
+
+        @Override
+        public CompletionStage<?> onBinary(WebSocket webSocket, ByteBuffer data, boolean last) {
+            shard.messages.increment(1);
+            shard.bytes.increment(data.remaining());
+            return delegate.onBinary(webSocket, data, last);
+        }
+
+        @Override
+        public CompletionStage<?> onPing(WebSocket webSocket, ByteBuffer message) {
+            return delegate.onPing(webSocket, message);
+        }
+
+        @Override
+        public CompletionStage<?> onPong(WebSocket webSocket, ByteBuffer message) {
+            return delegate.onPong(webSocket, message);
+        }
+
+        @Override
+        public CompletionStage<?> onClose(WebSocket webSocket, int statusCode, String reason) {
+            release();
+            return delegate.onClose(webSocket, statusCode, reason);
+        }
+
+        @Override
+        public void onError(WebSocket webSocket, Throwable error) {
+            release();
+            delegate.onError(webSocket, error);
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.networknt.websocket.router;
+
+import com.networknt.websocket.client.WsMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.WebSocket;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Pool of pre-established, idle downstream connections to one service.
+ *
+ * A new pair claims an idle connection instead of doing a cold TCP, TLS and upgrade handshake.
+ * Connections are never returned to the pool, so after every claim the pool is refilled in the
+ * background up to the min idle count. The URL of the service is resolved for every refill, so the
+ * connections are spread over the instances of the service like the dedicated ones.
+ *
+ * Connections older than the max age are closed instead of being handed out, so that the backend
+ * does not time them out under a client. {@link #sweep()} closes and replaces the expired ones that
+ * nobody claimed.
+ */
+public class DownstreamConnectionPool {
+    private static final Logger LOG = LoggerFactory.getLogger(DownstreamConnectionPool.class);
+
+    private final String serviceId;
+    private final Supplier<String> urlResolver;
+    private final HttpClient httpClient;
+    private final int minIdle;
+    private final int maxIdle;
+    private final long maxAgeMs;
+    private final Deque<PooledDownstreamConnection> idle = new ArrayDeque<>();
+    private int pending;
+    private final WsMetrics.Counter hits;
+    private final WsMetrics.Counter misses;
+
+    /**
+     * @param serviceId id of the service for logging and the metrics
+     * @param urlResolver resolves the downstream WebSocket URL of a new connection, returns null if no instance is found
+     * @param httpClient client used to open the connections
+     * @param minIdle number of idle connections the pool is refilled to
+     * @param maxIdle max number of idle and opening connections
+     * @param maxAgeMs max age of an idle connection before it is closed
+     * @param metrics registry of the hit, miss and idle meters of the pool
+     */
+    public DownstreamConnectionPool(String serviceId, Supplier<String> urlResolver, HttpClient httpClient, int minIdle, int maxIdle, long maxAgeMs, WsMetrics metrics) {
+        this.serviceId = serviceId;
+        this.urlResolver = urlResolver;
+        this.httpClient = httpClient;
+        this.minIdle = minIdle;
+        this.maxIdle = maxIdle;
+        this.maxAgeMs = maxAgeMs;
+        this.hits = metrics.counter("websocket_downstream_pool_hits_total", "Pairs that claimed a pre-established downstream connection.", "module", "router", "service", serviceId);
+        this.misses = metrics.counter("websocket_downstream_pool_misses_total", "Pairs that found no idle downstream connection in the pool.", "module", "router", "service", serviceId);
+        metrics.gauge("websocket_downstream_pool_idle", "Idle downstream connections in the pool.", this::getIdleCount, "module", "router", "service", serviceId);
+    }
+
+    /**
+     * Claim an idle connection for the listener of a pair. The listener is opened on the
+     * connection before this method returns.
+     *
+     * @return the claimed WebSocket, or null if there is no usable idle connection
+     */
+    public WebSocket claim(WebSocket.Listener listener) {
+        long now = System.currentTimeMillis();
+        PooledDownstreamConnection connection;
+        while((connection = poll()) != null) {
+            if(connection.isExpired(now, maxAgeMs)) {
+                connection.discard();
+            } else if(connection.attach(listener)) {
+                break;
+            }
+        }
+        if(connection != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        LOG.trace("Downstream pool {} {}. Hits: {}, misses: {}", serviceId, connection != null ? "hit" : "miss", hits.count(), misses.count());
+        refill();
+        return connection != null ? connection.getWebSocket() : null;
+    }
+
+    /**
+     * Open connections in the background until the pool holds the min idle count.
+     */
+    public void refill() {
+        int toOpen;
+        synchronized (this) {
+            toOpen = Math.min(minIdle, maxIdle) - idle.size() - pending;
+            if(toOpen <= 0) {
+                return;
+            }
+            pending += toOpen;
+        }
+        String wsURL = resolve();
+        for(int i = 0; i < toOpen; i++) {
+            open(wsURL);
+        }
+    }
+
+    /**
+     * Close the idle connections that reached the max age and refill the pool.
+     */
+    public void sweep() {
+        long now = System.currentTimeMillis();
+        List<PooledDownstreamConnection> expired = new ArrayList<>();
+        synchronized (this) {
+            for(Iterator<PooledDownstreamConnection> it = idle.iterator(); it.hasNext(); ) {
+                PooledDownstreamConnection connection = it.next();
+                if(connection.isExpired(now, maxAgeMs)) {
+                    it.remove();
+                    expired.add(connection);
+                }
+            }
+        }
+        if(!expired.isEmpty()) {
+            LOG.trace("Closing {} expired idle connection(s) of downstream pool {}", expired.size(), serviceId);
+            expired.forEach(PooledDownstreamConnection::discard);
+            refill();
+        }
+    }
+
+    public long getHits() {
+        return hits.count();
+    }
+
+    public long getMisses() {
+        return misses.count();
+    }
+
+    public synchronized int getIdleCount() {
+        return idle.size();
+    }
+
+    void evict(PooledDownstreamConnection connection) {
+        synchronized (this) {
+            idle.remove(connection);
+        }
+    }
+
+    private synchronized PooledDownstreamConnection poll() {
+        return idle.pollFirst();
+    }
+
+    private String resolve() {
+        try {
+            return urlResolver.get();
+        } catch(RuntimeException e) {
+            LOG.warn("Failed to resolve the URL of downstream pool {}", serviceId, e);
+            return null;
+        }
+    }
+
+    private void open(String wsURL) {
+        if(wsURL == null) {
+            synchronized (this) {
+                pending--;
+            }
+            return;
+        }
+        PooledDownstreamConnection connection = new PooledDownstreamConnection(this);
+        try {
+            httpClient.newWebSocketBuilder().buildAsync(new URI(wsURL), connection).whenComplete((webSocket, throwable) -> {
+                boolean added = false;
+                if(throwable == null) {
+                    connection.opened(webSocket);
+                }
+                synchronized (this) {
+                    pending--;
+                    if(throwable == null && idle.size() < maxIdle) {
+                        idle.addLast(connection);
+                        added = true;
+                    }
+                }
+                if(throwable != null) {
+                    LOG.warn("Failed to open pooled downstream connection to {}", wsURL, throwable);
+                } else if(!added) {
+                    connection.discard();
+                }
+            });
+        } catch(Exception e) {
+            synchronized (this) {
+                pending--;
+            }
+            LOG.error("Failed to create pooled downstream connection builder for {}", wsURL, e);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.networknt.websocket.router;
+
+import com.networknt.websocket.client.WsMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Executor of the downstream HttpClient, which runs the WebSocket listener callbacks of every pair.
+ * The mode is set with downstreamExecutor of {@link WebSocketRouterConfig}:
+ * <ul>
+ *     <li>{@link #DEFAULT} leaves the executor to the JDK, an unbounded cached pool.</li>
+ *     <li>{@link #VIRTUAL} runs every task on a new virtual thread.</li>
+ *     <li>{@link #FIXED} runs the tasks on a fixed number of platform threads with a bounded queue.
+ *     A task that does not fit into the full queue still runs, on the common pool, so that the
+ *     WebSocket it belongs to stays consistent. It never runs on the submitting thread, which may be
+ *     the selector thread of the HttpClient. {@link DownstreamReceiveListener} sees such a task
+ *     with {@link #isOverflow()} and closes its pair with try again later.</li>
+ *     <li>{@link #IO_THREAD} leaves the executor of the HttpClient to the JDK and only changes the
+ *     dispatch of the listener: {@link DownstreamReceiveListener} moves each callback to the IO
+ *     thread of the upstream channel, so the callbacks of a pair run in order on the thread that
+ *     writes them. The HttpClient itself never runs its tasks, like the TLS handshake, inline on
+ *     its selector thread or on an IO thread of the server.</li>
+ * </ul>
+ * The tasks waiting for a thread and the tasks running are exposed as gauges, the tasks of a full
+ * fixed executor as a counter.
+ */
+public final class DownstreamExecutor implements Executor {
+    private static final Logger LOG = LoggerFactory.getLogger(DownstreamExecutor.class);
+    public static final String DEFAULT = "default";
+    public static final String VIRTUAL = "virtual";
+    public static final String FIXED = "fixed";
+    public static final String IO_THREAD = "io-thread";
+
+    // set while a task that did not fit into the fixed executor runs
+    private static final ThreadLocal<Boolean> OVERFLOW = new ThreadLocal<>();
+
+    private final Executor delegate;
+    private final AtomicLong queued = new AtomicLong();
+    private final AtomicLong active = new AtomicLong();
+
+    private DownstreamExecutor(Executor delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * @return the executor for the HttpClient, or null to keep the default of the JDK
+     */
+    public static DownstreamExecutor create(WebSocketRouterConfig config, WsMetrics metrics) {
+        Executor delegate;
+        String mode = config.getDownstreamExecutor();
+        switch (mode) {
+            case VIRTUAL -> delegate = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("ws-downstream-", 0).factory());
+            case FIXED -> {
+                int threads = config.getDownstreamExecutorThreads() > 0 ?
+                        config.getDownstreamExecutorThreads() : Runtime.getRuntime().availableProcessors();
+                ThreadFactory threadFactory = Thread.ofPlatform().name("ws-downstream-", 0).daemon(true).factory();
+                WsMetrics.Counter overflows = metrics.counter("websocket_downstream_executor_overflows_total",
+                        "Downstream callback tasks that did not fit into the queue of the executor.", "module", "router", "executor", mode);
+                delegate = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                        new ArrayBlockingQueue<>(config.getDownstreamExecutorQueueSize()), threadFactory, (task, pool) -> overflow(task, overflows));
+            }
+            case IO_THREAD -> {
+                LOG.info("Downstream HttpClient executor: default, listener callbacks on the IO thread of the client connection");
+                return null;
+            }
+            default -> {
+                return null;
+            }
+        }
+        LOG.info("Downstream HttpClient executor: {}", mode);
+        DownstreamExecutor executor = new DownstreamExecutor(delegate);
+        metrics.gauge("websocket_downstream_executor_queued_tasks", "Downstream callback tasks waiting for a thread.", executor.queued::get, "module", "router", "executor", mode);
+        metrics.gauge("websocket_downstream_executor_active_tasks", "Downstream callback tasks running.", executor.active::get, "module", "router", "executor", mode);
+        return executor;
+    }
+
+    /**
+     * @return true on the thread of a task that did not fit into the fixed executor, the pair the
+     * task belongs to should be closed
+     */
+    static boolean isOverflow() {
+        return OVERFLOW.get() != null;
+    }
+
+    /**
+     * Run a task the full executor rejected on the common pool. The HttpClient has no way to take
+     * a task back, dropping it would leave its WebSocket stuck.
+     */
+    static void overflow(Runnable task, WsMetrics.Counter overflows) {
+        overflows.increment();
+        LOG.debug("Downstream executor is full. Running the task on the common pool");
+        ForkJoinPool.commonPool().execute(() -> {
+            OVERFLOW.set(Boolean.TRUE);
+            try {
+                task.run();
+            } finally {
+                OVERFLOW.remove();
+            }
+        });
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        queued.incrementAndGet();
+        delegate.execute(() -> {
+            queued.decrementAndGet();
+            active.incrementAndGet();
+            try {
+                task.run();
+            } finally {
+                active.decrementAndGet();
+            }
+        });
+    }
+
+    public long getQueuedTasks() {
+        return queued.get();
+    }
+
+    public long getActiveTasks() {
+        return active.get();
+    }
+}
@@ -1,5 +1,8 @@
 package com.networknt.websocket.router;
 
+import com.networknt.websocket.client.WebSocketCloseCodes;
+import com.networknt.websocket.client.WsHeartbeat;
+import com.networknt.websocket.client.WsRelayMetrics;
 import io.undertow.websockets.core.CloseMessage;
 import io.undertow.websockets.core.WebSocketCallback;
 import io.undertow.websockets.core.WebSocketChannel;
@@ -7,7 +10,6 @@ import io.undertow.websockets.core.WebSockets;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayOutputStream;
 import java.net.http.WebSocket;
 import java.nio.ByteBuffer;
 import java.util.concurrent.CompletableFuture;
@@ -16,22 +18,48 @@ import java.util.concurrent.CompletionStage;
 /**
  * JDK WebSocket.Listener for the downstream (backend-to-proxy) that forwards
  * messages to the upstream (proxy-to-client) via Undertow WebSocketChannel.
+ *
+ * Partial messages are not reassembled. Each part is passed through to the upstream
+ * as a WebSocket fragment, see {@link UpstreamFrameSender}.
+ *
+ * With the io-thread mode of the {@link DownstreamExecutor}, every callback is moved to the IO
+ * thread of the upstream channel before it touches the channel. The IO thread runs its tasks in
+ * order, so the order of the callbacks is kept.
  */
 public class DownstreamReceiveListener implements WebSocket.Listener {
     private static final Logger LOG = LoggerFactory.getLogger(DownstreamReceiveListener.class);
 
-    // TODO: Implement routing one downstream channel to multiple clients (i.e. 1 service responding to multiple clients)
-    //  See here for more details: https://github.com/networknt/light-websocket-4j/issues/9
-    //  Possible hashmap solution using session id:
-    //   - hashmap captures session id to upstream channel relation
     private final String pairId;
     private final WebSocketChannel upstreamChannel;
-    private final StringBuilder textBuffer = new StringBuilder();
-    private final ByteArrayOutputStream binaryBuffer = new ByteArrayOutputStream();
+    private final UpstreamFrameSender frameSender;
+    private final WsRelayMetrics metrics;
+    private final boolean onIoThread;
+    private volatile WsHeartbeat.Leg heartbeat;
 
     public DownstreamReceiveListener(String pairId, WebSocketChannel upstreamChannel) {
+        this(pairId, upstreamChannel, WsRelayMetrics.NOOP);
+    }
+
+    public DownstreamReceiveListener(String pairId, WebSocketChannel upstreamChannel, WsRelayMetrics metrics) {
+        this(pairId, upstreamChannel, metrics, false);
+    }
+
+    /**
+     * @param onIoThread run the callbacks on the IO thread of the upstream channel
+     */
+    public DownstreamReceiveListener(String pairId, WebSocketChannel upstreamChannel, WsRelayMetrics metrics, boolean onIoThread) {
         this.pairId = pairId;
         this.upstreamChannel = upstreamChannel;
+        this.frameSender = new UpstreamFrameSender(upstreamChannel);
+        this.metrics = metrics;
+        this.onIoThread = onIoThread;
+    }
+
+    /**
+     * Pass the pongs of the downstream to the heartbeat leg of the connection.
+     */
+    public void setHeartbeat(WsHeartbeat.Leg heartbeat) {
+        this.heartbeat = heartbeat;
     }
 
     @Override
@@ -42,72 +70,91 @@ public class DownstreamReceiveListener implements WebSocket.Listener {
 
     @Override
     public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
-        textBuffer.append(data);
-        if(!last) {
-            webSocket.request(1);
-            return CompletableFuture.completedFuture(null);
-        }
-        String message = textBuffer.toString();
-        textBuffer.setLength(0);
-
         if(!upstreamChannel.isOpen()) {
             LOG.warn("Upstream is closed. Cannot forward text message for {}", pairId);
             return CompletableFuture.completedFuture(null);
         }
+        if(DownstreamExecutor.isOverflow()) {
+            return shed();
+        }
 
-        LOG.trace("Forwarding text from downstream to upstream for {}", pairId);
+        LOG.trace("Forwarding text from downstream to upstream for {}. Last: {}", pairId, last);
+        metrics.relayed(WsRelayMetrics.Direction.DOWNSTREAM, data.length(), last);
         CompletableFuture<Void> future = new CompletableFuture<>();
-        WebSockets.sendText(message, upstreamChannel, new WebSocketCallback<>() {
-            @Override
-            public void complete(WebSocketChannel channel, Void context) {
-                webSocket.request(1);
-                future.complete(null);
-            }
-
-            @Override
-            public void onError(WebSocketChannel channel, Void context, Throwable throwable) {
-                LOG.error("Failed to forward text message to upstream for {}", pairId, throwable);
-                webSocket.request(1);
-                future.complete(null);
-            }
-        });
+        run(() -> frameSender.sendText(data, last, requestNext(webSocket, future, "text")));
         return future;
     }
 
     @Override
     public CompletionStage<?> onBinary(WebSocket webSocket, ByteBuffer data, boolean last) {
-        byte[] chunk = new byte[data.remaining()];
-        data.get(chunk);
-        binaryBuffer.write(chunk, 0, chunk.length);
-        if(!last) {
-            webSocket.request(1);
-            return CompletableFuture.completedFuture(null);
-        }
-        byte[] bytes = binaryBuffer.toByteArray();
-        binaryBuffer.reset();
-
         if(!upstreamChannel.isOpen()) {
             LOG.warn("Upstream is closed. Cannot forward binary message for {}", pairId);
             return CompletableFuture.completedFuture(null);
         }
+        if(DownstreamExecutor.isOverflow()) {
+            return shed();
+        }
 
-        LOG.trace("Forwarding binary from downstream to upstream for {}", pairId);
+        LOG.trace("Forwarding binary from downstream to upstream for {}. Last: {}", pairId, last);
+        metrics.relayed(WsRelayMetrics.Direction.DOWNSTREAM, data.remaining(), last);
         CompletableFuture<Void> future = new CompletableFuture<>();
-        WebSockets.sendBinary(ByteBuffer.wrap(bytes), upstreamChannel, new WebSocketCallback<>() {
+        run(() -> frameSender.sendBinary(data, last, requestNext(webSocket, future, "binary")));
+        return future;
+    }
+
+    /**
+     * Close a pair whose callback did not fit into the full downstream executor. The message is
+     * dropped and the next one not requested, the close of the client then ends the downstream.
+     */
+    private CompletionStage<?> shed() {
+        LOG.warn("Downstream executor is full. Closing {}", pairId);
+        run(() -> WebSockets.sendClose(WebSocketCloseCodes.TRY_AGAIN_LATER.getCloseCode(), "Router overloaded", upstreamChannel, null));
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * The JDK may reuse the data of a part once the returned stage completes, so the stage is
+     * completed and the next part requested only after the fragment has been flushed upstream.
+     * The heartbeat leg is suspended until then, a slow upstream must not make the downstream
+     * look dead.
+     */
+    private WebSocketCallback<Void> requestNext(WebSocket webSocket, CompletableFuture<Void> future, String messageType) {
+        // the pongs queue behind the part until the next one is requested
+        WsHeartbeat.Leg leg = heartbeat;
+        if(leg != null) {
+            leg.suspend();
+        }
+        return new WebSocketCallback<>() {
             @Override
             public void complete(WebSocketChannel channel, Void context) {
+                if(leg != null) {
+                    leg.resume();
+                }
                 webSocket.request(1);
                 future.complete(null);
             }
 
             @Override
             public void onError(WebSocketChannel channel, Void context, Throwable throwable) {
-                LOG.error("Failed to forward binary message to upstream for {}", pairId, throwable);
+                LOG.error("Failed to forward {} message to upstream for {}", messageType, pairId, throwable);
+                metrics.sendFailed(WsRelayMetrics.Direction.DOWNSTREAM);
+                if(leg != null) {
+                    leg.resume();
+                }
                 webSocket.request(1);
                 future.complete(null);
             }
-        });
-        return future;
+        };
+    }
+
+    @Override
+    public CompletionStage<?> onPong(WebSocket webSocket, ByteBuffer message) {
+        WsHeartbeat.Leg leg = heartbeat;
+        if(leg != null) {
+            leg.pong(message);
+        }
+        webSocket.request(1);
+        return null;
     }
 
     @Override
@@ -122,7 +169,7 @@ public class DownstreamReceiveListener implements WebSocket.Listener {
             LOG.trace("Downstream closed {}. Code: {}. No reason given", pairId, statusCode);
         }
         LOG.trace("Closing upstream for {} due to downstream close", pairId);
-        WebSockets.sendClose(statusCode, reason, upstreamChannel, null);
+        run(() -> WebSockets.sendClose(statusCode, reason, upstreamChannel, null));
         return CompletableFuture.completedFuture(null);
     }
 
@@ -132,7 +179,15 @@ public class DownstreamReceiveListener implements WebSocket.Listener {
 
         if (upstreamChannel.isOpen()) {
             LOG.trace("Closing upstream for {} due to downstream error", pairId);
-            WebSockets.sendClose(CloseMessage.UNEXPECTED_ERROR, "Downstream encountered error", upstreamChannel, null);
+            run(() -> WebSockets.sendClose(CloseMessage.UNEXPECTED_ERROR, "Downstream encountered error", upstreamChannel, null));
+        }
+    }
+
+    private void run(Runnable task) {
+        if(onIoThread) {
+            upstreamChannel.getIoThread().execute(task);
+        } else {
+            task.run();
         }
     }
 }
@@ -0,0 +1,33 @@
+package com.networknt.websocket.router;
+
+import java.net.http.WebSocket;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * Serializes sends on one downstream JDK WebSocket, which rejects a send while the previous one
+ * is still outstanding. A chain is owned by a single pair, or shared by all sessions of a
+ * multiplexed downstream connection.
+ */
+public class DownstreamSendChain {
+    private final WebSocket webSocket;
+    private CompletableFuture<WebSocket> tail = CompletableFuture.completedFuture(null);
+
+    public DownstreamSendChain(WebSocket webSocket) {
+        this.webSocket = webSocket;
+    }
+
+    public WebSocket getWebSocket() {
+        return webSocket;
+    }
+
+    /**
+     * Run the send once every previously submitted send has completed. A failed send does not
+     * stop the ones behind it, each returned future reports its own outcome.
+     */
+    public synchronized CompletableFuture<WebSocket> submit(Function<WebSocket, CompletableFuture<WebSocket>> send) {
+        CompletableFuture<WebSocket> future = tail.exceptionally(throwable -> null).thenCompose(ignored -> send.apply(webSocket));
+        tail = future;
+        return future;
+    }
+}
@@ -0,0 +1,213 @@
+package com.networknt.websocket.router;
+
+import com.networknt.websocket.client.WsHeartbeat;
+import com.networknt.websocket.client.WsRelayMetrics;
+import io.undertow.websockets.core.WebSocketChannel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.http.WebSocket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * Sends messages from one upstream channel to the downstream JDK WebSocket and applies
+ * backpressure to the upstream channel.
+ *
+ * Every send goes through a {@link DownstreamSendChain} because the JDK WebSocket rejects a send
+ * while the previous one is still outstanding. The number of messages and bytes that this upstream
+ * has queued or in flight is tracked. Once either limit is reached, receives on the upstream
+ * channel are suspended until the downstream has caught up again. Text is counted by its UTF-8
+ * length, the size it has on the wire.
+ */
+public class DownstreamSendQueue {
+    private static final Logger LOG = LoggerFactory.getLogger(DownstreamSendQueue.class);
+
+    private final String pairId;
+    private final DownstreamSendChain sendChain;
+    private final WebSocketChannel upstreamChannel;
+    private final int maxInFlightMessages;
+    private final long maxInFlightBytes;
+    private final WsRelayMetrics metrics;
+
+    private int inFlightMessages;
+    private long inFlightBytes;
+    private boolean suspended;
+
+    /**
+     * @param pairId id of the pair for logging
+     * @param downstreamChannel the downstream JDK WebSocket
+     * @param upstreamChannel the upstream channel to suspend, or null to disable backpressure
+     * @param maxInFlightMessages max number of messages or chunks queued before receives are suspended
+     * @param maxInFlightBytes max number of bytes queued before receives are suspended
+     */
+    public DownstreamSendQueue(String pairId, WebSocket downstreamChannel, WebSocketChannel upstreamChannel, int maxInFlightMessages, long maxInFlightBytes) {
+        this(pairId, new DownstreamSendChain(downstreamChannel), upstreamChannel, maxInFlightMessages, maxInFlightBytes);
+    }
+
+    /**
+     * @param pairId id of the pair or session for logging
+     * @param sendChain the send chain of the downstream WebSocket, possibly shared with other sessions
+     * @param upstreamChannel the upstream channel to suspend, or null to disable backpressure
+     * @param maxInFlightMessages max number of messages or chunks queued before receives are suspended
+     * @param maxInFlightBytes max number of bytes queued before receives are suspended
+     */
+    public DownstreamSendQueue(String pairId, DownstreamSendChain sendChain, WebSocketChannel upstreamChannel, int maxInFlightMessages, long maxInFlightBytes) {
+        this(pairId, sendChain, upstreamChannel, maxInFlightMessages, maxInFlightBytes, WsRelayMetrics.NOOP);
+    }
+
+    /**
+     * @param pairId id of the pair or session for logging
+     * @param sendChain the send chain of the downstream WebSocket, possibly shared with other sessions
+     * @param upstreamChannel the upstream channel to suspend, or null to disable backpressure
+     * @param maxInFlightMessages max number of messages or chunks queued before receives are suspended
+     * @param maxInFlightBytes max number of bytes queued before receives are suspended
+     * @param metrics meters of the service for the upstream direction and the queue depth
+     */
+    public DownstreamSendQueue(String pairId, DownstreamSendChain sendChain, WebSocketChannel upstreamChannel, int maxInFlightMessages, long maxInFlightBytes, WsRelayMetrics metrics) {
+        this.pairId = pairId;
+        this.sendChain = sendChain;
+        this.upstreamChannel = upstreamChannel;
+        this.maxInFlightMessages = maxInFlightMessages;
+        this.maxInFlightBytes = maxInFlightBytes;
+        this.metrics = metrics;
+    }
+
+    public WebSocket getDownstreamChannel() {
+        return sendChain.getWebSocket();
+    }
+
+    public boolean isOutputClosed() {
+        return sendChain.getWebSocket().isOutputClosed();
+    }
+
+    /**
+     * Queue a text message or a part of it.
+     */
+    public CompletableFuture<WebSocket> sendText(CharSequence data, boolean last) {
+        return enqueue(utf8Length(data), last, true, ws -> ws.sendText(data, last));
+    }
+
+    /**
+     * Queue a whole text message of the router itself, like an envelope that opens or closes a
+     * multiplexed session. It counts for the backpressure but not as a relayed message.
+     */
+    public CompletableFuture<WebSocket> sendControl(CharSequence data) {
+        return enqueue(utf8Length(data), true, false, ws -> ws.sendText(data, true));
+    }
+
+    /**
+     * Queue a binary message or a part of it. The buffer must not be modified until the returned future completes.
+     */
+    public CompletableFuture<WebSocket> sendBinary(ByteBuffer data, boolean last) {
+        return enqueue(data.remaining(), last, true, ws -> ws.sendBinary(data, last));
+    }
+
+    /**
+     * Queue a close so that it is sent after the messages already queued.
+     */
+    public CompletableFuture<WebSocket> sendClose(int statusCode, String reason) {
+        return enqueue(0, false, false, ws -> ws.sendClose(statusCode, reason));
+    }
+
+    public synchronized int getInFlightMessages() {
+        return inFlightMessages;
+    }
+
+    public synchronized long getInFlightBytes() {
+        return inFlightBytes;
+    }
+
+    private CompletableFuture<WebSocket> enqueue(long bytes, boolean last, boolean relayed, Function<WebSocket, CompletableFuture<WebSocket>> send) {
+        if(relayed) {
+            metrics.relayed(WsRelayMetrics.Direction.UPSTREAM, bytes, last);
+        }
+        metrics.queued(bytes);
+        CompletableFuture<WebSocket> future;
+        synchronized (this) {
+            inFlightMessages++;
+            inFlightBytes += bytes;
+            future = sendChain.submit(send);
+            if(!suspended && isOverLimit() && suspendUpstream()) {
+                suspended = true;
+                LOG.trace("Suspended upstream receives for {}. In flight messages: {}, bytes: {}", pairId, inFlightMessages, inFlightBytes);
+            }
+        }
+        future.whenComplete((ws, throwable) -> {
+            metrics.dequeued(bytes);
+            if(throwable != null) {
+                metrics.sendFailed(WsRelayMetrics.Direction.UPSTREAM);
+            }
+            release(bytes);
+        });
+        return future;
+    }
+
+    private void release(long bytes) {
+        synchronized (this) {
+            inFlightMessages--;
+            inFlightBytes -= bytes;
+            if(!suspended || isOverLimit()) {
+                return;
+            }
+            suspended = false;
+        }
+        resumeUpstream();
+    }
+
+    /**
+     * Suspend receives on the upstream channel.
+     *
+     * @return false if there is no upstream channel to suspend
+     */
+    boolean suspendUpstream() {
+        if(upstreamChannel == null) {
+            return false;
+        }
+        WsHeartbeat.suspendReceives(upstreamChannel);
+        return true;
+    }
+
+    /**
+     * Resume receives on the IO thread of the upstream channel.
+     */
+    void resumeUpstream() {
+        // the queue may have filled up again by the time the IO thread runs this
+        upstreamChannel.getIoThread().execute(() -> {
+            synchronized (this) {
+                if(suspended) {
+                    return;
+                }
+            }
+            LOG.trace("Resuming upstream receives for {}", pairId);
+            WsHeartbeat.resumeReceives(upstreamChannel);
+        });
+    }
+
+    private boolean isOverLimit() {
+        return inFlightMessages >= maxInFlightMessages || inFlightBytes >= maxInFlightBytes;
+    }
+
+    /**
+     * The number of bytes of the text in UTF-8, without encoding it. A lone surrogate counts as
+     * three bytes.
+     */
+    static long utf8Length(CharSequence data) {
+        long length = 0;
+        for(int i = 0; i < data.length(); i++) {
+            char c = data.charAt(i);
+            if(c < 0x80) {
+                length++;
+            } else if(c < 0x800) {
+                length += 2;
+            } else if(Character.isHighSurrogate(c) && i + 1 < data.length() && Character.isLowSurrogate(data.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+}
@@ -0,0 +1,189 @@
+package com.networknt.websocket.router;
+
+import com.networknt.balance.LoadBalance;
+import com.networknt.cluster.Cluster;
+import com.networknt.cluster.DiscoverableHost;
+import com.networknt.registry.URL;
+import com.networknt.registry.URLImpl;
+import com.networknt.websocket.client.WsMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Caches the instances of a downstream service so that an upgrade does not go to the registry.
+ *
+ * Entries are keyed by protocol, service id and env tag and hold the full list of instances. Every
+ * lookup still selects an instance with the {@link LoadBalance} of the cluster, so the configured
+ * strategy, like local first or consistent hash, applies as with {@link Cluster#serviceToUrl}.
+ * A lookup without instances is cached for the shorter negative TTL. When an entry is close to
+ * expiry it is reloaded on a background thread of the cache while the old list is still served.
+ * Concurrent misses of the same key wait for a single registry lookup.
+ */
+public class DownstreamServiceCache {
+    private static final Logger LOG = LoggerFactory.getLogger(DownstreamServiceCache.class);
+
+    private final Cluster cluster;
+    private final LoadBalance loadBalance;
+    private final long ttlMs;
+    private final long negativeTtlMs;
+    private final long refreshAheadMs;
+    private final int maxEntries;
+    private final Map<Key, Entry> entries = new ConcurrentHashMap<>();
+    private final WsMetrics.Counter hits;
+    private final WsMetrics.Counter misses;
+    // registry lookups block, refreshes run here instead of on a shared pool
+    private final ExecutorService refreshExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "websocket-router-discovery-refresh");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @param cluster cluster used to look up the instances of a service
+     * @param loadBalance strategy that selects the instance of a lookup, the one of the cluster
+     * @param ttlMs time to live of an entry with instances
+     * @param negativeTtlMs time to live of an entry without instances
+     * @param refreshAheadMs time before expiry at which an entry is reloaded in the background
+     * @param maxEntries max number of cached services
+     * @param metrics registry of the hit and miss counters
+     */
+    public DownstreamServiceCache(Cluster cluster, LoadBalance loadBalance, long ttlMs, long negativeTtlMs, long refreshAheadMs, int maxEntries, WsMetrics metrics) {
+        this.cluster = cluster;
+        this.loadBalance = loadBalance;
+        this.ttlMs = ttlMs;
+        this.negativeTtlMs = negativeTtlMs;
+        this.refreshAheadMs = refreshAheadMs;
+        this.maxEntries = maxEntries;
+        this.hits = metrics.counter("websocket_discovery_cache_hits_total", "Downstream lookups served from the discovery cache.", "module", "router");
+        this.misses = metrics.counter("websocket_discovery_cache_misses_total", "Downstream lookups that went to the registry.", "module", "router");
+        metrics.gauge("websocket_discovery_cache_entries", "Services in the discovery cache.", () -> entries.size(), "module", "router");
+    }
+
+    /**
+     * @return the downstream URL of the instance selected by the load balance, or null if no instance is registered
+     */
+    public String resolve(DiscoverableHost service) {
+        Key key = new Key(service.protocol(), service.serviceId(), service.envTag());
+        long now = System.currentTimeMillis();
+        Entry entry = entries.get(key);
+        if(entry != null && !entry.isExpired(now)) {
+            hits.increment();
+            if(!entry.urls.isEmpty() && now >= entry.expiresAt - refreshAheadMs) {
+                refreshAsync(key, entry);
+            }
+            return select(key, entry);
+        }
+
+        misses.increment();
+        if(entry == null && entries.size() >= maxEntries) {
+            evict(now);
+        }
+        entry = entries.compute(key, (k, existing) -> existing != null && !existing.isExpired(System.currentTimeMillis()) ? existing : load(k));
+        return select(key, entry);
+    }
+
+    public long getHits() {
+        return hits.count();
+    }
+
+    public long getMisses() {
+        return misses.count();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private void refreshAsync(Key key, Entry entry) {
+        if(!entry.refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            refreshExecutor.execute(() -> {
+                Entry refreshed = load(key);
+                // only replace the entry that triggered the refresh
+                entries.replace(key, entry, refreshed);
+            });
+        } catch(RejectedExecutionException e) {
+            entry.refreshing.set(false);
+        }
+    }
+
+    private String select(Key key, Entry entry) {
+        if(entry.urls.isEmpty()) {
+            return null;
+        }
+        URL url = loadBalance.select(entry.urls, key.serviceId(), key.envTag(), null);
+        return url == null ? null : url.getProtocol() + "://" + url.getHost() + ":" + url.getPort();
+    }
+
+    private Entry load(Key key) {
+        List<URI> urls;
+        try {
+            urls = cluster.services(key.protocol(), key.serviceId(), key.envTag());
+        } catch(RuntimeException e) {
+            LOG.error("Failed to look up instances of service {}", key.serviceId(), e);
+            urls = null;
+        }
+        long now = System.currentTimeMillis();
+        if(urls == null || urls.isEmpty()) {
+            LOG.debug("No instances found for service {}. Caching for {} ms", key.serviceId(), negativeTtlMs);
+            return new Entry(List.of(), now + negativeTtlMs);
+        }
+        LOG.trace("Cached {} instance(s) of service {}", urls.size(), key.serviceId());
+        List<URL> instances = new ArrayList<>(urls.size());
+        for(URI uri : urls) {
+            instances.add(URLImpl.valueOf(uri.toString()));
+        }
+        return new Entry(List.copyOf(instances), now + ttlMs);
+    }
+
+    /**
+     * Drop the expired entries and, if the cache is still full, the entry closest to expiry.
+     */
+    private void evict(long now) {
+        entries.values().removeIf(e -> e.isExpired(now));
+        if(entries.size() < maxEntries) {
+            return;
+        }
+        Key oldest = null;
+        long oldestExpiry = Long.MAX_VALUE;
+        for(Map.Entry<Key, Entry> e : entries.entrySet()) {
+            if(e.getValue().expiresAt < oldestExpiry) {
+                oldestExpiry = e.getValue().expiresAt;
+                oldest = e.getKey();
+            }
+        }
+        if(oldest != null) {
+            entries.remove(oldest);
+        }
+    }
+
+    private record Key(String protocol, String serviceId, String envTag) {
+    }
+
+    private static final class Entry {
+        private final List<URL> urls;
+        private final long expiresAt;
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+
+        private Entry(List<URL> urls, long expiresAt) {
+            this.urls = urls;
+            this.expiresAt = expiresAt;
+        }
+
+        private boolean isExpired(long now) {
+            return now >= expiresAt;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.networknt.websocket.router;
+
+import com.networknt.cluster.DiscoverableHost;
+import com.networknt.websocket.client.WsRelayMetrics;
+import io.undertow.websockets.core.WebSocketChannel;
+
+import java.util.List;
+
+/**
+ * Opens the downstream connection of a pair and relays between it and the upstream channel.
+ *
+ * The transport of a service is chosen with downstreamTransport and serviceTransports of
+ * {@link WebSocketRouterConfig}:
+ * <ul>
+ *     <li>{@link #JDK} connects with the JDK HttpClient, see {@link JdkDownstreamTransport}.</li>
+ *     <li>{@link #UNDERTOW} connects with the Undertow WebSocketClient on the IO thread of the upstream
+ *     channel, see {@link UndertowDownstreamTransport}.</li>
+ * </ul>
+ */
+public interface DownstreamTransport {
+    String JDK = "jdk";
+    String UNDERTOW = "undertow";
+
+    /**
+     * Start connecting to the downstream. Once connected, the transport resumes the receives of the
+     * upstream channel and relays both ways. A connection that fails after it was started closes the
+     * upstream channel with UNEXPECTED_ERROR.
+     *
+     * @return false if the connection could not be started
+     */
+    boolean connect(DownstreamRequest request);
+
+    /**
+     * @param pairId id of the pair for logging
+     * @param service the discovered downstream service
+     * @param wsURL URL of the downstream WebSocket
+     * @param authorization Authorization header of the client or null
+     * @param protocols sub-protocols requested by the client, empty if none
+     * @param upstreamChannel the client channel
+     * @param metrics meters of the service
+     */
+    record DownstreamRequest(String pairId, DiscoverableHost service, String wsURL, String authorization, List<String> protocols,
+                             WebSocketChannel upstreamChannel, WsRelayMetrics metrics) {
+    }
+}
@@ -0,0 +1,213 @@
+package com.networknt.websocket.router;
+
+import com.networknt.cluster.DiscoverableHost;
+import com.networknt.websocket.client.WsHeartbeat;
+import com.networknt.websocket.client.WsMetrics;
+import com.networknt.websocket.client.WsRelayMetrics;
+import io.undertow.websockets.core.CloseMessage;
+import io.undertow.websockets.core.WebSocketChannel;
+import io.undertow.websockets.core.WebSockets;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.net.http.WebSocket;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Downstream transport over the JDK HttpClient WebSocket, which supports TLS 1.3. Messages of the
+ * JDK WebSocket arrive on its own executor and are copied between JDK and pooled buffers.
+ *
+ * Dedicated connections without client credentials or sub-protocols can be claimed from the
+ * {@link DownstreamConnectionPool} of the service if the downstream URL has the path of the pool.
+ * The pools are swept for expired idle connections in the background. The connections are spread
+ * over the HttpClients of the {@link DownstreamClientShards}, a pool uses the client of the shard of
+ * its service.
+ *
+ * With a {@link WsHeartbeat}, the downstream connection of every pair is pinged. A downstream that
+ * does not answer is aborted and the client closed with going away.
+ */
+public class JdkDownstreamTransport implements DownstreamTransport {
+    private static final Logger LOG = LoggerFactory.getLogger(JdkDownstreamTransport.class);
+    private static final long MIN_SWEEP_INTERVAL_MS = 1000;
+
+    private final DownstreamClientShards shards;
+    private final WebSocketRouterConfig config;
+    private final WsHeartbeat heartbeat;
+    private final Function<DiscoverableHost, String> poolURLResolver;
+    private final WsMetrics metrics;
+    // one pool per discovered service, created on the first request for it
+    private final Map<DiscoverableHost, DownstreamConnectionPool> connectionPools = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService poolSweeper;
+
+    /**
+     * @param heartbeat pings the downstream connections, null to rely on the idle timeout of the client only
+     * @param poolURLResolver resolves the URL of the pooled connections of a service, returns null if no instance is found
+     * @param metrics registry of the meters of the pools
+     */
+    public JdkDownstreamTransport(DownstreamClientShards shards, WebSocketRouterConfig config, WsHeartbeat heartbeat,
+                                  Function<DiscoverableHost, String> poolURLResolver, WsMetrics metrics) {
+        this.shards = shards;
+        this.config = config;
+        this.heartbeat = heartbeat;
+        this.poolURLResolver = poolURLResolver;
+        this.metrics = metrics;
+        if(config.getDownstreamPoolMinIdle() > 0) {
+            // the sweep may resolve and open connections, it runs on its own thread instead of a timer or IO thread
+            long sweepMs = Math.max(MIN_SWEEP_INTERVAL_MS, config.getDownstreamPoolMaxAgeMs() / 4);
+            poolSweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "websocket-router-pool-sweeper");
+                thread.setDaemon(true);
+                return thread;
+            });
+            poolSweeper.scheduleWithFixedDelay(this::sweepPools, sweepMs, sweepMs, TimeUnit.MILLISECONDS);
+        } else {
+            poolSweeper = null;
+        }
+    }
+
+    @Override
+    public boolean connect(DownstreamRequest request) {
+        String pairId = request.pairId();
+        String wsURL = request.wsURL();
+        WebSocketChannel upstreamChannel = request.upstreamChannel();
+        WsRelayMetrics relayMetrics = request.metrics();
+        DownstreamReceiveListener downstreamListener = new DownstreamReceiveListener(pairId, upstreamChannel, relayMetrics,
+                DownstreamExecutor.IO_THREAD.equals(config.getDownstreamExecutor()));
+        DownstreamConnectionPool pool = getConnectionPool(request);
+        if(pool != null) {
+            DownstreamClientShards.TrackedListener tracked = shards.forKey(request.service().serviceId()).track(downstreamListener);
+            WebSocket pooled = pool.claim(tracked);
+            if(pooled != null) {
+                LOG.trace("Claimed pooled downstream connection to {} for {}", wsURL, pairId);
+                establishPair(pooled, request, downstreamListener, tracked);
+                return true;
+            }
+            tracked.release();
+        }
+
+        DownstreamClientShards.Shard shard = shards.select(pairId);
+        WebSocket.Builder wsBuilder = shard.getHttpClient().newWebSocketBuilder();
+
+        if (request.authorization() != null) {
+            wsBuilder.header("Authorization", request.authorization());
+        }
+
+        if (!request.protocols().isEmpty()) {
+            wsBuilder.subprotocols(request.protocols().get(0), request.protocols().subList(1, request.protocols().size()).toArray(new String[0]));
+        }
+
+        long start = System.nanoTime();
+        DownstreamClientShards.TrackedListener tracked = shard.track(downstreamListener);
+        try {
+            wsBuilder.buildAsync(new URI(wsURL), tracked)
+                    .whenComplete((downstream, throwable) -> {
+                        if(throwable != null) {
+                            tracked.release();
+                            relayMetrics.downstreamConnectFailed();
+                            LOG.error("Failed to connect to downstream server at {}", wsURL, throwable);
+                            WebSockets.sendClose(CloseMessage.UNEXPECTED_ERROR, "Failed to connect to downstream server", upstreamChannel, null);
+                            return;
+                        }
+                        relayMetrics.downstreamConnected(start);
+                        establishPair(downstream, request, downstreamListener, tracked);
+                    });
+            return true;
+        } catch(Exception e) {
+            tracked.release();
+            LOG.error("Failed to create downstream connection builder for {}", wsURL, e);
+            return false;
+        }
+    }
+
+    /**
+     * Pooled connections are opened without client headers to the pool path of the service, so
+     * clients that send credentials or sub-protocols or go to another path and query always get a
+     * dedicated connection.
+     */
+    private DownstreamConnectionPool getConnectionPool(DownstreamRequest request) {
+        if(poolSweeper == null) {
+            return null;
+        }
+        if(request.authorization() != null || !request.protocols().isEmpty()) {
+            return null;
+        }
+        if(!config.getDownstreamPoolPath().equals(pathAndQuery(request.wsURL()))) {
+            return null;
+        }
+        DiscoverableHost service = request.service();
+        return connectionPools.computeIfAbsent(service, s -> new DownstreamConnectionPool(s.serviceId(), () -> poolURLResolver.apply(s),
+                shards.forKey(s.serviceId()).getHttpClient(), config.getDownstreamPoolMinIdle(), config.getDownstreamPoolMaxIdle(),
+                config.getDownstreamPoolMaxAgeMs(), metrics));
+    }
+
+    private static String pathAndQuery(String wsURL) {
+        try {
+            URI uri = new URI(wsURL);
+            String path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+            return uri.getRawQuery() != null ? path + "?" + uri.getRawQuery() : path;
+        } catch(URISyntaxException e) {
+            return null;
+        }
+    }
+
+    private void sweepPools() {
+        for(DownstreamConnectionPool pool : connectionPools.values()) {
+            try {
+                pool.sweep();
+            } catch(RuntimeException e) {
+                LOG.error("Failed to sweep downstream connection pool", e);
+            }
+        }
+    }
+
+    private void establishPair(WebSocket downstream, DownstreamRequest request, DownstreamReceiveListener downstreamListener,
+                               DownstreamClientShards.TrackedListener tracked) {
+        WebSocketChannel upstreamChannel = request.upstreamChannel();
+        if(heartbeat != null) {
+            watch(downstream, upstreamChannel, downstreamListener, tracked, request.pairId());
+        }
+        DownstreamSendQueue sendQueue = new DownstreamSendQueue(request.pairId(), new DownstreamSendChain(downstream), upstreamChannel,
+                config.getMaxInFlightMessages(), config.getMaxInFlightBytes(), request.metrics());
+        upstreamChannel.getReceiveSetter().set(new UpstreamReceiveListener(request.pairId(), sendQueue, config.isStreamingRelay()));
+        // watched from here on, the pongs of the client are not read before its receive listener is set
+        if(heartbeat != null) {
+            heartbeat.watch("upstream", upstreamChannel);
+        }
+        upstreamChannel.resumeReceives();
+        LOG.trace("Established pair {} with {}", request.pairId(), request.wsURL());
+    }
+
+    private void watch(WebSocket downstream, WebSocketChannel upstreamChannel, DownstreamReceiveListener downstreamListener,
+                       DownstreamClientShards.TrackedListener tracked, String pairId) {
+        WsHeartbeat.Leg leg = heartbeat.watch("downstream", new WsHeartbeat.Peer() {
+            @Override
+            public void ping(ByteBuffer payload) {
+                try {
+                    downstream.sendPing(payload);
+                } catch(IllegalStateException e) {
+                    // the previous ping is still being sent, the pong check catches a stuck connection
+                    LOG.trace("Skipped downstream ping for {}", pairId);
+                }
+            }
+
+            @Override
+            public void dead() {
+                LOG.debug("Downstream of {} did not answer the heartbeat. Closing the pair", pairId);
+                tracked.abort(downstream);
+                WebSockets.sendClose(CloseMessage.GOING_AWAY, "Downstream not responding", upstreamChannel, null);
+            }
+        });
+        downstreamListener.setHeartbeat(leg);
+        upstreamChannel.addCloseTask(c -> leg.cancel());
+        // close tasks added after the channel closed never run
+        if(!upstreamChannel.isOpen()) leg.cancel();
+    }
+}
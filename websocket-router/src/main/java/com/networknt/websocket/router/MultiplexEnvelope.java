@@ -0,0 +1,146 @@
+package com.networknt.websocket.router;
+
+import io.undertow.websockets.core.CloseMessage;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Envelope used on a multiplexed downstream connection to tell the sessions of many clients apart.
+ *
+ * Every frame starts with a one character kind followed by the 36 character session id:
+ * <pre>
+ *   text:   &lt;kind&gt;&lt;session id&gt;&lt;payload&gt;
+ *   binary: &lt;kind byte&gt;&lt;session id as ASCII bytes&gt;&lt;payload bytes&gt;
+ * </pre>
+ * Kinds are {@link #OPEN}, {@link #MESSAGE} and {@link #CLOSE}. Open and close are always sent as
+ * text. The payload of an open is the request URI of the client, followed by the headers of the
+ * client that a dedicated connection would forward, one per line as in HTTP:
+ * <pre>
+ *   &lt;request URI&gt;\r\nAuthorization: &lt;credentials&gt;\r\nSec-WebSocket-Protocol: &lt;protocol&gt;, &lt;protocol&gt;
+ * </pre>
+ * The payload of a close is the close code followed by a colon and the reason. Both sides may send
+ * a close for a session.
+ */
+public final class MultiplexEnvelope {
+    public static final char OPEN = 'O';
+    public static final char MESSAGE = 'M';
+    public static final char CLOSE = 'C';
+    public static final int SESSION_ID_LENGTH = 36;
+    public static final int HEADER_LENGTH = SESSION_ID_LENGTH + 1;
+    public static final String AUTHORIZATION = "Authorization";
+    public static final String SEC_WEBSOCKET_PROTOCOL = "Sec-WebSocket-Protocol";
+    private static final String LINE_SEPARATOR = "\r\n";
+
+    private MultiplexEnvelope() {
+        throw new IllegalStateException("MultiplexEnvelope is a utility class.");
+    }
+
+    public static String text(char kind, String sessionId, CharSequence payload) {
+        checkSessionId(sessionId);
+        return new StringBuilder(HEADER_LENGTH + payload.length())
+                .append(kind)
+                .append(sessionId)
+                .append(payload)
+                .toString();
+    }
+
+    /**
+     * Builds a binary message envelope. The payload buffers are consumed.
+     */
+    public static ByteBuffer binary(String sessionId, ByteBuffer... payload) {
+        checkSessionId(sessionId);
+        long length = HEADER_LENGTH;
+        for(ByteBuffer buffer : payload) {
+            length += buffer.remaining();
+        }
+        if(length > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Multiplexed binary message too large: " + length + " bytes");
+        }
+        ByteBuffer envelope = ByteBuffer.allocate((int) length);
+        envelope.put((byte) MESSAGE);
+        envelope.put(sessionId.getBytes(StandardCharsets.US_ASCII));
+        for(ByteBuffer buffer : payload) {
+            envelope.put(buffer);
+        }
+        return envelope.flip();
+    }
+
+    /**
+     * @param requestURI request URI of the client
+     * @param authorization Authorization header of the client or null
+     * @param protocols sub-protocols requested by the client, may be empty
+     */
+    public static String openPayload(String requestURI, String authorization, List<String> protocols) {
+        StringBuilder payload = new StringBuilder(requestURI);
+        if(authorization != null) {
+            appendHeader(payload, AUTHORIZATION, authorization);
+        }
+        if(!protocols.isEmpty()) {
+            appendHeader(payload, SEC_WEBSOCKET_PROTOCOL, String.join(", ", protocols));
+        }
+        return payload.toString();
+    }
+
+    public static String openRequestURI(CharSequence payload) {
+        String s = payload.toString();
+        int end = s.indexOf(LINE_SEPARATOR);
+        return end >= 0 ? s.substring(0, end) : s;
+    }
+
+    /**
+     * @return the headers of an open payload by name, in the order they were sent
+     */
+    public static Map<String, String> openHeaders(CharSequence payload) {
+        String s = payload.toString();
+        Map<String, String> headers = new LinkedHashMap<>();
+        int start = s.indexOf(LINE_SEPARATOR);
+        while(start >= 0) {
+            start += LINE_SEPARATOR.length();
+            int end = s.indexOf(LINE_SEPARATOR, start);
+            String line = end >= 0 ? s.substring(start, end) : s.substring(start);
+            int colon = line.indexOf(':');
+            if(colon > 0) {
+                headers.put(line.substring(0, colon).trim(), line.substring(colon + 1).trim());
+            }
+            start = end;
+        }
+        return headers;
+    }
+
+    public static String closePayload(int code, String reason) {
+        return reason == null || reason.isEmpty() ? Integer.toString(code) : code + ":" + reason;
+    }
+
+    public static int closeCode(CharSequence payload) {
+        String s = payload.toString();
+        int colon = s.indexOf(':');
+        try {
+            return Integer.parseInt(colon >= 0 ? s.substring(0, colon) : s);
+        } catch (NumberFormatException e) {
+            return CloseMessage.NORMAL_CLOSURE;
+        }
+    }
+
+    public static String closeReason(CharSequence payload) {
+        String s = payload.toString();
+        int colon = s.indexOf(':');
+        return colon >= 0 ? s.substring(colon + 1) : "";
+    }
+
+    private static void appendHeader(StringBuilder payload, String name, String value) {
+        if(value.indexOf('\r') >= 0 || value.indexOf('\n') >= 0) {
+            throw new IllegalArgumentException("Header " + name + " must not contain a line break");
+        }
+        payload.append(LINE_SEPARATOR).append(name).append(": ").append(value);
+    }
+
+    private static void checkSessionId(String sessionId) {
+        if(sessionId.length() != SESSION_ID_LENGTH) {
+            throw new IllegalArgumentException("Session id must be " + SESSION_ID_LENGTH + " characters: " + sessionId);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.networknt.websocket.router;
+
+import com.networknt.websocket.client.WsHeartbeat;
+import io.undertow.websockets.core.AbstractReceiveListener;
+import io.undertow.websockets.core.BufferedBinaryMessage;
+import io.undertow.websockets.core.BufferedTextMessage;
+import io.undertow.websockets.core.CloseMessage;
+import io.undertow.websockets.core.WebSocketChannel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xnio.IoUtils;
+import org.xnio.Pooled;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Undertow receive listener for an upstream client that shares a {@link MultiplexedDownstream}.
+ * Every message is wrapped in a {@link MultiplexEnvelope} with the session id of the client.
+ * Messages are always buffered because the parts of different sessions cannot be interleaved
+ * on the shared downstream connection.
+ */
+public class MultiplexUpstreamReceiveListener extends AbstractReceiveListener {
+    private static final Logger LOG = LoggerFactory.getLogger(MultiplexUpstreamReceiveListener.class);
+
+    private final String sessionId;
+    private final MultiplexedDownstream downstream;
+    private final DownstreamSendQueue sendQueue;
+
+    public MultiplexUpstreamReceiveListener(String sessionId, MultiplexedDownstream downstream, DownstreamSendQueue sendQueue) {
+        this.sessionId = sessionId;
+        this.downstream = downstream;
+        this.sendQueue = sendQueue;
+    }
+
+    @Override
+    protected void onFullTextMessage(final WebSocketChannel channel, final BufferedTextMessage message) {
+        if(downstream.isClosed()) {
+            LOG.warn("Multiplexed downstream is closed. Cannot forward text message for {}", sessionId);
+            return;
+        }
+
+        LOG.trace("Forwarding text from upstream to multiplexed downstream for {}", sessionId);
+        sendQueue.sendText(MultiplexEnvelope.text(MultiplexEnvelope.MESSAGE, sessionId, message.getData()), true).whenComplete((ws, throwable) -> {
+            if(throwable != null) {
+                LOG.error("Failed to forward text message to multiplexed downstream for {}", sessionId, throwable);
+            }
+        });
+    }
+
+    @Override
+    protected void onFullBinaryMessage(final WebSocketChannel channel, final BufferedBinaryMessage message) throws IOException {
+        if(downstream.isClosed()) {
+            LOG.warn("Multiplexed downstream is closed. Cannot forward binary message for {}", sessionId);
+            return;
+        }
+
+        // the envelope is an owned copy, so the pooled buffers can be freed right away
+        Pooled<ByteBuffer[]> pooled = message.getData();
+        ByteBuffer envelope;
+        try {
+            envelope = MultiplexEnvelope.binary(sessionId, pooled.getResource());
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage(), e);
+        } finally {
+            pooled.free();
+        }
+
+        LOG.trace("Forwarding binary from upstream to multiplexed downstream for {}", sessionId);
+        sendQueue.sendBinary(envelope, true).whenComplete((ws, throwable) -> {
+            if(throwable != null) {
+                LOG.error("Failed to forward binary message to multiplexed downstream for {}", sessionId, throwable);
+            }
+        });
+    }
+
+    @Override
+    protected void onFullPongMessage(final WebSocketChannel channel, final BufferedBinaryMessage message) throws IOException {
+        WsHeartbeat.pong(channel, message.getData().getResource());
+        super.onFullPongMessage(channel, message);
+    }
+
+    @Override
+    protected void onCloseMessage(CloseMessage cm, WebSocketChannel channel) {
+        LOG.trace("Upstream closed {}. Code: {}. Reason: {}", sessionId, cm.getCode(), cm.getReason());
+        downstream.closeSession(sessionId, cm.getCode(), cm.getReason());
+    }
+
+    @Override
+    protected void onError(final WebSocketChannel channel, final Throwable error) {
+        LOG.error("Upstream error for {}", sessionId, error);
+        IoUtils.safeClose(channel);
+        downstream.closeSession(sessionId, CloseMessage.UNEXPECTED_ERROR, "Upstream encountered error");
+    }
+}
@@ -0,0 +1,274 @@
+package com.networknt.websocket.router;
+
+import com.networknt.websocket.client.WsRelayMetrics;
+import io.undertow.websockets.core.CloseMessage;
+import io.undertow.websockets.core.WebSocketCallback;
+import io.undertow.websockets.core.WebSocketChannel;
+import io.undertow.websockets.core.WebSockets;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.http.WebSocket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * One downstream JDK WebSocket shared by many upstream clients. Messages of each client are
+ * wrapped in a {@link MultiplexEnvelope}, and messages from the backend are routed to the client
+ * by the session id in the envelope. Message parts from the backend are passed through to the
+ * client as fragments, the same way {@link DownstreamReceiveListener} does for a dedicated pair.
+ */
+public class MultiplexedDownstream implements WebSocket.Listener {
+    private static final Logger LOG = LoggerFactory.getLogger(MultiplexedDownstream.class);
+
+    private final String connectionId;
+    private final int maxInFlightMessages;
+    private final int maxInFlightBytes;
+    private final WsRelayMetrics metrics;
+    // session id to upstream relation
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private volatile DownstreamSendChain sendChain;
+    private volatile boolean closed;
+
+    // receive state of the message being read, the JDK delivers parts one at a time
+    private final StringBuilder textHeader = new StringBuilder(MultiplexEnvelope.HEADER_LENGTH);
+    private final ByteBuffer binaryHeader = ByteBuffer.allocate(MultiplexEnvelope.HEADER_LENGTH);
+    private final StringBuilder controlPayload = new StringBuilder();
+    private boolean headerComplete;
+    private char kind;
+    private String sessionId;
+
+    public MultiplexedDownstream(String connectionId, int maxInFlightMessages, int maxInFlightBytes) {
+        this(connectionId, maxInFlightMessages, maxInFlightBytes, WsRelayMetrics.NOOP);
+    }
+
+    public MultiplexedDownstream(String connectionId, int maxInFlightMessages, int maxInFlightBytes, WsRelayMetrics metrics) {
+        this.connectionId = connectionId;
+        this.maxInFlightMessages = maxInFlightMessages;
+        this.maxInFlightBytes = maxInFlightBytes;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Called once the downstream WebSocket is connected and before any session is opened.
+     */
+    public void attach(WebSocket webSocket) {
+        this.sendChain = new DownstreamSendChain(webSocket);
+    }
+
+    public WsRelayMetrics getMetrics() {
+        return metrics;
+    }
+
+    public String getConnectionId() {
+        return connectionId;
+    }
+
+    public boolean isClosed() {
+        return closed || sendChain == null || sendChain.getWebSocket().isOutputClosed();
+    }
+
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    /**
+     * Register an upstream client on this connection and announce it to the backend with the
+     * credentials and sub-protocols of the client.
+     *
+     * @param authorization Authorization header of the client or null
+     * @param protocols sub-protocols requested by the client, may be empty
+     * @throws IllegalArgumentException if the session id or the open envelope is invalid, nothing is registered then
+     */
+    public void openSession(String sessionId, String requestURI, String authorization, List<String> protocols, WebSocketChannel upstreamChannel) {
+        // built first, a header the envelope cannot carry must not leave a session behind
+        String open = MultiplexEnvelope.text(MultiplexEnvelope.OPEN, sessionId, MultiplexEnvelope.openPayload(requestURI, authorization, protocols));
+        DownstreamSendQueue sendQueue = new DownstreamSendQueue(sessionId, sendChain, upstreamChannel, maxInFlightMessages, maxInFlightBytes, metrics);
+        sessions.put(sessionId, new Session(upstreamChannel, new UpstreamFrameSender(upstreamChannel), sendQueue));
+        sendQueue.sendControl(open);
+        upstreamChannel.addCloseTask(channel -> closeSession(sessionId, channel.getCloseCode(), channel.getCloseReason()));
+        // close tasks added after the channel closed never run
+        if(!upstreamChannel.isOpen()) {
+            closeSession(sessionId, upstreamChannel.getCloseCode(), upstreamChannel.getCloseReason());
+            return;
+        }
+        upstreamChannel.getReceiveSetter().set(new MultiplexUpstreamReceiveListener(sessionId, this, sendQueue));
+        upstreamChannel.resumeReceives();
+        LOG.trace("Opened session {} on multiplexed downstream {}", sessionId, connectionId);
+    }
+
+    /**
+     * Remove the session and tell the backend. Does nothing if the session is already gone.
+     */
+    public void closeSession(String sessionId, int code, String reason) {
+        Session session = sessions.remove(sessionId);
+        if(session == null || isClosed()) {
+            return;
+        }
+        int closeCode = code > 0 ? code : CloseMessage.GOING_AWAY;
+        LOG.trace("Closing session {} on multiplexed downstream {}. Code: {}", sessionId, connectionId, closeCode);
+        session.sendQueue().sendControl(MultiplexEnvelope.text(MultiplexEnvelope.CLOSE, sessionId, MultiplexEnvelope.closePayload(closeCode, reason)));
+    }
+
+    @Override
+    public void onOpen(WebSocket webSocket) {
+        LOG.trace("Multiplexed downstream connection {} established", connectionId);
+        webSocket.request(1);
+    }
+
+    @Override
+    public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+        int offset = 0;
+        if(!headerComplete) {
+            offset = Math.min(MultiplexEnvelope.HEADER_LENGTH - textHeader.length(), data.length());
+            textHeader.append(data, 0, offset);
+            if(textHeader.length() < MultiplexEnvelope.HEADER_LENGTH) {
+                if(last) {
+                    LOG.warn("Dropping text message without a complete envelope on multiplexed downstream {}", connectionId);
+                    resetReceive();
+                }
+                webSocket.request(1);
+                return null;
+            }
+            startMessage(textHeader.charAt(0), textHeader.substring(1));
+        }
+        CharSequence payload = offset == 0 ? data : data.subSequence(offset, data.length());
+
+        if(kind == MultiplexEnvelope.MESSAGE) {
+            Session session = sessions.get(sessionId);
+            if(last) {
+                resetReceive();
+            }
+            if(session == null || !session.upstreamChannel().isOpen()) {
+                webSocket.request(1);
+                return null;
+            }
+            metrics.relayed(WsRelayMetrics.Direction.DOWNSTREAM, payload.length(), last);
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            session.frameSender().sendText(payload, last, requestNext(webSocket, future, "text"));
+            return future;
+        }
+
+        controlPayload.append(payload);
+        if(last) {
+            handleControl();
+            resetReceive();
+        }
+        webSocket.request(1);
+        return null;
+    }
+
+    @Override
+    public CompletionStage<?> onBinary(WebSocket webSocket, ByteBuffer data, boolean last) {
+        if(!headerComplete) {
+            int limit = data.limit();
+            data.limit(data.position() + Math.min(binaryHeader.remaining(), data.remaining()));
+            binaryHeader.put(data);
+            data.limit(limit);
+            if(binaryHeader.hasRemaining()) {
+                if(last) {
+                    LOG.warn("Dropping binary message without a complete envelope on multiplexed downstream {}", connectionId);
+                    resetReceive();
+                }
+                webSocket.request(1);
+                return null;
+            }
+            binaryHeader.flip();
+            char messageKind = (char) binaryHeader.get();
+            byte[] id = new byte[MultiplexEnvelope.SESSION_ID_LENGTH];
+            binaryHeader.get(id);
+            startMessage(messageKind, new String(id, StandardCharsets.US_ASCII));
+        }
+
+        Session session = kind == MultiplexEnvelope.MESSAGE ? sessions.get(sessionId) : null;
+        if(last) {
+            resetReceive();
+        }
+        if(session == null || !session.upstreamChannel().isOpen()) {
+            webSocket.request(1);
+            return null;
+        }
+        metrics.relayed(WsRelayMetrics.Direction.DOWNSTREAM, data.remaining(), last);
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        session.frameSender().sendBinary(data, last, requestNext(webSocket, future, "binary"));
+        return future;
+    }
+
+    @Override
+    public CompletionStage<?> onClose(WebSocket webSocket, int statusCode, String reason) {
+        LOG.debug("Multiplexed downstream {} closed. Code: {}. Reason: {}", connectionId, statusCode, reason);
+        closed = true;
+        closeAllSessions(CloseMessage.GOING_AWAY, "Downstream connection closed");
+        return null;
+    }
+
+    @Override
+    public void onError(WebSocket webSocket, Throwable error) {
+        LOG.error("Multiplexed downstream {} error", connectionId, error);
+        closed = true;
+        closeAllSessions(CloseMessage.UNEXPECTED_ERROR, "Downstream encountered error");
+    }
+
+    private void startMessage(char messageKind, String messageSessionId) {
+        headerComplete = true;
+        kind = messageKind;
+        sessionId = messageSessionId;
+        if(messageKind == MultiplexEnvelope.MESSAGE && !sessions.containsKey(messageSessionId)) {
+            LOG.debug("Dropping message for unknown session {} on multiplexed downstream {}", messageSessionId, connectionId);
+        }
+    }
+
+    private void handleControl() {
+        if(kind == MultiplexEnvelope.CLOSE) {
+            Session session = sessions.remove(sessionId);
+            if(session != null) {
+                LOG.trace("Backend closed session {} on multiplexed downstream {}", sessionId, connectionId);
+                WebSockets.sendClose(MultiplexEnvelope.closeCode(controlPayload), MultiplexEnvelope.closeReason(controlPayload), session.upstreamChannel(), null);
+            }
+        } else {
+            LOG.warn("Unexpected envelope kind {} from backend on multiplexed downstream {}", kind, connectionId);
+        }
+    }
+
+    private void resetReceive() {
+        textHeader.setLength(0);
+        binaryHeader.clear();
+        controlPayload.setLength(0);
+        headerComplete = false;
+    }
+
+    private void closeAllSessions(int code, String reason) {
+        for(String id : sessions.keySet()) {
+            Session session = sessions.remove(id);
+            if(session != null && session.upstreamChannel().isOpen()) {
+                WebSockets.sendClose(code, reason, session.upstreamChannel(), null);
+            }
+        }
+    }
+
+    private WebSocketCallback<Void> requestNext(WebSocket webSocket, CompletableFuture<Void> future, String messageType) {
+        return new WebSocketCallback<>() {
+            @Override
+            public void complete(WebSocketChannel channel, Void context) {
+                webSocket.request(1);
+                future.complete(null);
+            }
+
+            @Override
+            public void onError(WebSocketChannel channel, Void context, Throwable throwable) {
+                LOG.error("Failed to forward {} message to upstream on multiplexed downstream {}", messageType, connectionId, throwable);
+                metrics.sendFailed(WsRelayMetrics.Direction.DOWNSTREAM);
+                webSocket.request(1);
+                future.complete(null);
+            }
+        };
+    }
+
+    private record Session(WebSocketChannel upstreamChannel, UpstreamFrameSender frameSender, DownstreamSendQueue sendQueue) {
+    }
+}
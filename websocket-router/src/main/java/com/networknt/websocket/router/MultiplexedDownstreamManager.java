@@ -0,0 +1,168 @@
+package com.networknt.websocket.router;
+
+import com.networknt.cluster.DiscoverableHost;
+import com.networknt.websocket.client.WsHeartbeat;
+import com.networknt.websocket.client.WsMetrics;
+import com.networknt.websocket.client.WsRelayMetrics;
+import io.undertow.websockets.core.CloseMessage;
+import io.undertow.websockets.core.WebSocketChannel;
+import io.undertow.websockets.core.WebSockets;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Keeps a fixed number of {@link MultiplexedDownstream} connections per downstream service and
+ * spreads the upstream clients over them by session id. A connection that failed or was closed
+ * is replaced the next time a client is routed to its slot.
+ */
+public class MultiplexedDownstreamManager {
+    private static final Logger LOG = LoggerFactory.getLogger(MultiplexedDownstreamManager.class);
+
+    private final DownstreamClientShards shards;
+    private final Function<DiscoverableHost, String> urlResolver;
+    private final int connectionsPerService;
+    private final int maxInFlightMessages;
+    private final int maxInFlightBytes;
+    private final WsHeartbeat heartbeat;
+    private final WsMetrics metrics;
+    private final Map<ConnectionKey, CompletableFuture<MultiplexedDownstream>> connections = new ConcurrentHashMap<>();
+
+    /**
+     * @param shards clients used to open the downstream connections, a connection uses the shard of its id
+     * @param urlResolver resolves the WebSocket URL of a service, returns null if no instance is found
+     * @param connectionsPerService number of shared downstream connections per service
+     * @param maxInFlightMessages max number of messages queued per session before its receives are suspended
+     * @param maxInFlightBytes max number of bytes queued per session before its receives are suspended
+     * @param heartbeat pings the upstream channel of every session once it is open, null for no pings
+     * @param metrics registry for the meters of each service
+     */
+    public MultiplexedDownstreamManager(DownstreamClientShards shards, Function<DiscoverableHost, String> urlResolver,
+                                        int connectionsPerService, int maxInFlightMessages, int maxInFlightBytes, WsHeartbeat heartbeat, WsMetrics metrics) {
+        this.shards = shards;
+        this.urlResolver = urlResolver;
+        this.connectionsPerService = connectionsPerService;
+        this.maxInFlightMessages = maxInFlightMessages;
+        this.maxInFlightBytes = maxInFlightBytes;
+        this.heartbeat = heartbeat;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Attach the upstream channel as a new session on one of the connections of the service.
+     * The upstream is closed if no connection can be established.
+     *
+     * @param authorization Authorization header of the client or null, passed to the backend in the open envelope
+     * @param protocols sub-protocols requested by the client, passed to the backend in the open envelope
+     * @param prepareUpstream called with the relay meters of the session before it opens, the meters of an
+     *                        unknown service if there is no connection
+     */
+    public void open(DiscoverableHost service, String sessionId, String requestURI, String authorization, List<String> protocols,
+                     WebSocketChannel upstreamChannel, Consumer<WsRelayMetrics> prepareUpstream) {
+        ConnectionKey key = new ConnectionKey(service, Math.floorMod(sessionId.hashCode(), connectionsPerService));
+        connection(key).whenComplete((downstream, throwable) -> {
+            if(throwable != null) {
+                LOG.error("Failed to connect multiplexed downstream for service {}", service.serviceId(), throwable);
+                prepareUpstream.accept(metrics.relay("router", WebSocketRouterHandler.UNKNOWN_SERVICE));
+                WebSockets.sendClose(CloseMessage.UNEXPECTED_ERROR, "Failed to connect to downstream server", upstreamChannel, null);
+                return;
+            }
+            prepareUpstream.accept(downstream.getMetrics());
+            try {
+                downstream.openSession(sessionId, requestURI, authorization, protocols, upstreamChannel);
+            } catch(RuntimeException e) {
+                LOG.error("Failed to open session {} on {}", sessionId, downstream.getConnectionId(), e);
+                WebSockets.sendClose(CloseMessage.UNEXPECTED_ERROR, "Failed to open downstream session", upstreamChannel, null);
+                return;
+            }
+            if(heartbeat != null) {
+                heartbeat.watch("upstream", upstreamChannel);
+            }
+            LOG.trace("Established session {} on {} for {}", sessionId, downstream.getConnectionId(), requestURI);
+        });
+    }
+
+    /**
+     * Get the connection of the slot or open a new one. The caller that installs the placeholder
+     * of a new connection opens it, after the placeholder is in the map, so the service lookup
+     * and the connect do not run under the lock of the map.
+     */
+    private CompletableFuture<MultiplexedDownstream> connection(ConnectionKey key) {
+        while(true) {
+            CompletableFuture<MultiplexedDownstream> existing = connections.get(key);
+            if(existing != null && isUsable(existing)) {
+                return existing;
+            }
+            CompletableFuture<MultiplexedDownstream> placeholder = new CompletableFuture<>();
+            boolean installed = existing == null ?
+                    connections.putIfAbsent(key, placeholder) == null : connections.replace(key, existing, placeholder);
+            if(installed) {
+                connect(key).whenComplete((downstream, throwable) -> {
+                    if(throwable != null) {
+                        // a service that does not exist must not stay in the map
+                        connections.remove(key, placeholder);
+                        placeholder.completeExceptionally(throwable);
+                    } else {
+                        placeholder.complete(downstream);
+                    }
+                });
+                return placeholder;
+            }
+        }
+    }
+
+    private static boolean isUsable(CompletableFuture<MultiplexedDownstream> connection) {
+        if(!connection.isDone()) {
+            return true;
+        }
+        return !connection.isCompletedExceptionally() && !connection.join().isClosed();
+    }
+
+    private CompletableFuture<MultiplexedDownstream> connect(ConnectionKey key) {
+        String wsURL;
+        try {
+            wsURL = urlResolver.apply(key.service());
+        } catch(RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        if(wsURL == null) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Failed to discover downstream host for service " + key.service().serviceId()));
+        }
+        String connectionId = key.service().serviceId() + "#" + key.slot();
+        WsRelayMetrics relayMetrics = metrics.relay("router", key.service().serviceId());
+        MultiplexedDownstream downstream = new MultiplexedDownstream(connectionId, maxInFlightMessages, maxInFlightBytes, relayMetrics);
+        LOG.debug("Opening multiplexed downstream {} to {}", connectionId, wsURL);
+        long start = System.nanoTime();
+        DownstreamClientShards.Shard shard = shards.forKey(connectionId);
+        DownstreamClientShards.TrackedListener tracked = shard.track(downstream);
+        try {
+            return shard.getHttpClient().newWebSocketBuilder()
+                    .buildAsync(new URI(wsURL), tracked)
+                    .whenComplete((webSocket, throwable) -> {
+                        if(throwable != null) {
+                            tracked.release();
+                            relayMetrics.downstreamConnectFailed();
+                        } else {
+                            relayMetrics.downstreamConnected(start);
+                        }
+                    })
+                    .thenApply(webSocket -> {
+                        downstream.attach(webSocket);
+                        return downstream;
+                    });
+        } catch(Exception e) {
+            tracked.release();
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private record ConnectionKey(DiscoverableHost service, int slot) {
+    }
+}
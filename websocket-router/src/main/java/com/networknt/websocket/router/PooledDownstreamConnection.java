@@ -0,0 +1,147 @@
+package com.networknt.websocket.router;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.http.WebSocket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Listener of an idle downstream connection held by a {@link DownstreamConnectionPool}.
+ *
+ * One message is requested when the connection opens so that a close from the backend evicts the
+ * idle connection. Once a pair claims the connection, the listener of the pair is attached and
+ * every event is delegated to it. The demand requested while idle is passed on to that listener,
+ * so its onOpen is not invoked. A message that arrives before the claim is held and delivered to
+ * the listener on attach.
+ *
+ * The pool passes the WebSocket in with {@link #opened(WebSocket)} before it publishes the
+ * connection, the listener contract does not say whether onOpen runs before the future of
+ * buildAsync completes.
+ */
+public class PooledDownstreamConnection implements WebSocket.Listener {
+    private static final Logger LOG = LoggerFactory.getLogger(PooledDownstreamConnection.class);
+
+    private final DownstreamConnectionPool pool;
+    private final long createdAt = System.currentTimeMillis();
+    private final CompletableFuture<WebSocket.Listener> claimed = new CompletableFuture<>();
+    private volatile WebSocket webSocket;
+    private boolean attached;
+    private boolean closed;
+
+    public PooledDownstreamConnection(DownstreamConnectionPool pool) {
+        this.pool = pool;
+    }
+
+    public WebSocket getWebSocket() {
+        return webSocket;
+    }
+
+    /**
+     * Called with the WebSocket from the future of buildAsync, before the connection is idle.
+     */
+    void opened(WebSocket webSocket) {
+        this.webSocket = webSocket;
+    }
+
+    public boolean isExpired(long now, long maxAgeMs) {
+        return now - createdAt >= maxAgeMs;
+    }
+
+    /**
+     * Hand the connection over to the listener of a pair.
+     *
+     * @return false if the connection was closed while idle
+     */
+    public boolean attach(WebSocket.Listener listener) {
+        synchronized (this) {
+            if(closed || webSocket.isOutputClosed()) {
+                return false;
+            }
+            attached = true;
+        }
+        claimed.complete(listener);
+        return true;
+    }
+
+    /**
+     * Close an idle connection that is no longer wanted by the pool.
+     */
+    public void discard() {
+        synchronized (this) {
+            if(closed || attached) {
+                return;
+            }
+            closed = true;
+        }
+        webSocket.sendClose(WebSocket.NORMAL_CLOSURE, "").whenComplete((ws, throwable) -> webSocket.abort());
+    }
+
+    @Override
+    public void onOpen(WebSocket webSocket) {
+        webSocket.request(1);
+    }
+
+    @Override
+    public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+        return claimed.thenCompose(listener -> listener.onText(webSocket, data, last));
+    }
+
+    @Override
+    public CompletionStage<?> onBinary(WebSocket webSocket, ByteBuffer data, boolean last) {
+        return claimed.thenCompose(listener -> listener.onBinary(webSocket, data, last));
+    }
+
+    @Override
+    public CompletionStage<?> onPing(WebSocket webSocket, ByteBuffer message) {
+        WebSocket.Listener listener = claimed.getNow(null);
+        if(listener != null) {
+            return listener.onPing(webSocket, message);
+        }
+        // the JDK answers the ping, keep the idle demand
+        webSocket.request(1);
+        return null;
+    }
+
+    @Override
+    public CompletionStage<?> onPong(WebSocket webSocket, ByteBuffer message) {
+        WebSocket.Listener listener = claimed.getNow(null);
+        if(listener != null) {
+            return listener.onPong(webSocket, message);
+        }
+        webSocket.request(1);
+        return null;
+    }
+
+    @Override
+    public CompletionStage<?> onClose(WebSocket webSocket, int statusCode, String reason) {
+        if(!closeUnlessAttached()) {
+            LOG.trace("Idle downstream connection closed. Code: {}. Reason: {}", statusCode, reason);
+            pool.evict(this);
+            return null;
+        }
+        return claimed.thenCompose(listener -> listener.onClose(webSocket, statusCode, reason));
+    }
+
+    @Override
+    public void onError(WebSocket webSocket, Throwable error) {
+        if(!closeUnlessAttached()) {
+            LOG.debug("Idle downstream connection failed", error);
+            pool.evict(this);
+            return;
+        }
+        claimed.thenAccept(listener -> listener.onError(webSocket, error));
+    }
+
+    /**
+     * @return true if a pair has claimed the connection, otherwise the connection is marked closed
+     */
+    private synchronized boolean closeUnlessAttached() {
+        if(!attached) {
+            closed = true;
+        }
+        return attached;
+    }
+}
@@ -0,0 +1,140 @@
+package com.networknt.websocket.router;
+
+import com.networknt.websocket.client.WsChannelRelayListener;
+import com.networknt.websocket.client.WsFlushCoalescer;
+import com.networknt.websocket.client.WsHeartbeat;
+import com.networknt.websocket.client.WsRelayMetrics;
+import io.undertow.protocols.ssl.UndertowXnioSsl;
+import io.undertow.websockets.client.WebSocketClient;
+import io.undertow.websockets.client.WebSocketClientNegotiation;
+import io.undertow.websockets.core.CloseMessage;
+import io.undertow.websockets.core.WebSocketChannel;
+import io.undertow.websockets.core.WebSockets;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xnio.IoFuture;
+import org.xnio.IoUtils;
+import org.xnio.OptionMap;
+import org.xnio.Xnio;
+import org.xnio.ssl.XnioSsl;
+
+import javax.net.ssl.SSLContext;
+import java.io.IOException;
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Downstream transport over the Undertow WebSocketClient. The downstream connection is opened on
+ * the IO thread of the upstream channel and reads into the same buffer pool, so both directions of
+ * a pair are relayed on one thread with pooled buffers, see {@link WsChannelRelayListener}.
+ *
+ * The connection pool and multiplexing of the router are built on the JDK WebSocket and are not
+ * available with this transport.
+ *
+ * With a {@link WsHeartbeat}, the downstream channel of every pair is pinged and closed if it does
+ * not answer, which takes the client with it.
+ */
+public class UndertowDownstreamTransport implements DownstreamTransport {
+    private static final Logger LOG = LoggerFactory.getLogger(UndertowDownstreamTransport.class);
+
+    private final WebSocketRouterConfig config;
+    private final XnioSsl ssl;
+    private final WsHeartbeat heartbeat;
+
+    /**
+     * @param config the router config
+     * @param sslContext context for wss connections, or null if secure downstream connections are not available
+     */
+    public UndertowDownstreamTransport(WebSocketRouterConfig config, SSLContext sslContext) {
+        this(config, sslContext, null);
+    }
+
+    /**
+     * @param heartbeat pings the downstream channels, null to rely on the idle timeout only
+     */
+    public UndertowDownstreamTransport(WebSocketRouterConfig config, SSLContext sslContext, WsHeartbeat heartbeat) {
+        this.config = config;
+        this.heartbeat = heartbeat;
+        this.ssl = sslContext != null ? new UndertowXnioSsl(Xnio.getInstance(), OptionMap.EMPTY, sslContext) : null;
+    }
+
+    @Override
+    public boolean connect(DownstreamRequest request) {
+        String wsURL = request.wsURL();
+        WebSocketChannel upstreamChannel = request.upstreamChannel();
+        WsRelayMetrics relayMetrics = request.metrics();
+        long start = System.nanoTime();
+        try {
+            URI uri = new URI(wsURL);
+            WebSocketClient.ConnectionBuilder builder = WebSocketClient.connectionBuilder(upstreamChannel.getIoThread(), upstreamChannel.getBufferPool(), uri)
+                    .setClientNegotiation(new Negotiation(request.protocols(), request.authorization()));
+            if("wss".equals(uri.getScheme())) {
+                if(ssl == null) {
+                    LOG.error("SSL context is null. Cannot connect to downstream server at {}", wsURL);
+                    return false;
+                }
+                builder.setSsl(ssl);
+            }
+            builder.connect().addNotifier(new IoFuture.HandlingNotifier<WebSocketChannel, Object>() {
+                @Override
+                public void handleDone(WebSocketChannel downstreamChannel, Object attachment) {
+                    relayMetrics.downstreamConnected(start);
+                    establishPair(downstreamChannel, request);
+                }
+
+                @Override
+                public void handleFailed(IOException exception, Object attachment) {
+                    relayMetrics.downstreamConnectFailed();
+                    LOG.error("Failed to connect to downstream server at {}", wsURL, exception);
+                    WebSockets.sendClose(CloseMessage.UNEXPECTED_ERROR, "Failed to connect to downstream server", upstreamChannel, null);
+                }
+            }, null);
+            return true;
+        } catch(Exception e) {
+            LOG.error("Failed to create downstream connection builder for {}", wsURL, e);
+            return false;
+        }
+    }
+
+    private void establishPair(WebSocketChannel downstreamChannel, DownstreamRequest request) {
+        String pairId = request.pairId();
+        WebSocketChannel upstreamChannel = request.upstreamChannel();
+        if(!upstreamChannel.isOpen()) {
+            LOG.trace("Upstream closed before the downstream connection of {} was established", pairId);
+            IoUtils.safeClose(downstreamChannel);
+            return;
+        }
+
+        if(config.isCoalesceFlushes()) {
+            WsFlushCoalescer.attach(downstreamChannel, config.getCoalesceWindowMicros(), request.metrics());
+        }
+        // watched from here on, the pongs of the client are not read before the relay sets its receive listener
+        if(heartbeat != null) {
+            heartbeat.watch("upstream", upstreamChannel);
+            heartbeat.watch("downstream", downstreamChannel);
+        }
+        WsChannelRelayListener.relay(pairId, upstreamChannel, downstreamChannel, request.metrics(),
+                config.getMaxInFlightMessages(), config.getMaxInFlightBytes(), config.isStreamingRelay());
+        LOG.trace("Established pair {} with {}", pairId, request.wsURL());
+    }
+
+    /**
+     * Offers the sub-protocols of the client and passes its credentials on to the downstream.
+     */
+    private static final class Negotiation extends WebSocketClientNegotiation {
+        private final String authorization;
+
+        private Negotiation(List<String> protocols, String authorization) {
+            super(protocols, List.of());
+            this.authorization = authorization;
+        }
+
+        @Override
+        public void beforeRequest(Map<String, List<String>> headers) {
+            if(authorization != null) {
+                headers.put("Authorization", List.of(authorization));
+            }
+        }
+    }
+}
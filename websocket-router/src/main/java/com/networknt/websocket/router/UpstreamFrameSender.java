@@ -0,0 +1,192 @@
+package com.networknt.websocket.router;
+
+import com.networknt.websocket.client.WsFlushCoalescer;
+import io.undertow.connector.PooledByteBuffer;
+import io.undertow.websockets.core.StreamSinkFrameChannel;
+import io.undertow.websockets.core.WebSocketCallback;
+import io.undertow.websockets.core.WebSocketChannel;
+import io.undertow.websockets.core.WebSocketFrameType;
+import org.xnio.ChannelExceptionHandler;
+import org.xnio.ChannelListener;
+import org.xnio.ChannelListeners;
+import org.xnio.IoUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes partial messages received from the downstream to the upstream Undertow channel as
+ * WebSocket fragments. Each part is copied once into buffers from the upstream channel's pool and
+ * handed to a frame sink, which frees the buffer after it is written. The first frame of a message
+ * carries the message type and the following frames are continuations.
+ *
+ * The JDK WebSocket listener delivers parts one at a time, so the fragmentation state is not
+ * guarded against concurrent senders.
+ *
+ * If the channel has a {@link WsFlushCoalescer}, the frames are flushed by it instead of one by one.
+ *
+ * A frame that cannot be sent leaves its message half written on the upstream, so the upstream is
+ * closed and the fragmentation state is reset.
+ */
+public class UpstreamFrameSender {
+    private final WebSocketChannel channel;
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+    private final WsFlushCoalescer coalescer;
+    private boolean inMessage;
+    // high surrogate left at the end of a text part, prepended to the next part
+    private char pendingHighSurrogate;
+
+    public UpstreamFrameSender(WebSocketChannel channel) {
+        this(channel, WsFlushCoalescer.get(channel));
+    }
+
+    UpstreamFrameSender(WebSocketChannel channel, WsFlushCoalescer coalescer) {
+        this.channel = channel;
+        this.coalescer = coalescer;
+    }
+
+    public WebSocketChannel getChannel() {
+        return channel;
+    }
+
+    public void sendText(CharSequence data, boolean last, WebSocketCallback<Void> callback) {
+        CharBuffer in;
+        if(pendingHighSurrogate != 0) {
+            in = CharBuffer.allocate(data.length() + 1).put(pendingHighSurrogate).append(data).flip();
+            pendingHighSurrogate = 0;
+        } else {
+            in = CharBuffer.wrap(data);
+        }
+        try {
+            boolean more;
+            do {
+                PooledByteBuffer pooled = allocate();
+                ByteBuffer out = pooled.getBuffer();
+                CoderResult result = encoder.encode(in, out, last);
+                if(result.isError()) {
+                    pooled.close();
+                    encoder.reset();
+                    result.throwException();
+                }
+                more = result.isOverflow();
+                if(!more && last) {
+                    encoder.flush(out);
+                }
+                out.flip();
+                writeFrame(WebSocketFrameType.TEXT, pooled, last && !more, more ? null : callback);
+            } while(more);
+            if(last) {
+                encoder.reset();
+            } else if(in.hasRemaining()) {
+                pendingHighSurrogate = in.get();
+            }
+        } catch (IOException e) {
+            failed(callback, e);
+        }
+    }
+
+    public void sendBinary(ByteBuffer data, boolean last, WebSocketCallback<Void> callback) {
+        try {
+            do {
+                PooledByteBuffer pooled = allocate();
+                ByteBuffer out = pooled.getBuffer();
+                if(data.remaining() <= out.remaining()) {
+                    out.put(data);
+                } else {
+                    int limit = data.limit();
+                    data.limit(data.position() + out.remaining());
+                    out.put(data);
+                    data.limit(limit);
+                }
+                out.flip();
+                boolean more = data.hasRemaining();
+                writeFrame(WebSocketFrameType.BINARY, pooled, last && !more, more ? null : callback);
+            } while(data.hasRemaining());
+        } catch (IOException e) {
+            failed(callback, e);
+        }
+    }
+
+    /**
+     * Forget the message in progress and close the upstream.
+     */
+    private void failed(WebSocketCallback<Void> callback, IOException e) {
+        inMessage = false;
+        pendingHighSurrogate = 0;
+        encoder.reset();
+        close();
+        callback.onError(channel, null, e);
+    }
+
+    private void writeFrame(WebSocketFrameType messageType, PooledByteBuffer pooled, boolean finalFragment, WebSocketCallback<Void> callback) throws IOException {
+        if(!finalFragment && !pooled.getBuffer().hasRemaining()) {
+            // nothing to put on the wire for an empty intermediate part
+            pooled.close();
+            if(callback != null) {
+                callback.complete(channel, null);
+            }
+            return;
+        }
+        WebSocketFrameType type = inMessage ? WebSocketFrameType.CONTINUATION : messageType;
+        inMessage = !finalFragment;
+        send(type, pooled, finalFragment, callback);
+    }
+
+    PooledByteBuffer allocate() {
+        return channel.getBufferPool().allocate();
+    }
+
+    void close() {
+        IoUtils.safeClose(channel);
+    }
+
+    /**
+     * Write one frame to the upstream. The buffer is freed once it is written or the frame fails.
+     */
+    void send(WebSocketFrameType type, PooledByteBuffer pooled, boolean finalFragment, WebSocketCallback<Void> callback) throws IOException {
+        StreamSinkFrameChannel sink;
+        try {
+            sink = channel.send(type);
+        } catch (IOException e) {
+            pooled.close();
+            throw e;
+        }
+        sink.setFinalFragment(finalFragment);
+        if(!sink.send(pooled)) {
+            pooled.close();
+            throw new IOException("Unable to send fragment on a newly created frame channel");
+        }
+        if(coalescer != null) {
+            coalescer.flushLater(sink, callback);
+            return;
+        }
+        flush(sink, callback);
+    }
+
+    private void flush(StreamSinkFrameChannel sink, WebSocketCallback<Void> callback) throws IOException {
+        sink.shutdownWrites();
+        if(!sink.flush()) {
+            sink.getWriteSetter().set(ChannelListeners.flushingChannelListener(
+                    (ChannelListener<StreamSinkFrameChannel>) flushed -> {
+                        if(callback != null) {
+                            callback.complete(channel, null);
+                        }
+                    },
+                    (ChannelExceptionHandler<StreamSinkFrameChannel>) (failed, exception) -> {
+                        IoUtils.safeClose(failed, channel);
+                        if(callback != null) {
+                            callback.onError(channel, null, exception);
+                        }
+                    }));
+            sink.resumeWrites();
+            return;
+        }
+        if(callback != null) {
+            callback.complete(channel, null);
+        }
+    }
+}
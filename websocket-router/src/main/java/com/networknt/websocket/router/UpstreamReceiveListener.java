@@ -1,54 +1,88 @@
 package com.networknt.websocket.router;
 
+import com.networknt.websocket.client.WsHeartbeat;
+import io.undertow.connector.PooledByteBuffer;
 import io.undertow.websockets.core.AbstractReceiveListener;
 import io.undertow.websockets.core.BufferedBinaryMessage;
 import io.undertow.websockets.core.BufferedTextMessage;
 import io.undertow.websockets.core.CloseMessage;
+import io.undertow.websockets.core.StreamSourceFrameChannel;
 import io.undertow.websockets.core.WebSocketChannel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.xnio.ChannelListener;
 import org.xnio.IoUtils;
 import org.xnio.Pooled;
 
 import java.io.IOException;
 import java.net.http.WebSocket;
 import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Undertow receive listener for the upstream (client-to-proxy) that forwards
  * messages to the downstream (proxy-to-backend) via JDK HttpClient WebSocket.
+ *
+ * When streaming relay is enabled, text and binary messages are not buffered. Each
+ * chunk read from the frame channel is sent to the downstream as a partial message
+ * and the pooled buffer is released once the downstream send completes.
  */
 public class UpstreamReceiveListener extends AbstractReceiveListener {
     private static final Logger LOG = LoggerFactory.getLogger(UpstreamReceiveListener.class);
 
-    // TODO: Implement routing multiple clients to a single downstream channel (i.e. multiple clients using 1 service).
-    //  See here for more details: https://github.com/networknt/light-websocket-4j/issues/9
-    //  Possible double hashmap solution using session id:
-    //   - hashmap A captures session id to service id relation
-    //   - hashmap B captures service id to downstream channel relation
     private final String pairId;
-    private final WebSocket downstreamChannel;
+    private final DownstreamSendQueue sendQueue;
+    private final boolean streamingRelay;
 
     public UpstreamReceiveListener(String pairId, WebSocket downstreamChannel) {
+        this(pairId, new DownstreamSendQueue(pairId, downstreamChannel, null, Integer.MAX_VALUE, Long.MAX_VALUE), false);
+    }
+
+    public UpstreamReceiveListener(String pairId, DownstreamSendQueue sendQueue, boolean streamingRelay) {
         this.pairId = pairId;
-        this.downstreamChannel = downstreamChannel;
+        this.sendQueue = sendQueue;
+        this.streamingRelay = streamingRelay;
+    }
+
+    @Override
+    protected void onText(final WebSocketChannel webSocketChannel, final StreamSourceFrameChannel messageChannel) throws IOException {
+        if(!streamingRelay || sendQueue.isOutputClosed()) {
+            super.onText(webSocketChannel, messageChannel);
+            return;
+        }
+        new MessageStreamer(webSocketChannel, true).handleEvent(messageChannel);
+    }
+
+    @Override
+    protected void onBinary(final WebSocketChannel webSocketChannel, final StreamSourceFrameChannel messageChannel) throws IOException {
+        if(!streamingRelay || sendQueue.isOutputClosed()) {
+            super.onBinary(webSocketChannel, messageChannel);
+            return;
+        }
+        new MessageStreamer(webSocketChannel, false).handleEvent(messageChannel);
     }
 
     @Override
     protected void onFullTextMessage(final WebSocketChannel channel, final BufferedTextMessage message) {
-        if(downstreamChannel.isOutputClosed()) {
+        if(sendQueue.isOutputClosed()) {
             LOG.warn("Downstream is closed. Cannot forward text message for {}", pairId);
             return;
         }
 
         String data = message.getData();
         LOG.trace("Forwarding text from upstream to downstream for {}", pairId);
-        downstreamChannel.sendText(data, true);
+        sendQueue.sendText(data, true).whenComplete((ws, throwable) -> {
+            if(throwable != null) {
+                LOG.error("Failed to forward text message to downstream for {}", pairId, throwable);
+            }
+        });
     }
 
     @Override
     protected void onFullBinaryMessage(final WebSocketChannel channel, final BufferedBinaryMessage message) throws IOException {
-        if(downstreamChannel.isOutputClosed()) {
+        if(sendQueue.isOutputClosed()) {
             LOG.warn("Downstream is closed. Cannot forward binary message for {}", pairId);
             return;
         }
@@ -77,12 +111,22 @@ public class UpstreamReceiveListener extends AbstractReceiveListener {
         }
 
         LOG.trace("Forwarding binary from upstream to downstream for {}", pairId);
-        downstreamChannel.sendBinary(copy, true);
+        sendQueue.sendBinary(copy, true).whenComplete((ws, throwable) -> {
+            if(throwable != null) {
+                LOG.error("Failed to forward binary message to downstream for {}", pairId, throwable);
+            }
+        });
+    }
+
+    @Override
+    protected void onFullPongMessage(final WebSocketChannel channel, final BufferedBinaryMessage message) throws IOException {
+        WsHeartbeat.pong(channel, message.getData().getResource());
+        super.onFullPongMessage(channel, message);
     }
 
     @Override
     protected void onCloseMessage(CloseMessage cm, WebSocketChannel channel) {
-        if(downstreamChannel.isOutputClosed()) {
+        if(sendQueue.isOutputClosed()) {
             return;
         }
 
@@ -92,7 +136,7 @@ public class UpstreamReceiveListener extends AbstractReceiveListener {
             LOG.trace("Upstream closed {}. Code: {}. No reason given", pairId, cm.getCode());
         }
         LOG.trace("Closing downstream for {} due to upstream close", pairId);
-        downstreamChannel.sendClose(cm.getCode(), cm.getReason());
+        sendQueue.sendClose(cm.getCode(), cm.getReason());
     }
 
     @Override
@@ -100,9 +144,96 @@ public class UpstreamReceiveListener extends AbstractReceiveListener {
         LOG.error("Upstream error for {}", pairId, error);
         IoUtils.safeClose(channel);
 
-        if(!downstreamChannel.isOutputClosed()) {
+        if(!sendQueue.isOutputClosed()) {
             LOG.trace("Closing downstream for {} due to upstream error", pairId);
-            downstreamChannel.sendClose(CloseMessage.UNEXPECTED_ERROR, "Upstream encountered error");
+            // do not queue behind pending messages, the pair is being torn down
+            sendQueue.getDownstreamChannel().sendClose(CloseMessage.UNEXPECTED_ERROR, "Upstream encountered error");
+        }
+    }
+
+    /**
+     * Reads one upstream message chunk by chunk and relays each chunk to the downstream as a
+     * partial message. Reads are suspended while the chunk is being sent and resumed on the IO
+     * thread once the send completes, so at most one chunk per message is held in memory.
+     */
+    private final class MessageStreamer implements ChannelListener<StreamSourceFrameChannel> {
+        private final WebSocketChannel channel;
+        private final boolean text;
+        private final Utf8ChunkDecoder decoder;
+
+        private MessageStreamer(WebSocketChannel channel, boolean text) {
+            this.channel = channel;
+            this.text = text;
+            this.decoder = text ? new Utf8ChunkDecoder() : null;
+        }
+
+        @Override
+        public void handleEvent(StreamSourceFrameChannel messageChannel) {
+            PooledByteBuffer pooled = channel.getBufferPool().allocate();
+            ByteBuffer buffer = pooled.getBuffer();
+            boolean last = false;
+            try {
+                int carried = text ? decoder.restoreCarry(buffer) : 0;
+                int res = 0;
+                while(buffer.hasRemaining()) {
+                    res = messageChannel.read(buffer);
+                    if(res <= 0) {
+                        break;
+                    }
+                }
+                last = res == -1;
+                if(!last && buffer.position() == carried) {
+                    // nothing new available yet, the carried bytes stay with the decoder until the next read notification
+                    waitForData(messageChannel, pooled);
+                    return;
+                }
+                buffer.flip();
+                messageChannel.suspendReads();
+                send(messageChannel, pooled, buffer, last);
+            } catch (IOException e) {
+                pooled.close();
+                LOG.error("Failed to stream message from upstream for {}", pairId, e);
+                IoUtils.safeClose(messageChannel);
+                onError(channel, e);
+            }
+        }
+
+        private void waitForData(StreamSourceFrameChannel messageChannel, PooledByteBuffer pooled) {
+            pooled.close();
+            messageChannel.getReadSetter().set(this);
+            messageChannel.resumeReads();
+        }
+
+        private void send(StreamSourceFrameChannel messageChannel, PooledByteBuffer pooled, ByteBuffer buffer, boolean last) throws CharacterCodingException {
+            CompletableFuture<WebSocket> future;
+            if(text) {
+                CharBuffer chars = decoder.decode(buffer, last);
+                if(!last && !chars.hasRemaining()) {
+                    // only part of a character so far, no empty frame for it
+                    waitForData(messageChannel, pooled);
+                    return;
+                }
+                // the decoded copy owns the data, the pooled buffer can go back to the pool right away
+                pooled.close();
+                future = sendQueue.sendText(chars, last);
+            } else {
+                future = sendQueue.sendBinary(buffer, last);
+            }
+            LOG.trace("Streaming {} chunk from upstream to downstream for {}. Last: {}", text ? "text" : "binary", pairId, last);
+            future.whenComplete((ws, throwable) -> {
+                if(!text) {
+                    pooled.close();
+                }
+                if(throwable != null) {
+                    LOG.error("Failed to stream message to downstream for {}", pairId, throwable);
+                    IoUtils.safeClose(messageChannel);
+                    IoUtils.safeClose(channel);
+                    return;
+                }
+                if(!last) {
+                    channel.getIoThread().execute(() -> handleEvent(messageChannel));
+                }
+            });
         }
     }
 }
@@ -0,0 +1,58 @@
+package com.networknt.websocket.router;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Decodes a UTF-8 text message that arrives in chunks. A character split across two chunks is
+ * carried over: its leading bytes are kept and put in front of the next chunk.
+ */
+final class Utf8ChunkDecoder {
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPORT)
+            .onUnmappableCharacter(CodingErrorAction.REPORT);
+    // trailing bytes of an incomplete UTF-8 sequence carried into the next chunk
+    private final byte[] carry = new byte[4];
+    private int carryLength;
+
+    /**
+     * Put the carried bytes at the start of the buffer for the next chunk to be read after them. The
+     * bytes stay carried until the buffer is decoded.
+     *
+     * @return the number of carried bytes
+     */
+    int restoreCarry(ByteBuffer buffer) {
+        buffer.put(carry, 0, carryLength);
+        return carryLength;
+    }
+
+    /**
+     * Decode a chunk with the carried bytes in front of it. The bytes of an incomplete character at
+     * the end of the chunk are carried, unless it is the last one.
+     *
+     * @param buffer the chunk, ready to be read
+     * @param last true for the last chunk of the message
+     * @return the decoded chars, empty if the chunk only holds part of a character
+     */
+    CharBuffer decode(ByteBuffer buffer, boolean last) throws CharacterCodingException {
+        CharBuffer chars = CharBuffer.allocate((int) (buffer.remaining() * decoder.maxCharsPerByte()) + 1);
+        CoderResult result = decoder.decode(buffer, chars, last);
+        if(result.isError()) {
+            result.throwException();
+        }
+        carryLength = 0;
+        if(last) {
+            decoder.flush(chars);
+        } else if(buffer.hasRemaining()) {
+            carryLength = buffer.remaining();
+            buffer.get(carry, 0, carryLength);
+        }
+        chars.flip();
+        return chars;
+    }
+}
@@ -35,7 +35,56 @@ public class WebSocketRouterConfig {
     public static final String DEFAULT_ENV_TAG = "defaultEnvTag";
     public static final String IDLE_TIMEOUT_MS = "idleTimeoutMs";
     public static final int DEFAULT_IDLE_TIMEOUT_MS = 3600000;
+    public static final String STREAMING_RELAY = "streamingRelay";
+    public static final String MAX_IN_FLIGHT_MESSAGES = "maxInFlightMessages";
+    public static final String MAX_IN_FLIGHT_BYTES = "maxInFlightBytes";
+    public static final int DEFAULT_MAX_IN_FLIGHT_MESSAGES = 64;
+    public static final int DEFAULT_MAX_IN_FLIGHT_BYTES = 4194304;
+    public static final String MULTIPLEX_ENABLED = "multiplexEnabled";
+    public static final String MULTIPLEX_CONNECTIONS_PER_SERVICE = "multiplexConnectionsPerService";
+    public static final String MULTIPLEX_PATH = "multiplexPath";
+    public static final int DEFAULT_MULTIPLEX_CONNECTIONS_PER_SERVICE = 2;
+    public static final String DEFAULT_MULTIPLEX_PATH = "/";
+    public static final String DOWNSTREAM_POOL_MIN_IDLE = "downstreamPoolMinIdle";
+    public static final String DOWNSTREAM_POOL_MAX_IDLE = "downstreamPoolMaxIdle";
+    public static final String DOWNSTREAM_POOL_MAX_AGE_MS = "downstreamPoolMaxAgeMs";
+    public static final String DOWNSTREAM_POOL_PATH = "downstreamPoolPath";
+    public static final int DEFAULT_DOWNSTREAM_POOL_MAX_IDLE = 8;
+    public static final int DEFAULT_DOWNSTREAM_POOL_MAX_AGE_MS = 300000;
+    public static final String DEFAULT_DOWNSTREAM_POOL_PATH = "/";
+    public static final String DISCOVERY_CACHE_TTL_MS = "discoveryCacheTtlMs";
+    public static final String DISCOVERY_CACHE_NEGATIVE_TTL_MS = "discoveryCacheNegativeTtlMs";
+    public static final String DISCOVERY_CACHE_REFRESH_AHEAD_MS = "discoveryCacheRefreshAheadMs";
+    public static final String DISCOVERY_CACHE_MAX_ENTRIES = "discoveryCacheMaxEntries";
+    public static final int DEFAULT_DISCOVERY_CACHE_NEGATIVE_TTL_MS = 5000;
+    public static final int DEFAULT_DISCOVERY_CACHE_REFRESH_AHEAD_MS = 2000;
+    public static final int DEFAULT_DISCOVERY_CACHE_MAX_ENTRIES = 1024;
+    public static final String DEFLATE_ENABLED = "deflateEnabled";
+    public static final String DEFLATE_LEVEL = "deflateLevel";
+    public static final String DEFLATE_CONTEXT_TAKEOVER = "deflateContextTakeover";
+    public static final String DEFLATE_CLIENT_MAX_WINDOW_BITS = "deflateClientMaxWindowBits";
+    public static final String DEFLATE_MIN_SIZE = "deflateMinSize";
+    public static final int DEFAULT_DEFLATE_LEVEL = 6;
+    public static final int DEFAULT_DEFLATE_CLIENT_MAX_WINDOW_BITS = 15;
+    public static final int DEFAULT_DEFLATE_MIN_SIZE = 256;
+    public static final String DOWNSTREAM_TRANSPORT = "downstreamTransport";
+    public static final String DEFAULT_DOWNSTREAM_TRANSPORT = "jdk";
+    public static final String DOWNSTREAM_EXECUTOR = "downstreamExecutor";
+    public static final String DOWNSTREAM_EXECUTOR_THREADS = "downstreamExecutorThreads";
+    public static final String DOWNSTREAM_EXECUTOR_QUEUE_SIZE = "downstreamExecutorQueueSize";
+    public static final String DEFAULT_DOWNSTREAM_EXECUTOR = "default";
+    public static final int DEFAULT_DOWNSTREAM_EXECUTOR_QUEUE_SIZE = 10000;
+    public static final String DOWNSTREAM_CLIENT_SHARDS = "downstreamClientShards";
+    public static final String DOWNSTREAM_SHARD_ASSIGNMENT = "downstreamShardAssignment";
+    public static final String DEFAULT_DOWNSTREAM_SHARD_ASSIGNMENT = "hash";
+    public static final String COALESCE_FLUSHES = "coalesceFlushes";
+    public static final String COALESCE_WINDOW_MICROS = "coalesceWindowMicros";
+    public static final String HEARTBEAT_INTERVAL_MS = "heartbeatIntervalMs";
+    public static final String HEARTBEAT_TIMEOUT_MS = "heartbeatTimeoutMs";
+    public static final int DEFAULT_HEARTBEAT_TIMEOUT_MS = 10000;
+    public static final String METRICS_ENABLED = "metricsEnabled";
     private static final String PATH_PREFIX_SERVICE = "pathPrefixService";
+    private static final String SERVICE_TRANSPORTS = "serviceTransports";
 
     @BooleanField(
             configFieldName = "enabled",
@@ -69,6 +118,270 @@ public class WebSocketRouterConfig {
     )
     int idleTimeoutMs = DEFAULT_IDLE_TIMEOUT_MS;
 
+    @BooleanField(
+            configFieldName = STREAMING_RELAY,
+            externalizedKeyName = STREAMING_RELAY,
+            description = "Forward each upstream frame fragment to the downstream as a partial message instead of buffering the full message.",
+            defaultValue = "false"
+    )
+    boolean streamingRelay;
+
+    @IntegerField(
+            configFieldName = MAX_IN_FLIGHT_MESSAGES,
+            externalizedKeyName = MAX_IN_FLIGHT_MESSAGES,
+            description = "Max number of upstream messages (or chunks in streaming relay) pending to the downstream per pair before upstream receives are suspended.",
+            defaultValue = "64",
+            min = 1
+    )
+    int maxInFlightMessages = DEFAULT_MAX_IN_FLIGHT_MESSAGES;
+
+    @IntegerField(
+            configFieldName = MAX_IN_FLIGHT_BYTES,
+            externalizedKeyName = MAX_IN_FLIGHT_BYTES,
+            description = "Max number of upstream bytes pending to the downstream per pair before upstream receives are suspended.",
+            defaultValue = "4194304",
+            min = 1
+    )
+    int maxInFlightBytes = DEFAULT_MAX_IN_FLIGHT_BYTES;
+
+    @BooleanField(
+            configFieldName = MULTIPLEX_ENABLED,
+            externalizedKeyName = MULTIPLEX_ENABLED,
+            description = "Share a few downstream connections per service between all clients. The backend must understand the multiplex envelope.",
+            defaultValue = "false"
+    )
+    boolean multiplexEnabled;
+
+    @IntegerField(
+            configFieldName = MULTIPLEX_CONNECTIONS_PER_SERVICE,
+            externalizedKeyName = MULTIPLEX_CONNECTIONS_PER_SERVICE,
+            description = "Number of shared downstream connections per service when multiplexing is enabled.",
+            defaultValue = "2",
+            min = 1
+    )
+    int multiplexConnectionsPerService = DEFAULT_MULTIPLEX_CONNECTIONS_PER_SERVICE;
+
+    @StringField(
+            configFieldName = MULTIPLEX_PATH,
+            externalizedKeyName = MULTIPLEX_PATH,
+            description = "Path of the multiplexed endpoint on the backend service.",
+            defaultValue = "/"
+    )
+    String multiplexPath = DEFAULT_MULTIPLEX_PATH;
+
+    @IntegerField(
+            configFieldName = DOWNSTREAM_POOL_MIN_IDLE,
+            externalizedKeyName = DOWNSTREAM_POOL_MIN_IDLE,
+            description = "Number of pre-established idle downstream connections kept per downstream service. 0 disables the pool.",
+            defaultValue = "0",
+            min = 0
+    )
+    int downstreamPoolMinIdle;
+
+    @IntegerField(
+            configFieldName = DOWNSTREAM_POOL_MAX_IDLE,
+            externalizedKeyName = DOWNSTREAM_POOL_MAX_IDLE,
+            description = "Max number of idle and opening downstream connections per downstream service.",
+            defaultValue = "8",
+            min = 1
+    )
+    int downstreamPoolMaxIdle = DEFAULT_DOWNSTREAM_POOL_MAX_IDLE;
+
+    @IntegerField(
+            configFieldName = DOWNSTREAM_POOL_MAX_AGE_MS,
+            externalizedKeyName = DOWNSTREAM_POOL_MAX_AGE_MS,
+            description = "Max age in milliseconds of an idle downstream connection. Keep it below the idle timeout of the backend.",
+            defaultValue = "300000",
+            min = 1
+    )
+    int downstreamPoolMaxAgeMs = DEFAULT_DOWNSTREAM_POOL_MAX_AGE_MS;
+
+    @StringField(
+            configFieldName = DOWNSTREAM_POOL_PATH,
+            externalizedKeyName = DOWNSTREAM_POOL_PATH,
+            description = "Path and query of the pre-established downstream connections. Only clients whose downstream URL has exactly this path and query claim one.",
+            defaultValue = "/"
+    )
+    String downstreamPoolPath = DEFAULT_DOWNSTREAM_POOL_PATH;
+
+    @IntegerField(
+            configFieldName = DISCOVERY_CACHE_TTL_MS,
+            externalizedKeyName = DISCOVERY_CACHE_TTL_MS,
+            description = "Time to live in milliseconds of the cached instances of a downstream service. 0 disables the cache.",
+            defaultValue = "0",
+            min = 0
+    )
+    int discoveryCacheTtlMs;
+
+    @IntegerField(
+            configFieldName = DISCOVERY_CACHE_NEGATIVE_TTL_MS,
+            externalizedKeyName = DISCOVERY_CACHE_NEGATIVE_TTL_MS,
+            description = "Time to live in milliseconds of a cached lookup that found no instances.",
+            defaultValue = "5000",
+            min = 0
+    )
+    int discoveryCacheNegativeTtlMs = DEFAULT_DISCOVERY_CACHE_NEGATIVE_TTL_MS;
+
+    @IntegerField(
+            configFieldName = DISCOVERY_CACHE_REFRESH_AHEAD_MS,
+            externalizedKeyName = DISCOVERY_CACHE_REFRESH_AHEAD_MS,
+            description = "Time in milliseconds before expiry at which a cached service is reloaded in the background.",
+            defaultValue = "2000",
+            min = 0
+    )
+    int discoveryCacheRefreshAheadMs = DEFAULT_DISCOVERY_CACHE_REFRESH_AHEAD_MS;
+
+    @IntegerField(
+            configFieldName = DISCOVERY_CACHE_MAX_ENTRIES,
+            externalizedKeyName = DISCOVERY_CACHE_MAX_ENTRIES,
+            description = "Max number of downstream services kept in the discovery cache.",
+            defaultValue = "1024",
+            min = 1
+    )
+    int discoveryCacheMaxEntries = DEFAULT_DISCOVERY_CACHE_MAX_ENTRIES;
+
+    @BooleanField(
+            configFieldName = DEFLATE_ENABLED,
+            externalizedKeyName = DEFLATE_ENABLED,
+            description = "Negotiate permessage-deflate compression with clients that offer it.",
+            defaultValue = "false"
+    )
+    boolean deflateEnabled;
+
+    @IntegerField(
+            configFieldName = DEFLATE_LEVEL,
+            externalizedKeyName = DEFLATE_LEVEL,
+            description = "Deflate level from 1 (fastest) to 9 (smallest) for messages to the clients.",
+            defaultValue = "6",
+            min = 1,
+            max = 9
+    )
+    int deflateLevel = DEFAULT_DEFLATE_LEVEL;
+
+    @BooleanField(
+            configFieldName = DEFLATE_CONTEXT_TAKEOVER,
+            externalizedKeyName = DEFLATE_CONTEXT_TAKEOVER,
+            description = "Keep the compression context between messages. Compresses better but keeps a deflate window per connection on both ends.",
+            defaultValue = "true"
+    )
+    boolean deflateContextTakeover = true;
+
+    @IntegerField(
+            configFieldName = DEFLATE_CLIENT_MAX_WINDOW_BITS,
+            externalizedKeyName = DEFLATE_CLIENT_MAX_WINDOW_BITS,
+            description = "Window bits from 8 to 15 that clients offering client_max_window_bits may use for their messages. The router always compresses with 15.",
+            defaultValue = "15",
+            min = 8,
+            max = 15
+    )
+    int deflateClientMaxWindowBits = DEFAULT_DEFLATE_CLIENT_MAX_WINDOW_BITS;
+
+    @IntegerField(
+            configFieldName = DEFLATE_MIN_SIZE,
+            externalizedKeyName = DEFLATE_MIN_SIZE,
+            description = "Messages to the clients smaller than this number of bytes are not compressed.",
+            defaultValue = "256",
+            min = 0
+    )
+    int deflateMinSize = DEFAULT_DEFLATE_MIN_SIZE;
+
+    @StringField(
+            configFieldName = DOWNSTREAM_TRANSPORT,
+            externalizedKeyName = DOWNSTREAM_TRANSPORT,
+            description = "Transport of the downstream connections. jdk uses the JDK HttpClient, undertow uses the Undertow WebSocketClient on the IO thread of the client connection.",
+            defaultValue = "jdk",
+            pattern = "^(jdk|undertow)$"
+    )
+    String downstreamTransport = DEFAULT_DOWNSTREAM_TRANSPORT;
+
+    @StringField(
+            configFieldName = DOWNSTREAM_EXECUTOR,
+            externalizedKeyName = DOWNSTREAM_EXECUTOR,
+            description = "Executor of the downstream HttpClient callbacks. default is the cached pool of the JDK, virtual a virtual thread per task, fixed a bounded pool of platform threads, io-thread the default of the JDK with the listener callbacks moved to the IO thread of the client connection.",
+            defaultValue = "default",
+            pattern = "^(default|virtual|fixed|io-thread)$"
+    )
+    String downstreamExecutor = DEFAULT_DOWNSTREAM_EXECUTOR;
+
+    @IntegerField(
+            configFieldName = DOWNSTREAM_EXECUTOR_THREADS,
+            externalizedKeyName = DOWNSTREAM_EXECUTOR_THREADS,
+            description = "Number of threads of the fixed downstream executor. 0 uses the number of processors.",
+            defaultValue = "0",
+            min = 0
+    )
+    int downstreamExecutorThreads;
+
+    @IntegerField(
+            configFieldName = DOWNSTREAM_EXECUTOR_QUEUE_SIZE,
+            externalizedKeyName = DOWNSTREAM_EXECUTOR_QUEUE_SIZE,
+            description = "Max number of tasks waiting for a thread of the fixed downstream executor. Beyond that a task runs on the common pool and its connection is closed with 1013 try again later.",
+            defaultValue = "10000",
+            min = 1
+    )
+    int downstreamExecutorQueueSize = DEFAULT_DOWNSTREAM_EXECUTOR_QUEUE_SIZE;
+
+    @IntegerField(
+            configFieldName = DOWNSTREAM_CLIENT_SHARDS,
+            externalizedKeyName = DOWNSTREAM_CLIENT_SHARDS,
+            description = "Number of HttpClient instances the downstream connections are spread over, each with its own selector thread. 0 uses half the number of processors.",
+            defaultValue = "0",
+            min = 0
+    )
+    int downstreamClientShards;
+
+    @StringField(
+            configFieldName = DOWNSTREAM_SHARD_ASSIGNMENT,
+            externalizedKeyName = DOWNSTREAM_SHARD_ASSIGNMENT,
+            description = "How a new pair is assigned to an HttpClient shard. hash uses the hash of the pair id, least-connections the shard with the fewest open connections.",
+            defaultValue = "hash",
+            pattern = "^(hash|least-connections)$"
+    )
+    String downstreamShardAssignment = DEFAULT_DOWNSTREAM_SHARD_ASSIGNMENT;
+
+    @BooleanField(
+            configFieldName = COALESCE_FLUSHES,
+            externalizedKeyName = COALESCE_FLUSHES,
+            description = "Gather the frames relayed to a client, and to a backend of the undertow transport, and write them with one flush per IO loop iteration or coalesceWindowMicros instead of one per frame. Fewer syscalls and TLS records for many small messages at the cost of some latency.",
+            defaultValue = "false"
+    )
+    boolean coalesceFlushes;
+
+    @IntegerField(
+            configFieldName = COALESCE_WINDOW_MICROS,
+            externalizedKeyName = COALESCE_WINDOW_MICROS,
+            description = "How long the frames of a channel are gathered before they are flushed when coalesceFlushes is enabled. 0 flushes at the end of the current IO loop iteration. The IO thread timers count in milliseconds, so the window is rounded up to whole milliseconds.",
+            defaultValue = "0",
+            min = 0
+    )
+    int coalesceWindowMicros;
+
+    @IntegerField(
+            configFieldName = HEARTBEAT_INTERVAL_MS,
+            externalizedKeyName = HEARTBEAT_INTERVAL_MS,
+            description = "Ping the client and the backend of every pair at this interval and close a pair whose client or backend does not answer within heartbeatTimeoutMs. 0 disables the heartbeat and leaves dead connections to idleTimeoutMs.",
+            defaultValue = "0",
+            min = 0
+    )
+    int heartbeatIntervalMs;
+
+    @IntegerField(
+            configFieldName = HEARTBEAT_TIMEOUT_MS,
+            externalizedKeyName = HEARTBEAT_TIMEOUT_MS,
+            description = "Time to wait for the pong of a heartbeat ping, at most heartbeatIntervalMs.",
+            defaultValue = "10000",
+            min = 1
+    )
+    int heartbeatTimeoutMs = DEFAULT_HEARTBEAT_TIMEOUT_MS;
+
+    @BooleanField(
+            configFieldName = METRICS_ENABLED,
+            externalizedKeyName = METRICS_ENABLED,
+            description = "Record connection, message and latency metrics per service. They are exposed by the WsMetricsHandler of websocket-client.",
+            defaultValue = "false"
+    )
+    boolean metricsEnabled;
+
     @MapField(
             configFieldName = PATH_PREFIX_SERVICE,
             externalizedKeyName = PATH_PREFIX_SERVICE,
@@ -77,6 +390,14 @@ public class WebSocketRouterConfig {
     )
     Map<String, DiscoverableHost> pathPrefixService;
 
+    @MapField(
+            configFieldName = SERVICE_TRANSPORTS,
+            externalizedKeyName = SERVICE_TRANSPORTS,
+            description = "Map of service id to the downstream transport of the service, jdk or undertow. Services not listed use downstreamTransport.",
+            valueType = String.class
+    )
+    Map<String, String> serviceTransports;
+
         private final Map<String, Object> mappedConfig;
     private static volatile WebSocketRouterConfig instance;
 
@@ -133,6 +454,130 @@ public class WebSocketRouterConfig {
         return idleTimeoutMs;
     }
 
+    public boolean isStreamingRelay() {
+        return streamingRelay;
+    }
+
+    public int getMaxInFlightMessages() {
+        return maxInFlightMessages;
+    }
+
+    public int getMaxInFlightBytes() {
+        return maxInFlightBytes;
+    }
+
+    public boolean isMultiplexEnabled() {
+        return multiplexEnabled;
+    }
+
+    public int getMultiplexConnectionsPerService() {
+        return multiplexConnectionsPerService;
+    }
+
+    public String getMultiplexPath() {
+        return multiplexPath;
+    }
+
+    public int getDownstreamPoolMinIdle() {
+        return downstreamPoolMinIdle;
+    }
+
+    public int getDownstreamPoolMaxIdle() {
+        return downstreamPoolMaxIdle;
+    }
+
+    public int getDownstreamPoolMaxAgeMs() {
+        return downstreamPoolMaxAgeMs;
+    }
+
+    public String getDownstreamPoolPath() {
+        return downstreamPoolPath;
+    }
+
+    public int getDiscoveryCacheTtlMs() {
+        return discoveryCacheTtlMs;
+    }
+
+    public int getDiscoveryCacheNegativeTtlMs() {
+        return discoveryCacheNegativeTtlMs;
+    }
+
+    public int getDiscoveryCacheRefreshAheadMs() {
+        return discoveryCacheRefreshAheadMs;
+    }
+
+    public int getDiscoveryCacheMaxEntries() {
+        return discoveryCacheMaxEntries;
+    }
+
+    public boolean isDeflateEnabled() {
+        return deflateEnabled;
+    }
+
+    public int getDeflateLevel() {
+        return deflateLevel;
+    }
+
+    public boolean isDeflateContextTakeover() {
+        return deflateContextTakeover;
+    }
+
+    public int getDeflateClientMaxWindowBits() {
+        return deflateClientMaxWindowBits;
+    }
+
+    public int getDeflateMinSize() {
+        return deflateMinSize;
+    }
+
+    public String getDownstreamTransport() {
+        return downstreamTransport;
+    }
+
+    public String getDownstreamExecutor() {
+        return downstreamExecutor;
+    }
+
+    public int getDownstreamExecutorThreads() {
+        return downstreamExecutorThreads;
+    }
+
+    public int getDownstreamExecutorQueueSize() {
+        return downstreamExecutorQueueSize;
+    }
+
+    public int getDownstreamClientShards() {
+        return downstreamClientShards;
+    }
+
+    public String getDownstreamShardAssignment() {
+        return downstreamShardAssignment;
+    }
+
+    public boolean isCoalesceFlushes() {
+        return coalesceFlushes;
+    }
+
+    public int getCoalesceWindowMicros() {
+        return coalesceWindowMicros;
+    }
+
+    public int getHeartbeatIntervalMs() {
+        return heartbeatIntervalMs;
+    }
+
+    public int getHeartbeatTimeoutMs() {
+        return heartbeatTimeoutMs;
+    }
+
+    public Map<String, String> getServiceTransports() {
+        return serviceTransports;
+    }
+
+    public boolean isMetricsEnabled() {
+        return metricsEnabled;
+    }
+
     private void setConfigData() {
         if (mappedConfig != null) {
             Object object = mappedConfig.get("enabled");
@@ -143,8 +588,69 @@ public class WebSocketRouterConfig {
             if(object != null) defaultEnvTag = (String)object;
             object = mappedConfig.get(IDLE_TIMEOUT_MS);
             if(object != null) idleTimeoutMs = Config.loadIntegerValue(IDLE_TIMEOUT_MS, object);
+            object = mappedConfig.get(STREAMING_RELAY);
+            if(object != null) streamingRelay = Config.loadBooleanValue(STREAMING_RELAY, object);
+            object = mappedConfig.get(MAX_IN_FLIGHT_MESSAGES);
+            if(object != null) maxInFlightMessages = Config.loadIntegerValue(MAX_IN_FLIGHT_MESSAGES, object);
+            object = mappedConfig.get(MAX_IN_FLIGHT_BYTES);
+            if(object != null) maxInFlightBytes = Config.loadIntegerValue(MAX_IN_FLIGHT_BYTES, object);
+            object = mappedConfig.get(MULTIPLEX_ENABLED);
+            if(object != null) multiplexEnabled = Config.loadBooleanValue(MULTIPLEX_ENABLED, object);
+            object = mappedConfig.get(MULTIPLEX_CONNECTIONS_PER_SERVICE);
+            if(object != null) multiplexConnectionsPerService = Config.loadIntegerValue(MULTIPLEX_CONNECTIONS_PER_SERVICE, object);
+            object = mappedConfig.get(MULTIPLEX_PATH);
+            if(object != null && !((String)object).isBlank()) multiplexPath = (String)object;
+            object = mappedConfig.get(DOWNSTREAM_POOL_MIN_IDLE);
+            if(object != null) downstreamPoolMinIdle = Config.loadIntegerValue(DOWNSTREAM_POOL_MIN_IDLE, object);
+            object = mappedConfig.get(DOWNSTREAM_POOL_MAX_IDLE);
+            if(object != null) downstreamPoolMaxIdle = Config.loadIntegerValue(DOWNSTREAM_POOL_MAX_IDLE, object);
+            object = mappedConfig.get(DOWNSTREAM_POOL_MAX_AGE_MS);
+            if(object != null) downstreamPoolMaxAgeMs = Config.loadIntegerValue(DOWNSTREAM_POOL_MAX_AGE_MS, object);
+            object = mappedConfig.get(DOWNSTREAM_POOL_PATH);
+            if(object != null && !((String)object).isBlank()) downstreamPoolPath = (String)object;
+            object = mappedConfig.get(DISCOVERY_CACHE_TTL_MS);
+            if(object != null) discoveryCacheTtlMs = Config.loadIntegerValue(DISCOVERY_CACHE_TTL_MS, object);
+            object = mappedConfig.get(DISCOVERY_CACHE_NEGATIVE_TTL_MS);
+            if(object != null) discoveryCacheNegativeTtlMs = Config.loadIntegerValue(DISCOVERY_CACHE_NEGATIVE_TTL_MS, object);
+            object = mappedConfig.get(DISCOVERY_CACHE_REFRESH_AHEAD_MS);
+            if(object != null) discoveryCacheRefreshAheadMs = Config.loadIntegerValue(DISCOVERY_CACHE_REFRESH_AHEAD_MS, object);
+            object = mappedConfig.get(DISCOVERY_CACHE_MAX_ENTRIES);
+            if(object != null) discoveryCacheMaxEntries = Config.loadIntegerValue(DISCOVERY_CACHE_MAX_ENTRIES, object);
+            object = mappedConfig.get(DEFLATE_ENABLED);
+            if(object != null) deflateEnabled = Config.loadBooleanValue(DEFLATE_ENABLED, object);
+            object = mappedConfig.get(DEFLATE_LEVEL);
+            if(object != null) deflateLevel = Config.loadIntegerValue(DEFLATE_LEVEL, object);
+            object = mappedConfig.get(DEFLATE_CONTEXT_TAKEOVER);
+            if(object != null) deflateContextTakeover = Config.loadBooleanValue(DEFLATE_CONTEXT_TAKEOVER, object);
+            object = mappedConfig.get(DEFLATE_CLIENT_MAX_WINDOW_BITS);
+            if(object != null) deflateClientMaxWindowBits = Config.loadIntegerValue(DEFLATE_CLIENT_MAX_WINDOW_BITS, object);
+            object = mappedConfig.get(DEFLATE_MIN_SIZE);
+            if(object != null) deflateMinSize = Config.loadIntegerValue(DEFLATE_MIN_SIZE, object);
+            object = mappedConfig.get(DOWNSTREAM_TRANSPORT);
+            if(object != null && !((String)object).isBlank()) downstreamTransport = ((String)object).trim();
+            object = mappedConfig.get(DOWNSTREAM_EXECUTOR);
+            if(object != null && !((String)object).isBlank()) downstreamExecutor = ((String)object).trim();
+            object = mappedConfig.get(DOWNSTREAM_EXECUTOR_THREADS);
+            if(object != null) downstreamExecutorThreads = Config.loadIntegerValue(DOWNSTREAM_EXECUTOR_THREADS, object);
+            object = mappedConfig.get(DOWNSTREAM_EXECUTOR_QUEUE_SIZE);
+            if(object != null) downstreamExecutorQueueSize = Config.loadIntegerValue(DOWNSTREAM_EXECUTOR_QUEUE_SIZE, object);
+            object = mappedConfig.get(DOWNSTREAM_CLIENT_SHARDS);
+            if(object != null) downstreamClientShards = Config.loadIntegerValue(DOWNSTREAM_CLIENT_SHARDS, object);
+            object = mappedConfig.get(DOWNSTREAM_SHARD_ASSIGNMENT);
+            if(object != null && !((String)object).isBlank()) downstreamShardAssignment = ((String)object).trim();
+            object = mappedConfig.get(COALESCE_FLUSHES);
+            if(object != null) coalesceFlushes = Config.loadBooleanValue(COALESCE_FLUSHES, object);
+            object = mappedConfig.get(COALESCE_WINDOW_MICROS);
+            if(object != null) coalesceWindowMicros = Config.loadIntegerValue(COALESCE_WINDOW_MICROS, object);
+            object = mappedConfig.get(HEARTBEAT_INTERVAL_MS);
+            if(object != null) heartbeatIntervalMs = Config.loadIntegerValue(HEARTBEAT_INTERVAL_MS, object);
+            object = mappedConfig.get(HEARTBEAT_TIMEOUT_MS);
+            if(object != null) heartbeatTimeoutMs = Config.loadIntegerValue(HEARTBEAT_TIMEOUT_MS, object);
+            object = mappedConfig.get(METRICS_ENABLED);
+            if(object != null) metricsEnabled = Config.loadBooleanValue(METRICS_ENABLED, object);
         }
         setPathPrefixService();
+        setServiceTransports();
     }
 
     public void setPathPrefixService() {
@@ -182,6 +688,45 @@ public class WebSocketRouterConfig {
         }
     }
 
+    public void setServiceTransports() {
+        serviceTransports = new HashMap<>();
+        if (mappedConfig != null && mappedConfig.get(SERVICE_TRANSPORTS) != null) {
+            if (mappedConfig.get(SERVICE_TRANSPORTS) instanceof Map) {
+                for (Map.Entry<?, ?> entry : ((Map<?, ?>) mappedConfig.get(SERVICE_TRANSPORTS)).entrySet()) {
+                    if (entry.getKey() != null && entry.getValue() != null) {
+                        serviceTransports.put(entry.getKey().toString(), entry.getValue().toString().trim());
+                    }
+                }
+            } else if (mappedConfig.get(SERVICE_TRANSPORTS) instanceof String) {
+                String s = ((String)mappedConfig.get(SERVICE_TRANSPORTS)).trim();
+                if(s.startsWith("{")) {
+                    // json map
+                    try {
+                        Map<?, ?> parsed = Config.getInstance().getMapper().readValue(s, Map.class);
+                        for (Map.Entry<?, ?> entry : parsed.entrySet()) {
+                            if (entry.getKey() != null && entry.getValue() != null) {
+                                serviceTransports.put(entry.getKey().toString(), entry.getValue().toString().trim());
+                            }
+                        }
+                    } catch (IOException e) {
+                        logger.error("IOException:", e);
+                    }
+                } else if(!s.isEmpty()) {
+                    for(String keyValue : s.split(" *& *")) {
+                        String[] pairs = keyValue.split(" *= *", 2);
+                        if (pairs.length != 2) {
+                            logger.error("Invalid serviceTransports key/value segment: {}", keyValue);
+                            continue;
+                        }
+                        serviceTransports.put(pairs[0], pairs[1]);
+                    }
+                }
+            } else {
+                logger.error("serviceTransports is the wrong type. Only JSON map or YAML map is supported.");
+            }
+        }
+    }
+
     private Map<String, DiscoverableHost> normalizePathPrefixService(Map<?, ?> configuredMap) {
         Map<String, DiscoverableHost> normalized = new LinkedHashMap<>();
         for (Map.Entry<?, ?> entry : configuredMap.entrySet()) {
@@ -1,16 +1,23 @@
 package com.networknt.websocket.router;
 
+import com.networknt.balance.LoadBalance;
 import com.networknt.client.Http2Client;
 import com.networknt.cluster.Cluster;
 import com.networknt.cluster.DiscoverableHost;
 import com.networknt.handler.Handler;
 import com.networknt.handler.MiddlewareHandler;
 import com.networknt.service.SingletonServiceFactory;
+import com.networknt.websocket.client.WsDeflateHandshake;
+import com.networknt.websocket.client.WsFlushCoalescer;
+import com.networknt.websocket.client.WsHeartbeat;
+import com.networknt.websocket.client.WsMetrics;
+import com.networknt.websocket.client.WsRelayMetrics;
+import com.networknt.websocket.client.WsTimerWheel;
 import io.undertow.Handlers;
 import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpServerExchange;
+import io.undertow.util.AttachmentKey;
 import io.undertow.util.HeaderValues;
-import io.undertow.util.HttpString;
 import io.undertow.util.PathMatcher;
 import io.undertow.websockets.WebSocketConnectionCallback;
 import io.undertow.websockets.WebSocketProtocolHandshakeHandler;
@@ -26,30 +33,57 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.net.ssl.SSLContext;
-import java.net.URI;
 import java.net.http.HttpClient;
-import java.net.http.WebSocket;
 import java.util.*;
-import java.util.concurrent.CompletableFuture;
 
 /**
  * WebSocket router handler that proxies WebSocket connections from the frontend
- * (client) to the backend service. Uses JDK HttpClient for the backend WebSocket
- * connection to support TLS 1.3.
+ * (client) to the backend service. The backend WebSocket connection is opened by the
+ * {@link DownstreamTransport} of the service, the JDK HttpClient by default to support TLS 1.3.
  */
 public class WebSocketRouterHandler implements MiddlewareHandler {
     private static final Logger LOG = LoggerFactory.getLogger(WebSocketRouterHandler.class);
-
-    private final WebSocketRouterConfig config = WebSocketRouterConfig.load();
+    // sub-protocols requested by the client, parsed once during the upgrade
+    private static final AttachmentKey<List<String>> SUBPROTOCOLS = AttachmentKey.create(List.class);
+    private static final int MAX_HANDSHAKE_HANDLERS = 64;
+    private static final String METRICS_MODULE = "router";
+    // service label of the connections whose service was not found, the service id of the client is unbounded
+    static final String UNKNOWN_SERVICE = "unknown";
+
+    private final WebSocketRouterConfig config;
     private final Cluster cluster = SingletonServiceFactory.getBean(Cluster.class);
     private final PathMatcher<DiscoverableHost> pathMatcher;
     private final WebSocketConnectionCallback wsHandshakeCallback;
     private final HttpHandler wsHandshakeNext;
-    private final HttpClient httpClient;
+    private final HttpHandler defaultHandshakeHandler;
+    // handshake handlers per Sec-WebSocket-Protocol header value, least recently used first
+    private final Map<String, ProtocolHandshake> protocolHandshakes = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ProtocolHandshake> eldest) {
+            return size() > MAX_HANDSHAKE_HANDLERS;
+        }
+    };
+    private final WsMetrics metrics;
+    private final DownstreamClientShards clientShards;
+    private final MultiplexedDownstreamManager multiplexManager;
+    private final DownstreamServiceCache serviceCache;
+    private final DownstreamTransport jdkTransport;
+    private final DownstreamTransport undertowTransport;
+    private final WsHeartbeat heartbeat;
 
     private volatile HttpHandler next;
 
     public WebSocketRouterHandler() {
+        this(WebSocketRouterConfig.CONFIG_NAME);
+    }
+
+    /**
+     * @param configName name of the router config, websocket-router by default
+     */
+    public WebSocketRouterHandler(String configName) {
+        config = WebSocketRouterConfig.load(configName);
+        metrics = WsMetrics.of(config.isMetricsEnabled());
+
         // build path prefix mappings
         pathMatcher = new PathMatcher<>();
         if (config.getPathPrefixService() != null) {
@@ -58,6 +92,46 @@ public class WebSocketRouterHandler implements MiddlewareHandler {
             }
         }
 
+        // build http clients
+        HttpClient.Builder httpClientBuilder = HttpClient.newBuilder();
+        SSLContext sslContext = null;
+        try {
+            sslContext = Http2Client.createSSLContext();
+            if(sslContext != null) {
+                httpClientBuilder.sslContext(sslContext);
+            } else {
+                LOG.warn("SSL context is null. Secure downstream connections are not available");
+            }
+        } catch(Exception e) {
+            LOG.warn("Failed to create SSLContext. Secure downstream connections are not available", e);
+        }
+        DownstreamExecutor downstreamExecutor = DownstreamExecutor.create(config, metrics);
+        if(downstreamExecutor != null) {
+            httpClientBuilder.executor(downstreamExecutor);
+        }
+        int shardCount = config.getDownstreamClientShards() > 0 ?
+                config.getDownstreamClientShards() : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        clientShards = new DownstreamClientShards(shardCount, config.getDownstreamShardAssignment(), httpClientBuilder::build, metrics);
+        LOG.info("Downstream connections spread over {} HttpClient shard(s) by {}", shardCount, config.getDownstreamShardAssignment());
+
+        // build heartbeat, one timer wheel for all connections
+        heartbeat = config.getHeartbeatIntervalMs() > 0 ?
+                new WsHeartbeat(new WsTimerWheel("websocket-router-heartbeat"), config.getHeartbeatIntervalMs(), config.getHeartbeatTimeoutMs(),
+                        metrics, METRICS_MODULE) : null;
+
+        // build downstream transports
+        jdkTransport = new JdkDownstreamTransport(clientShards, config, heartbeat,
+                service -> resolveServiceURL(service, config.getDownstreamPoolPath()), metrics);
+        undertowTransport = new UndertowDownstreamTransport(config, sslContext, heartbeat);
+
+        // build service discovery cache
+        serviceCache = config.getDiscoveryCacheTtlMs() > 0 ? createServiceCache() : null;
+
+        // build multiplexed downstream connections
+        multiplexManager = config.isMultiplexEnabled() ?
+                new MultiplexedDownstreamManager(clientShards, service -> resolveServiceURL(service, config.getMultiplexPath()), config.getMultiplexConnectionsPerService(),
+                        config.getMaxInFlightMessages(), config.getMaxInFlightBytes(), heartbeat, metrics) : null;
+
         // build ws handshake connection callback
         wsHandshakeCallback = (exchange, channel) -> {
             channel.setIdleTimeout(config.getIdleTimeoutMs());
@@ -65,25 +139,46 @@ public class WebSocketRouterHandler implements MiddlewareHandler {
             // get service details
             DiscoverableHost downstreamService = getDownstreamService(exchange);
             if(downstreamService == null) {
+                metrics.relay(METRICS_MODULE, UNKNOWN_SERVICE).connectionOpened(channel);
                 LOG.warn("No downstream service entry found for request URI: {}", exchange.getRequestURI());
                 WebSockets.sendClose(CloseMessage.MSG_VIOLATES_POLICY, "No downstream service entry found for this URI", channel, null);
                 return;
             }
             LOG.trace("Found downstream service entry for request URI: {}", exchange.getRequestURI());
 
+            String authHeader = exchange.getRequestHeader("Authorization");
+            String authorization = authHeader != null && !authHeader.isBlank() ? authHeader : null;
+            List<String> protocols = exchange.getAttachment(SUBPROTOCOLS);
+            if(protocols == null) {
+                protocols = List.of();
+            }
+
+            // share a downstream connection of the service
+            if(multiplexManager != null) {
+                multiplexManager.open(downstreamService, UUID.randomUUID().toString(), exchange.getRequestURI(), authorization, protocols, channel,
+                        relayMetrics -> prepareUpstream(channel, relayMetrics));
+                return;
+            }
+
             // discover downstream host
-            String downstreamHost = cluster.serviceToUrl(downstreamService.protocol(), downstreamService.serviceId(), null, downstreamService.envTag());
+            String downstreamHost = discoverDownstreamHost(downstreamService);
             if(downstreamHost == null || downstreamHost.isBlank()) {
+                metrics.relay(METRICS_MODULE, UNKNOWN_SERVICE).connectionOpened(channel);
                 LOG.warn("Failed to discover downstream host from service entry");
                 WebSockets.sendClose(CloseMessage.UNEXPECTED_ERROR, "Failed to discover downstream host from service entry", channel, null);
                 return;
             }
             LOG.trace("Discovered downstream host {} for service {}", downstreamHost, downstreamService.serviceId());
+            // the service id comes from the client, it only becomes a label once discovery found the service
+            WsRelayMetrics relayMetrics = metrics.relay(METRICS_MODULE, downstreamService.serviceId());
+            prepareUpstream(channel, relayMetrics);
 
             // start connecting to downstream server
-            String wsURL = resolveWebSocketURL(downstreamHost, exchange);
+            String wsURL = resolveWebSocketURL(downstreamHost, exchange.getRequestURI(), exchange.getQueryString());
             String pairId = UUID.randomUUID().toString();
-            if(startDownstreamConnection(wsURL, exchange, pairId, channel) == null) {
+            DownstreamTransport.DownstreamRequest request = new DownstreamTransport.DownstreamRequest(pairId, downstreamService, wsURL,
+                    authorization, protocols, channel, relayMetrics);
+            if(!getDownstreamTransport(downstreamService.serviceId()).connect(request)) {
                 LOG.warn("Failed to initiate connection to downstream server at {}", wsURL);
                 WebSockets.sendClose(CloseMessage.UNEXPECTED_ERROR, "Failed to initiate connection to downstream server", channel, null);
                 return;
@@ -93,20 +188,7 @@ public class WebSocketRouterHandler implements MiddlewareHandler {
 
         // build ws handshake next handler
         wsHandshakeNext = exchange -> Handler.next(exchange, next);
-
-        // build http client
-        HttpClient.Builder httpClientBuilder = HttpClient.newBuilder();
-        try {
-            SSLContext sslContext = Http2Client.createSSLContext();
-            if(sslContext != null) {
-                httpClientBuilder.sslContext(sslContext);
-            } else {
-                LOG.warn("SSL context is null. Secure downstream connections are not available");
-            }
-        } catch(Exception e) {
-            LOG.warn("Failed to create SSLContext. Secure downstream connections are not available", e);
-        }
-        httpClient = httpClientBuilder.build();
+        defaultHandshakeHandler = withExtensions(new WebSocketProtocolHandshakeHandler(wsHandshakeCallback, wsHandshakeNext));
 
         LOG.info("WebSocketRouterHandler loaded");
     }
@@ -115,16 +197,12 @@ public class WebSocketRouterHandler implements MiddlewareHandler {
     public void handleRequest(HttpServerExchange exchange) throws Exception {
         LOG.trace("Start WebSocketRouterHandler for {}", exchange.getRequestPath());
 
-        Set<String> protocols = getProtocols(exchange);
-        if(!protocols.isEmpty()) {
-            exchange.getRequestHeaders().add(HttpString.tryFromString("X-Processed-Protocols"), String.join(",", protocols));
-            Collection<Handshake> handshakes = new ArrayList<>();
-            handshakes.add(new Hybi13Handshake(protocols, true));
-            handshakes.add(new Hybi08Handshake(protocols, true));
-            handshakes.add(new Hybi07Handshake(protocols, true));
-            new WebSocketProtocolHandshakeHandler(handshakes, wsHandshakeCallback, wsHandshakeNext).handleRequest(exchange);
+        ProtocolHandshake protocolHandshake = getProtocolHandshake(exchange);
+        if(protocolHandshake != null) {
+            exchange.putAttachment(SUBPROTOCOLS, protocolHandshake.protocols());
+            protocolHandshake.handler().handleRequest(exchange);
         } else {
-            new WebSocketProtocolHandshakeHandler(wsHandshakeCallback, wsHandshakeNext).handleRequest(exchange);
+            defaultHandshakeHandler.handleRequest(exchange);
         }
 
         LOG.trace("End WebSocketRouterHandler for {}", exchange.getRequestPath());
@@ -147,23 +225,65 @@ public class WebSocketRouterHandler implements MiddlewareHandler {
         return config.isEnabled();
     }
 
-    private Set<String> getProtocols(HttpServerExchange exchange) {
-        Set<String> protocols = new LinkedHashSet<>();
-
+    /**
+     * Handshake handlers only depend on the requested sub-protocols, so they are built once per
+     * distinct header value and reused.
+     */
+    private ProtocolHandshake getProtocolHandshake(HttpServerExchange exchange) {
         HeaderValues protocolHeader = exchange.getRequestHeaders().get("Sec-WebSocket-Protocol");
-        if(protocolHeader != null && !protocolHeader.isEmpty()) {
-            for(String headerValue : protocolHeader) {
-                String[] tokens = headerValue.split("\\s*,\\s*");
-                for(String protocol : tokens) {
-                    if(!protocol.isBlank()) {
-                        protocols.add(protocol);
-                    }
-                }
+        if(protocolHeader == null || protocolHeader.isEmpty()) {
+            return null;
+        }
+        String headerValue = protocolHeader.size() == 1 ? protocolHeader.getFirst() : String.join(",", protocolHeader);
+        synchronized (protocolHandshakes) {
+            ProtocolHandshake protocolHandshake = protocolHandshakes.get(headerValue);
+            if(protocolHandshake != null) {
+                return protocolHandshake;
             }
-            LOG.trace("{} protocol(s) found on request {}", protocols.size(), exchange.getRequestPath());
         }
 
-        return protocols;
+        List<String> protocols = getProtocols(protocolHeader);
+        if(protocols.isEmpty()) {
+            return null;
+        }
+        LOG.trace("{} protocol(s) found on request {}", protocols.size(), exchange.getRequestPath());
+        Set<String> protocolSet = new LinkedHashSet<>(protocols);
+        Collection<Handshake> handshakes = new ArrayList<>();
+        handshakes.add(new Hybi13Handshake(protocolSet, true));
+        handshakes.add(new Hybi08Handshake(protocolSet, true));
+        handshakes.add(new Hybi07Handshake(protocolSet, true));
+        ProtocolHandshake created = new ProtocolHandshake(protocols,
+                withExtensions(new WebSocketProtocolHandshakeHandler(handshakes, wsHandshakeCallback, wsHandshakeNext)));
+        synchronized (protocolHandshakes) {
+            ProtocolHandshake existing = protocolHandshakes.putIfAbsent(headerValue, created);
+            return existing != null ? existing : created;
+        }
+    }
+
+    /**
+     * permessage-deflate applies to the client connections only. The JDK WebSocket of the
+     * downstream does not negotiate extensions, so messages are inflated on the way in and
+     * deflated on the way out.
+     */
+    private WebSocketProtocolHandshakeHandler withExtensions(WebSocketProtocolHandshakeHandler handshakeHandler) {
+        if(config.isDeflateEnabled()) {
+            handshakeHandler.addExtension(new WsDeflateHandshake(config.getDeflateLevel(), config.isDeflateContextTakeover(),
+                    config.getDeflateClientMaxWindowBits(), config.getDeflateMinSize()));
+        }
+        return handshakeHandler;
+    }
+
+    private List<String> getProtocols(HeaderValues protocolHeader) {
+        Set<String> protocols = new LinkedHashSet<>();
+        for(String headerValue : protocolHeader) {
+            String[] tokens = headerValue.split("\\s*,\\s*");
+            for(String protocol : tokens) {
+                if(!protocol.isBlank()) {
+                    protocols.add(protocol);
+                }
+            }
+        }
+        return List.copyOf(protocols);
     }
 
     private DiscoverableHost getDownstreamService(WebSocketHttpExchange exchange) {
@@ -229,14 +349,69 @@ public class WebSocketRouterHandler implements MiddlewareHandler {
         }
     }
 
-    private String resolveWebSocketURL(String downstreamHost, WebSocketHttpExchange exchange) {
-        String wsBaseURL = downstreamHost.startsWith("https://") ?
+    /**
+     * The cache selects the instances with the load balance of the cluster, without one the
+     * lookups go to the cluster every time.
+     */
+    private DownstreamServiceCache createServiceCache() {
+        LoadBalance loadBalance = SingletonServiceFactory.getBean(LoadBalance.class);
+        if(loadBalance == null) {
+            LOG.warn("No LoadBalance is configured. The discovery cache is disabled");
+            return null;
+        }
+        return new DownstreamServiceCache(cluster, loadBalance, config.getDiscoveryCacheTtlMs(), config.getDiscoveryCacheNegativeTtlMs(),
+                config.getDiscoveryCacheRefreshAheadMs(), config.getDiscoveryCacheMaxEntries(), metrics);
+    }
+
+    /**
+     * Count the upstream channel in the relay meters and attach the flush coalescer, before the
+     * first message is relayed to the channel.
+     */
+    private void prepareUpstream(WebSocketChannel channel, WsRelayMetrics relayMetrics) {
+        relayMetrics.connectionOpened(channel);
+        if(config.isCoalesceFlushes()) {
+            WsFlushCoalescer.attach(channel, config.getCoalesceWindowMicros(), relayMetrics);
+        }
+    }
+
+    private String discoverDownstreamHost(DiscoverableHost downstreamService) {
+        if(serviceCache != null) {
+            return serviceCache.resolve(downstreamService);
+        }
+        return cluster.serviceToUrl(downstreamService.protocol(), downstreamService.serviceId(), null, downstreamService.envTag());
+    }
+
+    /**
+     * Resolve the URL of a fixed path on an instance of the service, like the multiplexed endpoint
+     * or the path of the pooled connections.
+     */
+    private String resolveServiceURL(DiscoverableHost downstreamService, String path) {
+        String downstreamHost = discoverDownstreamHost(downstreamService);
+        if(downstreamHost == null || downstreamHost.isBlank()) {
+            LOG.warn("Failed to discover downstream host for service {}", downstreamService.serviceId());
+            return null;
+        }
+        String wsTargetURL = toWebSocketBaseURL(downstreamHost) + path;
+        LOG.trace("WebSocket URL of service {} resolved to {}", downstreamService.serviceId(), wsTargetURL);
+        return wsTargetURL;
+    }
+
+    private static String toWebSocketBaseURL(String downstreamHost) {
+        return downstreamHost.startsWith("https://") ?
                 "wss://" + downstreamHost.substring("https://".length()) :
                 "ws://" + downstreamHost.substring("http://".length());
+    }
+
+    /**
+     * Build the downstream WebSocket URL from the discovered host and the client request, with the
+     * router parameters removed from the query string.
+     */
+    static String resolveWebSocketURL(String downstreamHost, String requestURI, String queryString) {
+        String wsBaseURL = toWebSocketBaseURL(downstreamHost);
 
         String wsTargetURL;
-        if(exchange.getQueryString().length() > 0) {
-            String[] queryParams = exchange.getQueryString().split("&");
+        if(queryString.length() > 0) {
+            String[] queryParams = queryString.split("&");
 
             StringBuilder cleanedQueryString = new StringBuilder("?");
             for(String s : queryParams) {
@@ -254,12 +429,12 @@ public class WebSocketRouterHandler implements MiddlewareHandler {
                 cleanedQueryString.append(s);
             }
 
-            String requestPath = exchange.getRequestURI().substring(0,  exchange.getRequestURI().indexOf('?'));
+            String requestPath = requestURI.substring(0, requestURI.indexOf('?'));
             wsTargetURL = cleanedQueryString.length() > 1 ?
                     wsBaseURL + requestPath + cleanedQueryString :
                     wsBaseURL + requestPath;
         } else {
-            wsTargetURL = wsBaseURL + exchange.getRequestURI();
+            wsTargetURL = wsBaseURL + requestURI;
         }
 
         LOG.trace("WebSocket URL resolved to {}", wsTargetURL);
@@ -292,7 +467,7 @@ public class WebSocketRouterHandler implements MiddlewareHandler {
         return null;
     }
 
-    private boolean isRouterParameter(String parameterName) {
+    private static boolean isRouterParameter(String parameterName) {
         return "protocol".equals(parameterName)
                 || "service_id".equals(parameterName)
                 || "serviceId".equals(parameterName)
@@ -300,43 +475,11 @@ public class WebSocketRouterHandler implements MiddlewareHandler {
                 || "envTag".equals(parameterName);
     }
 
-    private CompletableFuture<WebSocket> startDownstreamConnection(String wsURL, WebSocketHttpExchange exchange, String pairId, WebSocketChannel upstreamChannel) {
-        WebSocket.Builder wsBuilder = httpClient.newWebSocketBuilder();
-
-        String authHeader = exchange.getRequestHeader("Authorization");
-        if (authHeader != null && !authHeader.isBlank()) {
-            wsBuilder.header("Authorization", authHeader);
-        }
-
-        String protocolHeader = exchange.getRequestHeader("X-Processed-Protocols");
-        if (protocolHeader != null && !protocolHeader.isBlank()) {
-            String[] protocols = protocolHeader.split(",");
-            if(protocols.length == 1) {
-                wsBuilder.subprotocols(protocols[0]);
-            } else {
-                String firstProtocol = protocols[0];
-                String[] otherProtocols = new String[protocols.length - 1];
-                System.arraycopy(protocols, 1, otherProtocols, 0, protocols.length - 1);
-                wsBuilder.subprotocols(firstProtocol, otherProtocols);
-            }
-        }
+    private DownstreamTransport getDownstreamTransport(String serviceId) {
+        String transport = config.getServiceTransports().getOrDefault(serviceId, config.getDownstreamTransport());
+        return DownstreamTransport.UNDERTOW.equals(transport) ? undertowTransport : jdkTransport;
+    }
 
-        try {
-            return wsBuilder.buildAsync(new URI(wsURL), new DownstreamReceiveListener(pairId, upstreamChannel))
-                    .whenComplete((downstream, throwable) -> {
-                        if(throwable != null) {
-                            LOG.error("Failed to connect to downstream server at {}", wsURL, throwable);
-                            WebSockets.sendClose(CloseMessage.UNEXPECTED_ERROR, "Failed to connect to downstream server", upstreamChannel, null);
-                            return;
-                        }
-
-                        upstreamChannel.getReceiveSetter().set(new UpstreamReceiveListener(pairId, downstream));
-                        upstreamChannel.resumeReceives();
-                        LOG.trace("Established pair {} for {}", pairId, exchange.getRequestURI());
-                    });
-        } catch(Exception e) {
-            LOG.error("Failed to create downstream connection builder for {}", wsURL, e);
-            return null;
-        }
+    private record ProtocolHandshake(List<String> protocols, WebSocketProtocolHandshakeHandler handler) {
     }
 }
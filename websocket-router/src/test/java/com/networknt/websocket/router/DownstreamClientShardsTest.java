@@ -0,0 +1,109 @@
+package com.networknt.websocket.router;
+
+import com.networknt.websocket.client.WsMetrics;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.net.http.WebSocket;
+import java.util.HashSet;
+import java.util.Set;
+
+class DownstreamClientShardsTest {
+    private static final WebSocket.Listener LISTENER = new WebSocket.Listener() {
+    };
+
+    private static DownstreamClientShards shards(int count, String assignment) {
+        return new DownstreamClientShards(count, assignment, FakeHttpClient::new, WsMetrics.NOOP);
+    }
+
+    @Test
+    public void testEveryShardHasItsOwnClient() {
+        DownstreamClientShards shards = shards(4, DownstreamClientShards.HASH);
+        Assertions.assertEquals(4, shards.size());
+        Set<Object> clients = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            clients.add(shards.select("pair-" + i).getHttpClient());
+        }
+        Assertions.assertEquals(4, clients.size());
+    }
+
+    @Test
+    public void testAtLeastOneShard() {
+        Assertions.assertEquals(1, shards(0, DownstreamClientShards.HASH).size());
+    }
+
+    @Test
+    public void testHashKeepsAPairOnItsShard() {
+        DownstreamClientShards shards = shards(4, DownstreamClientShards.HASH);
+        DownstreamClientShards.Shard shard = shards.select("pair-1");
+        // connections on the shard do not move the pair
+        shard.track(LISTENER);
+        shard.track(LISTENER);
+        Assertions.assertSame(shard, shards.select("pair-1"));
+        Assertions.assertSame(shard, shards.forKey("pair-1"));
+    }
+
+    @Test
+    public void testLeastConnections() {
+        DownstreamClientShards shards = shards(3, DownstreamClientShards.LEAST_CONNECTIONS);
+        Set<DownstreamClientShards.Shard> used = new HashSet<>();
+        for (int i = 0; i < 3; i++) {
+            DownstreamClientShards.Shard shard = shards.select("pair-" + i);
+            shard.track(LISTENER);
+            used.add(shard);
+        }
+        // each of the first three went to an empty shard
+        Assertions.assertEquals(3, used.size());
+
+        DownstreamClientShards.Shard busy = shards.select("pair-3");
+        DownstreamClientShards.TrackedListener tracked = busy.track(LISTENER);
+        Assertions.assertEquals(2, busy.getConnections());
+        Assertions.assertNotSame(busy, shards.select("pair-4"));
+        tracked.release();
+        Assertions.assertEquals(1, busy.getConnections());
+    }
+
+    @Test
+    public void testForKeyIgnoresTheAssignment() {
+        DownstreamClientShards shards = shards(3, DownstreamClientShards.LEAST_CONNECTIONS);
+        DownstreamClientShards.Shard shard = shards.forKey("service");
+        shard.track(LISTENER);
+        Assertions.assertSame(shard, shards.forKey("service"));
+    }
+
+    @Test
+    public void testReleaseOnlyOnce() {
+        DownstreamClientShards.Shard shard = shards(1, DownstreamClientShards.HASH).select("pair");
+        DownstreamClientShards.TrackedListener tracked = shard.track(LISTENER);
+        Assertions.assertEquals(1, shard.getConnections());
+        tracked.release();
+        tracked.release();
+        Assertions.assertEquals(0, shard.getConnections());
+    }
+
+    @Test
+    public void testCloseAndErrorRelease() {
+        DownstreamClientShards.Shard shard = shards(1, DownstreamClientShards.HASH).select("pair");
+        FakeWebSocket webSocket = new FakeWebSocket();
+        DownstreamClientShards.TrackedListener closed = shard.track(LISTENER);
+        DownstreamClientShards.TrackedListener failed = shard.track(LISTENER);
+        Assertions.assertEquals(2, shard.getConnections());
+        closed.onClose(webSocket, WebSocket.NORMAL_CLOSURE, "");
+        Assertions.assertEquals(1, shard.getConnections());
+        failed.onError(webSocket, new IllegalStateException("expected"));
+        Assertions.assertEquals(0, shard.getConnections());
+        // a late close after the error is not counted twice
+        failed.onClose(webSocket, WebSocket.NORMAL_CLOSURE, "");
+        Assertions.assertEquals(0, shard.getConnections());
+    }
+
+    @Test
+    public void testAbortReleases() {
+        DownstreamClientShards.Shard shard = shards(1, DownstreamClientShards.HASH).select("pair");
+        FakeWebSocket webSocket = new FakeWebSocket();
+        DownstreamClientShards.TrackedListener tracked = shard.track(LISTENER);
+        tracked.abort(webSocket);
+        Assertions.assertTrue(webSocket.aborted);
+        Assertions.assertEquals(0, shard.getConnections());
+    }
+}
@@ -0,0 +1,146 @@
+package com.networknt.websocket.router;
+
+import com.networknt.websocket.client.WsMetrics;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.net.http.WebSocket;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class DownstreamConnectionPoolTest {
+    private static final String URL = "ws://127.0.0.1:8080/chat";
+    private static final long MAX_AGE_MS = 60000;
+
+    private final FakeHttpClient client = new FakeHttpClient();
+
+    // the hits and misses are read from the meters, every pool gets its own
+    private static final AtomicInteger SERVICES = new AtomicInteger();
+
+    private DownstreamConnectionPool pool(int minIdle, int maxIdle, long maxAgeMs) {
+        String serviceId = "com.networknt.pool-test-" + SERVICES.incrementAndGet();
+        return new DownstreamConnectionPool(serviceId, () -> URL, client, minIdle, maxIdle, maxAgeMs, WsMetrics.getInstance());
+    }
+
+    /**
+     * The listener of a pair, records what is delegated to it.
+     */
+    private static final class PairListener implements WebSocket.Listener {
+        private final StringBuilder received = new StringBuilder();
+        private int closed;
+
+        @Override
+        public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+            received.append(data);
+            return null;
+        }
+
+        @Override
+        public CompletionStage<?> onClose(WebSocket webSocket, int statusCode, String reason) {
+            closed = statusCode;
+            return null;
+        }
+    }
+
+    @Test
+    public void testClaimBeforeOnOpen() {
+        DownstreamConnectionPool pool = pool(2, 4, MAX_AGE_MS);
+        pool.refill();
+        Assertions.assertEquals(2, pool.getIdleCount());
+        // onOpen of the listeners has not run yet
+        WebSocket claimed = pool.claim(new PairListener());
+        Assertions.assertSame(client.webSockets.get(0), claimed);
+        Assertions.assertEquals(1, pool.getHits());
+        // refilled in the background
+        Assertions.assertEquals(2, pool.getIdleCount());
+        Assertions.assertEquals(3, client.webSockets.size());
+    }
+
+    @Test
+    public void testMessageBeforeClaimIsHeld() {
+        DownstreamConnectionPool pool = pool(1, 1, MAX_AGE_MS);
+        pool.refill();
+        WebSocket.Listener idle = client.listeners.get(0);
+        FakeWebSocket webSocket = client.webSockets.get(0);
+        idle.onOpen(webSocket);
+        Assertions.assertEquals(1, webSocket.requested);
+        CompletionStage<?> held = idle.onText(webSocket, "early", true);
+        Assertions.assertFalse(held.toCompletableFuture().isDone());
+
+        PairListener pair = new PairListener();
+        Assertions.assertSame(webSocket, pool.claim(pair));
+        Assertions.assertEquals("early", pair.received.toString());
+        idle.onClose(webSocket, 1001, "");
+        Assertions.assertEquals(1001, pair.closed);
+    }
+
+    @Test
+    public void testBackendCloseWhileIdle() {
+        DownstreamConnectionPool pool = pool(2, 2, MAX_AGE_MS);
+        pool.refill();
+        client.listeners.get(0).onClose(client.webSockets.get(0), 1001, "going away");
+        Assertions.assertEquals(1, pool.getIdleCount());
+        client.listeners.get(1).onError(client.webSockets.get(1), new IllegalStateException("expected"));
+        Assertions.assertEquals(0, pool.getIdleCount());
+
+        // nothing left to claim, the miss refills the pool
+        Assertions.assertNull(pool.claim(new PairListener()));
+        Assertions.assertEquals(1, pool.getMisses());
+        Assertions.assertEquals(2, pool.getIdleCount());
+    }
+
+    @Test
+    public void testOutputClosedWhileIdleIsSkipped() {
+        DownstreamConnectionPool pool = pool(2, 2, MAX_AGE_MS);
+        pool.refill();
+        client.webSockets.get(0).outputClosed = true;
+        Assertions.assertSame(client.webSockets.get(1), pool.claim(new PairListener()));
+    }
+
+    @Test
+    public void testExpiredConnectionsAreNotClaimed() {
+        DownstreamConnectionPool pool = pool(2, 2, 0);
+        pool.refill();
+        List<FakeWebSocket> expired = List.copyOf(client.webSockets);
+        Assertions.assertNull(pool.claim(new PairListener()));
+        Assertions.assertEquals(1, pool.getMisses());
+        for (FakeWebSocket webSocket : expired) {
+            Assertions.assertEquals(List.of("close:" + WebSocket.NORMAL_CLOSURE), webSocket.sent);
+            webSocket.completeNext();
+            Assertions.assertTrue(webSocket.aborted);
+        }
+    }
+
+    @Test
+    public void testSweepReplacesExpiredConnections() {
+        DownstreamConnectionPool pool = pool(1, 1, 0);
+        pool.refill();
+        FakeWebSocket expired = client.webSockets.get(0);
+        pool.sweep();
+        Assertions.assertEquals(List.of("close:" + WebSocket.NORMAL_CLOSURE), expired.sent);
+        Assertions.assertEquals(2, client.webSockets.size());
+        Assertions.assertEquals(1, pool.getIdleCount());
+    }
+
+    @Test
+    public void testSweepKeepsFreshConnections() {
+        DownstreamConnectionPool pool = pool(1, 1, MAX_AGE_MS);
+        pool.refill();
+        pool.sweep();
+        Assertions.assertTrue(client.webSockets.get(0).sent.isEmpty());
+        Assertions.assertEquals(1, client.webSockets.size());
+    }
+
+    @Test
+    public void testFailedOpenIsRetriedOnTheNextRefill() {
+        DownstreamConnectionPool pool = pool(1, 1, MAX_AGE_MS);
+        client.fail = true;
+        pool.refill();
+        Assertions.assertEquals(0, pool.getIdleCount());
+        client.fail = false;
+        pool.refill();
+        Assertions.assertEquals(1, pool.getIdleCount());
+        Assertions.assertEquals(2, client.uris.size());
+    }
+}
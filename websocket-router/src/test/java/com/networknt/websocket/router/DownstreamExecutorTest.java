@@ -0,0 +1,71 @@
+package com.networknt.websocket.router;
+
+import com.networknt.websocket.client.WsMetrics;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+class DownstreamExecutorTest {
+    private static final long TIMEOUT_MS = 5000;
+
+    @Test
+    public void testOverflowRunsOffTheSubmittingThread() throws InterruptedException {
+        WsMetrics.Counter overflows = WsMetrics.getInstance().counter("test_downstream_overflows_total", "Overflows.");
+        CountDownLatch ran = new CountDownLatch(1);
+        AtomicBoolean overflow = new AtomicBoolean();
+        AtomicReference<Thread> thread = new AtomicReference<>();
+        DownstreamExecutor.overflow(() -> {
+            overflow.set(DownstreamExecutor.isOverflow());
+            thread.set(Thread.currentThread());
+            ran.countDown();
+        }, overflows);
+        Assertions.assertTrue(ran.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        Assertions.assertTrue(overflow.get());
+        Assertions.assertNotSame(Thread.currentThread(), thread.get());
+        Assertions.assertFalse(DownstreamExecutor.isOverflow());
+        Assertions.assertEquals(1, overflows.count());
+    }
+
+    @Test
+    public void testFullPoolOverflowsInsteadOfRunningOnTheCaller() throws InterruptedException {
+        WsMetrics.Counter overflows = WsMetrics.getInstance().counter("test_downstream_full_overflows_total", "Overflows.");
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(1),
+                (task, executor) -> DownstreamExecutor.overflow(task, overflows));
+        try {
+            CountDownLatch release = new CountDownLatch(1);
+            CountDownLatch done = new CountDownLatch(3);
+            AtomicBoolean onCaller = new AtomicBoolean();
+            AtomicBoolean overflowed = new AtomicBoolean();
+            Thread caller = Thread.currentThread();
+            Runnable blocked = () -> {
+                try {
+                    release.await(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                done.countDown();
+            };
+            // one running, one queued, the third does not fit
+            pool.execute(blocked);
+            pool.execute(blocked);
+            pool.execute(() -> {
+                onCaller.set(Thread.currentThread() == caller);
+                overflowed.set(DownstreamExecutor.isOverflow());
+                done.countDown();
+            });
+            release.countDown();
+            Assertions.assertTrue(done.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+            Assertions.assertFalse(onCaller.get());
+            Assertions.assertTrue(overflowed.get());
+            Assertions.assertEquals(1, overflows.count());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
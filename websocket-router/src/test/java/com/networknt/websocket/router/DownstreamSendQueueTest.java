@@ -0,0 +1,188 @@
+package com.networknt.websocket.router;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.net.http.WebSocket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+class DownstreamSendQueueTest {
+
+    /**
+     * Counts the suspends and resumes of the upstream instead of touching a channel.
+     */
+    private static final class RecordingQueue extends DownstreamSendQueue {
+        private int suspends;
+        private int resumes;
+
+        private RecordingQueue(FakeWebSocket webSocket, int maxInFlightMessages, long maxInFlightBytes) {
+            super("pair", new DownstreamSendChain(webSocket), null, maxInFlightMessages, maxInFlightBytes);
+        }
+
+        @Override
+        boolean suspendUpstream() {
+            suspends++;
+            return true;
+        }
+
+        @Override
+        void resumeUpstream() {
+            resumes++;
+        }
+    }
+
+    @Test
+    public void testChainSendsOneAtATime() {
+        FakeWebSocket webSocket = new FakeWebSocket();
+        DownstreamSendChain chain = new DownstreamSendChain(webSocket);
+        CompletableFuture<WebSocket> first = chain.submit(ws -> ws.sendText("a", true));
+        CompletableFuture<WebSocket> second = chain.submit(ws -> ws.sendText("b", true));
+        CompletableFuture<WebSocket> third = chain.submit(ws -> ws.sendClose(1000, ""));
+        Assertions.assertEquals(List.of("text:a"), webSocket.sent);
+
+        webSocket.completeNext();
+        Assertions.assertTrue(first.isDone());
+        Assertions.assertEquals(List.of("text:a", "text:b"), webSocket.sent);
+        webSocket.completeNext();
+        webSocket.completeNext();
+        Assertions.assertTrue(second.isDone() && third.isDone());
+        Assertions.assertEquals(List.of("text:a", "text:b", "close:1000"), webSocket.sent);
+    }
+
+    @Test
+    public void testChainContinuesAfterAFailure() {
+        FakeWebSocket webSocket = new FakeWebSocket();
+        DownstreamSendChain chain = new DownstreamSendChain(webSocket);
+        CompletableFuture<WebSocket> failed = chain.submit(ws -> ws.sendText("a", true));
+        CompletableFuture<WebSocket> next = chain.submit(ws -> ws.sendText("b", true));
+        webSocket.failNext();
+        Assertions.assertTrue(failed.isCompletedExceptionally());
+        Assertions.assertEquals(List.of("text:a", "text:b"), webSocket.sent);
+
+        webSocket.completeNext();
+        Assertions.assertTrue(next.isDone());
+        Assertions.assertFalse(next.isCompletedExceptionally());
+    }
+
+    @Test
+    public void testChainContinuesAfterASendThrows() {
+        FakeWebSocket webSocket = new FakeWebSocket();
+        DownstreamSendChain chain = new DownstreamSendChain(webSocket);
+        CompletableFuture<WebSocket> failed = chain.submit(ws -> {
+            throw new IllegalArgumentException("expected");
+        });
+        CompletableFuture<WebSocket> next = chain.submit(ws -> ws.sendText("b", true));
+        Assertions.assertTrue(failed.isCompletedExceptionally());
+        Assertions.assertEquals(List.of("text:b"), webSocket.sent);
+        webSocket.completeNext();
+        Assertions.assertFalse(next.isCompletedExceptionally());
+    }
+
+    @Test
+    public void testSuspendAtMaxMessages() {
+        FakeWebSocket webSocket = new FakeWebSocket();
+        RecordingQueue queue = new RecordingQueue(webSocket, 3, Long.MAX_VALUE);
+        queue.sendText("a", true);
+        queue.sendBinary(ByteBuffer.allocate(1), true);
+        Assertions.assertEquals(0, queue.suspends);
+        queue.sendText("c", false);
+        Assertions.assertEquals(1, queue.suspends);
+        Assertions.assertEquals(3, queue.getInFlightMessages());
+
+        // suspended once, not for every message over the limit
+        queue.sendText("d", true);
+        Assertions.assertEquals(1, queue.suspends);
+
+        // still at the limit
+        webSocket.completeNext();
+        Assertions.assertEquals(0, queue.resumes);
+        webSocket.completeNext();
+        Assertions.assertEquals(1, queue.resumes);
+        Assertions.assertEquals(2, queue.getInFlightMessages());
+
+        webSocket.completeNext();
+        webSocket.completeNext();
+        Assertions.assertEquals(1, queue.resumes);
+        Assertions.assertEquals(0, queue.getInFlightMessages());
+        Assertions.assertEquals(0, queue.getInFlightBytes());
+    }
+
+    @Test
+    public void testSuspendAtMaxBytes() {
+        FakeWebSocket webSocket = new FakeWebSocket();
+        RecordingQueue queue = new RecordingQueue(webSocket, Integer.MAX_VALUE, 100);
+        queue.sendBinary(ByteBuffer.allocate(60), true);
+        Assertions.assertEquals(0, queue.suspends);
+        queue.sendBinary(ByteBuffer.allocate(40), true);
+        Assertions.assertEquals(1, queue.suspends);
+        Assertions.assertEquals(100, queue.getInFlightBytes());
+
+        webSocket.completeNext();
+        Assertions.assertEquals(1, queue.resumes);
+        Assertions.assertEquals(40, queue.getInFlightBytes());
+    }
+
+    @Test
+    public void testTextCountsUtf8Bytes() {
+        FakeWebSocket webSocket = new FakeWebSocket();
+        RecordingQueue queue = new RecordingQueue(webSocket, Integer.MAX_VALUE, 9);
+        // three chars, but nine bytes on the wire
+        queue.sendText("€€€", true);
+        Assertions.assertEquals(9, queue.getInFlightBytes());
+        Assertions.assertEquals(1, queue.suspends);
+        queue.sendControl("ab");
+        Assertions.assertEquals(11, queue.getInFlightBytes());
+    }
+
+    @Test
+    public void testUtf8Length() {
+        Assertions.assertEquals(0, DownstreamSendQueue.utf8Length(""));
+        Assertions.assertEquals(3, DownstreamSendQueue.utf8Length("abc"));
+        Assertions.assertEquals(2, DownstreamSendQueue.utf8Length("é"));
+        Assertions.assertEquals(3, DownstreamSendQueue.utf8Length("€"));
+        Assertions.assertEquals(4, DownstreamSendQueue.utf8Length("😀"));
+        Assertions.assertEquals(3, DownstreamSendQueue.utf8Length("\uD83D"));
+        String mixed = "a é € 😀";
+        Assertions.assertEquals(mixed.getBytes(StandardCharsets.UTF_8).length, DownstreamSendQueue.utf8Length(mixed));
+    }
+
+    @Test
+    public void testFailedSendReleasesItsSlot() {
+        FakeWebSocket webSocket = new FakeWebSocket();
+        RecordingQueue queue = new RecordingQueue(webSocket, 1, Long.MAX_VALUE);
+        CompletableFuture<WebSocket> failed = queue.sendBinary(ByteBuffer.allocate(10), true);
+        Assertions.assertEquals(1, queue.suspends);
+        webSocket.failNext();
+        Assertions.assertTrue(failed.isCompletedExceptionally());
+        Assertions.assertEquals(1, queue.resumes);
+        Assertions.assertEquals(0, queue.getInFlightMessages());
+        Assertions.assertEquals(0, queue.getInFlightBytes());
+    }
+
+    @Test
+    public void testCloseIsSentAfterTheQueuedMessages() {
+        FakeWebSocket webSocket = new FakeWebSocket();
+        RecordingQueue queue = new RecordingQueue(webSocket, Integer.MAX_VALUE, Long.MAX_VALUE);
+        queue.sendText("a", true);
+        queue.sendClose(1001, "bye");
+        Assertions.assertEquals(List.of("text:a"), webSocket.sent);
+        webSocket.completeNext();
+        Assertions.assertEquals(List.of("text:a", "close:1001"), webSocket.sent);
+        Assertions.assertEquals(1, queue.getInFlightMessages());
+        Assertions.assertEquals(0, queue.getInFlightBytes());
+    }
+
+    @Test
+    public void testNoUpstreamNoBackpressure() {
+        FakeWebSocket webSocket = new FakeWebSocket();
+        DownstreamSendQueue queue = new DownstreamSendQueue("pair", new DownstreamSendChain(webSocket), null, 1, 1);
+        queue.sendText("abc", true);
+        queue.sendText("def", true);
+        webSocket.completeNext();
+        webSocket.completeNext();
+        Assertions.assertEquals(0, queue.getInFlightMessages());
+    }
+}
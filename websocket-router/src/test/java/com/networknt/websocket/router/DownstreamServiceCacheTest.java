@@ -0,0 +1,211 @@
+package com.networknt.websocket.router;
+
+import com.networknt.cluster.Cluster;
+import com.networknt.cluster.DiscoverableHost;
+import com.networknt.websocket.client.WsMetrics;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class DownstreamServiceCacheTest {
+    private static final long LONG_TTL_MS = 60000;
+    private static final long TIMEOUT_MS = 5000;
+
+    /**
+     * A registry with instances set by the test, it counts the lookups of every service.
+     */
+    private static final class StubCluster implements Cluster {
+        private final Map<String, List<URI>> instances = new ConcurrentHashMap<>();
+        private final Map<String, AtomicInteger> lookups = new ConcurrentHashMap<>();
+        private volatile CountDownLatch gate;
+
+        private void register(String serviceId, String... urls) {
+            instances.put(serviceId, List.of(urls).stream().map(URI::create).toList());
+        }
+
+        private int lookups(String serviceId) {
+            AtomicInteger count = lookups.get(serviceId);
+            return count == null ? 0 : count.get();
+        }
+
+        @Override
+        public String serviceToUrl(String protocol, String serviceId, String tag, String requestKey) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<URI> services(String protocol, String serviceId, String tag) {
+            lookups.computeIfAbsent(serviceId, k -> new AtomicInteger()).incrementAndGet();
+            CountDownLatch latch = gate;
+            if (latch != null) {
+                try {
+                    latch.await(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if ("broken".equals(serviceId)) {
+                throw new IllegalStateException("expected");
+            }
+            return instances.getOrDefault(serviceId, List.of());
+        }
+    }
+
+    private final StubCluster cluster = new StubCluster();
+
+    private DownstreamServiceCache cache(long ttlMs, long negativeTtlMs, long refreshAheadMs, int maxEntries) {
+        // the first instance, so that the selected URL shows which list is cached
+        return new DownstreamServiceCache(cluster, (urls, serviceId, tag, requestKey) -> urls.get(0),
+                ttlMs, negativeTtlMs, refreshAheadMs, maxEntries, WsMetrics.NOOP);
+    }
+
+    private static DiscoverableHost host(String serviceId) {
+        return new DiscoverableHost("https", serviceId, null);
+    }
+
+    @Test
+    public void testHitWithinTtl() {
+        cluster.register("a", "https://10.0.0.1:8443", "https://10.0.0.2:8443");
+        DownstreamServiceCache cache = cache(LONG_TTL_MS, LONG_TTL_MS, 0, 10);
+        Assertions.assertEquals("https://10.0.0.1:8443", cache.resolve(host("a")));
+        Assertions.assertEquals("https://10.0.0.1:8443", cache.resolve(host("a")));
+        Assertions.assertEquals(1, cluster.lookups("a"));
+        Assertions.assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testExpiredEntryIsLoadedAgain() throws InterruptedException {
+        cluster.register("a", "https://10.0.0.1:8443");
+        DownstreamServiceCache cache = cache(50, LONG_TTL_MS, 0, 10);
+        cache.resolve(host("a"));
+        cluster.register("a", "https://10.0.0.2:8443");
+        Thread.sleep(80);
+        Assertions.assertEquals("https://10.0.0.2:8443", cache.resolve(host("a")));
+        Assertions.assertEquals(2, cluster.lookups("a"));
+    }
+
+    @Test
+    public void testNoInstancesAreCachedForTheNegativeTtl() throws InterruptedException {
+        DownstreamServiceCache cache = cache(LONG_TTL_MS, 50, 0, 10);
+        Assertions.assertNull(cache.resolve(host("a")));
+        cluster.register("a", "https://10.0.0.1:8443");
+        // still the cached miss
+        Assertions.assertNull(cache.resolve(host("a")));
+        Assertions.assertEquals(1, cluster.lookups("a"));
+
+        Thread.sleep(80);
+        Assertions.assertEquals("https://10.0.0.1:8443", cache.resolve(host("a")));
+        Assertions.assertEquals(2, cluster.lookups("a"));
+    }
+
+    @Test
+    public void testFailedLookupIsCachedAsMiss() {
+        DownstreamServiceCache cache = cache(LONG_TTL_MS, LONG_TTL_MS, 0, 10);
+        Assertions.assertNull(cache.resolve(host("broken")));
+        Assertions.assertNull(cache.resolve(host("broken")));
+        Assertions.assertEquals(1, cluster.lookups("broken"));
+    }
+
+    @Test
+    public void testRefreshAheadReplacesTheEntry() throws InterruptedException {
+        cluster.register("a", "https://10.0.0.1:8443");
+        DownstreamServiceCache cache = cache(LONG_TTL_MS, LONG_TTL_MS, LONG_TTL_MS, 10);
+        cache.resolve(host("a"));
+        cluster.register("a", "https://10.0.0.2:8443");
+        // within the refresh-ahead window, the old list is served while it reloads
+        Assertions.assertEquals("https://10.0.0.1:8443", cache.resolve(host("a")));
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (!"https://10.0.0.2:8443".equals(cache.resolve(host("a"))) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        Assertions.assertEquals("https://10.0.0.2:8443", cache.resolve(host("a")));
+    }
+
+    @Test
+    public void testRefreshRunsOnceAtATime() throws InterruptedException {
+        cluster.register("a", "https://10.0.0.1:8443");
+        DownstreamServiceCache cache = cache(LONG_TTL_MS, LONG_TTL_MS, LONG_TTL_MS, 10);
+        cache.resolve(host("a"));
+        cluster.gate = new CountDownLatch(1);
+        for (int i = 0; i < 10; i++) {
+            cache.resolve(host("a"));
+        }
+        cluster.gate.countDown();
+        Thread.sleep(50);
+        // the first load and one refresh for the ten hits
+        Assertions.assertEquals(2, cluster.lookups("a"));
+    }
+
+    @Test
+    public void testConcurrentMissesShareOneLookup() throws InterruptedException {
+        cluster.register("a", "https://10.0.0.1:8443");
+        DownstreamServiceCache cache = cache(LONG_TTL_MS, LONG_TTL_MS, 0, 10);
+        cluster.gate = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        List<String> resolved = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            Thread thread = new Thread(() -> {
+                String url = cache.resolve(host("a"));
+                synchronized (resolved) {
+                    resolved.add(url);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        // let every thread reach the lookup or wait behind it
+        Thread.sleep(100);
+        cluster.gate.countDown();
+        for (Thread thread : threads) {
+            thread.join(TIMEOUT_MS);
+        }
+        Assertions.assertEquals(1, cluster.lookups("a"));
+        Assertions.assertEquals(8, resolved.size());
+        Assertions.assertTrue(resolved.stream().allMatch("https://10.0.0.1:8443"::equals));
+    }
+
+    @Test
+    public void testEvictionAtMaxEntries() throws InterruptedException {
+        cluster.register("a", "https://10.0.0.1:8443");
+        cluster.register("b", "https://10.0.0.2:8443");
+        cluster.register("c", "https://10.0.0.3:8443");
+        DownstreamServiceCache cache = cache(LONG_TTL_MS, LONG_TTL_MS, 0, 2);
+        cache.resolve(host("a"));
+        Thread.sleep(5);
+        cache.resolve(host("b"));
+        Thread.sleep(5);
+        cache.resolve(host("c"));
+        Assertions.assertEquals(2, cache.size());
+
+        // a expired first and was evicted, b and c are still cached
+        cache.resolve(host("b"));
+        cache.resolve(host("c"));
+        Assertions.assertEquals(1, cluster.lookups("b"));
+        Assertions.assertEquals(1, cluster.lookups("c"));
+        cache.resolve(host("a"));
+        Assertions.assertEquals(2, cluster.lookups("a"));
+    }
+
+    @Test
+    public void testExpiredEntriesAreEvictedFirst() throws InterruptedException {
+        cluster.register("b", "https://10.0.0.2:8443");
+        cluster.register("c", "https://10.0.0.3:8443");
+        DownstreamServiceCache cache = cache(LONG_TTL_MS, 20, 0, 2);
+        // a miss with the short negative TTL
+        cache.resolve(host("a"));
+        cache.resolve(host("b"));
+        Thread.sleep(40);
+        cache.resolve(host("c"));
+        Assertions.assertEquals(2, cache.size());
+        cache.resolve(host("b"));
+        Assertions.assertEquals(1, cluster.lookups("b"));
+    }
+}
@@ -0,0 +1,123 @@
+package com.networknt.websocket.router;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import java.io.IOException;
+import java.net.Authenticator;
+import java.net.CookieHandler;
+import java.net.ProxySelector;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.WebSocket;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * An HttpClient that opens {@link FakeWebSocket}s. The future of buildAsync completes right away
+ * and onOpen of the listener is left to the test, the JDK gives no order between the two.
+ */
+class FakeHttpClient extends HttpClient {
+    final List<FakeWebSocket> webSockets = new ArrayList<>();
+    final List<WebSocket.Listener> listeners = new ArrayList<>();
+    final List<URI> uris = new ArrayList<>();
+    boolean fail;
+
+    @Override
+    public WebSocket.Builder newWebSocketBuilder() {
+        return new WebSocket.Builder() {
+            @Override
+            public WebSocket.Builder header(String name, String value) {
+                return this;
+            }
+
+            @Override
+            public WebSocket.Builder connectTimeout(Duration timeout) {
+                return this;
+            }
+
+            @Override
+            public WebSocket.Builder subprotocols(String mostPreferred, String... lesserPreferred) {
+                return this;
+            }
+
+            @Override
+            public CompletableFuture<WebSocket> buildAsync(URI uri, WebSocket.Listener listener) {
+                uris.add(uri);
+                if (fail) {
+                    return CompletableFuture.failedFuture(new IOException("expected"));
+                }
+                FakeWebSocket webSocket = new FakeWebSocket();
+                webSockets.add(webSocket);
+                listeners.add(listener);
+                return CompletableFuture.completedFuture(webSocket);
+            }
+        };
+    }
+
+    @Override
+    public Optional<CookieHandler> cookieHandler() {
+        return Optional.empty();
+    }
+
+    @Override
+    public Optional<Duration> connectTimeout() {
+        return Optional.empty();
+    }
+
+    @Override
+    public Redirect followRedirects() {
+        return Redirect.NEVER;
+    }
+
+    @Override
+    public Optional<ProxySelector> proxy() {
+        return Optional.empty();
+    }
+
+    @Override
+    public SSLContext sslContext() {
+        return null;
+    }
+
+    @Override
+    public SSLParameters sslParameters() {
+        return null;
+    }
+
+    @Override
+    public Optional<Authenticator> authenticator() {
+        return Optional.empty();
+    }
+
+    @Override
+    public Version version() {
+        return Version.HTTP_1_1;
+    }
+
+    @Override
+    public Optional<Executor> executor() {
+        return Optional.empty();
+    }
+
+    @Override
+    public <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> responseBodyHandler) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request, HttpResponse.BodyHandler<T> responseBodyHandler) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request, HttpResponse.BodyHandler<T> responseBodyHandler,
+                                                            HttpResponse.PushPromiseHandler<T> pushPromiseHandler) {
+        throw new UnsupportedOperationException();
+    }
+}
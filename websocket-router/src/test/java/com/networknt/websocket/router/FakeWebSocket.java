@@ -0,0 +1,98 @@
+package com.networknt.websocket.router;
+
+import java.net.http.WebSocket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A JDK WebSocket that records the sends and leaves their futures for the test to complete.
+ */
+class FakeWebSocket implements WebSocket {
+    final List<String> sent = new ArrayList<>();
+    final List<CompletableFuture<WebSocket>> pending = new ArrayList<>();
+    boolean outputClosed;
+    boolean aborted;
+    long requested;
+
+    private synchronized CompletableFuture<WebSocket> record(String send) {
+        sent.add(send);
+        CompletableFuture<WebSocket> future = new CompletableFuture<>();
+        pending.add(future);
+        return future;
+    }
+
+    /**
+     * Complete the oldest send that is still outstanding.
+     */
+    void completeNext() {
+        next().complete(this);
+    }
+
+    void failNext() {
+        next().completeExceptionally(new IllegalStateException("expected"));
+    }
+
+    private synchronized CompletableFuture<WebSocket> next() {
+        for (CompletableFuture<WebSocket> future : pending) {
+            if (!future.isDone()) return future;
+        }
+        throw new IllegalStateException("No send outstanding");
+    }
+
+    synchronized int outstanding() {
+        return (int) pending.stream().filter(future -> !future.isDone()).count();
+    }
+
+    @Override
+    public CompletableFuture<WebSocket> sendText(CharSequence data, boolean last) {
+        return record("text:" + data + (last ? "" : "..."));
+    }
+
+    @Override
+    public CompletableFuture<WebSocket> sendBinary(ByteBuffer data, boolean last) {
+        return record("binary:" + data.remaining() + (last ? "" : "..."));
+    }
+
+    @Override
+    public CompletableFuture<WebSocket> sendPing(ByteBuffer message) {
+        return record("ping");
+    }
+
+    @Override
+    public CompletableFuture<WebSocket> sendPong(ByteBuffer message) {
+        return record("pong");
+    }
+
+    @Override
+    public CompletableFuture<WebSocket> sendClose(int statusCode, String reason) {
+        outputClosed = true;
+        return record("close:" + statusCode);
+    }
+
+    @Override
+    public void request(long n) {
+        requested += n;
+    }
+
+    @Override
+    public String getSubprotocol() {
+        return "";
+    }
+
+    @Override
+    public boolean isOutputClosed() {
+        return outputClosed || aborted;
+    }
+
+    @Override
+    public boolean isInputClosed() {
+        return aborted;
+    }
+
+    @Override
+    public void abort() {
+        aborted = true;
+    }
+}
@@ -0,0 +1,80 @@
+package com.networknt.websocket.router;
+
+import io.undertow.websockets.core.CloseMessage;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+class MultiplexEnvelopeTest {
+    private static final String SESSION_ID = UUID.randomUUID().toString();
+
+    @Test
+    public void testTextRoundTrip() {
+        String envelope = MultiplexEnvelope.text(MultiplexEnvelope.MESSAGE, SESSION_ID, "hello");
+        Assertions.assertEquals(MultiplexEnvelope.MESSAGE, envelope.charAt(0));
+        Assertions.assertEquals(SESSION_ID, envelope.substring(1, MultiplexEnvelope.HEADER_LENGTH));
+        Assertions.assertEquals("hello", envelope.substring(MultiplexEnvelope.HEADER_LENGTH));
+    }
+
+    @Test
+    public void testBinaryRoundTrip() {
+        ByteBuffer first = ByteBuffer.wrap(new byte[]{1, 2, 3});
+        ByteBuffer second = ByteBuffer.wrap(new byte[]{4, 5});
+        ByteBuffer envelope = MultiplexEnvelope.binary(SESSION_ID, first, second);
+        Assertions.assertEquals(MultiplexEnvelope.HEADER_LENGTH + 5, envelope.remaining());
+        Assertions.assertFalse(first.hasRemaining());
+
+        Assertions.assertEquals(MultiplexEnvelope.MESSAGE, (char) envelope.get());
+        byte[] id = new byte[MultiplexEnvelope.SESSION_ID_LENGTH];
+        envelope.get(id);
+        Assertions.assertEquals(SESSION_ID, new String(id, StandardCharsets.US_ASCII));
+        byte[] payload = new byte[envelope.remaining()];
+        envelope.get(payload);
+        Assertions.assertArrayEquals(new byte[]{1, 2, 3, 4, 5}, payload);
+    }
+
+    @Test
+    public void testInvalidSessionId() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> MultiplexEnvelope.text(MultiplexEnvelope.OPEN, "short", "/"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> MultiplexEnvelope.binary("short", ByteBuffer.allocate(1)));
+    }
+
+    @Test
+    public void testClosePayload() {
+        String payload = MultiplexEnvelope.closePayload(4000, "bye: now");
+        Assertions.assertEquals(4000, MultiplexEnvelope.closeCode(payload));
+        Assertions.assertEquals("bye: now", MultiplexEnvelope.closeReason(payload));
+
+        payload = MultiplexEnvelope.closePayload(CloseMessage.GOING_AWAY, null);
+        Assertions.assertEquals(CloseMessage.GOING_AWAY, MultiplexEnvelope.closeCode(payload));
+        Assertions.assertEquals("", MultiplexEnvelope.closeReason(payload));
+
+        Assertions.assertEquals(CloseMessage.NORMAL_CLOSURE, MultiplexEnvelope.closeCode("not a code"));
+    }
+
+    @Test
+    public void testOpenPayload() {
+        String payload = MultiplexEnvelope.openPayload("/chat?room=1", "Bearer abc", List.of("v2.chat", "v1.chat"));
+        Assertions.assertEquals("/chat?room=1", MultiplexEnvelope.openRequestURI(payload));
+        Map<String, String> headers = MultiplexEnvelope.openHeaders(payload);
+        Assertions.assertEquals(2, headers.size());
+        Assertions.assertEquals("Bearer abc", headers.get(MultiplexEnvelope.AUTHORIZATION));
+        Assertions.assertEquals("v2.chat, v1.chat", headers.get(MultiplexEnvelope.SEC_WEBSOCKET_PROTOCOL));
+
+        payload = MultiplexEnvelope.openPayload("/chat", null, List.of());
+        Assertions.assertEquals("/chat", payload);
+        Assertions.assertEquals("/chat", MultiplexEnvelope.openRequestURI(payload));
+        Assertions.assertTrue(MultiplexEnvelope.openHeaders(payload).isEmpty());
+    }
+
+    @Test
+    public void testOpenPayloadRejectsLineBreak() {
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> MultiplexEnvelope.openPayload("/chat", "Bearer abc\r\nX-Injected: 1", List.of()));
+    }
+}
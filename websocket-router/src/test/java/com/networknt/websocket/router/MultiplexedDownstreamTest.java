@@ -0,0 +1,27 @@
+package com.networknt.websocket.router;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.UUID;
+
+class MultiplexedDownstreamTest {
+
+    @Test
+    public void testInvalidOpenLeavesNoSession() {
+        FakeWebSocket webSocket = new FakeWebSocket();
+        MultiplexedDownstream downstream = new MultiplexedDownstream("service#0", 64, 1048576);
+        downstream.attach(webSocket);
+        String sessionId = UUID.randomUUID().toString();
+        // the upstream channel is never touched when the envelope cannot be built
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> downstream.openSession(sessionId, "/chat", "Bearer abc\r\nX-Injected: 1", List.of(), null));
+        Assertions.assertEquals(0, downstream.getSessionCount());
+        Assertions.assertTrue(webSocket.sent.isEmpty());
+
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> downstream.openSession("short", "/chat", null, List.of(), null));
+        Assertions.assertEquals(0, downstream.getSessionCount());
+    }
+}
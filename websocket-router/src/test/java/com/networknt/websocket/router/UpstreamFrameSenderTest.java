@@ -0,0 +1,208 @@
+package com.networknt.websocket.router;
+
+import io.undertow.connector.PooledByteBuffer;
+import io.undertow.websockets.core.WebSocketCallback;
+import io.undertow.websockets.core.WebSocketChannel;
+import io.undertow.websockets.core.WebSocketFrameType;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+class UpstreamFrameSenderTest {
+
+    private record Frame(WebSocketFrameType type, boolean last, byte[] data) {
+    }
+
+    /**
+     * Records the frames instead of writing them, with buffers of a few bytes so that a part is
+     * split into several frames.
+     */
+    private static final class RecordingSender extends UpstreamFrameSender {
+        private final int bufferSize;
+        private final List<Frame> frames = new ArrayList<>();
+        private int openBuffers;
+        private int failAt = -1;
+        private boolean closed;
+
+        private RecordingSender(int bufferSize) {
+            super(null, null);
+            this.bufferSize = bufferSize;
+        }
+
+        @Override
+        PooledByteBuffer allocate() {
+            openBuffers++;
+            ByteBuffer buffer = ByteBuffer.allocate(bufferSize);
+            return new PooledByteBuffer() {
+                private boolean open = true;
+
+                @Override
+                public ByteBuffer getBuffer() {
+                    return buffer;
+                }
+
+                @Override
+                public void close() {
+                    if (open) {
+                        open = false;
+                        openBuffers--;
+                    }
+                }
+
+                @Override
+                public boolean isOpen() {
+                    return open;
+                }
+            };
+        }
+
+        @Override
+        void close() {
+            closed = true;
+        }
+
+        @Override
+        void send(WebSocketFrameType type, PooledByteBuffer pooled, boolean finalFragment, WebSocketCallback<Void> callback) throws IOException {
+            if (frames.size() == failAt) {
+                pooled.close();
+                throw new IOException("expected");
+            }
+            ByteBuffer buffer = pooled.getBuffer();
+            byte[] data = new byte[buffer.remaining()];
+            buffer.get(data);
+            pooled.close();
+            frames.add(new Frame(type, finalFragment, data));
+            if (callback != null) {
+                callback.complete(null, null);
+            }
+        }
+
+        /**
+         * The payload of all frames from the given one on.
+         */
+        private byte[] payload(int from) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            for (Frame frame : frames.subList(from, frames.size())) {
+                out.writeBytes(frame.data);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private static final class Outcome implements WebSocketCallback<Void> {
+        private int completed;
+        private Throwable error;
+
+        @Override
+        public void complete(WebSocketChannel channel, Void context) {
+            completed++;
+        }
+
+        @Override
+        public void onError(WebSocketChannel channel, Void context, Throwable throwable) {
+            error = throwable;
+        }
+    }
+
+    private static List<WebSocketFrameType> types(RecordingSender sender) {
+        return sender.frames.stream().map(Frame::type).toList();
+    }
+
+    private static List<Boolean> lasts(RecordingSender sender) {
+        return sender.frames.stream().map(Frame::last).toList();
+    }
+
+    @Test
+    public void testBinaryPartsAreContinuations() {
+        RecordingSender sender = new RecordingSender(64);
+        Outcome outcome = new Outcome();
+        sender.sendBinary(ByteBuffer.wrap(new byte[]{1, 2}), false, outcome);
+        sender.sendBinary(ByteBuffer.wrap(new byte[]{3}), false, outcome);
+        sender.sendBinary(ByteBuffer.wrap(new byte[]{4, 5}), true, outcome);
+        sender.sendBinary(ByteBuffer.wrap(new byte[]{6}), true, outcome);
+
+        Assertions.assertEquals(List.of(WebSocketFrameType.BINARY, WebSocketFrameType.CONTINUATION, WebSocketFrameType.CONTINUATION, WebSocketFrameType.BINARY), types(sender));
+        Assertions.assertEquals(List.of(false, false, true, true), lasts(sender));
+        Assertions.assertArrayEquals(new byte[]{1, 2, 3, 4, 5, 6}, sender.payload(0));
+        Assertions.assertEquals(4, outcome.completed);
+        Assertions.assertEquals(0, sender.openBuffers);
+    }
+
+    @Test
+    public void testPartLargerThanABuffer() {
+        RecordingSender sender = new RecordingSender(4);
+        Outcome outcome = new Outcome();
+        sender.sendBinary(ByteBuffer.wrap(new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10}), true, outcome);
+        Assertions.assertEquals(List.of(WebSocketFrameType.BINARY, WebSocketFrameType.CONTINUATION, WebSocketFrameType.CONTINUATION), types(sender));
+        Assertions.assertEquals(List.of(false, false, true), lasts(sender));
+        // called once, for the last frame of the part
+        Assertions.assertEquals(1, outcome.completed);
+    }
+
+    @Test
+    public void testSurrogatePairSplitAcrossParts() {
+        RecordingSender sender = new RecordingSender(4);
+        Outcome outcome = new Outcome();
+        String text = "a😀b";
+        sender.sendText(text.substring(0, 2), false, outcome);
+        sender.sendText(text.substring(2), true, outcome);
+
+        Assertions.assertEquals(WebSocketFrameType.TEXT, sender.frames.get(0).type);
+        for (Frame frame : sender.frames.subList(1, sender.frames.size())) {
+            Assertions.assertEquals(WebSocketFrameType.CONTINUATION, frame.type);
+        }
+        Assertions.assertEquals(text, new String(sender.payload(0), StandardCharsets.UTF_8));
+        Assertions.assertEquals(2, outcome.completed);
+        Assertions.assertNull(outcome.error);
+        Assertions.assertEquals(0, sender.openBuffers);
+    }
+
+    @Test
+    public void testEmptyIntermediatePart() {
+        RecordingSender sender = new RecordingSender(64);
+        Outcome outcome = new Outcome();
+        sender.sendText("", false, outcome);
+        sender.sendText("hello", true, outcome);
+        Assertions.assertEquals(List.of(WebSocketFrameType.TEXT), types(sender));
+        Assertions.assertEquals("hello", new String(sender.payload(0), StandardCharsets.UTF_8));
+        Assertions.assertEquals(2, outcome.completed);
+    }
+
+    @Test
+    public void testFailureResetsTheMessage() {
+        RecordingSender sender = new RecordingSender(64);
+        Outcome outcome = new Outcome();
+        sender.sendText("a\uD83D", false, outcome);
+        sender.failAt = 1;
+        sender.sendText("\uDE00b", false, outcome);
+        Assertions.assertNotNull(outcome.error);
+        Assertions.assertTrue(sender.closed);
+
+        // the next message starts a new frame without the carried surrogate
+        sender.failAt = -1;
+        sender.sendText("c", true, new Outcome());
+        Assertions.assertEquals(List.of(WebSocketFrameType.TEXT, WebSocketFrameType.TEXT), types(sender));
+        Assertions.assertEquals("c", new String(sender.frames.get(1).data, StandardCharsets.UTF_8));
+        Assertions.assertEquals(0, sender.openBuffers);
+    }
+
+    @Test
+    public void testMalformedTextClosesTheUpstream() {
+        RecordingSender sender = new RecordingSender(64);
+        Outcome outcome = new Outcome();
+        // a low surrogate without its high surrogate
+        sender.sendText("a\uDE00", true, outcome);
+        Assertions.assertNotNull(outcome.error);
+        Assertions.assertTrue(sender.closed);
+
+        sender.sendBinary(ByteBuffer.wrap(new byte[]{1}), true, new Outcome());
+        Assertions.assertEquals(WebSocketFrameType.BINARY, sender.frames.get(sender.frames.size() - 1).type);
+        Assertions.assertEquals(0, sender.openBuffers);
+    }
+}
@@ -0,0 +1,51 @@
+package com.networknt.websocket.router;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+
+class Utf8ChunkDecoderTest {
+
+    /**
+     * Read the next chunk into a buffer the way the streamer does: the carried bytes first.
+     */
+    private static ByteBuffer read(Utf8ChunkDecoder decoder, byte[] message, int from, int to) {
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        decoder.restoreCarry(buffer);
+        buffer.put(message, from, to - from);
+        return buffer.flip();
+    }
+
+    @Test
+    public void testCharacterSplitAcrossReads() throws CharacterCodingException {
+        byte[] message = "a€b".getBytes(StandardCharsets.UTF_8);
+        Assertions.assertEquals(5, message.length);
+        Utf8ChunkDecoder decoder = new Utf8ChunkDecoder();
+
+        // "a" and the first byte of the euro sign
+        Assertions.assertEquals("a", decoder.decode(read(decoder, message, 0, 2), false).toString());
+
+        // the second byte, still no complete character
+        Assertions.assertEquals("", decoder.decode(read(decoder, message, 2, 3), false).toString());
+
+        // a read without data gives back only the carried bytes, they stay carried
+        ByteBuffer empty = ByteBuffer.allocate(64);
+        Assertions.assertEquals(2, decoder.restoreCarry(empty));
+        Assertions.assertEquals(2, decoder.restoreCarry(ByteBuffer.allocate(64)));
+
+        Assertions.assertEquals("€b", decoder.decode(read(decoder, message, 3, 5), true).toString());
+        Assertions.assertEquals(0, decoder.restoreCarry(ByteBuffer.allocate(64)));
+    }
+
+    @Test
+    public void testIncompleteCharacterAtEnd() throws CharacterCodingException {
+        byte[] message = "é".getBytes(StandardCharsets.UTF_8);
+        Utf8ChunkDecoder decoder = new Utf8ChunkDecoder();
+        Assertions.assertEquals("", decoder.decode(read(decoder, message, 0, 1), false).toString());
+        ByteBuffer rest = read(decoder, message, 1, 1);
+        Assertions.assertThrows(CharacterCodingException.class, () -> decoder.decode(rest, true));
+    }
+}
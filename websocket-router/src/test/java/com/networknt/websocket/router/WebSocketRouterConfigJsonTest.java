@@ -21,6 +21,9 @@ public class WebSocketRouterConfigJsonTest {
         Assertions.assertEquals("http", config.getDefaultProtocol());
         Assertions.assertNull(config.getDefaultEnvTag());
         Assertions.assertEquals(120000, config.getIdleTimeoutMs());
+        Assertions.assertFalse(config.isStreamingRelay());
+        Assertions.assertEquals(16, config.getMaxInFlightMessages());
+        Assertions.assertEquals(WebSocketRouterConfig.DEFAULT_MAX_IN_FLIGHT_BYTES, config.getMaxInFlightBytes());
 
         Map<String, DiscoverableHost> pathPrefixServiceMap = config.getPathPrefixService();
         Assertions.assertNotNull(pathPrefixServiceMap);
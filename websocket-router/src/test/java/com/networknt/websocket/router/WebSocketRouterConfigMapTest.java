@@ -20,6 +20,33 @@ class WebSocketRouterConfigMapTest {
         Assertions.assertEquals("http", config.getDefaultProtocol());
         Assertions.assertNull(config.getDefaultEnvTag());
         Assertions.assertEquals(WebSocketRouterConfig.DEFAULT_IDLE_TIMEOUT_MS, config.getIdleTimeoutMs());
+        Assertions.assertFalse(config.isStreamingRelay());
+        Assertions.assertEquals(WebSocketRouterConfig.DEFAULT_MAX_IN_FLIGHT_MESSAGES, config.getMaxInFlightMessages());
+        Assertions.assertEquals(WebSocketRouterConfig.DEFAULT_MAX_IN_FLIGHT_BYTES, config.getMaxInFlightBytes());
+        Assertions.assertFalse(config.isMultiplexEnabled());
+        Assertions.assertEquals(WebSocketRouterConfig.DEFAULT_MULTIPLEX_CONNECTIONS_PER_SERVICE, config.getMultiplexConnectionsPerService());
+        Assertions.assertEquals(WebSocketRouterConfig.DEFAULT_MULTIPLEX_PATH, config.getMultiplexPath());
+        Assertions.assertEquals(0, config.getDownstreamPoolMinIdle());
+        Assertions.assertEquals(WebSocketRouterConfig.DEFAULT_DOWNSTREAM_POOL_MAX_IDLE, config.getDownstreamPoolMaxIdle());
+        Assertions.assertEquals(WebSocketRouterConfig.DEFAULT_DOWNSTREAM_POOL_MAX_AGE_MS, config.getDownstreamPoolMaxAgeMs());
+        Assertions.assertEquals(WebSocketRouterConfig.DEFAULT_DOWNSTREAM_POOL_PATH, config.getDownstreamPoolPath());
+        Assertions.assertEquals(0, config.getDiscoveryCacheTtlMs());
+        Assertions.assertEquals(WebSocketRouterConfig.DEFAULT_DISCOVERY_CACHE_MAX_ENTRIES, config.getDiscoveryCacheMaxEntries());
+        Assertions.assertFalse(config.isDeflateEnabled());
+        Assertions.assertEquals(WebSocketRouterConfig.DEFAULT_DEFLATE_LEVEL, config.getDeflateLevel());
+        Assertions.assertTrue(config.isDeflateContextTakeover());
+        Assertions.assertEquals(WebSocketRouterConfig.DEFAULT_DEFLATE_MIN_SIZE, config.getDeflateMinSize());
+        Assertions.assertEquals(WebSocketRouterConfig.DEFAULT_DOWNSTREAM_TRANSPORT, config.getDownstreamTransport());
+        Assertions.assertEquals(WebSocketRouterConfig.DEFAULT_DOWNSTREAM_EXECUTOR, config.getDownstreamExecutor());
+        Assertions.assertEquals(WebSocketRouterConfig.DEFAULT_DOWNSTREAM_EXECUTOR_QUEUE_SIZE, config.getDownstreamExecutorQueueSize());
+        Assertions.assertEquals(0, config.getDownstreamClientShards());
+        Assertions.assertEquals(WebSocketRouterConfig.DEFAULT_DOWNSTREAM_SHARD_ASSIGNMENT, config.getDownstreamShardAssignment());
+        Assertions.assertTrue(config.getServiceTransports().isEmpty());
+        Assertions.assertFalse(config.isCoalesceFlushes());
+        Assertions.assertEquals(0, config.getCoalesceWindowMicros());
+        Assertions.assertEquals(0, config.getHeartbeatIntervalMs());
+        Assertions.assertEquals(WebSocketRouterConfig.DEFAULT_HEARTBEAT_TIMEOUT_MS, config.getHeartbeatTimeoutMs());
+        Assertions.assertFalse(config.isMetricsEnabled());
 
         Map<String, DiscoverableHost> pathPrefixServiceMap = config.getPathPrefixService();
         Assertions.assertNotNull(pathPrefixServiceMap);
@@ -20,6 +20,7 @@ public class WebSocketRouterConfigStringTest {
         Assertions.assertEquals("http", config.getDefaultProtocol());
         Assertions.assertNull(config.getDefaultEnvTag());
         Assertions.assertEquals(WebSocketRouterConfig.DEFAULT_IDLE_TIMEOUT_MS, config.getIdleTimeoutMs());
+        Assertions.assertFalse(config.isStreamingRelay());
 
         Map<String, DiscoverableHost> pathPrefixServiceMap = config.getPathPrefixService();
         Assertions.assertNotNull(pathPrefixServiceMap);
@@ -0,0 +1,41 @@
+package com.networknt.websocket.session;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Carries group messages between the nodes that serve a group. A node publishes a message once and
+ * the bus hands it to the receiver of every node, this node included. Each node sends it to its own
+ * members of the group from its group index, so a group is not limited to the connections of one node.
+ *
+ * Messages are UTF-8 encoded text frames, they are encoded once by the publishing node and not
+ * decoded again on the way to the members.
+ */
+public interface GroupBus extends AutoCloseable {
+    /**
+     * Receives the messages of all groups for the members on this node.
+     */
+    interface Receiver {
+        /**
+         * @param groupId the group of the message
+         * @param message the UTF-8 encoded text, it must not be changed and stays valid after the call
+         */
+        void deliver(String groupId, ByteBuffer message);
+    }
+
+    /**
+     * Start delivering messages to the receiver of this node.
+     */
+    void start(Receiver receiver);
+
+    /**
+     * Deliver a message to the members of the group on every node.
+     *
+     * @param groupId the group of the message
+     * @param message the UTF-8 encoded text, it must not be changed after the call
+     * @throws IllegalArgumentException if the bus cannot carry the group id or the message
+     */
+    void publish(String groupId, ByteBuffer message);
+
+    @Override
+    void close();
+}
@@ -0,0 +1,31 @@
+package com.networknt.websocket.session;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The bus of the nodes in one process. A message is handed to every receiver on the thread of the
+ * publisher, so a single node sends to the members of a group as if there was no bus. Session
+ * handlers that share an instance share their groups.
+ */
+public class LocalGroupBus implements GroupBus {
+    private final List<Receiver> receivers = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void start(Receiver receiver) {
+        receivers.add(receiver);
+    }
+
+    @Override
+    public void publish(String groupId, ByteBuffer message) {
+        for (Receiver receiver : receivers) {
+            receiver.deliver(groupId, message.asReadOnlyBuffer());
+        }
+    }
+
+    @Override
+    public void close() {
+        receivers.clear();
+    }
+}
@@ -0,0 +1,347 @@
+package com.networknt.websocket.session;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The bus of nodes connected over TCP, like several gateways on one host or in one network. Every
+ * node listens on its own port and connects to the port of each peer. A message is delivered to
+ * this node on the thread of the publisher and framed once for all peers, every peer has a queue
+ * and a thread that writes the frames to it.
+ *
+ * A connection starts with the length of the shared secret and the secret, empty if there is none.
+ * A frame is the length of the group id, the group id, the length of the message and the message.
+ * Delivery is at most once, frames queued for a peer that is not reachable are dropped once its queue
+ * is full and frames in flight when a connection fails are lost.
+ *
+ * The bus listens on the loopback address unless it is given another one. It only accepts
+ * connections from the addresses of its peers that send the same secret, and closes a connection
+ * with a group id or message longer than the limits instead of allocating for it. The secret is
+ * sent in the clear, a bus between hosts belongs on a private network.
+ */
+public class TcpGroupBus implements GroupBus {
+    private static final Logger LOG = LoggerFactory.getLogger(TcpGroupBus.class);
+    public static final int DEFAULT_MAX_QUEUED_FRAMES = 10000;
+    public static final int DEFAULT_MAX_MESSAGE_LENGTH = 16777216;
+    // max length of a UTF-8 encoded group id and of the secret
+    static final int MAX_GROUP_LENGTH = 1024;
+    static final int MAX_SECRET_LENGTH = 1024;
+    private static final long RECONNECT_DELAY_MS = 1000;
+    // time a new connection has to send the secret
+    private static final int HELLO_TIMEOUT_MS = 10000;
+
+    private final InetSocketAddress bindAddress;
+    private final int maxMessageLength;
+    private final byte[] secret;
+    private final List<Peer> peers = new ArrayList<>();
+    private final Set<Socket> inbound = ConcurrentHashMap.newKeySet();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile Receiver receiver;
+    private volatile boolean closed;
+    private ServerSocket serverSocket;
+
+    /**
+     * Listen on the loopback address, for nodes on one host.
+     *
+     * @param port port to listen on
+     * @param peers host:port of the other nodes
+     */
+    public TcpGroupBus(int port, List<String> peers) {
+        this(null, port, peers);
+    }
+
+    /**
+     * @param host address to listen on, like 10.0.0.1, null for the loopback address
+     * @param port port to listen on
+     * @param peers host:port of the other nodes
+     */
+    public TcpGroupBus(String host, int port, List<String> peers) {
+        this(host, port, peers, DEFAULT_MAX_QUEUED_FRAMES);
+    }
+
+    /**
+     * @param maxQueuedFrames max number of frames queued for a peer
+     */
+    public TcpGroupBus(String host, int port, List<String> peers, int maxQueuedFrames) {
+        this(host, port, peers, maxQueuedFrames, DEFAULT_MAX_MESSAGE_LENGTH, null);
+    }
+
+    /**
+     * @param maxMessageLength max length of a message in bytes, the same on every node
+     * @param secret shared secret of the nodes, null for none
+     */
+    public TcpGroupBus(String host, int port, List<String> peers, int maxQueuedFrames, int maxMessageLength, String secret) {
+        this.bindAddress = host == null ? new InetSocketAddress(InetAddress.getLoopbackAddress(), port) : new InetSocketAddress(host, port);
+        this.maxMessageLength = maxMessageLength;
+        this.secret = secret == null ? new byte[0] : secret.getBytes(StandardCharsets.UTF_8);
+        if (this.secret.length > MAX_SECRET_LENGTH) {
+            throw new IllegalArgumentException("Group bus secret is longer than " + MAX_SECRET_LENGTH + " bytes");
+        }
+        for (String peer : peers) {
+            int colon = peer.lastIndexOf(':');
+            if (colon < 0) {
+                throw new IllegalArgumentException("Peer " + peer + " is not host:port");
+            }
+            this.peers.add(new Peer(peer.substring(0, colon), Integer.parseInt(peer.substring(colon + 1)), maxQueuedFrames));
+        }
+    }
+
+    @Override
+    public void start(Receiver receiver) {
+        this.receiver = receiver;
+        try {
+            serverSocket = new ServerSocket();
+            serverSocket.bind(bindAddress);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to listen for group bus peers on " + bindAddress, e);
+        }
+        Thread.ofPlatform().daemon().name("group-bus-accept").start(this::accept);
+        for (Peer peer : peers) {
+            Thread.ofPlatform().daemon().name("group-bus-" + peer.host + ":" + peer.port).start(peer::write);
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException if the group id or the message is too long for a frame, the
+     * message is not delivered to any node then
+     */
+    @Override
+    public void publish(String groupId, ByteBuffer message) {
+        byte[] frame = peers.isEmpty() ? null : frame(groupId, message, maxMessageLength);
+        receiver.deliver(groupId, message.asReadOnlyBuffer());
+        if (frame == null) {
+            return;
+        }
+        for (Peer peer : peers) {
+            if (!peer.queue.offer(frame) && dropped.incrementAndGet() % 1000 == 1) {
+                LOG.warn("Group bus queue of {}:{} is full, {} frames dropped so far", peer.host, peer.port, dropped.get());
+            }
+        }
+    }
+
+    /**
+     * @return the number of frames dropped because the queue of a peer was full
+     */
+    public long getDroppedFrames() {
+        return dropped.get();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            if (serverSocket != null) serverSocket.close();
+        } catch (IOException e) {
+            LOG.debug("Failed to close the group bus listener", e);
+        }
+        for (Socket socket : inbound) {
+            closeQuietly(socket);
+        }
+        for (Peer peer : peers) {
+            closeQuietly(peer.socket);
+        }
+    }
+
+    /**
+     * Encode a message and its group id into a frame.
+     *
+     * @throws IllegalArgumentException if the group id or the message is too long
+     */
+    static byte[] frame(String groupId, ByteBuffer message, int maxMessageLength) {
+        byte[] group = groupId.getBytes(StandardCharsets.UTF_8);
+        if (group.length > MAX_GROUP_LENGTH) {
+            throw new IllegalArgumentException("Group id is longer than " + MAX_GROUP_LENGTH + " bytes");
+        }
+        if (message.remaining() > maxMessageLength) {
+            throw new IllegalArgumentException("Group message of " + message.remaining() + " bytes is longer than " + maxMessageLength + " bytes");
+        }
+        ByteBuffer frame = ByteBuffer.allocate(2 + group.length + 4 + message.remaining());
+        frame.putShort((short) group.length).put(group).putInt(message.remaining()).put(message.duplicate());
+        return frame.array();
+    }
+
+    /**
+     * Decode the next frame and hand it to the receiver. The lengths are checked before anything is
+     * allocated for them.
+     *
+     * @throws IOException if a length is out of range or the stream ends
+     */
+    static void readFrame(DataInput in, int maxMessageLength, Receiver receiver) throws IOException {
+        int groupLength = in.readUnsignedShort();
+        if (groupLength > MAX_GROUP_LENGTH) {
+            throw new IOException("Group id of " + groupLength + " bytes is longer than " + MAX_GROUP_LENGTH + " bytes");
+        }
+        byte[] group = new byte[groupLength];
+        in.readFully(group);
+        int messageLength = in.readInt();
+        if (messageLength < 0 || messageLength > maxMessageLength) {
+            throw new IOException("Group message length " + messageLength + " is not between 0 and " + maxMessageLength);
+        }
+        byte[] message = new byte[messageLength];
+        in.readFully(message);
+        receiver.deliver(new String(group, StandardCharsets.UTF_8), ByteBuffer.wrap(message).asReadOnlyBuffer());
+    }
+
+    /**
+     * The first bytes a node writes to a new connection.
+     */
+    static byte[] hello(byte[] secret) {
+        return ByteBuffer.allocate(2 + secret.length).putShort((short) secret.length).put(secret).array();
+    }
+
+    /**
+     * Read the hello of a new connection.
+     *
+     * @return true if it carries the secret
+     */
+    static boolean readHello(DataInput in, byte[] secret) throws IOException {
+        int length = in.readUnsignedShort();
+        if (length > MAX_SECRET_LENGTH) {
+            return false;
+        }
+        byte[] received = new byte[length];
+        in.readFully(received);
+        return MessageDigest.isEqual(secret, received);
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                if (!isPeer(socket.getInetAddress())) {
+                    LOG.warn("Rejected group bus connection from {} that is not a peer", socket.getRemoteSocketAddress());
+                    closeQuietly(socket);
+                    continue;
+                }
+                inbound.add(socket);
+                Thread.ofPlatform().daemon().name("group-bus-read-" + socket.getRemoteSocketAddress()).start(() -> read(socket));
+            } catch (IOException e) {
+                if (!closed) LOG.error("Failed to accept a group bus peer on {}", bindAddress, e);
+            }
+        }
+    }
+
+    /**
+     * Peers are resolved on every accept, so a peer that moved to another address is still accepted.
+     */
+    private boolean isPeer(InetAddress address) {
+        for (Peer peer : peers) {
+            try {
+                for (InetAddress peerAddress : InetAddress.getAllByName(peer.host)) {
+                    if (peerAddress.equals(address)) return true;
+                }
+            } catch (UnknownHostException e) {
+                LOG.debug("Failed to resolve group bus peer {}", peer.host, e);
+            }
+        }
+        return false;
+    }
+
+    private void read(Socket socket) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+            socket.setSoTimeout(HELLO_TIMEOUT_MS);
+            if (!readHello(in, secret)) {
+                LOG.warn("Rejected group bus peer {} with a wrong secret", socket.getRemoteSocketAddress());
+                return;
+            }
+            socket.setSoTimeout(0);
+            while (!closed) {
+                readFrame(in, maxMessageLength, receiver);
+            }
+        } catch (EOFException e) {
+            LOG.debug("Group bus peer {} disconnected", socket.getRemoteSocketAddress());
+        } catch (IOException e) {
+            if (!closed) LOG.warn("Group bus peer {} failed", socket.getRemoteSocketAddress(), e);
+        } finally {
+            inbound.remove(socket);
+            closeQuietly(socket);
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        if (socket == null) return;
+        try {
+            socket.close();
+        } catch (IOException e) {
+            LOG.debug("Failed to close group bus socket", e);
+        }
+    }
+
+    /**
+     * The connection to another node and the frames waiting to be written to it.
+     */
+    private final class Peer {
+        private final String host;
+        private final int port;
+        private final BlockingQueue<byte[]> queue;
+        private volatile Socket socket;
+
+        private Peer(String host, int port, int maxQueuedFrames) {
+            this.host = host;
+            this.port = port;
+            this.queue = new ArrayBlockingQueue<>(maxQueuedFrames);
+        }
+
+        /**
+         * Connect and write the queued frames until the bus is closed, reconnect after a failure.
+         */
+        private void write() {
+            while (!closed) {
+                try (Socket s = new Socket(host, port)) {
+                    socket = s;
+                    s.setTcpNoDelay(true);
+                    OutputStream out = new BufferedOutputStream(s.getOutputStream());
+                    out.write(hello(secret));
+                    out.flush();
+                    LOG.info("Connected to group bus peer {}:{}", host, port);
+                    while (!closed) {
+                        byte[] frame = queue.poll(RECONNECT_DELAY_MS, TimeUnit.MILLISECONDS);
+                        if (frame == null) continue;
+                        out.write(frame);
+                        // write what is queued already in one go
+                        while ((frame = queue.poll()) != null) {
+                            out.write(frame);
+                        }
+                        out.flush();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (IOException e) {
+                    if (closed) return;
+                    LOG.debug("Group bus peer {}:{} not reachable", host, port, e);
+                    try {
+                        Thread.sleep(RECONNECT_DELAY_MS);
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -2,6 +2,8 @@ package com.networknt.websocket.session;
 
 
 import com.networknt.websocket.client.WsAttributes;
+import com.networknt.websocket.client.WsBroadcast;
+import com.networknt.websocket.client.WsChannelGroups;
 import com.networknt.websocket.client.WsClient;
 import com.networknt.websocket.client.WsProxyClientPair;
 import io.undertow.server.HttpServerExchange;
@@ -9,6 +11,7 @@ import io.undertow.websockets.WebSocketConnectionCallback;
 import io.undertow.websockets.client.WebSocketClient;
 import io.undertow.websockets.core.AbstractReceiveListener;
 import io.undertow.websockets.core.BufferedTextMessage;
+import io.undertow.websockets.core.CloseMessage;
 import io.undertow.websockets.core.WebSocketChannel;
 import io.undertow.websockets.core.WebSockets;
 import io.undertow.websockets.spi.WebSocketHttpExchange;
@@ -20,37 +23,66 @@ import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Relays the text messages of a member to every member of its group, prefixed with the id of the
+ * sender. The members of a group can be spread over several nodes that share a {@link GroupBus}.
+ */
 public class WebSocketSessionHandler implements WebSocketConnectionCallback {
     private static final Logger LOG = LoggerFactory.getLogger(WebSocketSessionHandler.class);
+    // members of each channel group on this endpoint
+    private final WsChannelGroups groups = new WsChannelGroups();
+    private final GroupBus bus;
+
+    /**
+     * Groups on this node only.
+     */
+    public WebSocketSessionHandler() {
+        this(new LocalGroupBus());
+    }
+
+    /**
+     * @param bus the bus shared with the other nodes that serve the groups
+     */
+    public WebSocketSessionHandler(GroupBus bus) {
+        this.bus = bus;
+        bus.start(this::deliver);
+    }
+
     @Override
     public void onConnect(WebSocketHttpExchange exchange, WebSocketChannel inComingChannel) {
         LOG.trace("On connect received -- router-session");
         final var channelId = exchange.getRequestHeader(WsAttributes.CHANNEL_GROUP_ID);
         if (channelId != null) {
+            final var senderId = getUUID();
+            // "<senderId>: " encoded once for all messages of the channel
+            final var prefix = (senderId + ": ").getBytes(StandardCharsets.UTF_8);
             inComingChannel.setAttribute(WsAttributes.CHANNEL_GROUP_ID, channelId);
-            inComingChannel.setAttribute(WsAttributes.CHANNEL_USER_ID, getUUID());
+            inComingChannel.setAttribute(WsAttributes.CHANNEL_USER_ID, senderId);
+            groups.join(channelId, inComingChannel);
             inComingChannel.getReceiveSetter().set(new AbstractReceiveListener() {
                 @Override
                 protected void onFullTextMessage(final WebSocketChannel channel, final BufferedTextMessage message) throws IOException {
                     final var channelId = channel.getAttribute(WsAttributes.CHANNEL_GROUP_ID);
-                    final var senderId = channel.getAttribute(WsAttributes.CHANNEL_USER_ID);
-                    final var data = message.getData();
-
-                    if (channelId != null && (!channel.getPeerConnections().isEmpty())) {
+                    final var text = encode(prefix, message.getData());
 
-                        for (final var peer : channel.getPeerConnections()) {
-                            final var peerChannelId = peer.getAttribute(WsAttributes.CHANNEL_GROUP_ID);
-
-                            if (peerChannelId instanceof String && peerChannelId.equals(channelId))
-                                WebSockets.sendText(senderId + ": " + data, peer, null);
+                    if (channelId instanceof String groupId) {
 
+                        // encoded once for the whole group on every node
+                        try {
+                            bus.publish(groupId, text);
+                        } catch (IllegalArgumentException e) {
+                            LOG.warn("Closing a member that sent a message the group bus cannot carry: {}", e.getMessage());
+                            WebSockets.sendClose(CloseMessage.MSG_TOO_BIG, e.getMessage(), channel, null);
                         }
 
-                    } else WebSockets.sendText(senderId + ": " + data, channel, null);
+                    } else WebSockets.sendText(text, channel, null);
 
 
                 }
@@ -59,6 +91,22 @@ public class WebSocketSessionHandler implements WebSocketConnectionCallback {
         }
     }
 
+    /**
+     * Send a message of the bus to the members of the group on this node.
+     */
+    private void deliver(String groupId, ByteBuffer message) {
+        Set<WebSocketChannel> members = groups.members(groupId);
+        Iterator<WebSocketChannel> first = members.iterator();
+        if (first.hasNext()) {
+            WsBroadcast.sendText(message, members, first.next().getBufferPool(), null);
+        }
+    }
+
+    private static ByteBuffer encode(byte[] prefix, String data) {
+        byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(prefix.length + bytes.length).put(prefix).put(bytes).flip();
+    }
+
     public static String getUUID() {
         UUID id = UUID.randomUUID();
         ByteBuffer bb = ByteBuffer.wrap(new byte[16]);
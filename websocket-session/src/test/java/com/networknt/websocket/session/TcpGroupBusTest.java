@@ -0,0 +1,136 @@
+package com.networknt.websocket.session;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+class TcpGroupBusTest {
+    private static final int MAX_MESSAGE_LENGTH = 1024;
+    private static final byte[] SECRET = "s3cret".getBytes(StandardCharsets.UTF_8);
+
+    private record Delivered(String groupId, String message) {
+    }
+
+    private static List<Delivered> read(byte[] frames, int count) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(frames));
+        List<Delivered> delivered = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            TcpGroupBus.readFrame(in, MAX_MESSAGE_LENGTH, (groupId, message) -> {
+                Assertions.assertTrue(message.isReadOnly());
+                byte[] bytes = new byte[message.remaining()];
+                message.get(bytes);
+                delivered.add(new Delivered(groupId, new String(bytes, StandardCharsets.UTF_8)));
+            });
+        }
+        return delivered;
+    }
+
+    private static ByteBuffer text(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * A frame with the given lengths in its header and no more than the given group id.
+     */
+    private static byte[] header(int groupLength, String groupId, int messageLength) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeShort(groupLength);
+        out.write(groupId.getBytes(StandardCharsets.UTF_8));
+        out.writeInt(messageLength);
+        return bytes.toByteArray();
+    }
+
+    @Test
+    public void testFrameRoundTrip() throws IOException {
+        ByteBuffer message = text("hello, wörld");
+        byte[] first = TcpGroupBus.frame("group-ä", message, MAX_MESSAGE_LENGTH);
+        // the message is not consumed, it is framed once for all peers
+        Assertions.assertEquals("hello, wörld".getBytes(StandardCharsets.UTF_8).length, message.remaining());
+        byte[] second = TcpGroupBus.frame("", text(""), MAX_MESSAGE_LENGTH);
+
+        ByteBuffer frames = ByteBuffer.allocate(first.length + second.length).put(first).put(second);
+        List<Delivered> delivered = read(frames.array(), 2);
+        Assertions.assertEquals(List.of(new Delivered("group-ä", "hello, wörld"), new Delivered("", "")), delivered);
+    }
+
+    @Test
+    public void testLongestFrames() throws IOException {
+        String groupId = "g".repeat(TcpGroupBus.MAX_GROUP_LENGTH);
+        String message = "m".repeat(MAX_MESSAGE_LENGTH);
+        byte[] frame = TcpGroupBus.frame(groupId, text(message), MAX_MESSAGE_LENGTH);
+        Assertions.assertEquals(List.of(new Delivered(groupId, message)), read(frame, 1));
+    }
+
+    @Test
+    public void testGroupIdTooLong() {
+        // counted in UTF-8 bytes, not in chars
+        String groupId = "ä".repeat(TcpGroupBus.MAX_GROUP_LENGTH / 2 + 1);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> TcpGroupBus.frame(groupId, text("hello"), MAX_MESSAGE_LENGTH));
+        // longer than an unsigned short, it used to be truncated
+        Assertions.assertThrows(IllegalArgumentException.class, () -> TcpGroupBus.frame("g".repeat(65536), text("hello"), MAX_MESSAGE_LENGTH));
+    }
+
+    @Test
+    public void testMessageTooLong() {
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> TcpGroupBus.frame("group", text("m".repeat(MAX_MESSAGE_LENGTH + 1)), MAX_MESSAGE_LENGTH));
+    }
+
+    @Test
+    public void testReadRejectsGroupLength() throws IOException {
+        byte[] frame = header(TcpGroupBus.MAX_GROUP_LENGTH + 1, "", 0);
+        Assertions.assertThrows(IOException.class, () -> read(frame, 1));
+    }
+
+    @Test
+    public void testReadRejectsMessageLength() throws IOException {
+        byte[] negative = header(5, "group", -1);
+        Assertions.assertThrows(IOException.class, () -> read(negative, 1));
+        // a length a peer could use to exhaust the heap is rejected before the allocation
+        byte[] huge = header(5, "group", Integer.MAX_VALUE);
+        IOException e = Assertions.assertThrows(IOException.class, () -> read(huge, 1));
+        Assertions.assertFalse(e instanceof EOFException);
+    }
+
+    @Test
+    public void testReadTruncatedFrame() {
+        byte[] frame = TcpGroupBus.frame("group", text("hello"), MAX_MESSAGE_LENGTH);
+        byte[] truncated = new byte[frame.length - 1];
+        System.arraycopy(frame, 0, truncated, 0, truncated.length);
+        Assertions.assertThrows(EOFException.class, () -> read(truncated, 1));
+    }
+
+    @Test
+    public void testHello() throws IOException {
+        Assertions.assertTrue(TcpGroupBus.readHello(new DataInputStream(new ByteArrayInputStream(TcpGroupBus.hello(SECRET))), SECRET));
+        Assertions.assertTrue(TcpGroupBus.readHello(new DataInputStream(new ByteArrayInputStream(TcpGroupBus.hello(new byte[0]))), new byte[0]));
+
+        byte[] wrong = "wrong".getBytes(StandardCharsets.UTF_8);
+        Assertions.assertFalse(TcpGroupBus.readHello(new DataInputStream(new ByteArrayInputStream(TcpGroupBus.hello(wrong))), SECRET));
+        Assertions.assertFalse(TcpGroupBus.readHello(new DataInputStream(new ByteArrayInputStream(TcpGroupBus.hello(new byte[0]))), SECRET));
+        Assertions.assertFalse(TcpGroupBus.readHello(new DataInputStream(new ByteArrayInputStream(TcpGroupBus.hello(SECRET))), new byte[0]));
+    }
+
+    @Test
+    public void testHelloRejectsSecretLength() throws IOException {
+        byte[] hello = header(TcpGroupBus.MAX_SECRET_LENGTH + 1, "", 0);
+        Assertions.assertFalse(TcpGroupBus.readHello(new DataInputStream(new ByteArrayInputStream(hello)), SECRET));
+    }
+
+    @Test
+    public void testSecretTooLong() {
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> new TcpGroupBus(null, 0, List.of(), 1, MAX_MESSAGE_LENGTH, "s".repeat(TcpGroupBus.MAX_SECRET_LENGTH + 1)));
+    }
+}